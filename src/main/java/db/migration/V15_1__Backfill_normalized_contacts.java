@@ -0,0 +1,100 @@
+package db.migration;
+
+import gh.z0736190100.apparelstore.config.CustomerLookupProperties;
+import gh.z0736190100.apparelstore.services.ContactNormalizer;
+import lombok.extern.slf4j.Slf4j;
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fill in the normalized email and phone number of existing customers, then index the email.
+ * <p>
+ * Written in Java rather than SQL so that existing rows are normalized by the same {@link ContactNormalizer}
+ * as every later write, with the default country code the application is configured with
+ * (the {@code default-country-code} Flyway placeholder).
+ * <p>
+ * No customer loses its email: where customers already share one, they are reported and the email index
+ * is created non-unique, to be made unique by a later migration once they have been merged.
+ */
+@Slf4j
+public class V15_1__Backfill_normalized_contacts extends BaseJavaMigration {
+
+    static final String COUNTRY_CODE_PLACEHOLDER = "default-country-code";
+
+    private static final int BATCH_SIZE = 500;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        String defaultCountryCode = context.getConfiguration().getPlaceholders()
+                .getOrDefault(COUNTRY_CODE_PLACEHOLDER, "1");
+        if (!defaultCountryCode.matches("[1-9][0-9]{0,2}")) {
+            throw new IllegalStateException("Invalid default country code: " + defaultCountryCode);
+        }
+        // Only the country code matters to the normalizer; the cache settings are unused
+        ContactNormalizer contactNormalizer = new ContactNormalizer(
+                new CustomerLookupProperties(defaultCountryCode, 1, Duration.ZERO));
+
+        Connection connection = context.getConnection();
+        backfill(connection, contactNormalizer);
+        indexEmail(connection);
+    }
+
+    private static void backfill(Connection connection, ContactNormalizer contactNormalizer) throws Exception {
+        try (Statement select = connection.createStatement();
+             ResultSet customers = select.executeQuery("SELECT id, email, phone_number FROM customer");
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE customer SET email_normalized = ?, phone_normalized = ? WHERE id = ?")) {
+            int batched = 0;
+            while (customers.next()) {
+                update.setString(1, contactNormalizer.normalizeEmail(customers.getString("email")));
+                update.setString(2, contactNormalizer.normalizePhone(customers.getString("phone_number")));
+                update.setInt(3, customers.getInt("id"));
+                update.addBatch();
+                if (++batched == BATCH_SIZE) {
+                    update.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                update.executeBatch();
+            }
+        }
+    }
+
+    private static void indexEmail(Connection connection) throws Exception {
+        Map<String, List<Integer>> duplicates = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery("""
+                    SELECT c.email_normalized, c.id FROM customer c
+                    WHERE c.email_normalized IN (
+                        SELECT email_normalized FROM customer
+                        WHERE email_normalized IS NOT NULL
+                        GROUP BY email_normalized HAVING COUNT(*) > 1)
+                    ORDER BY c.email_normalized, c.id""")) {
+                while (resultSet.next()) {
+                    duplicates.computeIfAbsent(resultSet.getString(1), email -> new ArrayList<>())
+                            .add(resultSet.getInt(2));
+                }
+            }
+
+            if (duplicates.isEmpty()) {
+                // Lookups by email are an index seek, and no two customers share an email
+                statement.execute("CREATE UNIQUE INDEX ux_customer_email_normalized ON customer (email_normalized)");
+                return;
+            }
+            duplicates.forEach((email, ids) ->
+                    log.warn("Customers {} share the email {}; merge them to make the email index unique", ids, email));
+            statement.execute("CREATE INDEX idx_customer_email_normalized ON customer (email_normalized)");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Create one sequence per entity table for pooled ID allocation, starting above the existing IDs.
+ * <p>
+ * Written in Java rather than SQL because the start value depends on the data already in each table.
+ * The increment must match the JPA allocation size (50): Hibernate's pooled optimizer treats each value
+ * read from the sequence as the top of a block of 50 IDs, so the first value is placed 50 above the
+ * current maximum ID.
+ */
+public class V6__Use_pooled_sequence_ids extends BaseJavaMigration {
+
+    static final int ALLOCATION_SIZE = 50;
+
+    private static final List<String> TABLES = List.of(
+            "apparel", "apparel_order", "apparel_order_line", "apparel_order_shipment", "customer");
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            for (String table : TABLES) {
+                long start;
+                String maxIdQuery = "SELECT COALESCE(MAX(id), 0) + " + ALLOCATION_SIZE + " FROM " + table;
+                try (ResultSet resultSet = statement.executeQuery(maxIdQuery)) {
+                    resultSet.next();
+                    start = resultSet.getLong(1);
+                }
+                statement.execute("CREATE SEQUENCE " + table + "_seq START WITH " + start
+                        + " INCREMENT BY " + ALLOCATION_SIZE);
+            }
+        }
+    }
+}
@@ -2,8 +2,10 @@ package gh.z0736190100.apparelstore;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class ApparelStoreApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,21 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the apparel DTO cache
+ * @param maximumSize the maximum number of cached apparels; beyond it entries are evicted by W-TinyLFU
+ * @param expireAfterWrite upper bound on how long an entry is served without being refreshed
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.cache.apparel")
+public record ApparelCacheProperties(
+        @Positive @DefaultValue("10000") long maximumSize,
+        @NotNull @DefaultValue("10m") Duration expireAfterWrite) {
+}
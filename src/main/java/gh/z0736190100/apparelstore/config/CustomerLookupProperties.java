@@ -0,0 +1,24 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for looking customers up by email or phone number
+ * @param defaultCountryCode the calling code assumed for phone numbers written without one, e.g. 1
+ * @param cacheMaximumSize the maximum number of cached lookups
+ * @param cacheExpireAfterWrite upper bound on how long a cached lookup is served without going to the database
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.customer-lookup")
+public record CustomerLookupProperties(
+        @NotNull @Pattern(regexp = "[1-9][0-9]{0,2}") @DefaultValue("1") String defaultCountryCode,
+        @Positive @DefaultValue("10000") long cacheMaximumSize,
+        @NotNull @DefaultValue("1m") Duration cacheExpireAfterWrite) {
+}
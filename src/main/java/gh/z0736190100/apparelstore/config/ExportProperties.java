@@ -0,0 +1,15 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Configuration properties for streaming catalog and order exports
+ * @param chunkSize the number of rows written between persistence context clears
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.export")
+public record ExportProperties(@Positive @DefaultValue("1000") int chunkSize) {
+}
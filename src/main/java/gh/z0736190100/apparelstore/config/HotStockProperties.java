@@ -0,0 +1,25 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Configuration properties for hot SKU mode, in which the stock of flash-sale apparels is taken from
+ * striped in-memory counters and written back to the database in batches
+ * @param apparelIds the IDs of the apparels kept in memory; empty disables hot SKU mode
+ * @param stripes the number of counters the stock of each hot apparel is split across
+ * @param flushInterval how often taken stock is written back to the apparel rows
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.inventory.hot-stock")
+public record HotStockProperties(
+        @NotNull @DefaultValue Set<Integer> apparelIds,
+        @Positive @DefaultValue("8") int stripes,
+        @NotNull @DefaultValue("1s") Duration flushInterval) {
+}
@@ -0,0 +1,27 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for Idempotency-Key handling
+ * @param retention how long a key and its response are kept, in the table and in memory
+ * @param cacheMaximumSize the maximum number of responses kept in memory
+ * @param lockTimeout how long a duplicate request waits for the first one to finish before giving up with 409
+ * @param purgeInterval how often expired keys are purged
+ * @param purgeBatchSize the number of expired keys deleted per statement
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.idempotency")
+public record IdempotencyProperties(
+        @NotNull @DefaultValue("24h") Duration retention,
+        @Positive @DefaultValue("10000") long cacheMaximumSize,
+        @NotNull @DefaultValue("30s") Duration lockTimeout,
+        @NotNull @DefaultValue("10m") Duration purgeInterval,
+        @Positive @DefaultValue("1000") int purgeBatchSize) {
+}
@@ -0,0 +1,15 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Configuration properties for bulk catalog imports
+ * @param chunkSize the number of rows upserted per transaction
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.import")
+public record ImportProperties(@Positive @DefaultValue("500") int chunkSize) {
+}
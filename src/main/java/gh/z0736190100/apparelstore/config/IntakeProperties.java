@@ -0,0 +1,27 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for asynchronous order intake
+ * @param enabled whether POST /api/v1/apparel-orders honours Prefer: respond-async
+ * @param queueCapacity the number of accepted orders that may wait to be saved before new ones are turned away with 429
+ * @param workers the number of virtual-thread workers saving queued orders
+ * @param batchSize the maximum number of orders saved per transaction
+ * @param pollTimeout how long an idle worker waits for an order before checking whether it should stop
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.intake")
+public record IntakeProperties(
+        @DefaultValue("false") boolean enabled,
+        @Positive @DefaultValue("10000") int queueCapacity,
+        @Positive @DefaultValue("4") int workers,
+        @Positive @DefaultValue("100") int batchSize,
+        @NotNull @DefaultValue("1s") Duration pollTimeout) {
+}
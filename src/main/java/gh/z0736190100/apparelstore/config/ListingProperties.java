@@ -0,0 +1,21 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for collection listings
+ * @param countCacheTtl how long a cached total count is served before it is recomputed
+ * @param countCacheMaxEntries the maximum number of distinct filter combinations with a cached count
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.listing")
+public record ListingProperties(
+        @NotNull @DefaultValue("30s") Duration countCacheTtl,
+        @Positive @DefaultValue("1000") int countCacheMaxEntries) {
+}
@@ -0,0 +1,23 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the server-sent event streams of apparel order changes
+ * @param bufferSize the number of events buffered per subscriber; a subscriber that falls further behind is dropped
+ * @param heartbeatInterval how often an idle stream is sent a comment, so proxies keep it open
+ * @param timeout how long a stream stays open before the client has to reconnect
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.order-events")
+public record OrderEventsProperties(
+        @Positive @DefaultValue("256") int bufferSize,
+        @NotNull @DefaultValue("15s") Duration heartbeatInterval,
+        @NotNull @DefaultValue("30m") Duration timeout) {
+}
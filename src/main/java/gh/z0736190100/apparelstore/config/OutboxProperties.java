@@ -0,0 +1,30 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Configuration properties for the transactional outbox of order and inventory events
+ * @param enabled whether writes record events and the relay delivers them
+ * @param batchSize the maximum number of events delivered to the sinks at a time
+ * @param pollInterval how long the relay waits for a commit to wake it before looking for events anyway
+ * @param retention how long delivered events are kept before they are purged
+ * @param purgeInterval how often delivered events are purged
+ * @param file the NDJSON file events are appended to; none disables the file sink
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.outbox")
+public record OutboxProperties(
+        @DefaultValue("true") boolean enabled,
+        @Positive @DefaultValue("500") int batchSize,
+        @NotNull @DefaultValue("1s") Duration pollInterval,
+        @NotNull @DefaultValue("24h") Duration retention,
+        @NotNull @DefaultValue("10m") Duration purgeInterval,
+        Path file) {
+}
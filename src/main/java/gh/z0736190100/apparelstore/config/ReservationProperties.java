@@ -0,0 +1,23 @@
+package gh.z0736190100.apparelstore.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the stock held for unpaid orders
+ * @param ttl how long stock is held before it is released back to the apparel
+ * @param tick the resolution of the expiry timer wheel, and how often it is advanced
+ * @param releaseBatchSize the number of expired holds released per transaction
+ */
+@Validated
+@ConfigurationProperties(prefix = "apparelstore.inventory.reservation")
+public record ReservationProperties(
+        @NotNull @DefaultValue("15m") Duration ttl,
+        @NotNull @DefaultValue("1s") Duration tick,
+        @Positive @DefaultValue("500") int releaseBatchSize) {
+}
@@ -0,0 +1,12 @@
+package gh.z0736190100.apparelstore.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Configuration properties for catalog search
+ * @param indexEnabled whether apparel name/style searches are served from the in-memory trigram index
+ */
+@ConfigurationProperties(prefix = "apparelstore.search")
+public record SearchProperties(@DefaultValue("true") boolean indexEnabled) {
+}
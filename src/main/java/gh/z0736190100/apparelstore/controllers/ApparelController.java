@@ -1,29 +1,50 @@
 package gh.z0736190100.apparelstore.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import gh.z0736190100.apparelstore.models.ApparelDto;
 import gh.z0736190100.apparelstore.models.ApparelPatchDto;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
+import gh.z0736190100.apparelstore.models.SliceDto;
+import gh.z0736190100.apparelstore.services.ApparelImportFormat;
+import gh.z0736190100.apparelstore.services.ApparelImportService;
 import gh.z0736190100.apparelstore.services.ApparelService;
+import gh.z0736190100.apparelstore.services.CatalogVersion;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.InputStream;
 import java.util.Optional;
 
 /**
  * REST Controller for Apparel operations
  */
+@Validated
 @RestController
 @RequestMapping("/api/v1/apparels")
 public class ApparelController {
 
     private final ApparelService apparelService;
+    private final ApparelImportService apparelImportService;
+    private final ObjectMapper objectMapper;
+    private final CatalogVersion catalogVersion;
 
-    public ApparelController(ApparelService apparelService) {
+    public ApparelController(ApparelService apparelService, ApparelImportService apparelImportService,
+                             ObjectMapper objectMapper, CatalogVersion catalogVersion) {
         this.apparelService = apparelService;
+        this.apparelImportService = apparelImportService;
+        this.objectMapper = objectMapper;
+        this.catalogVersion = catalogVersion;
     }
 
     /**
@@ -32,28 +53,109 @@ public class ApparelController {
      * @param apparelStyle the apparel style to filter by (optional)
      * @param page the page number (zero-based, defaults to 0)
      * @param size the page size (defaults to 20)
-     * @return Page of apparels matching the criteria
+     * @param ifNoneMatch the ETag of a previously fetched page (optional)
+     * @return Page of apparels matching the criteria, or 304 Not Modified if nothing has been written since
      */
     @GetMapping
-    public Page<ApparelDto> getAllApparels(@RequestParam(required = false) String apparelName,
+    public ResponseEntity<Page<ApparelDto>> getAllApparels(@RequestParam(required = false) String apparelName,
                                      @RequestParam(required = false) String apparelStyle,
                                      @RequestParam(defaultValue = "0") int page,
-                                     @RequestParam(defaultValue = "20") int size) {
+                                     @RequestParam(defaultValue = "20") int size,
+                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = ETags.ofCollection("apparels", catalogVersion.current());
+        if (ETags.matches(ifNoneMatch, eTag)) {
+            return ETags.notModified(eTag);
+        }
+
+        Pageable pageable = PageRequest.of(page, size);
+        return ResponseEntity.ok().eTag(eTag).body(apparelService.getAllApparels(apparelName, apparelStyle, pageable));
+    }
+
+    /**
+     * Get a slice of apparels without a count query, selected with pagination=slice
+     * @param apparelName the apparel name to filter by (optional)
+     * @param apparelStyle the apparel style to filter by (optional)
+     * @param page the page number, zero-based (defaults to 0)
+     * @param size the page size, from 1 to {@link CursorPageDto#MAX_SIZE} (defaults to 20)
+     * @param count whether to include a cached total count (defaults to false)
+     * @param ifNoneMatch the ETag of a previously fetched slice (optional)
+     * @return SliceDto of apparels matching the criteria, or 304 Not Modified if nothing has been written since
+     */
+    @GetMapping(params = "pagination=slice")
+    public ResponseEntity<SliceDto<ApparelDto>> getApparelSlice(@RequestParam(required = false) String apparelName,
+                                                @RequestParam(required = false) String apparelStyle,
+                                                @RequestParam(defaultValue = "0") @Min(0) int page,
+                                                @RequestParam(defaultValue = "20") @Min(1) @Max(CursorPageDto.MAX_SIZE) int size,
+                                                @RequestParam(defaultValue = "false") boolean count,
+                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = ETags.ofCollection("apparels", catalogVersion.current());
+        if (ETags.matches(ifNoneMatch, eTag)) {
+            return ETags.notModified(eTag);
+        }
+
         Pageable pageable = PageRequest.of(page, size);
-        return apparelService.getAllApparels(apparelName, apparelStyle, pageable);
+        return ResponseEntity.ok().eTag(eTag).body(apparelService.getApparelSlice(apparelName, apparelStyle, pageable, count));
+    }
+
+    /**
+     * Get apparels using keyset (cursor) pagination, selected with pagination=cursor.
+     * Apparels are ordered by apparel name and ID; every page costs the same regardless of depth.
+     * @param apparelName the apparel name to filter by (optional)
+     * @param apparelStyle the apparel style to filter by (optional)
+     * @param after the nextCursor of the previous page (optional, omit for the first page)
+     * @param size the page size, from 1 to {@link CursorPageDto#MAX_SIZE} (defaults to 20)
+     * @param ifNoneMatch the ETag of a previously fetched page (optional)
+     * @return CursorPageDto of apparels matching the criteria, or 304 Not Modified if nothing has been written since
+     */
+    @GetMapping(params = "pagination=cursor")
+    public ResponseEntity<CursorPageDto<ApparelDto>> getApparelsByCursor(@RequestParam(required = false) String apparelName,
+                                                         @RequestParam(required = false) String apparelStyle,
+                                                         @RequestParam(required = false) String after,
+                                                         @RequestParam(defaultValue = "20") @Min(1) @Max(CursorPageDto.MAX_SIZE) int size,
+                                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = ETags.ofCollection("apparels", catalogVersion.current());
+        if (ETags.matches(ifNoneMatch, eTag)) {
+            return ETags.notModified(eTag);
+        }
+
+        return ResponseEntity.ok().eTag(eTag).body(apparelService.getApparelsAfter(apparelName, apparelStyle, after, size));
+    }
+
+    /**
+     * Export the whole catalog as newline-delimited JSON, streamed as it is read from the database
+     * @return a stream of ApparelDto, one JSON object per line, in ID order
+     */
+    @GetMapping(path = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportApparels() {
+        StreamingResponseBody apparels = output ->
+                apparelService.exportApparels(NdjsonWriter.to(output, objectMapper));
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(apparels);
     }
 
     /**
      * Get a apparel by its ID
      * @param id the apparel ID
-     * @return ResponseEntity with the apparel if found, or 404 Not Found
+     * @param ifNoneMatch the ETag of a previously fetched representation (optional)
+     * @return ResponseEntity with the apparel if found, 304 Not Modified if unchanged, or 404 Not Found
      */
     @GetMapping("/{id}")
-    public ResponseEntity<ApparelDto> getApparelById(@PathVariable Integer id) {
+    public ResponseEntity<ApparelDto> getApparelById(@PathVariable Integer id, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // A revalidation is answered from the version alone, without loading and mapping the apparel
+        if (ifNoneMatch != null) {
+            Optional<String> eTag = apparelService.getApparelVersion(id)
+                    .map(version -> ETags.of("apparel", id, version));
+            if (eTag.isPresent() && ETags.matches(ifNoneMatch, eTag.get())) {
+                return ETags.notModified(eTag.get());
+            }
+        }
+
         Optional<ApparelDto> apparelOptional = apparelService.getApparelById(id);
 
         return apparelOptional
-                .map(ResponseEntity::ok)
+                .map(apparel -> ResponseEntity.ok().eTag(ETags.of("apparel", id, apparel.getVersion())).body(apparel))
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -70,40 +172,58 @@ public class ApparelController {
         return apparelService.saveApparel(apparelDto);
     }
 
+    /**
+     * Bulk import apparels from an NDJSON or CSV body, upserting by UPC.
+     * The body is parsed as it streams in, and a result line is streamed back for every input row.
+     * @param contentType the request content type, application/x-ndjson or text/csv
+     * @param body the request body
+     * @return a stream of ApparelImportResultDto, one JSON object per line
+     */
+    @PostMapping(path = "/import",
+            consumes = {ApparelImportFormat.NDJSON_VALUE, ApparelImportFormat.CSV_VALUE},
+            produces = ApparelImportFormat.NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> importApparels(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                                InputStream body) {
+        ApparelImportFormat format = ApparelImportFormat.of(MediaType.parseMediaType(contentType));
+
+        StreamingResponseBody results = output ->
+                apparelImportService.importApparels(body, format, NdjsonWriter.to(output, objectMapper));
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(ApparelImportFormat.NDJSON_VALUE))
+                .body(results);
+    }
+
     /**
      * Update an existing apparel
      * @param id the apparel ID
      * @param apparelDto the updated apparel data
-     * @return ResponseEntity with the updated apparel if found, or 404 Not Found
+     * @param ifMatch the ETag the update is conditional on (optional)
+     * @return ResponseEntity with the updated apparel if found, 404 Not Found, or 412 Precondition Failed
      */
     @PutMapping("/{id}")
-    public ResponseEntity<ApparelDto> updateApparel(@PathVariable Integer id, @Valid @RequestBody ApparelDto apparelDto) {
-        Optional<ApparelDto> apparelOptional = apparelService.getApparelById(id);
+    public ResponseEntity<ApparelDto> updateApparel(@PathVariable Integer id, @Valid @RequestBody ApparelDto apparelDto,
+                                                    @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Integer expectedVersion = ETags.expectedVersionNumber(ifMatch, "apparel", id);
 
-        if (apparelOptional.isEmpty()) {
-            return ResponseEntity.notFound().build();
-        }
-
-        // Ensure we're updating the correct apparel
-        apparelDto.setId(id);
-        ApparelDto updatedApparel = apparelService.saveApparel(apparelDto);
-        return ResponseEntity.ok(updatedApparel);
+        return apparelService.updateApparel(id, apparelDto, expectedVersion)
+                .map(apparel -> ResponseEntity.ok().eTag(ETags.of("apparel", id, apparel.getVersion())).body(apparel))
+                .orElse(ResponseEntity.notFound().build());
     }
 
     /**
      * Delete a apparel by its ID
      * @param id the apparel ID
-     * @return ResponseEntity with no content if successful, or 404 Not Found
+     * @param ifMatch the ETag the delete is conditional on (optional)
+     * @return ResponseEntity with no content if successful, 404 Not Found, or 412 Precondition Failed
      */
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteApparel(@PathVariable Integer id) {
-        Optional<ApparelDto> apparelOptional = apparelService.getApparelById(id);
+    public ResponseEntity<Void> deleteApparel(@PathVariable Integer id, @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Integer expectedVersion = ETags.expectedVersionNumber(ifMatch, "apparel", id);
 
-        if (apparelOptional.isEmpty()) {
+        if (!apparelService.deleteApparelById(id, expectedVersion)) {
             return ResponseEntity.notFound().build();
         }
-
-        apparelService.deleteApparelById(id);
         return ResponseEntity.noContent().build();
     }
 
@@ -111,14 +231,16 @@ public class ApparelController {
      * Partially update an existing apparel
      * @param id the apparel ID
      * @param apparelPatchDto the partial apparel data to update
-     * @return ResponseEntity with the updated apparel if found, or 404 Not Found
+     * @param ifMatch the ETag the update is conditional on (optional)
+     * @return ResponseEntity with the updated apparel if found, 404 Not Found, or 412 Precondition Failed
      */
     @PatchMapping("/{id}")
-    public ResponseEntity<ApparelDto> patchApparel(@PathVariable Integer id, @RequestBody ApparelPatchDto apparelPatchDto) {
-        Optional<ApparelDto> updatedApparelOptional = apparelService.patchApparel(id, apparelPatchDto);
+    public ResponseEntity<ApparelDto> patchApparel(@PathVariable Integer id, @RequestBody ApparelPatchDto apparelPatchDto,
+                                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Integer expectedVersion = ETags.expectedVersionNumber(ifMatch, "apparel", id);
 
-        return updatedApparelOptional
-                .map(ResponseEntity::ok)
+        return apparelService.patchApparel(id, apparelPatchDto, expectedVersion)
+                .map(apparel -> ResponseEntity.ok().eTag(ETags.of("apparel", id, apparel.getVersion())).body(apparel))
                 .orElse(ResponseEntity.notFound().build());
     }
 }
@@ -1,98 +1,389 @@
 package gh.z0736190100.apparelstore.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
+import gh.z0736190100.apparelstore.models.ApparelOrderDetailDto;
 import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
+import gh.z0736190100.apparelstore.models.OrderIntakeDto;
+import gh.z0736190100.apparelstore.models.SliceDto;
+import gh.z0736190100.apparelstore.services.ApparelOrderEventBroadcaster;
 import gh.z0736190100.apparelstore.services.ApparelOrderService;
+import gh.z0736190100.apparelstore.services.CatalogVersion;
+import gh.z0736190100.apparelstore.services.IdempotencyKeyService;
+import gh.z0736190100.apparelstore.services.InventoryAllocationService;
+import gh.z0736190100.apparelstore.services.OrderIntakeService;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.net.URI;
 import java.util.List;
 import java.util.Optional;
 
 /**
  * REST Controller for ApparelOrder operations
  */
+@Validated
 @RestController
 @RequestMapping("/api/v1/apparel-orders")
 public class ApparelOrderController {
 
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    static final String PREFER = "Prefer";
+    static final String RESPOND_ASYNC = "respond-async";
+    static final String RESPOND_SYNC = "respond-sync";
+    static final String EXPAND_CUSTOMER = "customer";
+
     private final ApparelOrderService apparelOrderService;
+    private final InventoryAllocationService inventoryAllocationService;
+    private final ObjectMapper objectMapper;
+    private final CatalogVersion catalogVersion;
+    private final IdempotencyKeyService idempotencyKeyService;
+    private final OrderIntakeService orderIntakeService;
+    private final ApparelOrderEventBroadcaster apparelOrderEventBroadcaster;
 
-    public ApparelOrderController(ApparelOrderService apparelOrderService) {
+    public ApparelOrderController(ApparelOrderService apparelOrderService,
+                                  InventoryAllocationService inventoryAllocationService,
+                                  ObjectMapper objectMapper, CatalogVersion catalogVersion,
+                                  IdempotencyKeyService idempotencyKeyService,
+                                  OrderIntakeService orderIntakeService,
+                                  ApparelOrderEventBroadcaster apparelOrderEventBroadcaster) {
         this.apparelOrderService = apparelOrderService;
+        this.inventoryAllocationService = inventoryAllocationService;
+        this.objectMapper = objectMapper;
+        this.catalogVersion = catalogVersion;
+        this.idempotencyKeyService = idempotencyKeyService;
+        this.orderIntakeService = orderIntakeService;
+        this.apparelOrderEventBroadcaster = apparelOrderEventBroadcaster;
     }
 
     /**
-     * Get all apparel orders
-     * @return List of all apparel orders
+     * Get all apparel orders. The result is unbounded; prefer pagination=cursor for large order books.
+     * @param expand the associations to embed in full, e.g. customer (optional; by default only the customer's ID and name)
+     * @param ifNoneMatch the ETag of a previously fetched list (optional)
+     * @return List of all apparel orders, or 304 Not Modified if nothing has been written since
      */
     @GetMapping
-    public List<ApparelOrderDto> getAllApparelOrders() {
-        return apparelOrderService.getAllApparelOrders();
+    public ResponseEntity<List<ApparelOrderDto>> getAllApparelOrders(@RequestParam(required = false) String expand,
+                                                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = ETags.ofCollection("apparel-orders", catalogVersion.current());
+        if (ETags.matches(ifNoneMatch, eTag)) {
+            return ETags.notModified(eTag);
+        }
+
+        return ResponseEntity.ok().eTag(eTag).body(apparelOrderService.getAllApparelOrders(expandsCustomer(expand)));
+    }
+
+    /**
+     * Get a slice of apparel orders without a count query, selected with pagination=slice
+     * @param page the page number, zero-based (defaults to 0)
+     * @param size the page size, from 1 to {@link CursorPageDto#MAX_SIZE} (defaults to 20)
+     * @param count whether to include a cached total count (defaults to false)
+     * @param expand the associations to embed in full, e.g. customer (optional)
+     * @param ifNoneMatch the ETag of a previously fetched slice (optional)
+     * @return SliceDto of apparel orders, or 304 Not Modified if nothing has been written since
+     */
+    @GetMapping(params = "pagination=slice")
+    public ResponseEntity<SliceDto<ApparelOrderDto>> getApparelOrderSlice(@RequestParam(defaultValue = "0") @Min(0) int page,
+                                                          @RequestParam(defaultValue = "20") @Min(1) @Max(CursorPageDto.MAX_SIZE) int size,
+                                                          @RequestParam(defaultValue = "false") boolean count,
+                                                          @RequestParam(required = false) String expand,
+                                                          @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = ETags.ofCollection("apparel-orders", catalogVersion.current());
+        if (ETags.matches(ifNoneMatch, eTag)) {
+            return ETags.notModified(eTag);
+        }
+
+        return ResponseEntity.ok().eTag(eTag).body(apparelOrderService.getApparelOrderSlice(PageRequest.of(page, size), count,
+                expandsCustomer(expand)));
+    }
+
+    /**
+     * Get apparel orders using keyset (cursor) pagination, selected with pagination=cursor.
+     * Apparel orders are ordered newest first; every page costs a fixed number of queries regardless of depth.
+     * @param status the status to filter by (optional)
+     * @param customerId the customer ID to filter by (optional)
+     * @param after the nextCursor of the previous page (optional, omit for the first page)
+     * @param size the page size, from 1 to {@link CursorPageDto#MAX_SIZE} (defaults to 20)
+     * @param expand the associations to embed in full, e.g. customer (optional)
+     * @param ifNoneMatch the ETag of a previously fetched page (optional)
+     * @return CursorPageDto of apparel orders matching the criteria, or 304 Not Modified if nothing has been written since
+     */
+    @GetMapping(params = "pagination=cursor")
+    public ResponseEntity<CursorPageDto<ApparelOrderDto>> getApparelOrdersByCursor(@RequestParam(required = false) ApparelOrderStatus status,
+                                                                   @RequestParam(required = false) Integer customerId,
+                                                                   @RequestParam(required = false) String after,
+                                                                   @RequestParam(defaultValue = "20") @Min(1) @Max(CursorPageDto.MAX_SIZE) int size,
+                                                                   @RequestParam(required = false) String expand,
+                                                                   @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = ETags.ofCollection("apparel-orders", catalogVersion.current());
+        if (ETags.matches(ifNoneMatch, eTag)) {
+            return ETags.notModified(eTag);
+        }
+
+        return ResponseEntity.ok().eTag(eTag).body(apparelOrderService.getApparelOrdersAfter(status, customerId, after, size,
+                expandsCustomer(expand)));
+    }
+
+    /**
+     * Export the whole order history as newline-delimited JSON, streamed as it is read from the database
+     * @return a stream of ApparelOrderDto, one JSON object per line, in ID order
+     */
+    @GetMapping(path = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportApparelOrders() {
+        StreamingResponseBody apparelOrders = output ->
+                apparelOrderService.exportApparelOrders(NdjsonWriter.to(output, objectMapper));
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(apparelOrders);
+    }
+
+    /**
+     * Stream the changes to every apparel order as server-sent events, for admin views.
+     * Each event is named after its type, e.g. ApparelOrderStatusChanged, and carries the outbox event.
+     * The stream is closed if the client falls too far behind; it should then reconnect and reload.
+     * @return the event stream
+     */
+    @GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamApparelOrderEvents() {
+        return OrderEventStream.open(apparelOrderEventBroadcaster.streamTimeout(),
+                apparelOrderEventBroadcaster::subscribeToAll);
+    }
+
+    /**
+     * Stream the changes to an apparel order, including its status and shipments, as server-sent events,
+     * instead of polling it. The stream is closed if the client falls too far behind; it should then
+     * reconnect and reload the order.
+     * @param id the apparel order ID
+     * @return ResponseEntity with the event stream, or 404 Not Found
+     */
+    @GetMapping(path = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamApparelOrderEventsById(@PathVariable Integer id) {
+        if (apparelOrderService.getApparelOrderVersion(id).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        return ResponseEntity.ok(OrderEventStream.open(apparelOrderEventBroadcaster.streamTimeout(),
+                sink -> apparelOrderEventBroadcaster.subscribe(id, sink)));
     }
 
     /**
      * Get a apparel order by its ID
      * @param id the apparel order ID
-     * @return ResponseEntity with the apparel order if found, or 404 Not Found
+     * @param expand the associations to embed in full, e.g. customer (optional; by default only the customer's ID and name)
+     * @param ifNoneMatch the ETag of a previously fetched representation (optional)
+     * @return ResponseEntity with the apparel order if found, 304 Not Modified if unchanged, or 404 Not Found
      */
     @GetMapping("/{id}")
-    public ResponseEntity<ApparelOrderDto> getApparelOrderById(@PathVariable Integer id) {
-        Optional<ApparelOrderDto> apparelOrderOptional = apparelOrderService.getApparelOrderById(id);
+    public ResponseEntity<ApparelOrderDto> getApparelOrderById(@PathVariable Integer id,
+                                                               @RequestParam(required = false) String expand,
+                                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // The response embeds the customer, line apparels and shipments, so the tag covers their versions too.
+        // It is probed before the load, so a concurrent write can only leave the tag behind the body.
+        Optional<String> eTag = apparelOrderService.getApparelOrderVersion(id)
+                .map(version -> ETags.of("apparel-order", id, version));
+        if (eTag.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (ETags.matches(ifNoneMatch, eTag.get())) {
+            return ETags.notModified(eTag.get());
+        }
+
+        Optional<ApparelOrderDto> apparelOrderOptional = apparelOrderService.getApparelOrderById(id, expandsCustomer(expand));
 
         return apparelOrderOptional
-                .map(ResponseEntity::ok)
+                .map(apparelOrder -> ResponseEntity.ok().eTag(eTag.get()).body(apparelOrder))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Get everything an order page renders in one response: the apparel order, its customer, its lines
+     * with their apparel, and its shipments, flattened and loaded with at most two queries
+     * @param id the apparel order ID
+     * @param ifNoneMatch the ETag of a previously fetched detail (optional)
+     * @return ResponseEntity with the apparel order detail if found, 304 Not Modified if unchanged, or 404 Not Found
+     */
+    @GetMapping("/{id}/detail")
+    public ResponseEntity<ApparelOrderDetailDto> getApparelOrderDetailById(@PathVariable Integer id,
+                                                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // The detail covers the same associations as the order representation, so the same versions identify it
+        Optional<String> eTag = apparelOrderService.getApparelOrderVersion(id)
+                .map(version -> ETags.of("apparel-order-detail", id, version));
+        if (eTag.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (ETags.matches(ifNoneMatch, eTag.get())) {
+            return ETags.notModified(eTag.get());
+        }
+
+        return apparelOrderService.getApparelOrderDetailById(id)
+                .map(detail -> ResponseEntity.ok().eTag(eTag.get()).body(detail))
                 .orElse(ResponseEntity.notFound().build());
     }
 
     /**
-     * Create a new apparel order
+     * Create a new apparel order. With an Idempotency-Key, retries of the same request get the first
+     * response back, marked with Idempotent-Replayed, instead of creating another order.
+     * With Prefer: respond-async, and asynchronous intake enabled, the order is only journaled and queued;
+     * the response is 202 Accepted with the intake status, which is also available at its Location.
      * @param apparelOrderDto the apparel order to create
-     * @return ResponseEntity with the created apparel order and 201 Created status
+     * @param idempotencyKey the client's key for this request (optional)
+     * @param prefer the client's preferences, e.g. respond-async (optional)
+     * @return ResponseEntity with the created apparel order and 201 Created status, 202 Accepted with the intake status,
+     * 409 Conflict if the first request with the key is still running, 422 Unprocessable Entity if the key was used
+     * for a different request, or 429 Too Many Requests if the intake queue is full
      */
     @PostMapping
-    @ResponseStatus(HttpStatus.CREATED)
-    public ApparelOrderDto createApparelOrder(@Valid @RequestBody ApparelOrderDto apparelOrderDto) {
+    public ResponseEntity<?> createApparelOrder(@Valid @RequestBody ApparelOrderDto apparelOrderDto,
+                                                @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                                @RequestHeader(value = PREFER, required = false) String prefer) {
         // Ensure a new apparel order is created, not an update
         apparelOrderDto.setId(null);
-        return apparelOrderService.saveApparelOrder(apparelOrderDto);
+        if (orderIntakeService.isEnabled() && prefersAsync(prefer)) {
+            return acceptApparelOrder(apparelOrderDto, idempotencyKey);
+        }
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return ResponseEntity.status(HttpStatus.CREATED).body(apparelOrderService.saveApparelOrder(apparelOrderDto));
+        }
+
+        IdempotencyKeyService.IdempotentResponse<ApparelOrderDto> response = idempotencyKeyService.execute(
+                idempotencyKey, new IdempotentCreate(RESPOND_SYNC, apparelOrderDto), ApparelOrderDto.class,
+                () -> apparelOrderService.saveApparelOrder(apparelOrderDto));
+        ResponseEntity.BodyBuilder created = ResponseEntity.status(HttpStatus.CREATED);
+        if (response.replayed()) {
+            created.header(IDEMPOTENT_REPLAYED, "true");
+        }
+        return created.body(response.body());
+    }
+
+    /**
+     * What an idempotent create is matched on: the order, and whether it was created straight away or
+     * accepted for asynchronous intake, so reusing a key across the two is rejected as a different request
+     * @param respond {@value #RESPOND_SYNC} or {@value #RESPOND_ASYNC}
+     * @param apparelOrder the apparel order to create
+     */
+    record IdempotentCreate(String respond, ApparelOrderDto apparelOrder) {
+    }
+
+    private ResponseEntity<OrderIntakeDto> acceptApparelOrder(ApparelOrderDto apparelOrderDto, String idempotencyKey) {
+        OrderIntakeDto orderIntake;
+        boolean replayed = false;
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            orderIntake = orderIntakeService.acceptApparelOrder(apparelOrderDto);
+        } else {
+            IdempotencyKeyService.IdempotentResponse<OrderIntakeDto> response = idempotencyKeyService.execute(
+                    idempotencyKey, new IdempotentCreate(RESPOND_ASYNC, apparelOrderDto), OrderIntakeDto.class,
+                    () -> orderIntakeService.acceptApparelOrder(apparelOrderDto));
+            orderIntake = response.body();
+            replayed = response.replayed();
+        }
+
+        ResponseEntity.BodyBuilder accepted = ResponseEntity.accepted()
+                .location(URI.create("/api/v1/apparel-orders/intake/" + orderIntake.getId()))
+                .header("Preference-Applied", RESPOND_ASYNC);
+        if (replayed) {
+            accepted.header(IDEMPOTENT_REPLAYED, "true");
+        }
+        return accepted.body(orderIntake);
+    }
+
+    /**
+     * @param expand the comma-separated expand parameter, or null
+     * @return whether it asks for the full customer
+     */
+    private static boolean expandsCustomer(String expand) {
+        if (expand == null) {
+            return false;
+        }
+        for (String association : expand.split(",")) {
+            if (association.trim().equalsIgnoreCase(EXPAND_CUSTOMER)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean prefersAsync(String prefer) {
+        if (prefer == null) {
+            return false;
+        }
+        for (String preference : prefer.split(",")) {
+            if (preference.trim().equalsIgnoreCase(RESPOND_ASYNC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the status of an apparel order accepted with Prefer: respond-async
+     * @param id the intake ID
+     * @return ResponseEntity with the intake status, including the apparel order ID once it has been saved, or 404 Not Found
+     */
+    @GetMapping("/intake/{id}")
+    public ResponseEntity<OrderIntakeDto> getOrderIntakeById(@PathVariable Integer id) {
+        return orderIntakeService.getOrderIntakeById(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Allocate stock to the lines of an apparel order that are not fully allocated yet
+     * @param id the apparel order ID
+     * @return ResponseEntity with the apparel order and the allocation status of its lines, or 404 Not Found
+     */
+    @PostMapping("/{id}/allocation")
+    public ResponseEntity<ApparelOrderDto> allocateApparelOrder(@PathVariable Integer id) {
+        return inventoryAllocationService.allocateApparelOrder(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
     }
 
     /**
      * Update an existing apparel order
      * @param id the apparel order ID
      * @param apparelOrderDto the updated apparel order data
-     * @return ResponseEntity with the updated apparel order if found, or 404 Not Found
+     * @param ifMatch the ETag the update is conditional on (optional)
+     * @return ResponseEntity with the updated apparel order and its new ETag if found, 404 Not Found,
+     * or 412 Precondition Failed
      */
     @PutMapping("/{id}")
-    public ResponseEntity<ApparelOrderDto> updateApparelOrder(@PathVariable Integer id, @Valid @RequestBody ApparelOrderDto apparelOrderDto) {
-        Optional<ApparelOrderDto> apparelOrderOptional = apparelOrderService.getApparelOrderById(id);
+    public ResponseEntity<ApparelOrderDto> updateApparelOrder(@PathVariable Integer id, @Valid @RequestBody ApparelOrderDto apparelOrderDto,
+                                                              @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        String expectedVersion = ETags.expectedVersion(ifMatch, "apparel-order", id);
 
-        if (apparelOrderOptional.isEmpty()) {
-            return ResponseEntity.notFound().build();
-        }
-
-        // Ensure we're updating the correct apparel order
-        apparelOrderDto.setId(id);
-        ApparelOrderDto updatedApparelOrder = apparelOrderService.saveApparelOrder(apparelOrderDto);
-        return ResponseEntity.ok(updatedApparelOrder);
+        return apparelOrderService.updateApparelOrder(id, apparelOrderDto, expectedVersion)
+                .map(updated -> ResponseEntity.ok()
+                        .eTag(ETags.of("apparel-order", id, updated.version()))
+                        .body(updated.apparelOrder()))
+                .orElse(ResponseEntity.notFound().build());
     }
 
     /**
      * Delete a apparel order by its ID
      * @param id the apparel order ID
-     * @return ResponseEntity with no content if successful, or 404 Not Found
+     * @param ifMatch the ETag the delete is conditional on (optional)
+     * @return ResponseEntity with no content if successful, 404 Not Found, or 412 Precondition Failed
      */
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteApparelOrder(@PathVariable Integer id) {
-        Optional<ApparelOrderDto> apparelOrderOptional = apparelOrderService.getApparelOrderById(id);
+    public ResponseEntity<Void> deleteApparelOrder(@PathVariable Integer id, @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        String expectedVersion = ETags.expectedVersion(ifMatch, "apparel-order", id);
 
-        if (apparelOrderOptional.isEmpty()) {
+        if (!apparelOrderService.deleteApparelOrderById(id, expectedVersion)) {
             return ResponseEntity.notFound().build();
         }
-
-        apparelOrderService.deleteApparelOrderById(id);
         return ResponseEntity.noContent().build();
     }
 }
\ No newline at end of file
@@ -1,10 +1,16 @@
 package gh.z0736190100.apparelstore.controllers;
 
+import gh.z0736190100.apparelstore.models.CursorPageDto;
 import gh.z0736190100.apparelstore.models.CustomerDto;
+import gh.z0736190100.apparelstore.services.CatalogVersion;
 import gh.z0736190100.apparelstore.services.CustomerService;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -13,36 +19,109 @@ import java.util.Optional;
 /**
  * REST Controller for Customer operations
  */
+@Validated
 @RestController
 @RequestMapping("/api/v1/customers")
 public class CustomerController {
 
     private final CustomerService customerService;
+    private final CatalogVersion catalogVersion;
 
-    public CustomerController(CustomerService customerService) {
+    public CustomerController(CustomerService customerService, CatalogVersion catalogVersion) {
         this.customerService = customerService;
+        this.catalogVersion = catalogVersion;
     }
 
     /**
      * Get all customers
-     * @return List of all customers
+     * @param ifNoneMatch the ETag of a previously fetched list (optional)
+     * @return List of all customers, or 304 Not Modified if nothing has been written since
      */
     @GetMapping
-    public List<CustomerDto> getAllCustomers() {
-        return customerService.getAllCustomers();
+    public ResponseEntity<List<CustomerDto>> getAllCustomers(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = ETags.ofCollection("customers", catalogVersion.current());
+        if (ETags.matches(ifNoneMatch, eTag)) {
+            return ETags.notModified(eTag);
+        }
+
+        return ResponseEntity.ok().eTag(eTag).body(customerService.getAllCustomers());
+    }
+
+    /**
+     * Get the customer directory using keyset (cursor) pagination, selected with pagination=cursor.
+     * Customers are ordered by name and ID; every filter is served by an index and every page costs
+     * the same regardless of depth.
+     * @param namePrefix the case-sensitive start of the name to filter by (optional)
+     * @param email the email to filter by (optional)
+     * @param city the city to filter by (optional)
+     * @param state the state to filter by (optional)
+     * @param postalCode the postal code to filter by (optional)
+     * @param after the nextCursor of the previous page (optional, omit for the first page)
+     * @param size the page size, from 1 to {@link CursorPageDto#MAX_SIZE} (defaults to 20)
+     * @param ifNoneMatch the ETag of a previously fetched page (optional)
+     * @return CursorPageDto of customers matching the criteria, or 304 Not Modified if nothing has been written since
+     */
+    @GetMapping(params = "pagination=cursor")
+    public ResponseEntity<CursorPageDto<CustomerDto>> getCustomersByCursor(@RequestParam(required = false) String namePrefix,
+                                                                @RequestParam(required = false) String email,
+                                                                @RequestParam(required = false) String city,
+                                                                @RequestParam(required = false) String state,
+                                                                @RequestParam(required = false) String postalCode,
+                                                                @RequestParam(required = false) String after,
+                                                                @RequestParam(defaultValue = "20") @Min(1) @Max(CursorPageDto.MAX_SIZE) int size,
+                                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = ETags.ofCollection("customers", catalogVersion.current());
+        if (ETags.matches(ifNoneMatch, eTag)) {
+            return ETags.notModified(eTag);
+        }
+
+        return ResponseEntity.ok().eTag(eTag).body(customerService.getCustomersAfter(namePrefix, email, city, state,
+                postalCode, after, size));
+    }
+
+    /**
+     * Look a customer up by email, however it is cased or padded
+     * @param email the email
+     * @return ResponseEntity with the customer if one has the email, or 404 Not Found
+     */
+    @GetMapping(path = "/lookup", params = "email")
+    public ResponseEntity<CustomerDto> getCustomerByEmail(@RequestParam String email) {
+        return customerService.getCustomerByEmail(email)
+                .map(customer -> ResponseEntity.ok().eTag(ETags.of("customer", customer.getId(), customer.getVersion())).body(customer))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Look customers up by phone number, however it is formatted
+     * @param phone the phone number, with or without a country code
+     * @return List of the customers with the phone number, empty if none
+     */
+    @GetMapping(path = "/lookup", params = "phone")
+    public List<CustomerDto> getCustomersByPhone(@RequestParam String phone) {
+        return customerService.getCustomersByPhone(phone);
     }
 
     /**
      * Get a customer by its ID
      * @param id the customer ID
-     * @return ResponseEntity with the customer if found, or 404 Not Found
+     * @param ifNoneMatch the ETag of a previously fetched representation (optional)
+     * @return ResponseEntity with the customer if found, 304 Not Modified if unchanged, or 404 Not Found
      */
     @GetMapping("/{id}")
-    public ResponseEntity<CustomerDto> getCustomerById(@PathVariable Integer id) {
+    public ResponseEntity<CustomerDto> getCustomerById(@PathVariable Integer id, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // A revalidation is answered from the version alone, without loading and mapping the customer
+        if (ifNoneMatch != null) {
+            Optional<String> eTag = customerService.getCustomerVersion(id)
+                    .map(version -> ETags.of("customer", id, version));
+            if (eTag.isPresent() && ETags.matches(ifNoneMatch, eTag.get())) {
+                return ETags.notModified(eTag.get());
+            }
+        }
+
         Optional<CustomerDto> customerOptional = customerService.getCustomerById(id);
 
         return customerOptional
-                .map(ResponseEntity::ok)
+                .map(customer -> ResponseEntity.ok().eTag(ETags.of("customer", id, customer.getVersion())).body(customer))
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -63,31 +142,33 @@ public class CustomerController {
      * Update an existing customer
      * @param id the customer ID
      * @param customerDto the updated customer data
-     * @return ResponseEntity with the updated customer if found, or 404 Not Found
+     * @param ifMatch the ETag the update is conditional on (optional)
+     * @return ResponseEntity with the updated customer if found, 404 Not Found, or 412 Precondition Failed
      */
     @PutMapping("/{id}")
-    public ResponseEntity<CustomerDto> updateCustomer(@PathVariable Integer id, @Valid @RequestBody CustomerDto customerDto) {
-        Optional<CustomerDto> updatedCustomer = customerService.updateCustomer(id, customerDto);
+    public ResponseEntity<CustomerDto> updateCustomer(@PathVariable Integer id, @Valid @RequestBody CustomerDto customerDto,
+                                                      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Integer expectedVersion = ETags.expectedVersionNumber(ifMatch, "customer", id);
+        Optional<CustomerDto> updatedCustomer = customerService.updateCustomer(id, customerDto, expectedVersion);
 
         return updatedCustomer
-                .map(ResponseEntity::ok)
+                .map(customer -> ResponseEntity.ok().eTag(ETags.of("customer", id, customer.getVersion())).body(customer))
                 .orElse(ResponseEntity.notFound().build());
     }
 
     /**
      * Delete a customer by its ID
      * @param id the customer ID
-     * @return ResponseEntity with no content if successful, or 404 Not Found
+     * @param ifMatch the ETag the delete is conditional on (optional)
+     * @return ResponseEntity with no content if successful, 404 Not Found, or 412 Precondition Failed
      */
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteCustomer(@PathVariable Integer id) {
-        Optional<CustomerDto> customerOptional = customerService.getCustomerById(id);
+    public ResponseEntity<Void> deleteCustomer(@PathVariable Integer id, @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Integer expectedVersion = ETags.expectedVersionNumber(ifMatch, "customer", id);
 
-        if (customerOptional.isEmpty()) {
+        if (!customerService.deleteCustomerById(id, expectedVersion)) {
             return ResponseEntity.notFound().build();
         }
-
-        customerService.deleteCustomerById(id);
         return ResponseEntity.noContent().build();
     }
 }
\ No newline at end of file
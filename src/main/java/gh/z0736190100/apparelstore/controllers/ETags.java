@@ -0,0 +1,105 @@
+package gh.z0736190100.apparelstore.controllers;
+
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
+import org.springframework.http.ETag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+/**
+ * Builds and checks the strong ETags of conditional requests.
+ * A single resource is tagged with its ID and version, a collection with the catalog-wide version stamp.
+ */
+final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * Tag a single resource
+     * @param type the resource type, e.g. "apparel"
+     * @param id the resource ID
+     * @param version the resource version; null is treated as 0, like the version probes do
+     * @return the quoted entity tag
+     */
+    static String of(String type, Integer id, Object version) {
+        return "\"" + type + "-" + id + "-" + (version == null ? 0 : version) + "\"";
+    }
+
+    /**
+     * Tag a collection
+     * @param type the resource type, e.g. "apparels"
+     * @param catalogVersion the current catalog-wide version stamp
+     * @return the quoted entity tag
+     */
+    static String ofCollection(String type, String catalogVersion) {
+        return "\"" + type + "-" + catalogVersion + "\"";
+    }
+
+    /**
+     * Check an If-None-Match header against the current tag, using the weak comparison RFC 9110 asks for
+     * @param ifNoneMatch the If-None-Match header, null if absent
+     * @param eTag the current entity tag
+     * @return true if the client already has the current representation
+     */
+    static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        ETag current = ETag.create(eTag);
+        return ETag.parse(ifNoneMatch).stream()
+                .anyMatch(candidate -> candidate.isWildcard() || candidate.compare(current, false));
+    }
+
+    /**
+     * Extract the version a conditional write expects from its If-Match header.
+     * Only a single strong tag issued for the same resource can match; anything else fails the precondition.
+     * @param ifMatch the If-Match header, null if absent
+     * @param type the resource type, e.g. "apparel"
+     * @param id the resource ID
+     * @return the expected version, or null for an absent header or "*", which only require the resource to exist
+     * @throws PreconditionFailedException if the header cannot match any version of the resource
+     */
+    static String expectedVersion(String ifMatch, String type, Integer id) {
+        if (ifMatch == null) {
+            return null;
+        }
+        List<ETag> eTags = ETag.parse(ifMatch);
+        if (eTags.size() == 1 && eTags.get(0).isWildcard()) {
+            return null;
+        }
+
+        String prefix = type + "-" + id + "-";
+        if (eTags.size() != 1 || eTags.get(0).weak() || !eTags.get(0).tag().startsWith(prefix)) {
+            throw new PreconditionFailedException("If-Match does not name a version of " + type + " " + id);
+        }
+        return eTags.get(0).tag().substring(prefix.length());
+    }
+
+    /**
+     * Extract the version a conditional write expects from its If-Match header, for resources versioned by a number
+     * @see #expectedVersion(String, String, Integer)
+     */
+    static Integer expectedVersionNumber(String ifMatch, String type, Integer id) {
+        String version = expectedVersion(ifMatch, type, id);
+        if (version == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(version);
+        } catch (NumberFormatException e) {
+            throw new PreconditionFailedException("If-Match does not name a version of " + type + " " + id);
+        }
+    }
+
+    /**
+     * Build a 304 Not Modified response carrying the current tag
+     * @param eTag the current entity tag
+     * @param <T> the body type of the handler
+     * @return the response
+     */
+    static <T> ResponseEntity<T> notModified(String eTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+    }
+}
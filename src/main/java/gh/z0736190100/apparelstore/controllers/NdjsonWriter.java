@@ -0,0 +1,36 @@
+package gh.z0736190100.apparelstore.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Writes objects to a streamed response body as newline-delimited JSON, one object per line
+ */
+final class NdjsonWriter {
+
+    private NdjsonWriter() {
+    }
+
+    /**
+     * Create a sink that writes each object it receives as one JSON line
+     * @param output the response body; left open
+     * @param objectMapper the object mapper used to serialize each object
+     * @param <T> the type of the written objects
+     * @return the sink
+     */
+    static <T> Consumer<T> to(OutputStream output, ObjectMapper objectMapper) {
+        return value -> {
+            try {
+                // writeValueAsBytes rather than writeValue, which would close the response stream
+                output.write(objectMapper.writeValueAsBytes(value));
+                output.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+}
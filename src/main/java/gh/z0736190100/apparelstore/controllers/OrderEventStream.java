@@ -0,0 +1,56 @@
+package gh.z0736190100.apparelstore.controllers;
+
+import gh.z0736190100.apparelstore.models.OutboxEventDto;
+import gh.z0736190100.apparelstore.services.ApparelOrderEventBroadcaster;
+import gh.z0736190100.apparelstore.services.OutboxListeners;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Streams apparel order events to a client as server-sent events, one per event, named after the event type
+ * and carrying the outbox event ID, so clients can tell redelivered events apart
+ */
+final class OrderEventStream {
+
+    private OrderEventStream() {
+    }
+
+    /**
+     * Open a stream and subscribe it to the broadcaster. The subscription is cancelled when the client
+     * goes away or the stream times out, and the stream is completed when the broadcaster drops it.
+     * @param timeout how long the stream stays open
+     * @param subscribe subscribes the stream's sink to the broadcaster
+     * @return the stream
+     */
+    static SseEmitter open(Duration timeout,
+                           Function<ApparelOrderEventBroadcaster.EventSink, OutboxListeners.Subscription> subscribe) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        OutboxListeners.Subscription subscription = subscribe.apply(new ApparelOrderEventBroadcaster.EventSink() {
+            @Override
+            public void send(OutboxEventDto event) throws IOException {
+                emitter.send(SseEmitter.event()
+                        .id(String.valueOf(event.getId()))
+                        .name(event.getEventType())
+                        .data(event, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void heartbeat() throws IOException {
+                emitter.send(SseEmitter.event().comment("heartbeat"));
+            }
+
+            @Override
+            public void close(boolean dropped) {
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+}
@@ -3,6 +3,9 @@ package gh.z0736190100.apparelstore.entities;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
@@ -13,8 +16,12 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -22,6 +29,7 @@ import java.util.Set;
  * Entity representing a apparel order
  */
 @Entity
+@DynamicUpdate
 @Getter
 @Setter
 @NoArgsConstructor
@@ -29,14 +37,25 @@ import java.util.Set;
 @Builder
 public class ApparelOrder extends BaseEntity {
 
-    @ManyToOne
+    // Queries that map the customer's name fetch it explicitly; the rest only need the foreign key
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "customer_id")
     private Customer customer;
 
     @Column(precision = 19, scale = 2)
     private BigDecimal paymentAmount;
 
-    private String status;
+    // A plain VARCHAR checked by a constraint, rather than a native enum type, so adding a status is a one-line migration
+    @Enumerated(EnumType.STRING)
+    @JdbcTypeCode(SqlTypes.VARCHAR)
+    @Column(length = 20)
+    private ApparelOrderStatus status;
+
+    // Set while a worker holds a lease on the order, see ApparelOrderService#claimApparelOrders
+    @Column(length = 36)
+    private String claimToken;
+
+    private LocalDateTime claimedUntil;
 
     @OneToMany(mappedBy = "apparelOrder", cascade = CascadeType.ALL, orphanRemoval = true)
     @Builder.Default
@@ -8,11 +8,13 @@ import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.DynamicUpdate;
 
 /**
  * Entity representing a line item in a apparel order
  */
 @Entity
+@DynamicUpdate
 @Getter
 @Setter
 @NoArgsConstructor
@@ -0,0 +1,14 @@
+package gh.z0736190100.apparelstore.entities;
+
+/**
+ * Status of an apparel order
+ */
+public enum ApparelOrderStatus {
+
+    // Placed, waiting for payment; stock allocated to it is only held
+    NEW,
+    PAID,
+    CANCELLED,
+    INPROCESS,
+    COMPLETE
+}
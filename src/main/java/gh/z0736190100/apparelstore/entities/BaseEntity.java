@@ -27,8 +27,9 @@ import java.time.LocalDateTime;
 @SuperBuilder
 public abstract class BaseEntity {
 
+    // Allocated in pooled blocks of 50 from the <table>_seq sequence, so inserts can be JDBC batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE)
     private Integer id;
 
     @Version
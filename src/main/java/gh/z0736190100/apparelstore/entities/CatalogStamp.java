@@ -0,0 +1,27 @@
+package gh.z0736190100.apparelstore.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * Entity holding the catalog-wide version stamp, a single row that every write transaction bumps
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@SuperBuilder
+public class CatalogStamp extends BaseEntity {
+
+    // The ID of the one row
+    public static final int ID = 1;
+
+    @Column(nullable = false)
+    private Long stamp;
+}
@@ -47,6 +47,13 @@ public class Customer extends BaseEntity {
     @Column(nullable = false)
     private String postalCode;
     
+    // email trimmed and lower-cased; unique, and what lookups by email seek on
+    private String emailNormalized;
+
+    // phone number in E.164 form, null if it could not be normalized; what lookups by phone seek on
+    @Column(length = 16)
+    private String phoneNormalized;
+
     @OneToMany(mappedBy = "customer")
     @Builder.Default
     @ToString.Exclude
@@ -0,0 +1,28 @@
+package gh.z0736190100.apparelstore.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * Entity recording stock taken from the in-memory counters of a hot apparel that has not been
+ * written back to its quantity on hand yet
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@SuperBuilder
+public class HotStockReservation extends BaseEntity {
+
+    @Column(nullable = false)
+    private Integer apparelId;
+
+    @Column(nullable = false)
+    private Integer quantity;
+}
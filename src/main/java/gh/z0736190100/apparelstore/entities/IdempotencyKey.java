@@ -0,0 +1,33 @@
+package gh.z0736190100.apparelstore.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Lob;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * Entity representing the response to a request made with an Idempotency-Key header
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@SuperBuilder
+public class IdempotencyKey extends BaseEntity {
+
+    // SHA-256 of the client's key, so any key length fits and raw keys are not stored
+    @Column(nullable = false, unique = true, length = 64)
+    private String keyHash;
+
+    // SHA-256 of the request body, to tell a retry from a different request reusing the key
+    @Column(nullable = false, length = 64)
+    private String requestHash;
+
+    @Lob
+    private String responseBody;
+}
@@ -0,0 +1,40 @@
+package gh.z0736190100.apparelstore.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Lob;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * Entity representing an apparel order accepted for asynchronous saving. The table is the journal of the
+ * intake queue: a row is written before the order is acknowledged, and rows still ACCEPTED after a crash
+ * are queued again on the next start.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@SuperBuilder
+public class OrderIntake extends BaseEntity {
+
+    // ACCEPTED, COMPLETED or FAILED; PROCESSING only inside the transaction saving the order
+    @Column(nullable = false, length = 20)
+    private String status;
+
+    // The ApparelOrderDto as posted, in JSON
+    @Lob
+    @Column(nullable = false)
+    private String payload;
+
+    // Set once the order has been saved
+    private Integer apparelOrderId;
+
+    // Why the order could not be saved
+    @Column(length = 1000)
+    private String error;
+}
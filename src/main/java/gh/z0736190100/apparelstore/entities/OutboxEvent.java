@@ -0,0 +1,44 @@
+package gh.z0736190100.apparelstore.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Lob;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.SuperBuilder;
+
+import java.time.LocalDateTime;
+
+/**
+ * Entity representing an event recorded in the same transaction as the write it describes.
+ * The outbox relay delivers undelivered events to the sinks in ID order and stamps them as delivered.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@SuperBuilder
+public class OutboxEvent extends BaseEntity {
+
+    // The kind of entity the event is about, e.g. ApparelOrder
+    @Column(nullable = false, length = 50)
+    private String aggregateType;
+
+    @Column(nullable = false)
+    private Integer aggregateId;
+
+    // What happened, e.g. ApparelOrderCreated
+    @Column(nullable = false, length = 50)
+    private String eventType;
+
+    // The entity as returned by the API after the write, in JSON
+    @Lob
+    @Column(nullable = false)
+    private String payload;
+
+    // Set once every sink has received the event
+    private LocalDateTime deliveredAt;
+}
@@ -0,0 +1,39 @@
+package gh.z0736190100.apparelstore.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.SuperBuilder;
+
+import java.time.LocalDateTime;
+
+/**
+ * Entity representing stock allocated to a line of an unpaid order, held until the order is paid
+ * or the hold expires
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@SuperBuilder
+public class StockReservation extends BaseEntity {
+
+    @Column(nullable = false)
+    private Integer apparelId;
+
+    @Column(nullable = false)
+    private Integer apparelOrderId;
+
+    @Column(nullable = false)
+    private Integer apparelOrderLineId;
+
+    @Column(nullable = false)
+    private Integer quantity;
+
+    @Column(nullable = false)
+    private LocalDateTime expiresAt;
+}
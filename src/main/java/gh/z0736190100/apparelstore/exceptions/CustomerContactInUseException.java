@@ -0,0 +1,23 @@
+package gh.z0736190100.apparelstore.exceptions;
+
+/**
+ * Exception thrown when a customer is saved with an email that already belongs to another customer
+ */
+public class CustomerContactInUseException extends RuntimeException {
+
+    public CustomerContactInUseException() {
+        super();
+    }
+
+    public CustomerContactInUseException(String message) {
+        super(message);
+    }
+
+    public CustomerContactInUseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public CustomerContactInUseException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -1,6 +1,8 @@
 package gh.z0736190100.apparelstore.exceptions;
 
 import jakarta.validation.ConstraintViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -36,6 +38,55 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(problemDetails, HttpStatus.BAD_REQUEST);
     }
 
+    /**
+     * Handle InvalidCursorException
+     */
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<ProblemDetails> handleInvalidCursorException(InvalidCursorException ex, WebRequest request) {
+        ProblemDetails problemDetails = ProblemDetails.builder()
+                .type(URI.create(PROBLEM_BASE_URL + "/invalid-cursor"))
+                .title("Invalid Cursor")
+                .status(HttpStatus.BAD_REQUEST.value())
+                .detail(ex.getMessage())
+                .instance(URI.create(request.getContextPath()))
+                .build();
+
+        return new ResponseEntity<>(problemDetails, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Handle PreconditionFailedException
+     */
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<ProblemDetails> handlePreconditionFailedException(PreconditionFailedException ex, WebRequest request) {
+        ProblemDetails problemDetails = ProblemDetails.builder()
+                .type(URI.create(PROBLEM_BASE_URL + "/precondition-failed"))
+                .title("Precondition Failed")
+                .status(HttpStatus.PRECONDITION_FAILED.value())
+                .detail(ex.getMessage())
+                .instance(URI.create(request.getContextPath()))
+                .build();
+
+        return new ResponseEntity<>(problemDetails, HttpStatus.PRECONDITION_FAILED);
+    }
+
+    /**
+     * Handle optimistic locking failures, raised when a write finds the row has been modified concurrently
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<ProblemDetails> handleOptimisticLockingFailureException(OptimisticLockingFailureException ex,
+                                                                                  WebRequest request) {
+        ProblemDetails problemDetails = ProblemDetails.builder()
+                .type(URI.create(PROBLEM_BASE_URL + "/precondition-failed"))
+                .title("Precondition Failed")
+                .status(HttpStatus.PRECONDITION_FAILED.value())
+                .detail("The resource has been modified concurrently")
+                .instance(URI.create(request.getContextPath()))
+                .build();
+
+        return new ResponseEntity<>(problemDetails, HttpStatus.PRECONDITION_FAILED);
+    }
+
     /**
      * Handle validation exceptions
      */
@@ -78,6 +129,77 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(problemDetails, HttpStatus.BAD_REQUEST);
     }
 
+    /**
+     * Handle IdempotencyKeyInUseException, asking the client to retry once the first request has finished
+     */
+    @ExceptionHandler(IdempotencyKeyInUseException.class)
+    public ResponseEntity<ProblemDetails> handleIdempotencyKeyInUseException(IdempotencyKeyInUseException ex,
+                                                                             WebRequest request) {
+        ProblemDetails problemDetails = ProblemDetails.builder()
+                .type(URI.create(PROBLEM_BASE_URL + "/idempotency-key-in-use"))
+                .title("Idempotency Key In Use")
+                .status(HttpStatus.CONFLICT.value())
+                .detail(ex.getMessage())
+                .instance(URI.create(request.getContextPath()))
+                .build();
+
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(problemDetails);
+    }
+
+    /**
+     * Handle OrderIntakeFullException, asking the client to back off while the queue drains
+     */
+    @ExceptionHandler(OrderIntakeFullException.class)
+    public ResponseEntity<ProblemDetails> handleOrderIntakeFullException(OrderIntakeFullException ex, WebRequest request) {
+        ProblemDetails problemDetails = ProblemDetails.builder()
+                .type(URI.create(PROBLEM_BASE_URL + "/order-intake-full"))
+                .title("Order Intake Full")
+                .status(HttpStatus.TOO_MANY_REQUESTS.value())
+                .detail(ex.getMessage())
+                .instance(URI.create(request.getContextPath()))
+                .build();
+
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(problemDetails);
+    }
+
+    /**
+     * Handle IdempotencyKeyMismatchException
+     */
+    @ExceptionHandler(IdempotencyKeyMismatchException.class)
+    public ResponseEntity<ProblemDetails> handleIdempotencyKeyMismatchException(IdempotencyKeyMismatchException ex,
+                                                                                WebRequest request) {
+        ProblemDetails problemDetails = ProblemDetails.builder()
+                .type(URI.create(PROBLEM_BASE_URL + "/idempotency-key-mismatch"))
+                .title("Idempotency Key Mismatch")
+                .status(HttpStatus.UNPROCESSABLE_ENTITY.value())
+                .detail(ex.getMessage())
+                .instance(URI.create(request.getContextPath()))
+                .build();
+
+        return new ResponseEntity<>(problemDetails, HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+    /**
+     * Handle CustomerContactInUseException
+     */
+    @ExceptionHandler(CustomerContactInUseException.class)
+    public ResponseEntity<ProblemDetails> handleCustomerContactInUseException(CustomerContactInUseException ex,
+                                                                              WebRequest request) {
+        ProblemDetails problemDetails = ProblemDetails.builder()
+                .type(URI.create(PROBLEM_BASE_URL + "/customer-contact-in-use"))
+                .title("Customer Contact In Use")
+                .status(HttpStatus.CONFLICT.value())
+                .detail(ex.getMessage())
+                .instance(URI.create(request.getContextPath()))
+                .build();
+
+        return new ResponseEntity<>(problemDetails, HttpStatus.CONFLICT);
+    }
+
     /**
      * Handle NotFoundException
      */
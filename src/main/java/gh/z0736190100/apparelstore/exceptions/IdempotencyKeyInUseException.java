@@ -0,0 +1,24 @@
+package gh.z0736190100.apparelstore.exceptions;
+
+/**
+ * Exception thrown when a request with an Idempotency-Key arrives while the first request with that key
+ * is still being processed
+ */
+public class IdempotencyKeyInUseException extends RuntimeException {
+
+    public IdempotencyKeyInUseException() {
+        super();
+    }
+
+    public IdempotencyKeyInUseException(String message) {
+        super(message);
+    }
+
+    public IdempotencyKeyInUseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public IdempotencyKeyInUseException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,23 @@
+package gh.z0736190100.apparelstore.exceptions;
+
+/**
+ * Exception thrown when an Idempotency-Key is reused for a request that differs from the first one made with it
+ */
+public class IdempotencyKeyMismatchException extends RuntimeException {
+
+    public IdempotencyKeyMismatchException() {
+        super();
+    }
+
+    public IdempotencyKeyMismatchException(String message) {
+        super(message);
+    }
+
+    public IdempotencyKeyMismatchException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public IdempotencyKeyMismatchException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,23 @@
+package gh.z0736190100.apparelstore.exceptions;
+
+/**
+ * Exception thrown when a pagination cursor cannot be decoded
+ */
+public class InvalidCursorException extends RuntimeException {
+
+    public InvalidCursorException() {
+        super();
+    }
+
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+
+    public InvalidCursorException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public InvalidCursorException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,23 @@
+package gh.z0736190100.apparelstore.exceptions;
+
+/**
+ * Exception thrown when an apparel order cannot be accepted because the intake queue is full
+ */
+public class OrderIntakeFullException extends RuntimeException {
+
+    public OrderIntakeFullException() {
+        super();
+    }
+
+    public OrderIntakeFullException(String message) {
+        super(message);
+    }
+
+    public OrderIntakeFullException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public OrderIntakeFullException(Throwable cause) {
+        super(cause);
+    }
+}
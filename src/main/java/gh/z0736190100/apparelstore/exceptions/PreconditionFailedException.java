@@ -0,0 +1,23 @@
+package gh.z0736190100.apparelstore.exceptions;
+
+/**
+ * Exception thrown when a conditional write does not match the current version of a resource
+ */
+public class PreconditionFailedException extends RuntimeException {
+
+    public PreconditionFailedException() {
+        super();
+    }
+
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+
+    public PreconditionFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public PreconditionFailedException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -35,4 +35,18 @@ public interface ApparelMapper {
     @Mapping(target = "apparelOrderLines", ignore = true)
     @BeanMapping(nullValuePropertyMappingStrategy = NullValuePropertyMappingStrategy.IGNORE)
     void updateApparelFromPatchDto(ApparelPatchDto apparelPatchDto, @MappingTarget Apparel apparel);
+
+    @Mapping(target = "id", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "createdDate", ignore = true)
+    @Mapping(target = "updateDate", ignore = true)
+    @Mapping(target = "apparelOrderLines", ignore = true)
+    Apparel apparelPatchDtoToApparel(ApparelPatchDto apparelPatchDto);
+
+    @Mapping(target = "id", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "createdDate", ignore = true)
+    @Mapping(target = "updateDate", ignore = true)
+    @Mapping(target = "apparelOrderLines", ignore = true)
+    void updateApparelFromImportDto(ApparelDto apparelDto, @MappingTarget Apparel apparel);
 }
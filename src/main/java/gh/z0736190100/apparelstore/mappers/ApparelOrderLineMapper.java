@@ -4,6 +4,7 @@ import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
 import gh.z0736190100.apparelstore.models.ApparelOrderLineDto;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
+import org.mapstruct.MappingTarget;
 
 /**
  * Mapper for ApparelOrderLine entity and ApparelOrderLineDto
@@ -19,5 +20,17 @@ public interface ApparelOrderLineMapper {
     
     @Mapping(target = "apparel", ignore = true)
     @Mapping(target = "apparelOrder", ignore = true)
+    // Stock is only allocated by the inventory allocation, never taken from the request
+    @Mapping(target = "quantityAllocated", constant = "0")
     ApparelOrderLine apparelOrderLineDtoToApparelOrderLine(ApparelOrderLineDto apparelOrderLineDto);
+
+    @Mapping(target = "id", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "createdDate", ignore = true)
+    @Mapping(target = "updateDate", ignore = true)
+    @Mapping(target = "apparel", ignore = true)
+    @Mapping(target = "apparelOrder", ignore = true)
+    @Mapping(target = "quantityAllocated", ignore = true)
+    @Mapping(target = "status", ignore = true)
+    void updateApparelOrderLineFromDto(ApparelOrderLineDto apparelOrderLineDto, @MappingTarget ApparelOrderLine apparelOrderLine);
 }
\ No newline at end of file
@@ -3,9 +3,19 @@ package gh.z0736190100.apparelstore.mappers;
 import gh.z0736190100.apparelstore.entities.ApparelOrder;
 import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
 import gh.z0736190100.apparelstore.entities.ApparelOrderShipment;
+import gh.z0736190100.apparelstore.entities.Customer;
+import gh.z0736190100.apparelstore.models.ApparelOrderDetailDto;
 import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import org.hibernate.Hibernate;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
+import org.mapstruct.MappingTarget;
+import org.mapstruct.Named;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Mapper for ApparelOrder entity and ApparelOrderDto
@@ -13,12 +23,97 @@ import org.mapstruct.Mapping;
 @Mapper(uses = {ApparelOrderLineMapper.class, CustomerMapper.class, ApparelOrderShipmentMapper.class})
 public interface ApparelOrderMapper {
 
+    /**
+     * Map an apparel order with its customer as a reference: the customer's ID, and its name if the customer
+     * has been loaded anyway. A customer attached by reference is not loaded just for the response.
+     * @param apparelOrder the apparel order
+     * @return the apparel order DTO without an embedded customer
+     */
+    @Mapping(target = "customerId", source = "customer.id")
+    @Mapping(target = "customerName", source = "customer", qualifiedByName = "loadedCustomerName")
+    @Mapping(target = "customer", ignore = true)
     ApparelOrderDto apparelOrderToApparelOrderDto(ApparelOrder apparelOrder);
 
+    /**
+     * Map an apparel order with the full customer embedded, for expand=customer
+     * @param apparelOrder the apparel order
+     * @return the apparel order DTO
+     */
+    @Named("withCustomer")
+    @Mapping(target = "customerId", source = "customer.id")
+    @Mapping(target = "customerName", source = "customer.name")
+    ApparelOrderDto apparelOrderToApparelOrderDtoWithCustomer(ApparelOrder apparelOrder);
+
+    @Named("loadedCustomerName")
+    default String loadedCustomerName(Customer customer) {
+        return customer != null && Hibernate.isInitialized(customer) ? customer.getName() : null;
+    }
+
+    @Mapping(target = "customerId", source = "customer.id")
+    @Mapping(target = "customerName", source = "customer.name")
+    @Mapping(target = "customerEmail", source = "customer.email")
+    @Mapping(target = "customerPhoneNumber", source = "customer.phoneNumber")
+    @Mapping(target = "lines", source = "apparelOrderLines")
+    ApparelOrderDetailDto apparelOrderToApparelOrderDetailDto(ApparelOrder apparelOrder);
+
+    @Mapping(target = "apparelId", source = "apparel.id")
+    @Mapping(target = "apparelName", source = "apparel.apparelName")
+    @Mapping(target = "apparelStyle", source = "apparel.apparelStyle")
+    @Mapping(target = "upc", source = "apparel.upc")
+    @Mapping(target = "price", source = "apparel.price")
+    ApparelOrderDetailDto.Line apparelOrderLineToDetailLine(ApparelOrderLine apparelOrderLine);
+
+    ApparelOrderDetailDto.Shipment apparelOrderShipmentToDetailShipment(ApparelOrderShipment apparelOrderShipment);
+
+    /**
+     * Map the lines of an order detail in line ID order; the entity holds them in a set
+     * @param apparelOrderLines the lines
+     * @return the detail lines
+     */
+    default List<ApparelOrderDetailDto.Line> apparelOrderLinesToDetailLines(Set<ApparelOrderLine> apparelOrderLines) {
+        if (apparelOrderLines == null) {
+            return null;
+        }
+        return apparelOrderLines.stream()
+                .sorted(Comparator.comparing(ApparelOrderLine::getId, Comparator.nullsLast(Comparator.naturalOrder())))
+                .map(this::apparelOrderLineToDetailLine)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Map the shipments of an order detail in shipment date order; the entity holds them in a set
+     * @param shipments the shipments
+     * @return the detail shipments
+     */
+    default List<ApparelOrderDetailDto.Shipment> apparelOrderShipmentsToDetailShipments(Set<ApparelOrderShipment> shipments) {
+        if (shipments == null) {
+            return null;
+        }
+        return shipments.stream()
+                .sorted(Comparator.comparing(ApparelOrderShipment::getShipmentDate, Comparator.nullsLast(Comparator.naturalOrder()))
+                        .thenComparing(ApparelOrderShipment::getId, Comparator.nullsLast(Comparator.naturalOrder())))
+                .map(this::apparelOrderShipmentToDetailShipment)
+                .collect(Collectors.toList());
+    }
+
+    @Mapping(target = "customer", ignore = true)
     @Mapping(target = "apparelOrderLines", ignore = true)
     @Mapping(target = "shipments", ignore = true)
+    @Mapping(target = "claimToken", ignore = true)
+    @Mapping(target = "claimedUntil", ignore = true)
     ApparelOrder apparelOrderDtoToApparelOrder(ApparelOrderDto apparelOrderDto);
 
+    @Mapping(target = "id", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "createdDate", ignore = true)
+    @Mapping(target = "updateDate", ignore = true)
+    @Mapping(target = "customer", ignore = true)
+    @Mapping(target = "apparelOrderLines", ignore = true)
+    @Mapping(target = "shipments", ignore = true)
+    @Mapping(target = "claimToken", ignore = true)
+    @Mapping(target = "claimedUntil", ignore = true)
+    void updateApparelOrderFromDto(ApparelOrderDto apparelOrderDto, @MappingTarget ApparelOrder apparelOrder);
+
     /**
      * Add apparel order lines to apparel order
      * @param apparelOrder the apparel order
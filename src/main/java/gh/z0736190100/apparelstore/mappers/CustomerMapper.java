@@ -15,12 +15,16 @@ public interface CustomerMapper {
     @Mapping(target = "apparelOrders", ignore = true)
     CustomerDto customerToCustomerDto(Customer customer);
 
+    @Mapping(target = "emailNormalized", ignore = true)
+    @Mapping(target = "phoneNormalized", ignore = true)
     @Mapping(target = "apparelOrders", ignore = true)
     Customer customerDtoToCustomer(CustomerDto customerDto);
 
     @Mapping(target = "id", ignore = true)
     @Mapping(target = "createdDate", ignore = true)
     @Mapping(target = "updateDate", ignore = true)
+    @Mapping(target = "emailNormalized", ignore = true)
+    @Mapping(target = "phoneNormalized", ignore = true)
     @Mapping(target = "apparelOrders", ignore = true)
     void updateCustomerFromDto(CustomerDto customerDto, @MappingTarget Customer customer);
 }
@@ -0,0 +1,15 @@
+package gh.z0736190100.apparelstore.mappers;
+
+import gh.z0736190100.apparelstore.entities.OrderIntake;
+import gh.z0736190100.apparelstore.models.OrderIntakeDto;
+import org.mapstruct.Mapper;
+
+/**
+ * Mapper for OrderIntake entity and OrderIntakeDto. Intakes are only ever created from an ApparelOrderDto,
+ * so there is no reverse mapping.
+ */
+@Mapper
+public interface OrderIntakeMapper {
+
+    OrderIntakeDto orderIntakeToOrderIntakeDto(OrderIntake orderIntake);
+}
@@ -0,0 +1,15 @@
+package gh.z0736190100.apparelstore.mappers;
+
+import gh.z0736190100.apparelstore.entities.OutboxEvent;
+import gh.z0736190100.apparelstore.models.OutboxEventDto;
+import org.mapstruct.Mapper;
+
+/**
+ * Mapper for OutboxEvent entity and OutboxEventDto. Events are only ever recorded by the services,
+ * so there is no reverse mapping.
+ */
+@Mapper
+public interface OutboxEventMapper {
+
+    OutboxEventDto outboxEventToOutboxEventDto(OutboxEvent outboxEvent);
+}
@@ -0,0 +1,40 @@
+package gh.z0736190100.apparelstore.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * DTO for the outcome of one row of a bulk apparel import
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ApparelImportResultDto {
+
+    /**
+     * Outcome of an imported row
+     */
+    public enum Status {
+        CREATED, UPDATED, INVALID, FAILED
+    }
+
+    // one-based row number in the input, not counting a CSV header
+    private long row;
+
+    private String upc;
+
+    private Status status;
+
+    // ID of the created or updated apparel
+    private Integer id;
+
+    // validation or parse errors by field, for INVALID and FAILED rows
+    private Map<String, String> errors;
+}
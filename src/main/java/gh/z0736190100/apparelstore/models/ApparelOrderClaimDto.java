@@ -0,0 +1,28 @@
+package gh.z0736190100.apparelstore.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * DTO for the apparel orders a worker has leased
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ApparelOrderClaimDto {
+
+    // identifies the lease; pass it back to release each order
+    private String claimToken;
+
+    // when the lease ends and the orders can be claimed by another worker
+    private LocalDateTime claimedUntil;
+
+    // the leased orders, oldest first; empty if there was nothing to claim
+    private List<ApparelOrderDto> apparelOrders;
+}
@@ -0,0 +1,74 @@
+package gh.z0736190100.apparelstore.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Read-only DTO with everything an order page renders: the order, the customer fields it shows, and
+ * its lines and shipments with the apparel fields flattened into each line
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ApparelOrderDetailDto {
+
+    private Integer id;
+    private Integer version;
+    private LocalDateTime createdDate;
+    private LocalDateTime updateDate;
+    private String status;
+    private BigDecimal paymentAmount;
+
+    private Integer customerId;
+    private String customerName;
+    private String customerEmail;
+    private String customerPhoneNumber;
+
+    // in line ID order
+    private List<Line> lines;
+
+    // in shipment date order
+    private List<Shipment> shipments;
+
+    /**
+     * An order line with the apparel it is for
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class Line {
+
+        private Integer id;
+        private Integer apparelId;
+        private String apparelName;
+        private String apparelStyle;
+        private String upc;
+        private BigDecimal price;
+        private Integer orderQuantity;
+        private Integer quantityAllocated;
+        private String status;
+    }
+
+    /**
+     * A shipment of the order
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class Shipment {
+
+        private Integer id;
+        private LocalDateTime shipmentDate;
+        private String carrier;
+        private String trackingNumber;
+    }
+}
@@ -1,8 +1,12 @@
 package gh.z0736190100.apparelstore.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.AssertTrue;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Positive;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -23,14 +27,23 @@ import java.util.Set;
 @EqualsAndHashCode(callSuper = true)
 public class ApparelOrderDto extends BaseEntityDto {
 
-    @NotNull(message = "Customer is required")
+    // the customer placing the order; always returned, and enough on its own to place or update an order
+    private Integer customerId;
+
+    // returned alongside customerId when the customer has been loaded anyway; ignored on writes
+    private String customerName;
+
+    // the full customer, only returned with expand=customer; on writes only its ID is used
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private CustomerDto customer;
 
     @NotNull(message = "Payment amount is required")
     @Positive(message = "Payment amount must be positive")
     private BigDecimal paymentAmount;
 
-    // enum status of the order, NEW, PAID, CANCELLED, INPROCESS, COMPLETE.
+    // one of the ApparelOrderStatus values: NEW, PAID, CANCELLED, INPROCESS, COMPLETE
+    @Pattern(regexp = "NEW|PAID|CANCELLED|INPROCESS|COMPLETE",
+            message = "Status must be one of NEW, PAID, CANCELLED, INPROCESS, COMPLETE")
     private String status;
 
     @NotEmpty(message = "Apparel order must have at least one apparel order line")
@@ -39,4 +52,20 @@ public class ApparelOrderDto extends BaseEntityDto {
 
     @Valid
     private Set<ApparelOrderShipmentDto> shipments;
+
+    /**
+     * @return the ID of the customer, given either as customerId or as the ID of the embedded customer
+     */
+    public Integer resolveCustomerId() {
+        if (customerId != null) {
+            return customerId;
+        }
+        return customer == null ? null : customer.getId();
+    }
+
+    @JsonIgnore
+    @AssertTrue(message = "Customer is required")
+    public boolean isCustomerGiven() {
+        return resolveCustomerId() != null;
+    }
 }
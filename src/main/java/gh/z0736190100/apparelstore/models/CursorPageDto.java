@@ -0,0 +1,33 @@
+package gh.z0736190100.apparelstore.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * DTO for one page of a keyset (cursor) paginated listing
+ * @param <T> the type of the page content
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CursorPageDto<T> {
+
+    // the largest page size a client may request
+    public static final int MAX_SIZE = 100;
+
+    private List<T> content;
+
+    // requested page size
+    private int size;
+
+    // true if another page follows this one
+    private boolean hasNext;
+
+    // opaque cursor to pass as "after" to fetch the next page, null on the last page
+    private String nextCursor;
+}
@@ -0,0 +1,27 @@
+package gh.z0736190100.apparelstore.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * DTO for OrderIntake entity, the status of an apparel order accepted for asynchronous saving
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@SuperBuilder
+@EqualsAndHashCode(callSuper = true)
+public class OrderIntakeDto extends BaseEntityDto {
+
+    //read only: ACCEPTED, COMPLETED or FAILED
+    private String status;
+
+    //read only, set once the order has been saved
+    private Integer apparelOrderId;
+
+    //read only, set if the order could not be saved
+    private String error;
+}
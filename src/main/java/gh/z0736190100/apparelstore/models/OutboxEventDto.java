@@ -0,0 +1,37 @@
+package gh.z0736190100.apparelstore.models;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * DTO for an event delivered by the outbox relay. Delivery is at least once, so consumers should
+ * ignore an event whose ID they have seen before.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboxEventDto {
+
+    private Integer id;
+
+    // the kind of entity the event is about, e.g. ApparelOrder
+    private String aggregateType;
+
+    private Integer aggregateId;
+
+    // what happened, e.g. ApparelOrderCreated
+    private String eventType;
+
+    // the entity as returned by the API after the write, written out as JSON rather than as a string
+    @JsonRawValue
+    private String payload;
+
+    // when the write committed, give or take the transaction's duration
+    private LocalDateTime createdDate;
+}
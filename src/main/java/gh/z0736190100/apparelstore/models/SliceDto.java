@@ -0,0 +1,35 @@
+package gh.z0736190100.apparelstore.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * DTO for one slice of an offset paginated listing, computed without a count query
+ * @param <T> the type of the slice content
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SliceDto<T> {
+
+    private List<T> content;
+
+    // zero-based page number
+    private int number;
+
+    // requested page size
+    private int size;
+
+    // true if another slice follows this one
+    private boolean hasNext;
+
+    // cached, possibly slightly stale total count; only present when requested
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long totalElements;
+}
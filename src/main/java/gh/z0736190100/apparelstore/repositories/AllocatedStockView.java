@@ -0,0 +1,13 @@
+package gh.z0736190100.apparelstore.repositories;
+
+/**
+ * Projection of the stock allocated to an order line, all that is needed to put it back on its apparel
+ */
+public interface AllocatedStockView {
+
+    Integer getApparelOrderLineId();
+
+    Integer getApparelId();
+
+    Integer getQuantityAllocated();
+}
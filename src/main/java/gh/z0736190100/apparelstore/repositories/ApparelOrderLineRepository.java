@@ -1,7 +1,14 @@
 package gh.z0736190100.apparelstore.repositories;
 
 import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
 
 /**
  * Repository for ApparelOrderLine entity
@@ -9,4 +16,29 @@ import org.springframework.data.jpa.repository.JpaRepository;
 public interface ApparelOrderLineRepository extends JpaRepository<ApparelOrderLine, Integer> {
     // Spring Data JPA will implement basic CRUD operations
     // Custom query methods can be added here if needed
-}
\ No newline at end of file
+
+    /**
+     * Delete all lines of an apparel order with a single DELETE
+     * @param apparelOrderId the apparel order ID
+     * @return the number of deleted lines
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from ApparelOrderLine l where l.apparelOrder.id = :apparelOrderId")
+    int deleteByApparelOrderId(@Param("apparelOrderId") Integer apparelOrderId);
+
+    /**
+     * Find the stock allocated to the lines of an apparel order, without loading the lines
+     * @param apparelOrderId the apparel order ID
+     * @param shippedStatus the status of an order whose stock has left and is not to be found
+     * @return the line ID, apparel ID and allocated quantity of each line that has stock allocated
+     */
+    @Query("""
+            select l.id as apparelOrderLineId, l.apparel.id as apparelId, l.quantityAllocated as quantityAllocated
+            from ApparelOrderLine l
+            where l.apparelOrder.id = :apparelOrderId
+              and l.apparelOrder.status <> :shippedStatus
+              and l.quantityAllocated > 0""")
+    List<AllocatedStockView> findAllocatedStockByApparelOrderId(@Param("apparelOrderId") Integer apparelOrderId,
+                                                               @Param("shippedStatus") ApparelOrderStatus shippedStatus);
+}
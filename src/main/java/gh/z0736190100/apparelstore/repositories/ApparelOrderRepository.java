@@ -1,12 +1,268 @@
 package gh.z0736190100.apparelstore.repositories;
 
 import gh.z0736190100.apparelstore.entities.ApparelOrder;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Repository for ApparelOrder entity
  */
 public interface ApparelOrderRepository extends JpaRepository<ApparelOrder, Integer> {
     // Spring Data JPA will implement basic CRUD operations
-    // Custom query methods can be added here if needed
-}
\ No newline at end of file
+
+    /**
+     * Find every apparel order with its customer fetched in the same query
+     * @return List of all apparel orders
+     */
+    @Query("select o from ApparelOrder o left join fetch o.customer")
+    List<ApparelOrder> findAllWithCustomer();
+
+    /**
+     * Find a slice of apparel orders with their customer fetched in the same query, without counting the total
+     * @param pageable pagination information
+     * @return Slice of apparel orders
+     */
+    @Query("select o from ApparelOrder o left join fetch o.customer")
+    Slice<ApparelOrder> findSliceBy(Pageable pageable);
+
+    /**
+     * Find the IDs of the first keyset page of apparel orders, newest (highest ID) first
+     * @param status the status to filter by (null matches all)
+     * @param customerId the customer ID to filter by (null matches all)
+     * @param limit the maximum number of IDs to return
+     * @return List of apparel order IDs matching the criteria
+     */
+    @Query("""
+            select o.id from ApparelOrder o
+            where (:status is null or o.status = :status)
+              and (:customerId is null or o.customer.id = :customerId)
+            order by o.id desc""")
+    List<Integer> findFirstIdPage(@Param("status") ApparelOrderStatus status,
+                                  @Param("customerId") Integer customerId,
+                                  Limit limit);
+
+    /**
+     * Find the IDs of the keyset page of apparel orders that follows the order with the given ID.
+     * The seek predicate is served by the primary key, so the cost does not grow with depth.
+     * @param status the status to filter by (null matches all)
+     * @param customerId the customer ID to filter by (null matches all)
+     * @param lastId the ID of the last order of the previous page
+     * @param limit the maximum number of IDs to return
+     * @return List of apparel order IDs matching the criteria
+     */
+    @Query("""
+            select o.id from ApparelOrder o
+            where (:status is null or o.status = :status)
+              and (:customerId is null or o.customer.id = :customerId)
+              and o.id < :lastId
+            order by o.id desc""")
+    List<Integer> findIdPageBefore(@Param("status") ApparelOrderStatus status,
+                                   @Param("customerId") Integer customerId,
+                                   @Param("lastId") Integer lastId,
+                                   Limit limit);
+
+    /**
+     * Stream the IDs of all apparel orders in ascending order from a forward-only cursor.
+     * Must be consumed inside a transaction and closed.
+     * @return Stream of all apparel order IDs
+     */
+    @Query("select o.id from ApparelOrder o order by o.id")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    Stream<Integer> streamAllIds();
+
+    /**
+     * Find apparel orders by ID with their customer, lines and line apparels fetched in the same query
+     * @param ids the apparel order IDs
+     * @return List of apparel orders, in no particular order
+     */
+    @Query("""
+            select distinct o from ApparelOrder o
+            left join fetch o.customer
+            left join fetch o.apparelOrderLines l
+            left join fetch l.apparel
+            where o.id in :ids""")
+    List<ApparelOrder> findWithLinesByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Find apparel orders by ID with their shipments fetched in the same query.
+     * Kept separate from {@link #findWithLinesByIdIn(Collection)} so lines and shipments are not
+     * multiplied into a cartesian product.
+     * @param ids the apparel order IDs
+     * @return List of apparel orders, in no particular order
+     */
+    @Query("""
+            select distinct o from ApparelOrder o
+            left join fetch o.shipments
+            where o.id in :ids""")
+    List<ApparelOrder> findWithShipmentsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Find the versions that together identify the current state of an apparel order as it is
+     * returned by the API: the order itself, its customer, and the sums of its line, line apparel and
+     * shipment versions. Versions only grow, and adding or removing a line or shipment bumps the order
+     * version, so any change to the returned representation changes at least one of them.
+     * Computed with one aggregate query, without loading the order.
+     * @param id the apparel order ID
+     * @return Optional containing the versions if the apparel order exists
+     */
+    @Query("""
+            select coalesce(o.version, 0) as version,
+                   coalesce(c.version, 0) as customerVersion,
+                   (select coalesce(sum(coalesce(l.version, 0) + coalesce(a.version, 0)), 0)
+                      from ApparelOrderLine l left join l.apparel a
+                      where l.apparelOrder = o) as linesVersion,
+                   (select coalesce(sum(coalesce(s.version, 0)), 0)
+                      from ApparelOrderShipment s
+                      where s.apparelOrder = o) as shipmentsVersion
+            from ApparelOrder o
+            left join o.customer c
+            where o.id = :id""")
+    Optional<ApparelOrderVersionView> findVersionById(@Param("id") Integer id);
+
+    /**
+     * Bump the version of an apparel order with a single UPDATE if it still has the expected versions.
+     * The versions are compared the way {@link #findVersionById} computes them, in the WHERE clause of the
+     * UPDATE itself, so there is no window between checking the version token and claiming the row.
+     * The updated row stays locked until the surrounding transaction ends, so the caller can go on to
+     * replace or delete the order without another writer slipping in.
+     * @param id the apparel order ID
+     * @param version the expected version of the order row, or null to claim whatever the current versions are
+     * @param customerVersion the expected version of the customer; ignored if version is null
+     * @param linesVersion the expected sum of the line and apparel versions; ignored if version is null
+     * @param shipmentsVersion the expected sum of the shipment versions; ignored if version is null
+     * @return the number of updated rows: 0 if the apparel order does not exist or has other versions
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update ApparelOrder o
+            set o.version = coalesce(o.version, 0) + 1,
+                o.updateDate = local datetime
+            where o.id = :id
+              and (:version is null
+                   or (coalesce(o.version, 0) = :version
+                       and coalesce((select c.version from Customer c where c.id = o.customer.id), 0)
+                           = :customerVersion
+                       and (select coalesce(sum(coalesce(l.version, 0) + coalesce(a.version, 0)), 0)
+                              from ApparelOrderLine l left join l.apparel a
+                              where l.apparelOrder.id = o.id) = :linesVersion
+                       and (select coalesce(sum(coalesce(s.version, 0)), 0)
+                              from ApparelOrderShipment s
+                              where s.apparelOrder.id = o.id) = :shipmentsVersion))""")
+    int claimIfVersion(@Param("id") Integer id, @Param("version") Integer version,
+                       @Param("customerVersion") Integer customerVersion, @Param("linesVersion") Long linesVersion,
+                       @Param("shipmentsVersion") Long shipmentsVersion);
+
+    /**
+     * Delete an apparel order row with a single DELETE; its lines and shipments must already be gone
+     * @param id the apparel order ID
+     * @return the number of deleted rows
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from ApparelOrder o where o.id = :id")
+    int deleteOrderRowById(@Param("id") Integer id);
+
+    /**
+     * Find the IDs of the oldest apparel orders in a status that no worker holds a lease on.
+     * Served by the (status, created_date) index.
+     * @param status the status
+     * @param now the current time; leases that ended before it are free
+     * @param limit the maximum number of IDs to return
+     * @return the IDs, oldest first
+     */
+    @Query("""
+            select o.id from ApparelOrder o
+            where o.status = :status
+              and (o.claimedUntil is null or o.claimedUntil < :now)
+            order by o.createdDate, o.id""")
+    List<Integer> findClaimableIds(@Param("status") ApparelOrderStatus status,
+                                   @Param("now") LocalDateTime now,
+                                   Limit limit);
+
+    /**
+     * Take a lease on those of the given apparel orders that are still in the status and not leased,
+     * with a single UPDATE. An order another worker leased in the meantime is left alone, so the caller
+     * must read back which orders carry its token. The version is not bumped: a lease is not a change to the order.
+     * @param ids the candidate apparel order IDs
+     * @param status the status the orders must still be in
+     * @param claimToken the token identifying this lease
+     * @param claimedUntil when the lease ends
+     * @param now the current time
+     * @return the number of orders leased
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update ApparelOrder o
+            set o.claimToken = :claimToken,
+                o.claimedUntil = :claimedUntil
+            where o.id in :ids
+              and o.status = :status
+              and (o.claimedUntil is null or o.claimedUntil < :now)""")
+    int claimByIdIn(@Param("ids") Collection<Integer> ids,
+                    @Param("status") ApparelOrderStatus status,
+                    @Param("claimToken") String claimToken,
+                    @Param("claimedUntil") LocalDateTime claimedUntil,
+                    @Param("now") LocalDateTime now);
+
+    /**
+     * Find the IDs of the apparel orders leased with a token
+     * @param claimToken the lease token
+     * @return the IDs in ascending order
+     */
+    @Query("select o.id from ApparelOrder o where o.claimToken = :claimToken order by o.id")
+    List<Integer> findIdsByClaimToken(@Param("claimToken") String claimToken);
+
+    /**
+     * Find an apparel order leased with a token and lock it until the surrounding transaction ends
+     * @param id the apparel order ID
+     * @param claimToken the lease token
+     * @return Optional containing the apparel order if it still carries the token
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<ApparelOrder> findByIdAndClaimToken(Integer id, String claimToken);
+
+    /**
+     * Drop the lease on an apparel order with a single UPDATE, without bumping its version
+     * @param id the apparel order ID
+     * @param claimToken the lease token
+     * @return the number of updated rows: 0 if the order does not carry the token
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update ApparelOrder o
+            set o.claimToken = null,
+                o.claimedUntil = null
+            where o.id = :id
+              and o.claimToken = :claimToken""")
+    int releaseClaim(@Param("id") Integer id, @Param("claimToken") String claimToken);
+
+    /**
+     * Find apparel orders by ID and lock them in ascending ID order until the surrounding transaction ends,
+     * so their status cannot change while the caller acts on it
+     * @param ids the apparel order IDs
+     * @return the apparel orders that exist, in ascending ID order
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<ApparelOrder> findAllByIdInOrderById(Collection<Integer> ids);
+}
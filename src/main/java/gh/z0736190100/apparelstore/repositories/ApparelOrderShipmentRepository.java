@@ -2,6 +2,10 @@ package gh.z0736190100.apparelstore.repositories;
 
 import gh.z0736190100.apparelstore.entities.ApparelOrderShipment;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -16,4 +20,14 @@ public interface ApparelOrderShipmentRepository extends JpaRepository<ApparelOrd
      * @return the list of shipments
      */
     List<ApparelOrderShipment> findByApparelOrderId(Integer apparelOrderId);
-}
\ No newline at end of file
+
+    /**
+     * Delete all shipments of an apparel order with a single DELETE
+     * @param apparelOrderId the apparel order ID
+     * @return the number of deleted shipments
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from ApparelOrderShipment s where s.apparelOrder.id = :apparelOrderId")
+    int deleteByApparelOrderId(@Param("apparelOrderId") Integer apparelOrderId);
+}
@@ -0,0 +1,15 @@
+package gh.z0736190100.apparelstore.repositories;
+
+/**
+ * Projection of the versions that make up the ETag of an apparel order
+ */
+public interface ApparelOrderVersionView {
+
+    Integer getVersion();
+
+    Integer getCustomerVersion();
+
+    Long getLinesVersion();
+
+    Long getShipmentsVersion();
+}
@@ -1,9 +1,23 @@
 package gh.z0736190100.apparelstore.repositories;
 
 import gh.z0736190100.apparelstore.entities.Apparel;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Repository for Apparel entity
@@ -28,4 +42,269 @@ public interface ApparelRepository extends JpaRepository<Apparel, Integer> {
      */
     Page<Apparel> findAllByApparelNameContainingIgnoreCaseAndApparelStyleContainingIgnoreCase(
             String apparelName, String apparelStyle, Pageable pageable);
+
+    /**
+     * Find the ID, name and style of every apparel, used to build the search index
+     * @return List of search projections of all apparels
+     */
+    List<ApparelSearchView> findAllProjectedBy();
+
+    /**
+     * Stream every apparel in ID order from a forward-only cursor, as read-only entities.
+     * Must be consumed inside a transaction and closed; callers clear the persistence context as they go.
+     * @return Stream of all apparels
+     */
+    @Query("select a from Apparel a order by a.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Apparel> streamAllBy();
+
+    /**
+     * Find the apparels with any of the given UPCs
+     * @param upcs the UPCs to look up
+     * @return List of apparels with a matching UPC
+     */
+    List<Apparel> findAllByUpcIn(Collection<String> upcs);
+
+    /**
+     * Find a slice of apparels filtered by apparel name, without counting the total
+     * @param apparelName the apparel name to filter by
+     * @param pageable pagination information
+     * @return Slice of apparels matching the criteria
+     */
+    Slice<Apparel> findSliceByApparelNameContainingIgnoreCase(String apparelName, Pageable pageable);
+
+    /**
+     * Find a slice of apparels filtered by apparel name and apparel style, without counting the total
+     * @param apparelName the apparel name to filter by
+     * @param apparelStyle the apparel style to filter by
+     * @param pageable pagination information
+     * @return Slice of apparels matching the criteria
+     */
+    Slice<Apparel> findSliceByApparelNameContainingIgnoreCaseAndApparelStyleContainingIgnoreCase(
+            String apparelName, String apparelStyle, Pageable pageable);
+
+    /**
+     * Find a slice of the apparels with the given IDs, in the order of the pageable's sort, without counting.
+     * Used with the IDs the search index matched, so the rows are read by primary key instead of a LIKE scan.
+     * @param ids the apparel IDs
+     * @param pageable pagination information
+     * @return Slice of the apparels with the given IDs
+     */
+    Slice<Apparel> findSliceByIdIn(Collection<Integer> ids, Pageable pageable);
+
+    /**
+     * Count apparels filtered by apparel name
+     * @param apparelName the apparel name to filter by
+     * @return the number of matching apparels
+     */
+    long countByApparelNameContainingIgnoreCase(String apparelName);
+
+    /**
+     * Count apparels filtered by apparel name and apparel style
+     * @param apparelName the apparel name to filter by
+     * @param apparelStyle the apparel style to filter by
+     * @return the number of matching apparels
+     */
+    long countByApparelNameContainingIgnoreCaseAndApparelStyleContainingIgnoreCase(String apparelName, String apparelStyle);
+
+    /**
+     * Find the first keyset page of apparels filtered by apparel name and apparel style,
+     * ordered by apparel name and ID
+     * @param apparelName the apparel name to filter by (empty string matches all)
+     * @param apparelStyle the apparel style to filter by (empty string matches all)
+     * @param limit the maximum number of rows to return
+     * @return List of apparels matching the criteria
+     */
+    @Query("""
+            select a from Apparel a
+            where upper(a.apparelName) like upper(concat('%', :apparelName, '%'))
+              and upper(a.apparelStyle) like upper(concat('%', :apparelStyle, '%'))
+            order by a.apparelName, a.id""")
+    List<Apparel> findFirstKeysetPage(@Param("apparelName") String apparelName,
+                                      @Param("apparelStyle") String apparelStyle,
+                                      Limit limit);
+
+    /**
+     * Find the keyset page of apparels that follows the row identified by (lastApparelName, lastId).
+     * The seek predicate is served by the (apparel_name, id) index, so the cost does not grow with depth.
+     * @param apparelName the apparel name to filter by (empty string matches all)
+     * @param apparelStyle the apparel style to filter by (empty string matches all)
+     * @param lastApparelName the apparel name of the last row of the previous page
+     * @param lastId the ID of the last row of the previous page
+     * @param limit the maximum number of rows to return
+     * @return List of apparels matching the criteria
+     */
+    @Query("""
+            select a from Apparel a
+            where upper(a.apparelName) like upper(concat('%', :apparelName, '%'))
+              and upper(a.apparelStyle) like upper(concat('%', :apparelStyle, '%'))
+              and (a.apparelName > :lastApparelName
+                   or (a.apparelName = :lastApparelName and a.id > :lastId))
+            order by a.apparelName, a.id""")
+    List<Apparel> findKeysetPageAfter(@Param("apparelName") String apparelName,
+                                      @Param("apparelStyle") String apparelStyle,
+                                      @Param("lastApparelName") String lastApparelName,
+                                      @Param("lastId") Integer lastId,
+                                      Limit limit);
+
+    /**
+     * Find the first keyset page of the apparels with the given IDs, ordered by apparel name and ID
+     * @param ids the apparel IDs the search index matched
+     * @param limit the maximum number of rows to return
+     * @return List of the apparels with the given IDs
+     */
+    @Query("""
+            select a from Apparel a
+            where a.id in :ids
+            order by a.apparelName, a.id""")
+    List<Apparel> findFirstKeysetPageByIdIn(@Param("ids") Collection<Integer> ids, Limit limit);
+
+    /**
+     * Find the keyset page of the apparels with the given IDs that follows the row identified by
+     * (lastApparelName, lastId)
+     * @param ids the apparel IDs the search index matched
+     * @param lastApparelName the apparel name of the last row of the previous page
+     * @param lastId the ID of the last row of the previous page
+     * @param limit the maximum number of rows to return
+     * @return List of the apparels with the given IDs
+     */
+    @Query("""
+            select a from Apparel a
+            where a.id in :ids
+              and (a.apparelName > :lastApparelName
+                   or (a.apparelName = :lastApparelName and a.id > :lastId))
+            order by a.apparelName, a.id""")
+    List<Apparel> findKeysetPageAfterByIdIn(@Param("ids") Collection<Integer> ids,
+                                            @Param("lastApparelName") String lastApparelName,
+                                            @Param("lastId") Integer lastId,
+                                            Limit limit);
+
+    /**
+     * Find the version of an apparel without loading the entity
+     * @param id the apparel ID
+     * @return Optional containing the version (0 if never set) if the apparel exists
+     */
+    @Query("select coalesce(a.version, 0) from Apparel a where a.id = :id")
+    Optional<Integer> findVersionById(@Param("id") Integer id);
+
+    /**
+     * Overwrite an apparel with a single UPDATE, bumping its version, if it still has the expected version
+     * @param id the apparel ID
+     * @param version the expected version, or null to update whatever the current version is
+     * @param apparel the new field values
+     * @return the number of updated rows: 0 if the apparel does not exist or has another version
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update Apparel a
+            set a.apparelName = :#{#apparel.apparelName},
+                a.apparelStyle = :#{#apparel.apparelStyle},
+                a.upc = :#{#apparel.upc},
+                a.quantityOnHand = :#{#apparel.quantityOnHand},
+                a.description = :#{#apparel.description},
+                a.price = :#{#apparel.price},
+                a.version = coalesce(a.version, 0) + 1,
+                a.updateDate = local datetime
+            where a.id = :id
+              and (:version is null or coalesce(a.version, 0) = :version)""")
+    int updateIfVersion(@Param("id") Integer id, @Param("version") Integer version, @Param("apparel") Apparel apparel);
+
+    /**
+     * Overwrite the non-null fields of the patch with a single UPDATE, bumping the version,
+     * if the apparel still has the expected version
+     * @param id the apparel ID
+     * @param version the expected version, or null to update whatever the current version is
+     * @param patch the new field values; null fields are left unchanged
+     * @return the number of updated rows: 0 if the apparel does not exist or has another version
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update Apparel a
+            set a.apparelName = coalesce(:#{#patch.apparelName}, a.apparelName),
+                a.apparelStyle = coalesce(:#{#patch.apparelStyle}, a.apparelStyle),
+                a.upc = coalesce(:#{#patch.upc}, a.upc),
+                a.quantityOnHand = coalesce(:#{#patch.quantityOnHand}, a.quantityOnHand),
+                a.description = coalesce(:#{#patch.description}, a.description),
+                a.price = coalesce(:#{#patch.price}, a.price),
+                a.version = coalesce(a.version, 0) + 1,
+                a.updateDate = local datetime
+            where a.id = :id
+              and (:version is null or coalesce(a.version, 0) = :version)""")
+    int patchIfVersion(@Param("id") Integer id, @Param("version") Integer version, @Param("patch") Apparel patch);
+
+    /**
+     * Delete an apparel with a single DELETE if it still has the expected version
+     * @param id the apparel ID
+     * @param version the expected version, or null to delete whatever the current version is
+     * @return the number of deleted rows: 0 if the apparel does not exist or has another version
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Apparel a where a.id = :id and (:version is null or coalesce(a.version, 0) = :version)")
+    int deleteIfVersion(@Param("id") Integer id, @Param("version") Integer version);
+
+    /**
+     * Take stock of an apparel with a single guarded UPDATE, bumping its version.
+     * The row is only updated if it holds at least the quantity, so stock can never go negative.
+     * The persistence context is not cleared, so entities the caller is working on stay managed.
+     * @param id the apparel ID
+     * @param quantity the quantity to take
+     * @return the number of updated rows: 0 if the apparel does not exist or has too little stock
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            update Apparel a
+            set a.quantityOnHand = a.quantityOnHand - :quantity,
+                a.version = coalesce(a.version, 0) + 1,
+                a.updateDate = local datetime
+            where a.id = :id
+              and a.quantityOnHand >= :quantity""")
+    int allocateStock(@Param("id") Integer id, @Param("quantity") int quantity);
+
+    /**
+     * Find the stock of an apparel without loading it
+     * @param id the apparel ID
+     * @return Optional containing the quantity on hand, empty if the apparel does not exist or has none recorded
+     */
+    @Query("select a.quantityOnHand from Apparel a where a.id = :id")
+    Optional<Integer> findQuantityOnHandById(@Param("id") Integer id);
+
+    /**
+     * Write stock already taken from the in-memory counters of a hot apparel back to its row, bumping its version.
+     * Unlike {@link #allocateStock(Integer, int)} the UPDATE is not guarded: the counters have already made
+     * sure the quantity was there to take.
+     * @param id the apparel ID
+     * @param quantity the quantity taken since the last write-back
+     * @return the number of updated rows: 0 if the apparel does not exist
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            update Apparel a
+            set a.quantityOnHand = a.quantityOnHand - :quantity,
+                a.version = coalesce(a.version, 0) + 1,
+                a.updateDate = local datetime
+            where a.id = :id""")
+    int writeBackStock(@Param("id") Integer id, @Param("quantity") int quantity);
+
+    /**
+     * Put stock back on an apparel, e.g. when a hold expires, bumping its version
+     * @param id the apparel ID
+     * @param quantity the quantity to put back
+     * @return the number of updated rows: 0 if the apparel does not exist
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            update Apparel a
+            set a.quantityOnHand = coalesce(a.quantityOnHand, 0) + :quantity,
+                a.version = coalesce(a.version, 0) + 1,
+                a.updateDate = local datetime
+            where a.id = :id""")
+    int releaseStock(@Param("id") Integer id, @Param("quantity") int quantity);
 }
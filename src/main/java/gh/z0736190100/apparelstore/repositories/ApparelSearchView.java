@@ -0,0 +1,13 @@
+package gh.z0736190100.apparelstore.repositories;
+
+/**
+ * Projection of the Apparel columns covered by the in-memory search index
+ */
+public interface ApparelSearchView {
+
+    Integer getId();
+
+    String getApparelName();
+
+    String getApparelStyle();
+}
@@ -0,0 +1,25 @@
+package gh.z0736190100.apparelstore.repositories;
+
+import gh.z0736190100.apparelstore.entities.CatalogStamp;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Repository for CatalogStamp entity
+ */
+public interface CatalogStampRepository extends JpaRepository<CatalogStamp, Integer> {
+
+    /**
+     * Move the stamp on with a single UPDATE, joining the caller's transaction if there is one.
+     * The row stays locked until that transaction ends.
+     * @param id the stamp row ID
+     * @return the number of updated rows
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("update CatalogStamp c set c.stamp = c.stamp + 1 where c.id = :id")
+    int increment(@Param("id") Integer id);
+}
@@ -1,7 +1,15 @@
 package gh.z0736190100.apparelstore.repositories;
 
 import gh.z0736190100.apparelstore.entities.Customer;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
 
 /**
  * Repository for Customer entity
@@ -9,4 +17,144 @@ import org.springframework.data.jpa.repository.JpaRepository;
 public interface CustomerRepository extends JpaRepository<Customer, Integer> {
     // Spring Data JPA will implement basic CRUD operations
     // Custom query methods can be added here if needed
-}
\ No newline at end of file
+
+    /**
+     * Find the first keyset page of the customer directory, ordered by name and ID
+     * @param namePrefix the case-sensitive start of the name, with %, _ and \ escaped by a \ (null matches all)
+     * @param email the normalized email to filter by (null matches all)
+     * @param city the city to filter by (null matches all)
+     * @param state the state to filter by (null matches all)
+     * @param postalCode the postal code to filter by (null matches all)
+     * @param limit the maximum number of rows to return
+     * @return List of customers matching the criteria
+     */
+    @Query("""
+            select c from Customer c
+            where (:namePrefix is null or c.name like concat(:namePrefix, '%') escape '\\')
+              and (:email is null or c.emailNormalized = :email)
+              and (:city is null or c.city = :city)
+              and (:state is null or c.state = :state)
+              and (:postalCode is null or c.postalCode = :postalCode)
+            order by c.name, c.id""")
+    List<Customer> findFirstKeysetPage(@Param("namePrefix") String namePrefix,
+                                       @Param("email") String email,
+                                       @Param("city") String city,
+                                       @Param("state") String state,
+                                       @Param("postalCode") String postalCode,
+                                       Limit limit);
+
+    /**
+     * Find the keyset page of the customer directory that follows the row identified by (lastName, lastId).
+     * The seek predicate is served by the (name, id) index, or by the filter index that ends in it,
+     * so the cost does not grow with depth.
+     * @param namePrefix the case-sensitive start of the name, with %, _ and \ escaped by a \ (null matches all)
+     * @param email the normalized email to filter by (null matches all)
+     * @param city the city to filter by (null matches all)
+     * @param state the state to filter by (null matches all)
+     * @param postalCode the postal code to filter by (null matches all)
+     * @param lastName the name of the last row of the previous page
+     * @param lastId the ID of the last row of the previous page
+     * @param limit the maximum number of rows to return
+     * @return List of customers matching the criteria
+     */
+    @Query("""
+            select c from Customer c
+            where (:namePrefix is null or c.name like concat(:namePrefix, '%') escape '\\')
+              and (:email is null or c.emailNormalized = :email)
+              and (:city is null or c.city = :city)
+              and (:state is null or c.state = :state)
+              and (:postalCode is null or c.postalCode = :postalCode)
+              and (c.name > :lastName
+                   or (c.name = :lastName and c.id > :lastId))
+            order by c.name, c.id""")
+    List<Customer> findKeysetPageAfter(@Param("namePrefix") String namePrefix,
+                                       @Param("email") String email,
+                                       @Param("city") String city,
+                                       @Param("state") String state,
+                                       @Param("postalCode") String postalCode,
+                                       @Param("lastName") String lastName,
+                                       @Param("lastId") Integer lastId,
+                                       Limit limit);
+
+    /**
+     * Find the customer with an email, with a seek on the normalized email index.
+     * Customers that shared an email before V15 keep it until they are merged, so the oldest of them is found.
+     * @param emailNormalized the email as normalized by ContactNormalizer
+     * @return Optional containing the oldest customer with the email, if any
+     */
+    Optional<Customer> findFirstByEmailNormalizedOrderById(String emailNormalized);
+
+    /**
+     * Get the normalized email a customer is stored with, without loading the entity
+     * @param id customer ID
+     * @return Optional containing the normalized email, empty if the customer does not exist or has none
+     */
+    @Query("select c.emailNormalized from Customer c where c.id = :id")
+    Optional<String> findEmailNormalizedById(@Param("id") Integer id);
+
+    /**
+     * Check whether a customer other than the one being written already has an email
+     * @param emailNormalized the email as normalized by ContactNormalizer
+     * @param id the ID of the customer being written, null for a new customer
+     * @return true if another customer has the email
+     */
+    @Query("""
+            select count(c) > 0 from Customer c
+            where c.emailNormalized = :emailNormalized
+              and (:id is null or c.id <> :id)""")
+    boolean existsOtherByEmailNormalized(@Param("emailNormalized") String emailNormalized, @Param("id") Integer id);
+
+    /**
+     * Find the customers with a phone number, with a seek on the normalized phone index.
+     * A phone number may be shared, e.g. by a household.
+     * @param phoneNormalized the phone number as normalized by ContactNormalizer
+     * @return List of customers with the phone number, in ID order
+     */
+    List<Customer> findByPhoneNormalizedOrderById(String phoneNormalized);
+
+    /**
+     * Find the version of a customer without loading the entity
+     * @param id the customer ID
+     * @return Optional containing the version (0 if never set) if the customer exists
+     */
+    @Query("select coalesce(c.version, 0) from Customer c where c.id = :id")
+    Optional<Integer> findVersionById(@Param("id") Integer id);
+
+    /**
+     * Overwrite a customer with a single UPDATE, bumping its version, if it still has the expected version
+     * @param id the customer ID
+     * @param version the expected version, or null to update whatever the current version is
+     * @param customer the new field values
+     * @return the number of updated rows: 0 if the customer does not exist or has another version
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update Customer c
+            set c.name = :#{#customer.name},
+                c.email = :#{#customer.email},
+                c.phoneNumber = :#{#customer.phoneNumber},
+                c.addressLine1 = :#{#customer.addressLine1},
+                c.addressLine2 = :#{#customer.addressLine2},
+                c.city = :#{#customer.city},
+                c.state = :#{#customer.state},
+                c.postalCode = :#{#customer.postalCode},
+                c.emailNormalized = :#{#customer.emailNormalized},
+                c.phoneNormalized = :#{#customer.phoneNormalized},
+                c.version = coalesce(c.version, 0) + 1,
+                c.updateDate = local datetime
+            where c.id = :id
+              and (:version is null or coalesce(c.version, 0) = :version)""")
+    int updateIfVersion(@Param("id") Integer id, @Param("version") Integer version, @Param("customer") Customer customer);
+
+    /**
+     * Delete a customer with a single DELETE if it still has the expected version
+     * @param id the customer ID
+     * @param version the expected version, or null to delete whatever the current version is
+     * @return the number of deleted rows: 0 if the customer does not exist or has another version
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Customer c where c.id = :id and (:version is null or coalesce(c.version, 0) = :version)")
+    int deleteIfVersion(@Param("id") Integer id, @Param("version") Integer version);
+}
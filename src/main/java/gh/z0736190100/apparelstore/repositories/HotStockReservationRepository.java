@@ -0,0 +1,37 @@
+package gh.z0736190100.apparelstore.repositories;
+
+import gh.z0736190100.apparelstore.entities.HotStockReservation;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository for HotStockReservation entity
+ */
+public interface HotStockReservationRepository extends JpaRepository<HotStockReservation, Integer> {
+
+    /**
+     * Find the oldest reservations that have not been written back yet
+     * @param limit the maximum number of reservations to return
+     * @return the reservations, in ID order
+     */
+    List<HotStockReservation> findAllByOrderById(Limit limit);
+
+    /**
+     * Find the stock of an apparel that has not been taken yet: its quantity on hand minus the reservations
+     * still waiting to be written back. A single statement reads both, so a concurrent write-back can never
+     * be counted on one side only.
+     * @param apparelId the apparel ID
+     * @return Optional containing the unreserved quantity, empty if the apparel does not exist or has no stock recorded
+     */
+    @Query("""
+            select a.quantityOnHand - coalesce(
+                (select sum(r.quantity) from HotStockReservation r where r.apparelId = a.id), 0)
+            from Apparel a
+            where a.id = :apparelId""")
+    Optional<Long> findUnreservedQuantityByApparelId(@Param("apparelId") Integer apparelId);
+}
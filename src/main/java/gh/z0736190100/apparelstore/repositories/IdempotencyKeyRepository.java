@@ -0,0 +1,33 @@
+package gh.z0736190100.apparelstore.repositories;
+
+import gh.z0736190100.apparelstore.entities.IdempotencyKey;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository for IdempotencyKey entity
+ */
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, Integer> {
+
+    /**
+     * Find a stored response by the hash of its key
+     * @param keyHash the SHA-256 of the Idempotency-Key
+     * @return Optional containing the stored response, empty if the key has not been used or was purged
+     */
+    Optional<IdempotencyKey> findByKeyHash(String keyHash);
+
+    /**
+     * Find the IDs of keys created before a cutoff, oldest first
+     * @param cutoff the cutoff
+     * @param limit the maximum number of IDs to return
+     * @return the IDs
+     */
+    @Query("select k.id from IdempotencyKey k where k.createdDate < :cutoff order by k.createdDate")
+    List<Integer> findIdsCreatedBefore(@Param("cutoff") LocalDateTime cutoff, Limit limit);
+}
@@ -0,0 +1,49 @@
+package gh.z0736190100.apparelstore.repositories;
+
+import gh.z0736190100.apparelstore.entities.OrderIntake;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository for OrderIntake entity
+ */
+public interface OrderIntakeRepository extends JpaRepository<OrderIntake, Integer> {
+
+    /**
+     * Find the IDs of intakes in a status, oldest first, without loading their payloads
+     * @param status the status
+     * @return the IDs in ascending order
+     */
+    @Query("select i.id from OrderIntake i where i.status = :status order by i.id")
+    List<Integer> findIdsByStatus(@Param("status") String status);
+
+    /**
+     * Find intakes by ID that are still in a status, in ID order
+     * @param ids the intake IDs
+     * @param status the status
+     * @return the intakes among the IDs that are in the status
+     */
+    List<OrderIntake> findAllByIdInAndStatusOrderById(Collection<Integer> ids, String status);
+
+    /**
+     * Claim those of the given intakes that are still in a status by moving them to another one with a single UPDATE.
+     * The claimed rows stay locked until the surrounding transaction ends, so of two transactions claiming the
+     * same intake only the first gets it; the other finds it in its new status once the first has committed.
+     * @param ids the intake IDs
+     * @param status the status the intakes must still be in
+     * @param claimedStatus the status to move them to
+     * @return the number of intakes claimed
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update OrderIntake i set i.status = :claimedStatus where i.id in :ids and i.status = :status")
+    int claimByIdIn(@Param("ids") Collection<Integer> ids,
+                    @Param("status") String status,
+                    @Param("claimedStatus") String claimedStatus);
+}
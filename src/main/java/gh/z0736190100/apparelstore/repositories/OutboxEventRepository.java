@@ -0,0 +1,47 @@
+package gh.z0736190100.apparelstore.repositories;
+
+import gh.z0736190100.apparelstore.entities.OutboxEvent;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository for OutboxEvent entity
+ */
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Integer> {
+
+    /**
+     * Find the oldest events not delivered yet, in ID order
+     * @param limit the maximum number of events to return
+     * @return the undelivered events in ascending ID order
+     */
+    @Query("select e from OutboxEvent e where e.deliveredAt is null order by e.id")
+    List<OutboxEvent> findUndelivered(Limit limit);
+
+    /**
+     * Stamp events as delivered with a single UPDATE
+     * @param ids the event IDs
+     * @param deliveredAt when they were delivered
+     * @return the number of events stamped; events stamped before are left alone
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update OutboxEvent e set e.deliveredAt = :deliveredAt where e.id in :ids and e.deliveredAt is null")
+    int markDelivered(@Param("ids") Collection<Integer> ids, @Param("deliveredAt") LocalDateTime deliveredAt);
+
+    /**
+     * Find the IDs of events delivered before a cutoff, oldest first
+     * @param cutoff the cutoff
+     * @param limit the maximum number of IDs to return
+     * @return the IDs
+     */
+    @Query("select e.id from OutboxEvent e where e.deliveredAt < :cutoff order by e.deliveredAt")
+    List<Integer> findIdsDeliveredBefore(@Param("cutoff") LocalDateTime cutoff, Limit limit);
+}
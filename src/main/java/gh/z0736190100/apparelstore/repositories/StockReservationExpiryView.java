@@ -0,0 +1,13 @@
+package gh.z0736190100.apparelstore.repositories;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projection of a stock reservation's expiry, all the timer wheel needs to rebuild itself
+ */
+public interface StockReservationExpiryView {
+
+    Integer getId();
+
+    LocalDateTime getExpiresAt();
+}
@@ -0,0 +1,61 @@
+package gh.z0736190100.apparelstore.repositories;
+
+import gh.z0736190100.apparelstore.entities.StockReservation;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository for StockReservation entity
+ */
+public interface StockReservationRepository extends JpaRepository<StockReservation, Integer> {
+
+    /**
+     * Find the expiry of every reservation, without loading the reservations
+     * @return the ID and expiry of each reservation
+     */
+    @Query("select r.id as id, r.expiresAt as expiresAt from StockReservation r")
+    List<StockReservationExpiryView> findAllExpiries();
+
+    /**
+     * Find the apparel orders the given reservations belong to, without locking anything
+     * @param ids the reservation IDs
+     * @return the distinct apparel order IDs
+     */
+    @Query("select distinct r.apparelOrderId from StockReservation r where r.id in :ids")
+    List<Integer> findApparelOrderIdsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Find reservations by ID and lock them until the surrounding transaction ends, so a reservation
+     * cannot be confirmed while it is being released. Reservations that were confirmed in the meantime are skipped.
+     * @param ids the reservation IDs
+     * @return the reservations that still exist
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<StockReservation> findAllByIdIn(Collection<Integer> ids);
+
+    /**
+     * Find the reservations of order lines, newest first, and lock them until the surrounding transaction ends
+     * @param apparelOrderLineIds the order line IDs
+     * @return the reservations of the lines, in descending ID order
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<StockReservation> findAllByApparelOrderLineIdInOrderByIdDesc(Collection<Integer> apparelOrderLineIds);
+
+    /**
+     * Delete all reservations of an apparel order with a single DELETE
+     * @param apparelOrderId the apparel order ID
+     * @return the number of deleted reservations
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("delete from StockReservation r where r.apparelOrderId = :apparelOrderId")
+    int deleteByApparelOrderId(@Param("apparelOrderId") Integer apparelOrderId);
+}
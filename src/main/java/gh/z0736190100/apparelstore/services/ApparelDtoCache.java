@@ -0,0 +1,90 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import gh.z0736190100.apparelstore.config.ApparelCacheProperties;
+import gh.z0736190100.apparelstore.models.ApparelDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Bounded cache of apparel DTOs by ID, in front of the database lookup in {@link ApparelServiceImpl}.
+ * <p>
+ * Entries carry the entity version. A put only replaces an entry with an equal or newer version,
+ * and a delete leaves a tombstone that no later put can replace, so a slow reader can never
+ * overwrite fresher data with the row it loaded before a concurrent write.
+ * Hit, miss and eviction metrics are published as {@code cache.*{cache=apparelById}}.
+ */
+@Component
+public class ApparelDtoCache {
+
+    static final String CACHE_NAME = "apparelById";
+
+    private final Cache<Integer, CachedApparel> cache;
+
+    public ApparelDtoCache(ApparelCacheProperties apparelCacheProperties, MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(apparelCacheProperties.maximumSize())
+                .expireAfterWrite(apparelCacheProperties.expireAfterWrite())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Get a cached apparel
+     * @param id the apparel ID
+     * @return Optional containing a copy of the cached apparel, empty on a miss or for a deleted apparel
+     */
+    public Optional<ApparelDto> get(Integer id) {
+        CachedApparel cached = cache.getIfPresent(id);
+        if (cached == null || cached.deleted()) {
+            return Optional.empty();
+        }
+        return Optional.of(copy(cached.apparel()));
+    }
+
+    /**
+     * Cache an apparel unless a newer version (or a tombstone) is already cached
+     * @param apparelDto the apparel, with ID and version set
+     */
+    public void put(ApparelDto apparelDto) {
+        if (apparelDto == null || apparelDto.getId() == null) {
+            return;
+        }
+        CachedApparel candidate = new CachedApparel(copy(apparelDto), versionOf(apparelDto), false);
+        cache.asMap().merge(apparelDto.getId(), candidate,
+                (existing, fresh) -> !existing.deleted() && fresh.version() >= existing.version() ? fresh : existing);
+    }
+
+    /**
+     * Drop a cached apparel whose row changed without a fresh DTO being available.
+     * A subsequent read reloads it from the database.
+     * @param id the apparel ID
+     */
+    public void invalidate(Integer id) {
+        cache.invalidate(id);
+    }
+
+    /**
+     * Replace a cached apparel with a tombstone after it has been deleted
+     * @param id the apparel ID
+     */
+    public void evictDeleted(Integer id) {
+        cache.put(id, new CachedApparel(null, Integer.MAX_VALUE, true));
+    }
+
+    private static int versionOf(ApparelDto apparelDto) {
+        return apparelDto.getVersion() == null ? 0 : apparelDto.getVersion();
+    }
+
+    private static ApparelDto copy(ApparelDto apparelDto) {
+        return apparelDto.toBuilder().build();
+    }
+
+    private record CachedApparel(ApparelDto apparel, int version, boolean deleted) {
+    }
+}
@@ -0,0 +1,38 @@
+package gh.z0736190100.apparelstore.services;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Input formats accepted by the bulk apparel import
+ */
+public enum ApparelImportFormat {
+
+    /**
+     * One JSON apparel object per line
+     */
+    NDJSON,
+
+    /**
+     * Comma-separated values with a header row naming the apparel fields
+     */
+    CSV;
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final String CSV_VALUE = "text/csv";
+
+    /**
+     * Resolve the format of a request body from its content type
+     * @param contentType the request content type
+     * @return the import format
+     * @throws IllegalArgumentException if the content type is not supported
+     */
+    public static ApparelImportFormat of(MediaType contentType) {
+        if (contentType != null && contentType.isCompatibleWith(MediaType.parseMediaType(CSV_VALUE))) {
+            return CSV;
+        }
+        if (contentType != null && contentType.isCompatibleWith(MediaType.parseMediaType(NDJSON_VALUE))) {
+            return NDJSON;
+        }
+        throw new IllegalArgumentException("Unsupported import content type: " + contentType);
+    }
+}
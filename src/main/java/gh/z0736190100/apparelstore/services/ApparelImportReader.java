@@ -0,0 +1,171 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.models.ApparelDto;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Reads apparel rows one line at a time from an NDJSON or CSV import body, so only the current line
+ * is held in memory.
+ * <p>
+ * CSV input must start with a header row naming the apparel fields (apparelName, apparelStyle, upc,
+ * quantityOnHand, price, description) in any order and case. Fields may be quoted with {@code "}
+ * and quotes escaped by doubling them, but a quoted field cannot span lines. Blank lines are skipped.
+ */
+class ApparelImportReader {
+
+    /**
+     * One parsed input row: either an apparel or the reason it could not be parsed
+     * @param row the one-based row number, not counting a CSV header
+     * @param apparel the parsed apparel, null if the row could not be parsed
+     * @param error why the row could not be parsed, null if it was
+     */
+    record ImportRow(long row, ApparelDto apparel, String error) {
+    }
+
+    private static final List<String> CSV_FIELDS =
+            List.of("apparelname", "apparelstyle", "upc", "quantityonhand", "price", "description");
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final BufferedReader reader;
+    private final ApparelImportFormat format;
+    private final ObjectMapper objectMapper;
+
+    private List<String> csvHeader;
+    private long row;
+
+    ApparelImportReader(BufferedReader reader, ApparelImportFormat format, ObjectMapper objectMapper) {
+        this.reader = reader;
+        this.format = format;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Read the next non-blank row
+     * @return the next row, or null at the end of the input
+     */
+    ImportRow next() {
+        String line = nextLine();
+        if (line == null) {
+            return null;
+        }
+        if (format == ApparelImportFormat.CSV && csvHeader == null) {
+            csvHeader = parseHeader(line);
+            line = nextLine();
+            if (line == null) {
+                return null;
+            }
+        }
+
+        row++;
+        try {
+            ApparelDto apparel = format == ApparelImportFormat.CSV
+                    ? parseCsv(line)
+                    : objectMapper.readValue(line, ApparelDto.class);
+            return new ImportRow(row, apparel, null);
+        } catch (JsonProcessingException e) {
+            return new ImportRow(row, null, "Malformed JSON: " + e.getOriginalMessage());
+        } catch (IllegalArgumentException e) {
+            return new ImportRow(row, null, e.getMessage());
+        }
+    }
+
+    private String nextLine() {
+        try {
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && line.isBlank());
+            return line;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<String> parseHeader(String line) {
+        String columns = !line.isEmpty() && line.charAt(0) == BYTE_ORDER_MARK ? line.substring(1) : line;
+        List<String> header = new ArrayList<>();
+        for (String column : splitCsv(columns)) {
+            String field = column.strip().toLowerCase(Locale.ROOT);
+            header.add(CSV_FIELDS.contains(field) ? field : null);
+        }
+        return header;
+    }
+
+    private ApparelDto parseCsv(String line) {
+        List<String> values = splitCsv(line);
+        if (values.size() != csvHeader.size()) {
+            throw new IllegalArgumentException(
+                    "Expected " + csvHeader.size() + " columns but found " + values.size());
+        }
+
+        ApparelDto apparel = new ApparelDto();
+        for (int i = 0; i < values.size(); i++) {
+            String field = csvHeader.get(i);
+            String value = values.get(i).isEmpty() ? null : values.get(i);
+            if (field == null || value == null) {
+                continue;
+            }
+            switch (field) {
+                case "apparelname" -> apparel.setApparelName(value);
+                case "apparelstyle" -> apparel.setApparelStyle(value);
+                case "upc" -> apparel.setUpc(value);
+                case "quantityonhand" ->
+                        apparel.setQuantityOnHand(parseNumber("quantityOnHand", value, Integer::valueOf));
+                case "price" -> apparel.setPrice(parseNumber("price", value, BigDecimal::new));
+                case "description" -> apparel.setDescription(value);
+                default -> throw new IllegalStateException("Unmapped CSV field: " + field);
+            }
+        }
+        return apparel;
+    }
+
+    private static <T> T parseNumber(String field, String value, Function<String, T> parser) {
+        try {
+            return parser.apply(value.strip());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + field + ": " + value);
+        }
+    }
+
+    static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        values.add(value.toString());
+        return values;
+    }
+}
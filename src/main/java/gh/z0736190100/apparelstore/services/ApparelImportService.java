@@ -0,0 +1,22 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.models.ApparelImportResultDto;
+
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Service interface for bulk apparel imports
+ */
+public interface ApparelImportService {
+
+    /**
+     * Import apparels from a stream, upserting them by UPC in chunks of rows per transaction.
+     * The input is read one row at a time, and results are reported as each chunk is committed,
+     * so memory use does not depend on the size of the input.
+     * @param input the NDJSON or CSV input, read to the end but not closed
+     * @param format the input format
+     * @param results receives the outcome of every row, in input order
+     */
+    void importApparels(InputStream input, ApparelImportFormat format, Consumer<ApparelImportResultDto> results);
+}
@@ -0,0 +1,213 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.config.ImportProperties;
+import gh.z0736190100.apparelstore.entities.Apparel;
+import gh.z0736190100.apparelstore.mappers.ApparelMapper;
+import gh.z0736190100.apparelstore.models.ApparelDto;
+import gh.z0736190100.apparelstore.models.ApparelImportResultDto;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import gh.z0736190100.apparelstore.services.ApparelImportReader.ImportRow;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Implementation of ApparelImportService that upserts each chunk of rows with one UPC lookup
+ * and one batched write, in its own transaction
+ */
+@Slf4j
+@Service
+public class ApparelImportServiceImpl implements ApparelImportService {
+
+    private final ApparelRepository apparelRepository;
+    private final ApparelMapper apparelMapper;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final ImportProperties importProperties;
+    private final ListingCountCache listingCountCache;
+    private final ApparelSearchIndex apparelSearchIndex;
+    private final ApparelDtoCache apparelDtoCache;
+    private final CatalogVersion catalogVersion;
+    private final HotStockCounters hotStockCounters;
+    private final OutboxPublisher outboxPublisher;
+    private final TransactionTemplate chunkTransaction;
+
+    public ApparelImportServiceImpl(ApparelRepository apparelRepository, ApparelMapper apparelMapper,
+                                    ObjectMapper objectMapper, Validator validator,
+                                    ImportProperties importProperties, ListingCountCache listingCountCache,
+                                    ApparelSearchIndex apparelSearchIndex, ApparelDtoCache apparelDtoCache,
+                                    CatalogVersion catalogVersion, HotStockCounters hotStockCounters,
+                                    OutboxPublisher outboxPublisher, PlatformTransactionManager transactionManager) {
+        this.apparelRepository = apparelRepository;
+        this.apparelMapper = apparelMapper;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.importProperties = importProperties;
+        this.listingCountCache = listingCountCache;
+        this.apparelSearchIndex = apparelSearchIndex;
+        this.apparelDtoCache = apparelDtoCache;
+        this.catalogVersion = catalogVersion;
+        this.hotStockCounters = hotStockCounters;
+        this.outboxPublisher = outboxPublisher;
+        this.chunkTransaction = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void importApparels(InputStream input, ApparelImportFormat format, Consumer<ApparelImportResultDto> results) {
+        ApparelImportReader reader = new ApparelImportReader(
+                new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)), format, objectMapper);
+        int chunkSize = importProperties.chunkSize();
+        List<ImportRow> chunk = new ArrayList<>(chunkSize);
+
+        ImportRow row;
+        while ((row = reader.next()) != null) {
+            chunk.add(row);
+            if (chunk.size() == chunkSize) {
+                importChunk(chunk, results);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            importChunk(chunk, results);
+        }
+    }
+
+    private void importChunk(List<ImportRow> rows, Consumer<ApparelImportResultDto> results) {
+        ApparelImportResultDto[] outcomes = new ApparelImportResultDto[rows.size()];
+        List<Integer> validRows = new ArrayList<>(rows.size());
+
+        for (int i = 0; i < rows.size(); i++) {
+            ImportRow row = rows.get(i);
+            Map<String, String> errors = validate(row);
+            if (errors.isEmpty()) {
+                validRows.add(i);
+            } else {
+                outcomes[i] = result(row, ApparelImportResultDto.Status.INVALID, null, errors);
+            }
+        }
+
+        if (!validRows.isEmpty()) {
+            try {
+                Map<Integer, UpsertedRow> upserted = chunkTransaction.execute(status -> upsert(rows, validRows));
+
+                // Only committed rows reach the search index, the cache and the hot stock counters
+                upserted.forEach((index, upsertedRow) -> {
+                    ApparelDto apparelDto = upsertedRow.apparel();
+                    if (upsertedRow.status() == ApparelImportResultDto.Status.UPDATED) {
+                        // The row's quantity on hand was written directly
+                        hotStockCounters.resync(apparelDto.getId());
+                    }
+                    apparelSearchIndex.index(apparelDto.getId(), apparelDto.getApparelName(),
+                            apparelDto.getApparelStyle());
+                    apparelDtoCache.put(apparelDto);
+                    outcomes[index] = result(rows.get(index), upsertedRow.status(), apparelDto.getId(), null);
+                });
+                listingCountCache.invalidate(ApparelServiceImpl.LISTING);
+                catalogVersion.changed();
+            } catch (RuntimeException e) {
+                log.warn("Apparel import chunk of rows {}-{} failed",
+                        rows.get(0).row(), rows.get(rows.size() - 1).row(), e);
+                Map<String, String> errors = Map.of("row", "The chunk containing this row could not be saved");
+                validRows.forEach(index -> outcomes[index] =
+                        result(rows.get(index), ApparelImportResultDto.Status.FAILED, null, errors));
+            }
+        }
+
+        for (ApparelImportResultDto outcome : outcomes) {
+            results.accept(outcome);
+        }
+    }
+
+    /**
+     * Upsert the valid rows of a chunk, looking up all their UPCs with a single query.
+     * A UPC that occurs more than once in the chunk is created once and then updated.
+     * @return the status and saved apparel of each upserted row, by its index in the chunk
+     */
+    private Map<Integer, UpsertedRow> upsert(List<ImportRow> rows, List<Integer> validRows) {
+        Set<String> upcs = validRows.stream()
+                .map(index -> rows.get(index).apparel().getUpc())
+                .collect(Collectors.toSet());
+        Map<String, Apparel> apparelsByUpc = new HashMap<>(apparelRepository.findAllByUpcIn(upcs).stream()
+                .collect(Collectors.toMap(Apparel::getUpc, Function.identity(), (first, duplicate) -> first)));
+
+        Map<Integer, Apparel> apparels = new TreeMap<>();
+        Map<Integer, ApparelImportResultDto.Status> statuses = new HashMap<>();
+        List<Apparel> created = new ArrayList<>();
+
+        for (Integer index : validRows) {
+            ApparelDto apparelDto = rows.get(index).apparel();
+            Apparel apparel = apparelsByUpc.get(apparelDto.getUpc());
+            if (apparel == null) {
+                apparelDto.setId(null);
+                apparelDto.setVersion(null);
+                apparel = apparelMapper.apparelDtoToApparel(apparelDto);
+                apparelsByUpc.put(apparelDto.getUpc(), apparel);
+                created.add(apparel);
+                statuses.put(index, ApparelImportResultDto.Status.CREATED);
+            } else {
+                apparelMapper.updateApparelFromImportDto(apparelDto, apparel);
+                statuses.put(index, ApparelImportResultDto.Status.UPDATED);
+            }
+            apparels.put(index, apparel);
+        }
+
+        // Updates of loaded apparels are picked up by dirty checking; the flush sends everything as JDBC batches
+        apparelRepository.saveAll(created);
+        apparelRepository.flush();
+
+        // The events go out in JDBC batches with the chunk's commit
+        Map<Integer, UpsertedRow> upserted = new HashMap<>();
+        apparels.forEach((index, apparel) -> {
+            ApparelImportResultDto.Status status = statuses.get(index);
+            ApparelDto apparelDto = apparelMapper.apparelToApparelDto(apparel);
+            outboxPublisher.publish(OutboxPublisher.APPAREL, apparelDto.getId(),
+                    status == ApparelImportResultDto.Status.CREATED
+                            ? OutboxPublisher.APPAREL_CREATED
+                            : OutboxPublisher.APPAREL_UPDATED,
+                    apparelDto);
+            upserted.put(index, new UpsertedRow(status, apparelDto));
+        });
+        return upserted;
+    }
+
+    private Map<String, String> validate(ImportRow row) {
+        if (row.apparel() == null) {
+            return Map.of("row", row.error());
+        }
+        Map<String, String> errors = new TreeMap<>();
+        validator.validate(row.apparel()).forEach(violation ->
+                errors.put(violation.getPropertyPath().toString(), violation.getMessage()));
+        return errors;
+    }
+
+    private static ApparelImportResultDto result(ImportRow row, ApparelImportResultDto.Status status, Integer id,
+                                                 Map<String, String> errors) {
+        return ApparelImportResultDto.builder()
+                .row(row.row())
+                .upc(row.apparel() == null ? null : row.apparel().getUpc())
+                .status(status)
+                .id(id)
+                .errors(errors)
+                .build();
+    }
+
+    private record UpsertedRow(ApparelImportResultDto.Status status, ApparelDto apparel) {
+    }
+}
@@ -0,0 +1,215 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.OrderEventsProperties;
+import gh.z0736190100.apparelstore.models.OutboxEventDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Fans apparel order events out to the clients streaming them, instead of having every client poll.
+ * <p>
+ * The broadcaster is an outbox listener, so it sees an event only once its write has committed. Subscribers
+ * follow either one order or every order. Each has a bounded buffer drained by its own virtual thread, so an
+ * idle subscriber costs a parked virtual thread and an empty queue, and the relay thread only ever enqueues.
+ * A subscriber whose buffer is full is dropped rather than allowed to hold back the others or grow without bound;
+ * its client reconnects and reloads the order.
+ * <p>
+ * Metrics: {@code apparel.order.events.subscribers} and {@code apparel.order.events.dropped}.
+ */
+@Slf4j
+@Component
+public class ApparelOrderEventBroadcaster implements OutboxListeners.OutboxListener {
+
+    /**
+     * Where a subscriber's events are written, e.g. a server-sent event stream.
+     * Called on the subscriber's own thread, one call at a time.
+     */
+    public interface EventSink {
+
+        /**
+         * @param event an event about an order the subscriber follows
+         * @throws IOException if the client has gone away, which ends the subscription
+         */
+        void send(OutboxEventDto event) throws IOException;
+
+        /**
+         * Called when no event has been sent for the heartbeat interval
+         * @throws IOException if the client has gone away, which ends the subscription
+         */
+        void heartbeat() throws IOException;
+
+        /**
+         * Called once when the subscription ends for any reason other than being cancelled
+         * @param dropped whether the subscriber fell more than a buffer behind
+         */
+        void close(boolean dropped);
+    }
+
+    private final OrderEventsProperties orderEventsProperties;
+    // Subscribers by the order they follow; firehose subscribers follow every order
+    private final Map<Integer, Set<Subscriber>> subscribersByOrderId = new ConcurrentHashMap<>();
+    private final Set<Subscriber> firehoseSubscribers = ConcurrentHashMap.newKeySet();
+    private final Counter droppedSubscribers;
+
+    public ApparelOrderEventBroadcaster(OrderEventsProperties orderEventsProperties, MeterRegistry meterRegistry) {
+        this.orderEventsProperties = orderEventsProperties;
+        Gauge.builder("apparel.order.events.subscribers", this, ApparelOrderEventBroadcaster::subscriberCount)
+                .description("Clients streaming apparel order events")
+                .register(meterRegistry);
+        this.droppedSubscribers = Counter.builder("apparel.order.events.dropped")
+                .description("Clients dropped for falling a buffer behind the apparel order events")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return how long a stream stays open before the client has to reconnect
+     */
+    public Duration streamTimeout() {
+        return orderEventsProperties.timeout();
+    }
+
+    /**
+     * Stream the events of one apparel order from now on
+     * @param apparelOrderId the apparel order ID
+     * @param sink where the events are written
+     * @return the subscription, to cancel when the client goes away
+     */
+    public OutboxListeners.Subscription subscribe(Integer apparelOrderId, EventSink sink) {
+        Subscriber subscriber = new Subscriber(sink, self -> subscribersByOrderId.computeIfPresent(apparelOrderId,
+                (id, subscribers) -> {
+                    subscribers.remove(self);
+                    return subscribers.isEmpty() ? null : subscribers;
+                }));
+        // Added inside compute, so a concurrent removal of the last subscriber cannot discard the set first
+        subscribersByOrderId.compute(apparelOrderId, (id, subscribers) -> {
+            Set<Subscriber> orderSubscribers = subscribers == null ? ConcurrentHashMap.newKeySet() : subscribers;
+            orderSubscribers.add(subscriber);
+            return orderSubscribers;
+        });
+        return subscriber.start();
+    }
+
+    /**
+     * Stream the events of every apparel order from now on
+     * @param sink where the events are written
+     * @return the subscription, to cancel when the client goes away
+     */
+    public OutboxListeners.Subscription subscribeToAll(EventSink sink) {
+        Subscriber subscriber = new Subscriber(sink, firehoseSubscribers::remove);
+        firehoseSubscribers.add(subscriber);
+        return subscriber.start();
+    }
+
+    @Override
+    public void onEvents(List<OutboxEventDto> events) {
+        for (OutboxEventDto event : events) {
+            if (!OutboxPublisher.APPAREL_ORDER.equals(event.getAggregateType())) {
+                continue;
+            }
+            Set<Subscriber> orderSubscribers = subscribersByOrderId.get(event.getAggregateId());
+            if (orderSubscribers != null) {
+                orderSubscribers.forEach(subscriber -> subscriber.offer(event));
+            }
+            firehoseSubscribers.forEach(subscriber -> subscriber.offer(event));
+        }
+    }
+
+    /**
+     * End every stream, so clients reconnect to another instance
+     */
+    @PreDestroy
+    public void shutdown() {
+        subscribersByOrderId.values().forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.end(false)));
+        firehoseSubscribers.forEach(subscriber -> subscriber.end(false));
+    }
+
+    int subscriberCount() {
+        return firehoseSubscribers.size()
+                + subscribersByOrderId.values().stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * One client: its buffer and the virtual thread that drains it into the sink
+     */
+    private final class Subscriber {
+
+        private final EventSink sink;
+        private final Consumer<Subscriber> unregister;
+        private final BlockingQueue<OutboxEventDto> buffer;
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private volatile Thread sender;
+
+        private Subscriber(EventSink sink, Consumer<Subscriber> unregister) {
+            this.sink = sink;
+            this.unregister = unregister;
+            this.buffer = new ArrayBlockingQueue<>(orderEventsProperties.bufferSize());
+        }
+
+        private OutboxListeners.Subscription start() {
+            sender = Thread.ofVirtual().name("order-events").start(this::send);
+            return () -> {
+                if (ended.compareAndSet(false, true)) {
+                    unregister.accept(this);
+                    sender.interrupt();
+                }
+            };
+        }
+
+        private void offer(OutboxEventDto event) {
+            if (!buffer.offer(event)) {
+                droppedSubscribers.increment();
+                log.debug("Dropping an apparel order event subscriber {} events behind", buffer.size());
+                end(true);
+            }
+        }
+
+        private void send() {
+            long heartbeatMillis = orderEventsProperties.heartbeatInterval().toMillis();
+            try {
+                while (!ended.get()) {
+                    OutboxEventDto event = buffer.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+                    if (event == null) {
+                        sink.heartbeat();
+                    } else {
+                        sink.send(event);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Ended by a drop, a cancel or shutdown
+            } catch (IOException | RuntimeException e) {
+                log.debug("Apparel order event subscriber went away", e);
+                end(false);
+            }
+        }
+
+        /**
+         * Unregister the subscriber and close its sink, unless it has already ended
+         */
+        private void end(boolean dropped) {
+            if (ended.compareAndSet(false, true)) {
+                unregister.accept(this);
+                Thread thread = sender;
+                if (thread != null && thread != Thread.currentThread()) {
+                    thread.interrupt();
+                }
+                sink.close(dropped);
+            }
+        }
+    }
+}
@@ -1,27 +1,92 @@
 package gh.z0736190100.apparelstore.services;
 
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
+import gh.z0736190100.apparelstore.models.ApparelOrderClaimDto;
+import gh.z0736190100.apparelstore.models.ApparelOrderDetailDto;
 import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
+import gh.z0736190100.apparelstore.models.SliceDto;
+import org.springframework.data.domain.Pageable;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * Service interface for ApparelOrder operations
  */
 public interface ApparelOrderService {
 
+    /**
+     * An apparel order together with the version token (ETag) of the state it was read in
+     * @param apparelOrder the apparel order
+     * @param version the version token of the apparel order, its customer, lines and shipments
+     */
+    record VersionedApparelOrder(ApparelOrderDto apparelOrder, String version) {
+    }
+
     /**
      * Get all apparel orders
+     * @param expandCustomer whether to embed the full customer rather than only its ID and name
      * @return List of all apparel orders
      */
-    List<ApparelOrderDto> getAllApparelOrders();
+    List<ApparelOrderDto> getAllApparelOrders(boolean expandCustomer);
+
+    /**
+     * Export every apparel order with its lines and shipments, in ID order,
+     * without holding the order history in memory
+     * @param sink receives each apparel order as it is read
+     */
+    void exportApparelOrders(Consumer<ApparelOrderDto> sink);
+
+    /**
+     * Get a slice of apparel orders, computed without a count query
+     * @param pageable pagination information
+     * @param includeCount whether to include the (cached) total count
+     * @param expandCustomer whether to embed the full customer rather than only its ID and name
+     * @return SliceDto of apparel orders
+     */
+    SliceDto<ApparelOrderDto> getApparelOrderSlice(Pageable pageable, boolean includeCount, boolean expandCustomer);
+
+    /**
+     * Get a keyset page of apparel orders with optional filtering by status and customer.
+     * Apparel orders are ordered newest (highest ID) first, and each page is loaded with a fixed
+     * number of queries regardless of its size.
+     * @param status the status to filter by (can be null)
+     * @param customerId the customer ID to filter by (can be null)
+     * @param after the cursor returned with the previous page (null for the first page)
+     * @param size the page size
+     * @param expandCustomer whether to embed the full customer rather than only its ID and name
+     * @return CursorPageDto of apparel orders matching the criteria
+     */
+    CursorPageDto<ApparelOrderDto> getApparelOrdersAfter(ApparelOrderStatus status, Integer customerId, String after, int size,
+                                                         boolean expandCustomer);
 
     /**
      * Get a apparel order by its ID
      * @param id the apparel order ID
+     * @param expandCustomer whether to embed the full customer rather than only its ID and name
      * @return Optional containing the apparel order if found
      */
-    Optional<ApparelOrderDto> getApparelOrderById(Integer id);
+    Optional<ApparelOrderDto> getApparelOrderById(Integer id, boolean expandCustomer);
+
+    /**
+     * Get everything an order page renders: the apparel order, its customer, its lines with their
+     * apparel, and its shipments, flattened into one DTO and loaded with at most two queries
+     * @param id the apparel order ID
+     * @return Optional containing the apparel order detail if found
+     */
+    Optional<ApparelOrderDetailDto> getApparelOrderDetailById(Integer id);
+
+    /**
+     * Get a token that changes whenever the apparel order as returned by getApparelOrderById changes,
+     * including its customer, lines, line apparels and shipments, without loading the order
+     * @param id the apparel order ID
+     * @return Optional containing the version token if the apparel order exists
+     */
+    Optional<String> getApparelOrderVersion(Integer id);
 
     /**
      * Save a new apparel order or update an existing one
@@ -31,8 +96,45 @@ public interface ApparelOrderService {
     ApparelOrderDto saveApparelOrder(ApparelOrderDto apparelOrderDto);
 
     /**
-     * Delete a apparel order by its ID
+     * Replace the fields and lines of an existing apparel order in place.
+     * Lines are matched by ID: lines with an unknown ID are rejected, lines without an ID are added,
+     * and existing lines that are not sent are removed. Shipments are managed through their own
+     * endpoints and are left as they are.
+     * @param id the apparel order ID
+     * @param apparelOrderDto the updated apparel order data; its version is ignored
+     * @param expectedVersion the version token the caller last saw (If-Match), or null to update unconditionally
+     * @return Optional containing the updated apparel order and its new version token, empty if not found
+     * @throws PreconditionFailedException if the apparel order exists but does not have the expected version
+     * @throws ApparelOrderException if a line belongs to another order or references an unknown apparel
+     */
+    Optional<VersionedApparelOrder> updateApparelOrder(Integer id, ApparelOrderDto apparelOrderDto, String expectedVersion);
+
+    /**
+     * Delete a apparel order by its ID, together with its lines and shipments
+     * @param id the apparel order ID
+     * @param expectedVersion the version token the caller last saw (If-Match), or null to delete unconditionally
+     * @return true if the apparel order was deleted, false if not found
+     * @throws PreconditionFailedException if the apparel order exists but does not have the expected version
+     */
+    boolean deleteApparelOrderById(Integer id, String expectedVersion);
+
+    /**
+     * Lease the oldest apparel orders in a status that no other worker holds, so that workers on any number
+     * of nodes can share the work without taking the same order. A lease that is not released in time
+     * lapses, and the order can be claimed again.
+     * @param status the status of the orders to claim, e.g. PAID
+     * @param limit the maximum number of orders to claim; fewer come back if other workers claim the same ones first
+     * @param lease how long the orders are held
+     * @return the claim, with the leased orders and the token to release them with
+     */
+    ApparelOrderClaimDto claimApparelOrders(ApparelOrderStatus status, int limit, Duration lease);
+
+    /**
+     * Release the lease on a claimed apparel order, optionally moving it to a new status
      * @param id the apparel order ID
+     * @param claimToken the token of the claim
+     * @param newStatus the status to move the order to, or null to leave it as it is
+     * @return true if the order was released, false if the lease has lapsed or belongs to another claim
      */
-    void deleteApparelOrderById(Integer id);
+    boolean releaseApparelOrderClaim(Integer id, String claimToken, ApparelOrderStatus newStatus);
 }
\ No newline at end of file
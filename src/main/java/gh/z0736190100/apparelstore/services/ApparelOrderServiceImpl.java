@@ -1,19 +1,55 @@
 package gh.z0736190100.apparelstore.services;
 
+import gh.z0736190100.apparelstore.config.ExportProperties;
 import gh.z0736190100.apparelstore.entities.Apparel;
 import gh.z0736190100.apparelstore.entities.ApparelOrder;
 import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
+import gh.z0736190100.apparelstore.entities.Customer;
+import gh.z0736190100.apparelstore.exceptions.ApparelOrderException;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
 import gh.z0736190100.apparelstore.mappers.ApparelOrderLineMapper;
 import gh.z0736190100.apparelstore.mappers.ApparelOrderMapper;
+import gh.z0736190100.apparelstore.models.ApparelOrderClaimDto;
+import gh.z0736190100.apparelstore.models.ApparelOrderDetailDto;
 import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import gh.z0736190100.apparelstore.models.ApparelOrderLineDto;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
+import gh.z0736190100.apparelstore.models.SliceDto;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderLineRepository;
 import gh.z0736190100.apparelstore.repositories.ApparelOrderRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderShipmentRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderVersionView;
 import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import jakarta.persistence.EntityManager;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Implementation of ApparelOrderService that uses ApparelOrderRepository for persistence
@@ -21,51 +57,239 @@ import java.util.stream.Collectors;
 @Service
 public class ApparelOrderServiceImpl implements ApparelOrderService {
 
+    static final String LISTING = "apparelOrder";
+
     private final ApparelOrderRepository apparelOrderRepository;
+    private final ApparelOrderLineRepository apparelOrderLineRepository;
+    private final ApparelOrderShipmentRepository apparelOrderShipmentRepository;
     private final ApparelRepository apparelRepository;
     private final ApparelOrderMapper apparelOrderMapper;
     private final ApparelOrderLineMapper apparelOrderLineMapper;
+    private final ListingCountCache listingCountCache;
+    private final LookupCoalescer lookupCoalescer;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ExportProperties exportProperties;
+    private final EntityManager entityManager;
+    private final CatalogVersion catalogVersion;
+    private final StockReservationManager stockReservationManager;
+    private final OutboxPublisher outboxPublisher;
 
     public ApparelOrderServiceImpl(ApparelOrderRepository apparelOrderRepository,
+                               ApparelOrderLineRepository apparelOrderLineRepository,
+                               ApparelOrderShipmentRepository apparelOrderShipmentRepository,
                                ApparelRepository apparelRepository,
                                ApparelOrderMapper apparelOrderMapper,
-                               ApparelOrderLineMapper apparelOrderLineMapper) {
+                               ApparelOrderLineMapper apparelOrderLineMapper,
+                               ListingCountCache listingCountCache,
+                               LookupCoalescer lookupCoalescer,
+                               PlatformTransactionManager transactionManager,
+                               ExportProperties exportProperties,
+                               EntityManager entityManager,
+                               CatalogVersion catalogVersion,
+                               StockReservationManager stockReservationManager,
+                               OutboxPublisher outboxPublisher) {
         this.apparelOrderRepository = apparelOrderRepository;
+        this.apparelOrderLineRepository = apparelOrderLineRepository;
+        this.apparelOrderShipmentRepository = apparelOrderShipmentRepository;
         this.apparelRepository = apparelRepository;
         this.apparelOrderMapper = apparelOrderMapper;
         this.apparelOrderLineMapper = apparelOrderLineMapper;
+        this.listingCountCache = listingCountCache;
+        this.lookupCoalescer = lookupCoalescer;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.exportProperties = exportProperties;
+        this.entityManager = entityManager;
+        this.catalogVersion = catalogVersion;
+        this.stockReservationManager = stockReservationManager;
+        this.outboxPublisher = outboxPublisher;
     }
 
     @Override
     @Transactional(readOnly = true)
-    public List<ApparelOrderDto> getAllApparelOrders() {
-        return apparelOrderRepository.findAll().stream()
-                .map(apparelOrderMapper::apparelOrderToApparelOrderDto)
+    public List<ApparelOrderDto> getAllApparelOrders(boolean expandCustomer) {
+        return apparelOrderRepository.findAllWithCustomer().stream()
+                .map(toDto(expandCustomer))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Order IDs come from a forward-only cursor; each chunk of IDs is then loaded with the same
+     * fetch plan as a cursor page, mapped, and cleared from the persistence context.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void exportApparelOrders(Consumer<ApparelOrderDto> sink) {
+        int chunkSize = exportProperties.chunkSize();
+        List<Integer> chunk = new ArrayList<>(chunkSize);
+
+        try (Stream<Integer> ids = apparelOrderRepository.streamAllIds()) {
+            Iterator<Integer> iterator = ids.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == chunkSize) {
+                    exportChunk(chunk, sink);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            exportChunk(chunk, sink);
+        }
+    }
+
+    private void exportChunk(List<Integer> ids, Consumer<ApparelOrderDto> sink) {
+        findWithAssociations(ids).stream()
+                .sorted(Comparator.comparing(ApparelOrder::getId))
+                .map(apparelOrderMapper::apparelOrderToApparelOrderDto)
+                .forEach(sink);
+        entityManager.clear();
+    }
+
     @Override
     @Transactional(readOnly = true)
-    public Optional<ApparelOrderDto> getApparelOrderById(Integer id) {
-        return apparelOrderRepository.findById(id)
-                .map(apparelOrderMapper::apparelOrderToApparelOrderDto);
+    public SliceDto<ApparelOrderDto> getApparelOrderSlice(Pageable pageable, boolean includeCount, boolean expandCustomer) {
+        Slice<ApparelOrder> apparelOrderSlice = apparelOrderRepository.findSliceBy(pageable);
+
+        Long totalElements = null;
+        if (includeCount) {
+            totalElements = listingCountCache.count(LISTING, "", apparelOrderRepository::count);
+        }
+
+        return SliceDto.<ApparelOrderDto>builder()
+                .content(apparelOrderSlice.getContent().stream()
+                        .map(toDto(expandCustomer))
+                        .collect(Collectors.toList()))
+                .number(apparelOrderSlice.getNumber())
+                .size(apparelOrderSlice.getSize())
+                .hasNext(apparelOrderSlice.hasNext())
+                .totalElements(totalElements)
+                .build();
+    }
+
+    /**
+     * Loads the page in two phases so its cost is bounded: a keyset query selects the page of IDs,
+     * then the orders are fetched by ID with their customer, lines and line apparels in one query
+     * and their shipments in another. The mapper then walks only initialized associations.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public CursorPageDto<ApparelOrderDto> getApparelOrdersAfter(ApparelOrderStatus status, Integer customerId, String after, int size,
+                                                                boolean expandCustomer) {
+        // Fetch one extra ID to find out whether another page follows, without counting
+        Limit limit = Limit.of(size + 1);
+        List<Integer> ids;
+
+        if (StringUtils.hasText(after)) {
+            KeysetCursor cursor = KeysetCursor.decode(after);
+            ids = apparelOrderRepository.findIdPageBefore(status, customerId, cursor.id(), limit);
+        } else {
+            ids = apparelOrderRepository.findFirstIdPage(status, customerId, limit);
+        }
+
+        boolean hasNext = ids.size() > size;
+        List<Integer> pageIds = hasNext ? ids.subList(0, size) : ids;
+
+        List<ApparelOrder> apparelOrders = findWithAssociations(pageIds);
+
+        String nextCursor = null;
+        if (hasNext) {
+            // Orders are keyed on ID alone, so the cursor carries no sort key
+            nextCursor = new KeysetCursor("", pageIds.get(pageIds.size() - 1)).encode();
+        }
+
+        return CursorPageDto.<ApparelOrderDto>builder()
+                .content(apparelOrders.stream()
+                        .sorted(Comparator.comparing(ApparelOrder::getId).reversed())
+                        .map(toDto(expandCustomer))
+                        .collect(Collectors.toList()))
+                .size(size)
+                .hasNext(hasNext)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    private Function<ApparelOrder, ApparelOrderDto> toDto(boolean expandCustomer) {
+        return expandCustomer
+                ? apparelOrderMapper::apparelOrderToApparelOrderDtoWithCustomer
+                : apparelOrderMapper::apparelOrderToApparelOrderDto;
+    }
+
+    /**
+     * Load apparel orders by ID with every association the mapper walks, in two queries
+     * @param ids the apparel order IDs
+     * @return the apparel orders, in no particular order
+     */
+    private List<ApparelOrder> findWithAssociations(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        List<ApparelOrder> apparelOrders = apparelOrderRepository.findWithLinesByIdIn(ids);
+        // Initializes the shipments of the orders already in the persistence context
+        apparelOrderRepository.findWithShipmentsByIdIn(ids);
+        return apparelOrders;
+    }
+
+    /**
+     * The read-only transaction is opened inside the coalesced loader rather than around this method,
+     * so callers joining an in-flight lookup do not hold a connection while they wait. The order is loaded
+     * with the same two-query fetch plan as a cursor page, not one lazy load per line apparel.
+     */
+    @Override
+    public Optional<ApparelOrderDto> getApparelOrderById(Integer id, boolean expandCustomer) {
+        String lookup = expandCustomer ? "apparelOrderWithCustomer" : "apparelOrder";
+        return lookupCoalescer.load(lookup, id, () -> readOnlyTransaction.execute(status ->
+                findWithAssociations(List.of(id)).stream()
+                        .findFirst()
+                        .map(toDto(expandCustomer))));
+    }
+
+    /**
+     * The order, its customer, lines and line apparels come from one join-fetch query and the shipments
+     * from a second one, rather than one query fetching both sets and multiplying lines by shipments.
+     */
+    @Override
+    public Optional<ApparelOrderDetailDto> getApparelOrderDetailById(Integer id) {
+        return lookupCoalescer.load("apparelOrderDetail", id, () -> readOnlyTransaction.execute(status ->
+                findWithAssociations(List.of(id)).stream()
+                        .findFirst()
+                        .map(apparelOrderMapper::apparelOrderToApparelOrderDetailDto)));
+    }
+
+    @Override
+    public Optional<String> getApparelOrderVersion(Integer id) {
+        return apparelOrderRepository.findVersionById(id).map(ApparelOrderServiceImpl::versionToken);
+    }
+
+    private static String versionToken(ApparelOrderVersionView versions) {
+        return versions.getVersion() + "." + versions.getCustomerVersion() + "."
+                + versions.getLinesVersion() + "." + versions.getShipmentsVersion();
     }
 
+    /**
+     * The customer is attached by reference, so it is neither loaded nor taken from the request body;
+     * the foreign key is all the insert needs.
+     */
     @Override
     @Transactional
     public ApparelOrderDto saveApparelOrder(ApparelOrderDto apparelOrderDto) {
         ApparelOrder apparelOrder = apparelOrderMapper.apparelOrderDtoToApparelOrder(apparelOrderDto);
+        Integer customerId = apparelOrderDto.resolveCustomerId();
+        if (customerId != null) {
+            apparelOrder.setCustomer(entityManager.getReference(Customer.class, customerId));
+        }
         
         // Process apparel order lines
         if (apparelOrderDto.getApparelOrderLines() != null) {
+            Map<Integer, Apparel> apparelsById = findApparelsForLines(apparelOrderDto.getApparelOrderLines());
+
             apparelOrderDto.getApparelOrderLines().forEach(lineDto -> {
                 // Create a new apparel order line
                 ApparelOrderLine line = apparelOrderLineMapper.apparelOrderLineDtoToApparelOrderLine(lineDto);
                 
-                // Find and set the apparel reference
+                // Set the apparel reference
                 if (lineDto.getApparelId() != null) {
-                    Optional<Apparel> apparelOptional = apparelRepository.findById(lineDto.getApparelId());
-                    apparelOptional.ifPresent(line::setApparel);
+                    line.setApparel(apparelsById.get(lineDto.getApparelId()));
                 }
                 
                 // Add the line to the order
@@ -74,12 +298,299 @@ public class ApparelOrderServiceImpl implements ApparelOrderService {
         }
         
         ApparelOrder savedApparelOrder = apparelOrderRepository.save(apparelOrder);
-        return apparelOrderMapper.apparelOrderToApparelOrderDto(savedApparelOrder);
+        listingCountCache.invalidate(LISTING);
+        catalogVersion.changed();
+        ApparelOrderDto savedApparelOrderDto = apparelOrderMapper.apparelOrderToApparelOrderDto(savedApparelOrder);
+        outboxPublisher.publish(OutboxPublisher.APPAREL_ORDER, savedApparelOrder.getId(),
+                OutboxPublisher.APPAREL_ORDER_CREATED, savedApparelOrderDto);
+        return savedApparelOrderDto;
+    }
+
+    /**
+     * Load the apparel referenced by the given lines with a single query, however many lines there are
+     * @param lines the order lines
+     * @return the referenced apparel keyed by ID
+     * @throws ApparelOrderException listing every referenced apparel ID that does not exist
+     */
+    private Map<Integer, Apparel> findApparelsForLines(Collection<ApparelOrderLineDto> lines) {
+        Set<Integer> apparelIds = lines.stream()
+                .map(ApparelOrderLineDto::getApparelId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (apparelIds.isEmpty()) {
+            return Map.of();
+        }
+
+        Map<Integer, Apparel> apparelsById = apparelRepository.findAllById(apparelIds).stream()
+                .collect(Collectors.toMap(Apparel::getId, Function.identity()));
+
+        List<Integer> unknownIds = apparelIds.stream()
+                .filter(id -> !apparelsById.containsKey(id))
+                .sorted()
+                .toList();
+        if (!unknownIds.isEmpty()) {
+            throw new ApparelOrderException("Apparel not found for IDs: " + unknownIds);
+        }
+        return apparelsById;
+    }
+
+    /**
+     * Claims the order row first, so a concurrent writer waits for this transaction instead of
+     * interleaving with it, then applies only the differences to the managed order and its lines.
+     * Unchanged lines are not written at all, and changed ones only update the columns that changed.
+     */
+    @Override
+    @Transactional
+    public Optional<VersionedApparelOrder> updateApparelOrder(Integer id, ApparelOrderDto apparelOrderDto, String expectedVersion) {
+        if (!claim(id, expectedVersion)) {
+            return Optional.empty();
+        }
+        ApparelOrder apparelOrder = apparelOrderRepository.findWithLinesByIdIn(List.of(id)).get(0);
+        ApparelOrderStatus previousStatus = apparelOrder.getStatus();
+
+        apparelOrderMapper.updateApparelOrderFromDto(apparelOrderDto, apparelOrder);
+        confirmHeldStockOnPayment(id, previousStatus, apparelOrder.getStatus());
+        Integer customerId = apparelOrderDto.resolveCustomerId();
+        if (customerId != null && (apparelOrder.getCustomer() == null
+                || !customerId.equals(apparelOrder.getCustomer().getId()))) {
+            apparelOrder.setCustomer(entityManager.getReference(Customer.class, customerId));
+        }
+        updateApparelOrderLines(apparelOrder, apparelOrderDto.getApparelOrderLines(),
+                previousStatus != ApparelOrderStatus.COMPLETE);
+
+        // Flush so the returned versions are the ones the client has to send back
+        apparelOrderRepository.flush();
+        listingCountCache.invalidate(LISTING);
+        catalogVersion.changed();
+        ApparelOrderDto updatedApparelOrderDto = apparelOrderMapper.apparelOrderToApparelOrderDto(apparelOrder);
+        outboxPublisher.publish(OutboxPublisher.APPAREL_ORDER, id, OutboxPublisher.APPAREL_ORDER_UPDATED,
+                updatedApparelOrderDto);
+        // Read inside the transaction that holds the claim, so the token is that of the returned state
+        String version = apparelOrderRepository.findVersionById(id).map(ApparelOrderServiceImpl::versionToken)
+                .orElseThrow();
+        return Optional.of(new VersionedApparelOrder(updatedApparelOrderDto, version));
+    }
+
+    /**
+     * Match the line DTOs to the lines of a managed order by ID and apply the inserts, updates and
+     * deletes that turn one into the other. Only new lines and lines that move to another apparel
+     * need their apparel looked up, which is done with one query.
+     * <p>
+     * Stock allocated to a line that is removed, moved to another apparel or ordered in a smaller quantity
+     * is put back on its apparel. A line ordered in a larger quantity keeps its stock and is left partially
+     * allocated, so the next allocation tops it up.
+     * @param returnStock false if the order has shipped and its stock is not to be put back
+     */
+    private void updateApparelOrderLines(ApparelOrder apparelOrder, Collection<ApparelOrderLineDto> lineDtos,
+                                         boolean returnStock) {
+        Map<Integer, ApparelOrderLine> existingLines = apparelOrder.getApparelOrderLines().stream()
+                .collect(Collectors.toMap(ApparelOrderLine::getId, Function.identity()));
+        Collection<ApparelOrderLineDto> incomingLines = lineDtos == null ? List.of() : lineDtos;
+
+        List<Integer> foreignLineIds = incomingLines.stream()
+                .map(ApparelOrderLineDto::getId)
+                .filter(lineId -> lineId != null && !existingLines.containsKey(lineId))
+                .sorted()
+                .toList();
+        if (!foreignLineIds.isEmpty()) {
+            throw new ApparelOrderException("Apparel order lines " + foreignLineIds
+                    + " do not belong to apparel order " + apparelOrder.getId());
+        }
+
+        Map<Integer, Apparel> apparelsById = findApparelsForLines(incomingLines.stream()
+                .filter(lineDto -> lineDto.getId() == null
+                        || !Objects.equals(lineDto.getApparelId(), apparelId(existingLines.get(lineDto.getId()))))
+                .toList());
+
+        Map<Integer, Integer> returnedByLineId = new HashMap<>();
+        Map<Integer, Integer> returnedByApparelId = new TreeMap<>();
+        Set<Integer> keptLineIds = new HashSet<>();
+        for (ApparelOrderLineDto lineDto : incomingLines) {
+            ApparelOrderLine line;
+            if (lineDto.getId() == null) {
+                line = apparelOrderLineMapper.apparelOrderLineDtoToApparelOrderLine(lineDto);
+                line.setVersion(null);
+                apparelOrder.addApparelOrderLine(line);
+            } else {
+                line = existingLines.get(lineDto.getId());
+                apparelOrderLineMapper.updateApparelOrderLineFromDto(lineDto, line);
+                keptLineIds.add(lineDto.getId());
+            }
+            Integer previousApparelId = apparelId(line);
+            if (!Objects.equals(lineDto.getApparelId(), previousApparelId)) {
+                line.setApparel(lineDto.getApparelId() == null ? null : apparelsById.get(lineDto.getApparelId()));
+            }
+
+            int allocated = allocated(line);
+            if (lineDto.getId() != null && returnStock && allocated > 0) {
+                // Stock stays with the apparel it was taken from
+                int returned = Objects.equals(previousApparelId, apparelId(line))
+                        ? Math.max(allocated - orderQuantity(line), 0)
+                        : allocated;
+                if (returned > 0) {
+                    returnedByLineId.merge(line.getId(), returned, Integer::sum);
+                    returnedByApparelId.merge(previousApparelId, returned, Integer::sum);
+                    line.setQuantityAllocated(allocated - returned);
+                }
+                line.setStatus(allocated(line) == 0 ? StockReservationManager.RELEASED
+                        : allocated(line) < orderQuantity(line) ? InventoryAllocationServiceImpl.PARTIALLY_ALLOCATED
+                        : InventoryAllocationServiceImpl.ALLOCATED);
+            }
+        }
+
+        List<ApparelOrderLine> removedLines = existingLines.values().stream()
+                .filter(line -> !keptLineIds.contains(line.getId()))
+                .toList();
+        for (ApparelOrderLine line : removedLines) {
+            if (returnStock && allocated(line) > 0 && line.getApparel() != null) {
+                returnedByLineId.merge(line.getId(), allocated(line), Integer::sum);
+                returnedByApparelId.merge(apparelId(line), allocated(line), Integer::sum);
+            }
+            apparelOrder.removeApparelOrderLine(line);
+        }
+
+        stockReservationManager.returnStock(returnedByLineId, returnedByApparelId);
+    }
+
+    private static int allocated(ApparelOrderLine line) {
+        return line.getQuantityAllocated() == null ? 0 : line.getQuantityAllocated();
+    }
+
+    private static int orderQuantity(ApparelOrderLine line) {
+        return line.getOrderQuantity() == null ? 0 : line.getOrderQuantity();
+    }
+
+    private static Integer apparelId(ApparelOrderLine line) {
+        return line.getApparel() == null ? null : line.getApparel().getId();
     }
 
+    /**
+     * Claims the order row with a guarded version bump, which also locks it until commit, then puts the stock
+     * allocated to its lines back on their apparels, unless the order has shipped, and removes the lines,
+     * shipments and order with one DELETE each instead of loading and deleting them one by one.
+     */
     @Override
     @Transactional
-    public void deleteApparelOrderById(Integer id) {
-        apparelOrderRepository.deleteById(id);
+    public boolean deleteApparelOrderById(Integer id, String expectedVersion) {
+        if (!claim(id, expectedVersion)) {
+            return false;
+        }
+        Map<Integer, Integer> returnedByLineId = new HashMap<>();
+        Map<Integer, Integer> returnedByApparelId = new TreeMap<>();
+        apparelOrderLineRepository.findAllocatedStockByApparelOrderId(id, ApparelOrderStatus.COMPLETE)
+                .forEach(allocated -> {
+                    returnedByLineId.put(allocated.getApparelOrderLineId(), allocated.getQuantityAllocated());
+                    returnedByApparelId.merge(allocated.getApparelId(), allocated.getQuantityAllocated(), Integer::sum);
+                });
+        stockReservationManager.returnStock(returnedByLineId, returnedByApparelId);
+
+        apparelOrderLineRepository.deleteByApparelOrderId(id);
+        apparelOrderShipmentRepository.deleteByApparelOrderId(id);
+        apparelOrderRepository.deleteOrderRowById(id);
+
+        listingCountCache.invalidate(LISTING);
+        catalogVersion.changed();
+        outboxPublisher.publish(OutboxPublisher.APPAREL_ORDER, id, OutboxPublisher.APPAREL_ORDER_DELETED, Map.of("id", id));
+        return true;
+    }
+
+    /**
+     * Candidates are picked from the (status, created_date) index without locking, then leased with one
+     * guarded UPDATE that skips any a concurrent worker leased first, so workers never wait on each other's rows.
+     * The orders carrying the new token are loaded in two queries like a cursor page.
+     */
+    @Override
+    @Transactional
+    public ApparelOrderClaimDto claimApparelOrders(ApparelOrderStatus status, int limit, Duration lease) {
+        LocalDateTime now = LocalDateTime.now();
+        String claimToken = UUID.randomUUID().toString();
+        LocalDateTime claimedUntil = now.plus(lease);
+
+        List<Integer> candidateIds = apparelOrderRepository.findClaimableIds(status, now, Limit.of(limit));
+        List<Integer> claimedIds = List.of();
+        if (!candidateIds.isEmpty()
+                && apparelOrderRepository.claimByIdIn(candidateIds, status, claimToken, claimedUntil, now) > 0) {
+            claimedIds = apparelOrderRepository.findIdsByClaimToken(claimToken);
+        }
+
+        return ApparelOrderClaimDto.builder()
+                .claimToken(claimToken)
+                .claimedUntil(claimedUntil)
+                .apparelOrders(findWithAssociations(claimedIds).stream()
+                        .sorted(Comparator.comparing(ApparelOrder::getCreatedDate,
+                                        Comparator.nullsFirst(Comparator.naturalOrder()))
+                                .thenComparing(ApparelOrder::getId))
+                        .map(apparelOrderMapper::apparelOrderToApparelOrderDto)
+                        .collect(Collectors.toList()))
+                .build();
+    }
+
+    @Override
+    @Transactional
+    public boolean releaseApparelOrderClaim(Integer id, String claimToken, ApparelOrderStatus newStatus) {
+        Optional<ApparelOrder> claimed = apparelOrderRepository.findByIdAndClaimToken(id, claimToken)
+                .filter(apparelOrder -> !apparelOrder.getClaimedUntil().isBefore(LocalDateTime.now()));
+        if (claimed.isEmpty()) {
+            return false;
+        }
+
+        ApparelOrder apparelOrder = claimed.get();
+        if (newStatus != null && newStatus != apparelOrder.getStatus()) {
+            ApparelOrderStatus previousStatus = apparelOrder.getStatus();
+            apparelOrder.setStatus(newStatus);
+            confirmHeldStockOnPayment(id, previousStatus, newStatus);
+            listingCountCache.invalidate(LISTING);
+            catalogVersion.changed();
+            outboxPublisher.publish(OutboxPublisher.APPAREL_ORDER, id, OutboxPublisher.APPAREL_ORDER_STATUS_CHANGED,
+                    Map.of("id", id, "previousStatus", previousStatus, "status", newStatus));
+        }
+        // Flushes the status change first; the lease itself is dropped without bumping the version
+        apparelOrderRepository.releaseClaim(id, claimToken);
+        return true;
+    }
+
+    /**
+     * Keep the stock held for an order for good once it is no longer waiting for payment
+     */
+    private void confirmHeldStockOnPayment(Integer id, ApparelOrderStatus previousStatus, ApparelOrderStatus newStatus) {
+        if (previousStatus == ApparelOrderStatus.NEW
+                && newStatus != ApparelOrderStatus.NEW
+                && newStatus != ApparelOrderStatus.CANCELLED) {
+            stockReservationManager.confirm(id);
+        }
+    }
+
+    /**
+     * Bump the version of an apparel order row if it still matches the version token the caller last saw.
+     * The token is compared by the guarded UPDATE itself rather than read first, so a line or shipment
+     * changed between the two cannot slip through. The row stays locked until the surrounding transaction ends.
+     * @param id the apparel order ID
+     * @param expectedVersion the version token the caller last saw, or null to claim any version
+     * @return true if the row was claimed, false if the apparel order does not exist
+     * @throws PreconditionFailedException if the apparel order exists but does not have the expected version
+     */
+    private boolean claim(Integer id, String expectedVersion) {
+        if (expectedVersion == null) {
+            return apparelOrderRepository.claimIfVersion(id, null, null, null, null) > 0;
+        }
+
+        String[] versions = expectedVersion.split("\\.");
+        int claimed = 0;
+        if (versions.length == 4) {
+            try {
+                claimed = apparelOrderRepository.claimIfVersion(id, Integer.valueOf(versions[0]),
+                        Integer.valueOf(versions[1]), Long.valueOf(versions[2]), Long.valueOf(versions[3]));
+            } catch (NumberFormatException e) {
+                // Not a token this service handed out, so it cannot match
+            }
+        }
+        if (claimed == 0) {
+            if (apparelOrderRepository.existsById(id)) {
+                throw new PreconditionFailedException(
+                        "Apparel Order with id: " + id + " does not have version " + expectedVersion);
+            }
+            return false;
+        }
+        return true;
     }
-}
\ No newline at end of file
+}
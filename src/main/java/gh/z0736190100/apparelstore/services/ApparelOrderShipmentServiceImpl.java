@@ -24,6 +24,8 @@ public class ApparelOrderShipmentServiceImpl implements ApparelOrderShipmentServ
     private final ApparelOrderRepository apparelOrderRepository;
     private final ApparelOrderShipmentRepository apparelOrderShipmentRepository;
     private final ApparelOrderShipmentMapper apparelOrderShipmentMapper;
+    private final CatalogVersion catalogVersion;
+    private final OutboxPublisher outboxPublisher;
 
     @Override
     @Transactional(readOnly = true)
@@ -51,7 +53,12 @@ public class ApparelOrderShipmentServiceImpl implements ApparelOrderShipmentServ
         apparelOrder.addShipment(shipment);
         
         ApparelOrderShipment savedShipment = apparelOrderShipmentRepository.save(shipment);
-        return apparelOrderShipmentMapper.apparelOrderShipmentToApparelOrderShipmentDto(savedShipment);
+        catalogVersion.changed();
+        ApparelOrderShipmentDto savedShipmentDto =
+                apparelOrderShipmentMapper.apparelOrderShipmentToApparelOrderShipmentDto(savedShipment);
+        outboxPublisher.publish(OutboxPublisher.APPAREL_ORDER, apparelOrderId,
+                OutboxPublisher.APPAREL_ORDER_SHIPMENT_CREATED, savedShipmentDto);
+        return savedShipmentDto;
     }
 
     @Override
@@ -65,6 +72,7 @@ public class ApparelOrderShipmentServiceImpl implements ApparelOrderShipmentServ
         shipment.setTrackingNumber(shipmentDto.getTrackingNumber());
         
         ApparelOrderShipment savedShipment = apparelOrderShipmentRepository.save(shipment);
+        catalogVersion.changed();
         return apparelOrderShipmentMapper.apparelOrderShipmentToApparelOrderShipmentDto(savedShipment);
     }
 
@@ -75,6 +83,7 @@ public class ApparelOrderShipmentServiceImpl implements ApparelOrderShipmentServ
         ApparelOrder apparelOrder = shipment.getApparelOrder();
         apparelOrder.removeShipment(shipment);
         apparelOrderShipmentRepository.delete(shipment);
+        catalogVersion.changed();
     }
     
     private ApparelOrderShipment getShipmentEntity(Integer apparelOrderId, Integer shipmentId) {
@@ -0,0 +1,248 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.SearchProperties;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelSearchView;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory trigram inverted index over apparel name and apparel style.
+ * <p>
+ * Substring searches ({@code LIKE '%term%'}) cannot use a B-tree index, so instead every
+ * upper-cased name and style is split into trigrams, and each trigram keeps a posting list
+ * (a {@link BitSet} of apparel IDs). A search intersects the posting lists of the term's
+ * trigrams and verifies the few remaining candidates against the indexed text.
+ * <p>
+ * The index is built when the application is ready and is kept in sync by {@link ApparelServiceImpl}.
+ * It is local to this JVM; writes that bypass ApparelServiceImpl are only picked up by {@link #rebuild()}.
+ */
+@Slf4j
+@Component
+public class ApparelSearchIndex {
+
+    private static final int GRAM_LENGTH = 3;
+
+    private final ApparelRepository apparelRepository;
+    private final SearchProperties searchProperties;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Postings postings = new Postings();
+    private List<IndexedApparel> pendingDuringRebuild;
+    private volatile boolean ready;
+
+    public ApparelSearchIndex(ApparelRepository apparelRepository, SearchProperties searchProperties) {
+        this.apparelRepository = apparelRepository;
+        this.searchProperties = searchProperties;
+    }
+
+    /**
+     * Build the index from the database once the application has started
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (searchProperties.indexEnabled()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Rebuild the whole index from the database.
+     * Updates that arrive while the snapshot is loading are replayed on top of it.
+     */
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            pendingDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Postings rebuilt = new Postings();
+        List<ApparelSearchView> apparels = apparelRepository.findAllProjectedBy();
+        apparels.forEach(apparel -> rebuilt.add(apparel.getId(), apparel.getApparelName(), apparel.getApparelStyle()));
+
+        lock.writeLock().lock();
+        try {
+            pendingDuringRebuild.forEach(update -> update.applyTo(rebuilt));
+            pendingDuringRebuild = null;
+            postings = rebuilt;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Apparel search index built with {} apparels", apparels.size());
+    }
+
+    /**
+     * @return true once the index has been built and can serve searches
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Add or replace the indexed name and style of an apparel
+     * @param id the apparel ID
+     * @param apparelName the apparel name
+     * @param apparelStyle the apparel style (can be null)
+     */
+    public void index(Integer id, String apparelName, String apparelStyle) {
+        apply(new IndexedApparel(id, apparelName, apparelStyle, false));
+    }
+
+    /**
+     * Remove an apparel from the index
+     * @param id the apparel ID
+     */
+    public void remove(Integer id) {
+        apply(new IndexedApparel(id, null, null, true));
+    }
+
+    /**
+     * Find the IDs of apparels whose name and style contain the given terms, ignoring case.
+     * A null or blank term matches everything; a non-blank style term never matches a null style.
+     * @param apparelName the apparel name term (can be null)
+     * @param apparelStyle the apparel style term (can be null)
+     * @return the matching apparel IDs in ascending order
+     */
+    public List<Integer> search(String apparelName, String apparelStyle) {
+        String nameTerm = normalize(apparelName);
+        String styleTerm = normalize(apparelStyle);
+
+        lock.readLock().lock();
+        try {
+            BitSet candidates = (BitSet) postings.all.clone();
+            if (!nameTerm.isEmpty()) {
+                postings.narrow(candidates, postings.nameGrams, nameTerm);
+            }
+            if (!styleTerm.isEmpty()) {
+                postings.narrow(candidates, postings.styleGrams, styleTerm);
+            }
+
+            List<Integer> ids = new ArrayList<>(candidates.cardinality());
+            for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+                String[] text = postings.documents.get(id);
+                if (text[0].contains(nameTerm)
+                        && (styleTerm.isEmpty() || (text[1] != null && text[1].contains(styleTerm)))) {
+                    ids.add(id);
+                }
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void apply(IndexedApparel update) {
+        if (!searchProperties.indexEnabled() || update.id() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            update.applyTo(postings);
+            if (pendingDuringRebuild != null) {
+                pendingDuringRebuild.add(update);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static String normalize(String text) {
+        return StringUtils.hasText(text) ? text.toUpperCase(Locale.ROOT) : "";
+    }
+
+    private record IndexedApparel(Integer id, String apparelName, String apparelStyle, boolean removed) {
+
+        void applyTo(Postings target) {
+            if (removed) {
+                target.remove(id);
+            } else {
+                target.add(id, apparelName, apparelStyle);
+            }
+        }
+    }
+
+    /**
+     * Posting lists and indexed text; only accessed under the index lock
+     */
+    private static final class Postings {
+
+        private final BitSet all = new BitSet();
+        private final Map<Integer, String[]> documents = new HashMap<>();
+        private final Map<String, BitSet> nameGrams = new HashMap<>();
+        private final Map<String, BitSet> styleGrams = new HashMap<>();
+
+        void add(int id, String apparelName, String apparelStyle) {
+            remove(id);
+            String name = apparelName == null ? "" : apparelName.toUpperCase(Locale.ROOT);
+            String style = apparelStyle == null ? null : apparelStyle.toUpperCase(Locale.ROOT);
+            documents.put(id, new String[]{name, style});
+            all.set(id);
+            grams(name).forEach(gram -> nameGrams.computeIfAbsent(gram, key -> new BitSet()).set(id));
+            if (style != null) {
+                grams(style).forEach(gram -> styleGrams.computeIfAbsent(gram, key -> new BitSet()).set(id));
+            }
+        }
+
+        void remove(int id) {
+            String[] text = documents.remove(id);
+            if (text == null) {
+                return;
+            }
+            all.clear(id);
+            unlink(nameGrams, text[0], id);
+            if (text[1] != null) {
+                unlink(styleGrams, text[1], id);
+            }
+        }
+
+        /**
+         * Intersect candidates with the posting lists of every trigram of the term.
+         * Terms shorter than a trigram cannot be narrowed and are only verified.
+         */
+        void narrow(BitSet candidates, Map<String, BitSet> gramIndex, String term) {
+            for (String gram : grams(term)) {
+                BitSet posting = gramIndex.get(gram);
+                if (posting == null) {
+                    candidates.clear();
+                    return;
+                }
+                candidates.and(posting);
+            }
+        }
+
+        private static void unlink(Map<String, BitSet> gramIndex, String text, int id) {
+            for (String gram : grams(text)) {
+                BitSet posting = gramIndex.get(gram);
+                if (posting != null) {
+                    posting.clear(id);
+                    if (posting.isEmpty()) {
+                        gramIndex.remove(gram);
+                    }
+                }
+            }
+        }
+
+        private static List<String> grams(String text) {
+            List<String> grams = new ArrayList<>(Math.max(0, text.length() - GRAM_LENGTH + 1));
+            for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+                grams.add(text.substring(i, i + GRAM_LENGTH));
+            }
+            return grams;
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package gh.z0736190100.apparelstore.services;
 
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
 import gh.z0736190100.apparelstore.models.ApparelDto;
 import gh.z0736190100.apparelstore.models.ApparelPatchDto;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
+import gh.z0736190100.apparelstore.models.SliceDto;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * Service interface for Apparel operations
@@ -19,6 +23,12 @@ public interface ApparelService {
      */
     List<ApparelDto> getAllApparels();
 
+    /**
+     * Export every apparel, in ID order, without holding the catalog in memory
+     * @param sink receives each apparel as it is read
+     */
+    void exportApparels(Consumer<ApparelDto> sink);
+
     /**
      * Get all apparels with optional filtering by apparel name and apparel style, with pagination
      * @param apparelName the apparel name to filter by (can be null)
@@ -28,6 +38,28 @@ public interface ApparelService {
      */
     Page<ApparelDto> getAllApparels(String apparelName, String apparelStyle, Pageable pageable);
 
+    /**
+     * Get a slice of apparels with optional filtering by apparel name and apparel style.
+     * The slice is computed without a count query.
+     * @param apparelName the apparel name to filter by (can be null)
+     * @param apparelStyle the apparel style to filter by (can be null)
+     * @param pageable pagination information
+     * @param includeCount whether to include the (cached) total count
+     * @return SliceDto of apparels matching the criteria
+     */
+    SliceDto<ApparelDto> getApparelSlice(String apparelName, String apparelStyle, Pageable pageable, boolean includeCount);
+
+    /**
+     * Get a keyset page of apparels with optional filtering by apparel name and apparel style.
+     * Apparels are ordered by apparel name and ID.
+     * @param apparelName the apparel name to filter by (can be null)
+     * @param apparelStyle the apparel style to filter by (can be null)
+     * @param after the cursor returned with the previous page (null for the first page)
+     * @param size the page size
+     * @return CursorPageDto of apparels matching the criteria
+     */
+    CursorPageDto<ApparelDto> getApparelsAfter(String apparelName, String apparelStyle, String after, int size);
+
     /**
      * Get a apparel by its ID
      * @param id the apparel ID
@@ -35,6 +67,13 @@ public interface ApparelService {
      */
     Optional<ApparelDto> getApparelById(Integer id);
 
+    /**
+     * Get the current version of a apparel without loading and mapping it, to answer conditional requests
+     * @param id the apparel ID
+     * @return Optional containing the version if the apparel exists
+     */
+    Optional<Integer> getApparelVersion(Integer id);
+
     /**
      * Save a new apparel or update an existing one
      * @param apparelDto the apparel to save
@@ -43,16 +82,31 @@ public interface ApparelService {
     ApparelDto saveApparel(ApparelDto apparelDto);
 
     /**
-     * Partially update an existing apparel
+     * Replace an existing apparel with a single UPDATE statement
+     * @param id the apparel ID
+     * @param apparelDto the updated apparel data; its version is ignored
+     * @param expectedVersion the version the caller last saw (If-Match), or null to update unconditionally
+     * @return Optional containing the updated apparel, empty if not found
+     * @throws PreconditionFailedException if the apparel exists but does not have the expected version
+     */
+    Optional<ApparelDto> updateApparel(Integer id, ApparelDto apparelDto, Integer expectedVersion);
+
+    /**
+     * Partially update an existing apparel with a single UPDATE statement
      * @param id the apparel ID
-     * @param apparelPatchDto the apparel patch data
-     * @return Optional containing the updated apparel if found
+     * @param apparelPatchDto the apparel patch data; null fields are left unchanged
+     * @param expectedVersion the version the caller last saw (If-Match), or null to update unconditionally
+     * @return Optional containing the updated apparel, empty if not found
+     * @throws PreconditionFailedException if the apparel exists but does not have the expected version
      */
-    Optional<ApparelDto> patchApparel(Integer id, ApparelPatchDto apparelPatchDto);
+    Optional<ApparelDto> patchApparel(Integer id, ApparelPatchDto apparelPatchDto, Integer expectedVersion);
 
     /**
-     * Delete a apparel by its ID
+     * Delete a apparel by its ID with a single DELETE statement
      * @param id the apparel ID
+     * @param expectedVersion the version the caller last saw (If-Match), or null to delete unconditionally
+     * @return true if the apparel was deleted, false if not found
+     * @throws PreconditionFailedException if the apparel exists but does not have the expected version
      */
-    void deleteApparelById(Integer id);
+    boolean deleteApparelById(Integer id, Integer expectedVersion);
 }
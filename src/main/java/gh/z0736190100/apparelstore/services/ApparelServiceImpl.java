@@ -1,18 +1,37 @@
 package gh.z0736190100.apparelstore.services;
 
+import gh.z0736190100.apparelstore.config.ExportProperties;
 import gh.z0736190100.apparelstore.entities.Apparel;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
 import gh.z0736190100.apparelstore.mappers.ApparelMapper;
 import gh.z0736190100.apparelstore.models.ApparelDto;
 import gh.z0736190100.apparelstore.models.ApparelPatchDto;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
+import gh.z0736190100.apparelstore.models.SliceDto;
 import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import jakarta.persistence.EntityManager;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Implementation of ApparelService that uses ApparelRepository for persistence
@@ -20,12 +39,39 @@ import java.util.stream.Collectors;
 @Service
 public class ApparelServiceImpl implements ApparelService {
 
+    static final String LISTING = "apparel";
+
     private final ApparelRepository apparelRepository;
     private final ApparelMapper apparelMapper;
+    private final ListingCountCache listingCountCache;
+    private final ApparelSearchIndex apparelSearchIndex;
+    private final ApparelDtoCache apparelDtoCache;
+    private final LookupCoalescer lookupCoalescer;
+    private final ExportProperties exportProperties;
+    private final EntityManager entityManager;
+    private final CatalogVersion catalogVersion;
+    private final HotStockCounters hotStockCounters;
+    private final OutboxPublisher outboxPublisher;
+    private final TransactionTemplate transactionTemplate;
 
-    public ApparelServiceImpl(ApparelRepository apparelRepository, ApparelMapper apparelMapper) {
+    public ApparelServiceImpl(ApparelRepository apparelRepository, ApparelMapper apparelMapper,
+                              ListingCountCache listingCountCache, ApparelSearchIndex apparelSearchIndex,
+                              ApparelDtoCache apparelDtoCache, LookupCoalescer lookupCoalescer,
+                              ExportProperties exportProperties, EntityManager entityManager,
+                              CatalogVersion catalogVersion, HotStockCounters hotStockCounters,
+                              OutboxPublisher outboxPublisher, PlatformTransactionManager transactionManager) {
         this.apparelRepository = apparelRepository;
         this.apparelMapper = apparelMapper;
+        this.listingCountCache = listingCountCache;
+        this.apparelSearchIndex = apparelSearchIndex;
+        this.apparelDtoCache = apparelDtoCache;
+        this.lookupCoalescer = lookupCoalescer;
+        this.exportProperties = exportProperties;
+        this.entityManager = entityManager;
+        this.catalogVersion = catalogVersion;
+        this.hotStockCounters = hotStockCounters;
+        this.outboxPublisher = outboxPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     @Override
@@ -35,12 +81,39 @@ public class ApparelServiceImpl implements ApparelService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Rows come from a forward-only cursor, and the persistence context is cleared every chunk,
+     * so heap use does not grow with the size of the catalog.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void exportApparels(Consumer<ApparelDto> sink) {
+        int chunkSize = exportProperties.chunkSize();
+        int rowsInChunk = 0;
+
+        try (Stream<Apparel> apparels = apparelRepository.streamAllBy()) {
+            Iterator<Apparel> iterator = apparels.iterator();
+            while (iterator.hasNext()) {
+                sink.accept(apparelMapper.apparelToApparelDto(iterator.next()));
+                if (++rowsInChunk == chunkSize) {
+                    entityManager.clear();
+                    rowsInChunk = 0;
+                }
+            }
+        }
+    }
+
     @Override
     public Page<ApparelDto> getAllApparels(String apparelName, String apparelStyle, Pageable pageable) {
         // Handle different combinations of parameters
         boolean hasName = StringUtils.hasText(apparelName);
         boolean hasStyle = StringUtils.hasText(apparelStyle);
 
+        // Substring filters are resolved from the trigram index instead of a LIKE '%term%' table scan
+        if ((hasName || hasStyle) && apparelSearchIndex.isReady()) {
+            return searchIndexedApparels(apparelName, apparelStyle, pageable);
+        }
+
         Page<Apparel> apparelPage;
 
         if (hasName && hasStyle) {
@@ -63,36 +136,247 @@ public class ApparelServiceImpl implements ApparelService {
         return apparelPage.map(apparelMapper::apparelToApparelDto);
     }
 
+    private Page<ApparelDto> searchIndexedApparels(String apparelName, String apparelStyle, Pageable pageable) {
+        List<Integer> matchingIds = apparelSearchIndex.search(apparelName, apparelStyle);
+        return new PageImpl<>(findIndexedSlice(matchingIds, pageable).getContent().stream()
+                .map(apparelMapper::apparelToApparelDto)
+                .collect(Collectors.toList()), pageable, matchingIds.size());
+    }
+
+    /**
+     * Load one page of the apparels the search index matched. The index returns IDs in ascending order,
+     * so an unsorted page is cut from the ID list and only its rows are loaded; any other sort is applied
+     * by the database to the matched rows, which it reads by primary key.
+     * @param matchingIds the matched apparel IDs in ascending order
+     * @param pageable pagination information, including the requested sort
+     * @return Slice of the matched apparels
+     */
+    private Slice<Apparel> findIndexedSlice(List<Integer> matchingIds, Pageable pageable) {
+        if (matchingIds.isEmpty()) {
+            return new SliceImpl<>(List.of(), pageable, false);
+        }
+        if (pageable.getSort().isSorted()) {
+            return apparelRepository.findSliceByIdIn(matchingIds, pageable);
+        }
+
+        int from = (int) Math.min(pageable.getOffset(), matchingIds.size());
+        int to = Math.min(from + pageable.getPageSize(), matchingIds.size());
+        List<Apparel> content = apparelRepository.findAllById(matchingIds.subList(from, to)).stream()
+                .sorted(Comparator.comparing(Apparel::getId))
+                .collect(Collectors.toList());
+        return new SliceImpl<>(content, pageable, to < matchingIds.size());
+    }
+
+    @Override
+    public SliceDto<ApparelDto> getApparelSlice(String apparelName, String apparelStyle, Pageable pageable,
+                                                boolean includeCount) {
+        boolean hasName = StringUtils.hasText(apparelName);
+        boolean hasStyle = StringUtils.hasText(apparelStyle);
+        String nameFilter = hasName ? apparelName : "";
+        String styleFilter = hasStyle ? apparelStyle : "";
+
+        if ((hasName || hasStyle) && apparelSearchIndex.isReady()) {
+            // The index knows every match, so the total comes for free
+            List<Integer> matchingIds = apparelSearchIndex.search(apparelName, apparelStyle);
+            return toSliceDto(findIndexedSlice(matchingIds, pageable), includeCount ? (long) matchingIds.size() : null);
+        }
+
+        // Same filter combinations as getAllApparels, but a Slice fetches size+1 rows instead of counting
+        Slice<Apparel> apparelSlice;
+        if (hasName && !hasStyle) {
+            apparelSlice = apparelRepository.findSliceByApparelNameContainingIgnoreCase(nameFilter, pageable);
+        } else {
+            apparelSlice = apparelRepository.findSliceByApparelNameContainingIgnoreCaseAndApparelStyleContainingIgnoreCase(
+                    nameFilter, styleFilter, pageable);
+        }
+
+        Long totalElements = null;
+        if (includeCount) {
+            totalElements = listingCountCache.count(LISTING, nameFilter + '\u0000' + styleFilter,
+                    () -> hasName && !hasStyle
+                            ? apparelRepository.countByApparelNameContainingIgnoreCase(nameFilter)
+                            : apparelRepository.countByApparelNameContainingIgnoreCaseAndApparelStyleContainingIgnoreCase(
+                                    nameFilter, styleFilter));
+        }
+
+        return toSliceDto(apparelSlice, totalElements);
+    }
+
+    private SliceDto<ApparelDto> toSliceDto(Slice<Apparel> apparelSlice, Long totalElements) {
+        return SliceDto.<ApparelDto>builder()
+                .content(apparelSlice.getContent().stream()
+                        .map(apparelMapper::apparelToApparelDto)
+                        .collect(Collectors.toList()))
+                .number(apparelSlice.getNumber())
+                .size(apparelSlice.getSize())
+                .hasNext(apparelSlice.hasNext())
+                .totalElements(totalElements)
+                .build();
+    }
+
+    @Override
+    public CursorPageDto<ApparelDto> getApparelsAfter(String apparelName, String apparelStyle, String after, int size) {
+        String nameFilter = StringUtils.hasText(apparelName) ? apparelName : "";
+        String styleFilter = StringUtils.hasText(apparelStyle) ? apparelStyle : "";
+
+        // Fetch one extra row to find out whether another page follows, without counting
+        Limit limit = Limit.of(size + 1);
+        List<Apparel> apparels;
+
+        KeysetCursor cursor = StringUtils.hasText(after) ? KeysetCursor.decode(after) : null;
+
+        if ((!nameFilter.isEmpty() || !styleFilter.isEmpty()) && apparelSearchIndex.isReady()) {
+            // The index resolves the substring filters; the database only orders and seeks the matched rows
+            List<Integer> matchingIds = apparelSearchIndex.search(nameFilter, styleFilter);
+            if (matchingIds.isEmpty()) {
+                apparels = List.of();
+            } else if (cursor != null) {
+                apparels = apparelRepository.findKeysetPageAfterByIdIn(
+                        matchingIds, cursor.sortKey(), cursor.id(), limit);
+            } else {
+                apparels = apparelRepository.findFirstKeysetPageByIdIn(matchingIds, limit);
+            }
+        } else if (cursor != null) {
+            apparels = apparelRepository.findKeysetPageAfter(
+                    nameFilter, styleFilter, cursor.sortKey(), cursor.id(), limit);
+        } else {
+            apparels = apparelRepository.findFirstKeysetPage(nameFilter, styleFilter, limit);
+        }
+
+        boolean hasNext = apparels.size() > size;
+        List<Apparel> pageContent = hasNext ? apparels.subList(0, size) : apparels;
+
+        String nextCursor = null;
+        if (hasNext) {
+            Apparel last = pageContent.get(pageContent.size() - 1);
+            nextCursor = new KeysetCursor(last.getApparelName(), last.getId()).encode();
+        }
+
+        return CursorPageDto.<ApparelDto>builder()
+                .content(pageContent.stream()
+                        .map(apparelMapper::apparelToApparelDto)
+                        .collect(Collectors.toList()))
+                .size(size)
+                .hasNext(hasNext)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
     @Override
     public Optional<ApparelDto> getApparelById(Integer id) {
-        return apparelRepository.findById(id)
-                .map(apparelMapper::apparelToApparelDto);
+        Optional<ApparelDto> cached = apparelDtoCache.get(id);
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        // Concurrent misses for the same ID share a single database load
+        return lookupCoalescer.load("apparel", id, () -> {
+            Optional<ApparelDto> loaded = apparelRepository.findById(id)
+                    .map(apparelMapper::apparelToApparelDto);
+            loaded.ifPresent(apparelDtoCache::put);
+            return loaded;
+        });
     }
 
+    @Override
+    public Optional<Integer> getApparelVersion(Integer id) {
+        // A cached apparel already carries its version, so only a cache miss needs the probe query
+        Optional<ApparelDto> cached = apparelDtoCache.get(id);
+        if (cached.isPresent()) {
+            return cached.map(apparelDto -> Objects.requireNonNullElse(apparelDto.getVersion(), 0));
+        }
+        return apparelRepository.findVersionById(id);
+    }
+
+    /**
+     * The row and its outbox event commit together; the caches and the search index are only refreshed
+     * once they have
+     */
     @Override
     public ApparelDto saveApparel(ApparelDto apparelDto) {
+        ApparelDto savedApparelDto = transactionTemplate.execute(status -> {
+            Apparel savedApparel = apparelRepository.save(apparelMapper.apparelDtoToApparel(apparelDto));
+            ApparelDto saved = apparelMapper.apparelToApparelDto(savedApparel);
+            outboxPublisher.publish(OutboxPublisher.APPAREL, saved.getId(), OutboxPublisher.APPAREL_CREATED, saved);
+            return saved;
+        });
+        listingCountCache.invalidate(LISTING);
+        catalogVersion.changed();
+        apparelSearchIndex.index(savedApparelDto.getId(), savedApparelDto.getApparelName(), savedApparelDto.getApparelStyle());
+        apparelDtoCache.put(savedApparelDto);
+        return savedApparelDto;
+    }
+
+    @Override
+    public Optional<ApparelDto> updateApparel(Integer id, ApparelDto apparelDto, Integer expectedVersion) {
         Apparel apparel = apparelMapper.apparelDtoToApparel(apparelDto);
-        Apparel savedApparel = apparelRepository.save(apparel);
-        return apparelMapper.apparelToApparelDto(savedApparel);
+        return updateAndPublish(id, expectedVersion, () -> apparelRepository.updateIfVersion(id, expectedVersion, apparel));
     }
 
     @Override
-    public void deleteApparelById(Integer id) {
-        apparelRepository.deleteById(id);
+    public Optional<ApparelDto> patchApparel(Integer id, ApparelPatchDto apparelPatchDto, Integer expectedVersion) {
+        Apparel patch = apparelMapper.apparelPatchDtoToApparel(apparelPatchDto);
+        return updateAndPublish(id, expectedVersion, () -> apparelRepository.patchIfVersion(id, expectedVersion, patch));
     }
 
     @Override
-    public Optional<ApparelDto> patchApparel(Integer id, ApparelPatchDto apparelPatchDto) {
-        return apparelRepository.findById(id)
-                .map(apparel -> {
-                    // Update the apparel with non-null values from the patch DTO
-                    apparelMapper.updateApparelFromPatchDto(apparelPatchDto, apparel);
-
-                    // Save the updated apparel
-                    Apparel savedApparel = apparelRepository.save(apparel);
-
-                    // Convert back to DTO and return
-                    return apparelMapper.apparelToApparelDto(savedApparel);
-                });
+    public boolean deleteApparelById(Integer id, Integer expectedVersion) {
+        Boolean deleted = transactionTemplate.execute(status -> {
+            if (apparelRepository.deleteIfVersion(id, expectedVersion) == 0) {
+                return false;
+            }
+            outboxPublisher.publish(OutboxPublisher.APPAREL, id, OutboxPublisher.APPAREL_DELETED, Map.of("id", id));
+            return true;
+        });
+        if (!Boolean.TRUE.equals(deleted)) {
+            failIfStale(id, expectedVersion);
+            return false;
+        }
+        listingCountCache.invalidate(LISTING);
+        catalogVersion.changed();
+        apparelSearchIndex.remove(id);
+        apparelDtoCache.evictDeleted(id);
+        hotStockCounters.resync(id);
+        return true;
+    }
+
+    /**
+     * Run a guarded UPDATE and record the updated row as an outbox event in one transaction. The row is read
+     * back while the UPDATE still holds its lock, so the caches and the search index are refreshed after the
+     * commit with exactly the row that was committed.
+     */
+    private Optional<ApparelDto> updateAndPublish(Integer id, Integer expectedVersion, IntSupplier guardedUpdate) {
+        ApparelDto updated = transactionTemplate.execute(status -> {
+            if (guardedUpdate.getAsInt() == 0) {
+                return null;
+            }
+            ApparelDto apparelDto = apparelRepository.findById(id).map(apparelMapper::apparelToApparelDto).orElseThrow();
+            outboxPublisher.publish(OutboxPublisher.APPAREL, id, OutboxPublisher.APPAREL_UPDATED, apparelDto);
+            return apparelDto;
+        });
+        if (updated == null) {
+            failIfStale(id, expectedVersion);
+            return Optional.empty();
+        }
+
+        // Drop the stale entry first, so version probes stop answering from it straight away
+        apparelDtoCache.invalidate(id);
+        listingCountCache.invalidate(LISTING);
+        catalogVersion.changed();
+        hotStockCounters.resync(id);
+        apparelSearchIndex.index(updated.getId(), updated.getApparelName(), updated.getApparelStyle());
+        apparelDtoCache.put(updated);
+        return Optional.of(updated);
+    }
+
+    /**
+     * A guarded write that touched no row either lost a race or targeted a missing apparel.
+     * Only a conditional write needs the extra query to tell the two apart.
+     */
+    private void failIfStale(Integer id, Integer expectedVersion) {
+        if (expectedVersion != null && apparelRepository.existsById(id)) {
+            throw new PreconditionFailedException(
+                    "Apparel with id: " + id + " does not have version " + expectedVersion);
+        }
     }
 }
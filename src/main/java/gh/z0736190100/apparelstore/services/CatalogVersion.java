@@ -0,0 +1,68 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.entities.CatalogStamp;
+import gh.z0736190100.apparelstore.repositories.CatalogStampRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.ZoneOffset;
+
+/**
+ * Catalog-wide version stamp that collection endpoints use as their ETag.
+ * Every write to apparels, customers, orders or shipments moves the stamp on, so a collection
+ * response stays valid exactly as long as nothing has been written since.
+ * <p>
+ * The stamp is kept in the catalog_stamp row, so every instance sees the writes of all the others.
+ * A transaction bumps it once, right before it commits, so the row lock is held only while committing
+ * and a stamp can never be read before the write it stands for is visible. The row's creation time is
+ * part of the stamp, so a recreated database never hands out a stamp a client has already seen.
+ * Writes made outside the application must bump the row as well.
+ */
+@Component
+public class CatalogVersion {
+
+    private final CatalogStampRepository catalogStampRepository;
+
+    public CatalogVersion(CatalogStampRepository catalogStampRepository) {
+        this.catalogStampRepository = catalogStampRepository;
+    }
+
+    /**
+     * Get the current stamp. Read it before loading a collection, so a write that races with the
+     * load can only make the stamp older than the data, never newer.
+     * @return the current stamp
+     */
+    public String current() {
+        CatalogStamp catalogStamp = catalogStampRepository.findById(CatalogStamp.ID)
+                .orElseThrow(() -> new IllegalStateException("The catalog stamp row is missing"));
+        long epoch = catalogStamp.getCreatedDate().toInstant(ZoneOffset.UTC).toEpochMilli();
+        return Long.toString(epoch, 36) + '.' + catalogStamp.getStamp();
+    }
+
+    /**
+     * Record that the catalog has been written to. Inside a transaction the stamp moves on as part of
+     * it, once however many writes it makes; outside one it moves on straight away.
+     */
+    public void changed() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            catalogStampRepository.increment(CatalogStamp.ID);
+            return;
+        }
+        if (TransactionSynchronizationManager.hasResource(this)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                catalogStampRepository.increment(CatalogStamp.ID);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(CatalogVersion.this);
+            }
+        });
+    }
+}
@@ -0,0 +1,75 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.CustomerLookupProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.Locale;
+
+/**
+ * Normalizes customer contact details into the form they are indexed and looked up by,
+ * so that however a customer typed them, the same email or phone number finds the same row.
+ */
+@Component
+public class ContactNormalizer {
+
+    // E.164 allows at most 15 digits after the plus sign
+    private static final int MAX_DIGITS = 15;
+    private static final int MIN_DIGITS = 8;
+
+    private final String defaultCountryCode;
+
+    public ContactNormalizer(CustomerLookupProperties customerLookupProperties) {
+        this.defaultCountryCode = customerLookupProperties.defaultCountryCode();
+    }
+
+    /**
+     * @param email an email as entered
+     * @return the email trimmed and lower-cased, or null if blank
+     */
+    public String normalizeEmail(String email) {
+        return StringUtils.hasText(email) ? email.trim().toLowerCase(Locale.ROOT) : null;
+    }
+
+    /**
+     * Normalize a phone number to E.164, e.g. "(555) 123-4567" to "+15551234567".
+     * A number starting with + or 00 carries its own country code. Any other number is national:
+     * a leading trunk prefix (0, or the default country code itself on a number longer than 10 digits)
+     * is dropped and the default country code is prepended.
+     * @param phoneNumber a phone number as entered
+     * @return the number in E.164 form, or null if blank or not a plausible phone number
+     */
+    public String normalizePhone(String phoneNumber) {
+        if (!StringUtils.hasText(phoneNumber)) {
+            return null;
+        }
+        String trimmed = phoneNumber.trim();
+        boolean international = trimmed.startsWith("+");
+        StringBuilder digits = new StringBuilder();
+        for (int i = international ? 1 : 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            } else if (" -.()/".indexOf(c) < 0) {
+                return null;
+            }
+        }
+
+        String number = digits.toString();
+        if (!international && number.startsWith("00")) {
+            number = number.substring(2);
+        } else if (!international) {
+            if (number.startsWith("0")) {
+                number = number.substring(1);
+            } else if (number.length() > 10 && number.startsWith(defaultCountryCode)) {
+                number = number.substring(defaultCountryCode.length());
+            }
+            number = defaultCountryCode + number;
+        }
+
+        if (number.length() < MIN_DIGITS || number.length() > MAX_DIGITS || number.startsWith("0")) {
+            return null;
+        }
+        return "+" + number;
+    }
+}
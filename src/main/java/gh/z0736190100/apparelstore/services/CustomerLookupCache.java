@@ -0,0 +1,115 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import gh.z0736190100.apparelstore.config.CustomerLookupProperties;
+import gh.z0736190100.apparelstore.models.CustomerDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded near-cache of customer lookups by normalized email or phone number, in front of the
+ * index seeks in {@link CustomerServiceImpl}. Misses are cached too, so a checkout probing for a
+ * returning customer who is new does not hit the database on every retry.
+ * <p>
+ * Writes drop the entries for the customer's new contact details and every entry holding the customer.
+ * A lookup that raced with a write is served but not kept, so a slow reader cannot cache the rows it
+ * loaded before the write became visible. Hit, miss and eviction metrics are published as
+ * {@code cache.*{cache=customerByContact}}.
+ */
+@Component
+public class CustomerLookupCache {
+
+    static final String CACHE_NAME = "customerByContact";
+
+    private final Cache<String, List<CustomerDto>> cache;
+    // Bumped by every write, before its invalidation
+    private final AtomicLong generation = new AtomicLong();
+
+    public CustomerLookupCache(CustomerLookupProperties customerLookupProperties, MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(customerLookupProperties.cacheMaximumSize())
+                .expireAfterWrite(customerLookupProperties.cacheExpireAfterWrite())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * @param normalizedEmail an email as normalized by {@link ContactNormalizer#normalizeEmail}
+     * @return the cache key for looking the email up
+     */
+    public static String emailKey(String normalizedEmail) {
+        return "email:" + normalizedEmail;
+    }
+
+    /**
+     * @param normalizedPhone a phone number as normalized by {@link ContactNormalizer#normalizePhone}
+     * @return the cache key for looking the phone number up
+     */
+    public static String phoneKey(String normalizedPhone) {
+        return "phone:" + normalizedPhone;
+    }
+
+    /**
+     * Get the customers matching a lookup, loading and caching them on a miss
+     * @param key the lookup key
+     * @param loader loads the matching customers from the database
+     * @return copies of the matching customers, empty if none match
+     */
+    public List<CustomerDto> get(String key, Supplier<List<CustomerDto>> loader) {
+        List<CustomerDto> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return copy(cached);
+        }
+
+        long loadedAt = generation.get();
+        List<CustomerDto> loaded = copy(loader.get());
+        cache.put(key, loaded);
+        // A write that began after the load may already have run its invalidation
+        if (generation.get() != loadedAt) {
+            cache.invalidate(key);
+        }
+        return copy(loaded);
+    }
+
+    /**
+     * Drop the lookups a customer write may have changed. Inside a transaction they are dropped once
+     * the transaction has completed, so a lookup cannot cache the rows as they were before the write.
+     * @param customerId the ID of the written customer
+     * @param keys the lookup keys of the customer's contact details after the write
+     */
+    public void invalidate(Integer customerId, Collection<String> keys) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    drop(customerId, keys);
+                }
+            });
+        } else {
+            drop(customerId, keys);
+        }
+    }
+
+    private void drop(Integer customerId, Collection<String> keys) {
+        generation.incrementAndGet();
+        cache.invalidateAll(keys);
+        cache.asMap().values().removeIf(customers -> customers.stream()
+                .anyMatch(customer -> customerId.equals(customer.getId())));
+    }
+
+    private static List<CustomerDto> copy(List<CustomerDto> customers) {
+        return customers.stream()
+                .<CustomerDto>map(customer -> customer.toBuilder().build())
+                .toList();
+    }
+}
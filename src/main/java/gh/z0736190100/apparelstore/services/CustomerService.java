@@ -1,5 +1,8 @@
 package gh.z0736190100.apparelstore.services;
 
+import gh.z0736190100.apparelstore.exceptions.CustomerContactInUseException;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
 import gh.z0736190100.apparelstore.models.CustomerDto;
 
 import java.util.List;
@@ -16,6 +19,21 @@ public interface CustomerService {
      */
     List<CustomerDto> getAllCustomers();
 
+    /**
+     * Get a keyset page of the customer directory with optional filters.
+     * Customers are ordered by name and ID.
+     * @param namePrefix the case-sensitive start of the name to filter by (can be null)
+     * @param email the email to filter by, however it is cased or padded (can be null)
+     * @param city the city to filter by (can be null)
+     * @param state the state to filter by (can be null)
+     * @param postalCode the postal code to filter by (can be null)
+     * @param after the cursor returned with the previous page (null for the first page)
+     * @param size the page size
+     * @return CursorPageDto of customers matching the criteria
+     */
+    CursorPageDto<CustomerDto> getCustomersAfter(String namePrefix, String email, String city, String state,
+                                                 String postalCode, String after, int size);
+
     /**
      * Get a customer by its ID
      * @param id the customer ID
@@ -23,24 +41,52 @@ public interface CustomerService {
      */
     Optional<CustomerDto> getCustomerById(Integer id);
 
+    /**
+     * Find a customer by email, however it is cased or padded
+     * @param email the email
+     * @return Optional containing the customer with the email if there is one
+     */
+    Optional<CustomerDto> getCustomerByEmail(String email);
+
+    /**
+     * Find the customers with a phone number, however it is formatted
+     * @param phoneNumber the phone number, with or without a country code
+     * @return the customers with the phone number in ID order, empty if none or if it is not a phone number
+     */
+    List<CustomerDto> getCustomersByPhone(String phoneNumber);
+
+    /**
+     * Get the current version of a customer without loading and mapping it, to answer conditional requests
+     * @param id the customer ID
+     * @return Optional containing the version if the customer exists
+     */
+    Optional<Integer> getCustomerVersion(Integer id);
+
     /**
      * Save a new customer or update an existing one
      * @param customerDto the customer to save
      * @return the saved customer
+     * @throws CustomerContactInUseException if another customer already has the email
      */
     CustomerDto saveCustomer(CustomerDto customerDto);
 
     /**
-     * Update an existing customer
+     * Replace an existing customer with a single UPDATE statement
      * @param id the customer ID
-     * @param customerDto the updated customer data
-     * @return the updated customer
+     * @param customerDto the updated customer data; its version is ignored
+     * @param expectedVersion the version the caller last saw (If-Match), or null to update unconditionally
+     * @return Optional containing the updated customer, empty if not found
+     * @throws CustomerContactInUseException if another customer already has the email
+     * @throws PreconditionFailedException if the customer exists but does not have the expected version
      */
-    Optional<CustomerDto> updateCustomer(Integer id, CustomerDto customerDto);
+    Optional<CustomerDto> updateCustomer(Integer id, CustomerDto customerDto, Integer expectedVersion);
 
     /**
-     * Delete a customer by its ID
+     * Delete a customer by its ID with a single DELETE statement
      * @param id the customer ID
+     * @param expectedVersion the version the caller last saw (If-Match), or null to delete unconditionally
+     * @return true if the customer was deleted, false if not found
+     * @throws PreconditionFailedException if the customer exists but does not have the expected version
      */
-    void deleteCustomerById(Integer id);
+    boolean deleteCustomerById(Integer id, Integer expectedVersion);
 }
\ No newline at end of file
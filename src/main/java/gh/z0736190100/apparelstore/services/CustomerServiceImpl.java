@@ -1,13 +1,18 @@
 package gh.z0736190100.apparelstore.services;
 
 import gh.z0736190100.apparelstore.entities.Customer;
-import gh.z0736190100.apparelstore.exceptions.NotFoundException;
+import gh.z0736190100.apparelstore.exceptions.CustomerContactInUseException;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
 import gh.z0736190100.apparelstore.mappers.CustomerMapper;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
 import gh.z0736190100.apparelstore.models.CustomerDto;
 import gh.z0736190100.apparelstore.repositories.CustomerRepository;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -20,10 +25,20 @@ public class CustomerServiceImpl implements CustomerService {
 
     private final CustomerRepository customerRepository;
     private final CustomerMapper customerMapper;
+    private final LookupCoalescer lookupCoalescer;
+    private final CatalogVersion catalogVersion;
+    private final ContactNormalizer contactNormalizer;
+    private final CustomerLookupCache customerLookupCache;
 
-    public CustomerServiceImpl(CustomerRepository customerRepository, CustomerMapper customerMapper) {
+    public CustomerServiceImpl(CustomerRepository customerRepository, CustomerMapper customerMapper,
+                               LookupCoalescer lookupCoalescer, CatalogVersion catalogVersion,
+                               ContactNormalizer contactNormalizer, CustomerLookupCache customerLookupCache) {
         this.customerRepository = customerRepository;
         this.customerMapper = customerMapper;
+        this.lookupCoalescer = lookupCoalescer;
+        this.catalogVersion = catalogVersion;
+        this.contactNormalizer = contactNormalizer;
+        this.customerLookupCache = customerLookupCache;
     }
 
     @Override
@@ -36,36 +51,192 @@ public class CustomerServiceImpl implements CustomerService {
 
     @Override
     @Transactional(readOnly = true)
+    public CursorPageDto<CustomerDto> getCustomersAfter(String namePrefix, String email, String city, String state,
+                                                        String postalCode, String after, int size) {
+        String emailNormalized = contactNormalizer.normalizeEmail(email);
+
+        // Fetch one extra row to find out whether another page follows, without counting
+        Limit limit = Limit.of(size + 1);
+        List<Customer> customers;
+
+        if (StringUtils.hasText(after)) {
+            KeysetCursor cursor = KeysetCursor.decode(after);
+            customers = customerRepository.findKeysetPageAfter(likePrefix(namePrefix), emailNormalized, filter(city),
+                    filter(state), filter(postalCode), cursor.sortKey(), cursor.id(), limit);
+        } else {
+            customers = customerRepository.findFirstKeysetPage(likePrefix(namePrefix), emailNormalized, filter(city),
+                    filter(state), filter(postalCode), limit);
+        }
+
+        boolean hasNext = customers.size() > size;
+        List<Customer> pageContent = hasNext ? customers.subList(0, size) : customers;
+
+        String nextCursor = null;
+        if (hasNext) {
+            Customer last = pageContent.get(pageContent.size() - 1);
+            nextCursor = new KeysetCursor(last.getName(), last.getId()).encode();
+        }
+
+        return CursorPageDto.<CustomerDto>builder()
+                .content(pageContent.stream()
+                        .map(customerMapper::customerToCustomerDto)
+                        .collect(Collectors.toList()))
+                .size(size)
+                .hasNext(hasNext)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    /**
+     * Not transactional on purpose: callers joining an in-flight lookup must not hold a connection
+     * while they wait. The repository call runs in its own read-only transaction, and the mapping
+     * does not touch lazy associations.
+     */
+    @Override
     public Optional<CustomerDto> getCustomerById(Integer id) {
-        return customerRepository.findById(id)
-                .map(customerMapper::customerToCustomerDto);
+        return lookupCoalescer.load("customer", id, () -> customerRepository.findById(id)
+                .map(customerMapper::customerToCustomerDto));
+    }
+
+    /**
+     * Served from the near-cache; a miss is a seek on the normalized email index,
+     * shared with concurrent lookups of the same email.
+     */
+    @Override
+    public Optional<CustomerDto> getCustomerByEmail(String email) {
+        String emailNormalized = contactNormalizer.normalizeEmail(email);
+        if (emailNormalized == null) {
+            return Optional.empty();
+        }
+        String key = CustomerLookupCache.emailKey(emailNormalized);
+        return customerLookupCache.get(key, () -> lookupCoalescer.load("customerByContact", key, () ->
+                        customerRepository.findFirstByEmailNormalizedOrderById(emailNormalized)
+                                .map(customerMapper::customerToCustomerDto)
+                                .stream()
+                                .toList()))
+                .stream()
+                .findFirst();
+    }
+
+    @Override
+    public List<CustomerDto> getCustomersByPhone(String phoneNumber) {
+        String phoneNormalized = contactNormalizer.normalizePhone(phoneNumber);
+        if (phoneNormalized == null) {
+            return List.of();
+        }
+        String key = CustomerLookupCache.phoneKey(phoneNormalized);
+        return customerLookupCache.get(key, () -> lookupCoalescer.load("customerByContact", key, () ->
+                customerRepository.findByPhoneNormalizedOrderById(phoneNormalized).stream()
+                        .map(customerMapper::customerToCustomerDto)
+                        .toList()));
+    }
+
+    @Override
+    public Optional<Integer> getCustomerVersion(Integer id) {
+        return customerRepository.findVersionById(id);
     }
 
     @Override
     @Transactional
     public CustomerDto saveCustomer(CustomerDto customerDto) {
         Customer customer = customerMapper.customerDtoToCustomer(customerDto);
+        normalizeContacts(customer, customer.getId());
         Customer savedCustomer = customerRepository.save(customer);
+        catalogVersion.changed();
+        customerLookupCache.invalidate(savedCustomer.getId(), lookupKeys(savedCustomer));
         return customerMapper.customerToCustomerDto(savedCustomer);
     }
 
     @Override
     @Transactional
-    public Optional<CustomerDto> updateCustomer(Integer id, CustomerDto customerDto) {
-        Customer existingCustomer = customerRepository.findById(id)
-                .orElseThrow(() -> new NotFoundException("Customer not found with id: " + id));
-
-        // Update properties from DTO to existing entity using mapper
-        customerMapper.updateCustomerFromDto(customerDto, existingCustomer);
-
-        // Save the updated entity
-        Customer savedCustomer = customerRepository.save(existingCustomer);
-        return Optional.of(customerMapper.customerToCustomerDto(savedCustomer));
+    public Optional<CustomerDto> updateCustomer(Integer id, CustomerDto customerDto, Integer expectedVersion) {
+        Customer customer = customerMapper.customerDtoToCustomer(customerDto);
+        normalizeContacts(customer, id);
+        int updated = customerRepository.updateIfVersion(id, expectedVersion, customer);
+        if (updated == 0) {
+            failIfStale(id, expectedVersion);
+            return Optional.empty();
+        }
+        catalogVersion.changed();
+        customerLookupCache.invalidate(id, lookupKeys(customer));
+        return customerRepository.findById(id).map(customerMapper::customerToCustomerDto);
     }
 
     @Override
     @Transactional
-    public void deleteCustomerById(Integer id) {
-        customerRepository.deleteById(id);
+    public boolean deleteCustomerById(Integer id, Integer expectedVersion) {
+        if (customerRepository.deleteIfVersion(id, expectedVersion) == 0) {
+            failIfStale(id, expectedVersion);
+            return false;
+        }
+        catalogVersion.changed();
+        customerLookupCache.invalidate(id, List.of());
+        return true;
+    }
+
+    /**
+     * Fill in the lookup columns from the contact details as entered
+     * @param customer the customer about to be written
+     * @param id the ID of the customer being written, null for a new customer
+     * @throws CustomerContactInUseException if another customer already has the email
+     */
+    private void normalizeContacts(Customer customer, Integer id) {
+        customer.setEmailNormalized(contactNormalizer.normalizeEmail(customer.getEmail()));
+        customer.setPhoneNormalized(contactNormalizer.normalizePhone(customer.getPhoneNumber()));
+        if (customer.getEmailNormalized() == null || keepsStoredEmail(customer, id)) {
+            return;
+        }
+        // Checked up front for a clear error; the unique index still decides a race between two writers
+        if (customerRepository.existsOtherByEmailNormalized(customer.getEmailNormalized(), id)) {
+            throw new CustomerContactInUseException(
+                    "Email " + customer.getEmail() + " already belongs to another customer");
+        }
+    }
+
+    /**
+     * A customer keeping its email is never rejected, even where it still shares the email
+     * with a customer it has not been merged with yet (see V15_1)
+     */
+    private boolean keepsStoredEmail(Customer customer, Integer id) {
+        return id != null && customerRepository.findEmailNormalizedById(id)
+                .filter(customer.getEmailNormalized()::equals)
+                .isPresent();
+    }
+
+    private static List<String> lookupKeys(Customer customer) {
+        List<String> keys = new ArrayList<>(2);
+        if (customer.getEmailNormalized() != null) {
+            keys.add(CustomerLookupCache.emailKey(customer.getEmailNormalized()));
+        }
+        if (customer.getPhoneNormalized() != null) {
+            keys.add(CustomerLookupCache.phoneKey(customer.getPhoneNormalized()));
+        }
+        return keys;
+    }
+
+    /**
+     * A blank filter matches every customer
+     */
+    private static String filter(String value) {
+        return StringUtils.hasText(value) ? value.trim() : null;
+    }
+
+    /**
+     * A name prefix is matched literally, so the LIKE wildcards and the escape character are escaped
+     */
+    private static String likePrefix(String value) {
+        String prefix = filter(value);
+        return prefix == null ? null : prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * A guarded write that touched no row either lost a race or targeted a missing customer.
+     * Only a conditional write needs the extra query to tell the two apart.
+     */
+    private void failIfStale(Integer id, Integer expectedVersion) {
+        if (expectedVersion != null && customerRepository.existsById(id)) {
+            throw new PreconditionFailedException(
+                    "Customer with id: " + id + " does not have version " + expectedVersion);
+        }
     }
 }
@@ -0,0 +1,252 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.HotStockProperties;
+import gh.z0736190100.apparelstore.entities.HotStockReservation;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import gh.z0736190100.apparelstore.repositories.HotStockReservationRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory stock counters for hot (flash-sale) apparels.
+ * <p>
+ * Thousands of allocations of the same apparel would all queue on its row lock, so the stock of each
+ * apparel listed in {@link HotStockProperties#apparelIds()} is instead held in a {@link StripedStock}.
+ * Every quantity taken from it is logged as a {@link HotStockReservation} in the allocating transaction,
+ * and a background flush writes the log back to the apparel row with one UPDATE per apparel. A crash
+ * loses nothing: the counters are rebuilt from the row minus whatever the log still holds.
+ * <p>
+ * A hot apparel's quantity on hand therefore trails its counters by up to one flush interval. The counters
+ * are local to this JVM, so hot SKU mode assumes a single instance takes the stock of each hot apparel.
+ * Direct writes to the quantity on hand must be followed by {@link #resync(Integer)}, as {@link ApparelServiceImpl} does.
+ */
+@Slf4j
+@Component
+public class HotStockCounters {
+
+    // Reservations written back per flush; anything beyond is left for the next one
+    static final int FLUSH_BATCH_SIZE = 1000;
+
+    private final HotStockProperties hotStockProperties;
+    private final ApparelRepository apparelRepository;
+    private final HotStockReservationRepository hotStockReservationRepository;
+    private final ApparelDtoCache apparelDtoCache;
+    private final CatalogVersion catalogVersion;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<Integer, HotStock> stocks = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flusher;
+
+    public HotStockCounters(HotStockProperties hotStockProperties, ApparelRepository apparelRepository,
+                            HotStockReservationRepository hotStockReservationRepository,
+                            ApparelDtoCache apparelDtoCache, CatalogVersion catalogVersion,
+                            PlatformTransactionManager transactionManager) {
+        this.hotStockProperties = hotStockProperties;
+        this.apparelRepository = apparelRepository;
+        this.hotStockReservationRepository = hotStockReservationRepository;
+        this.apparelDtoCache = apparelDtoCache;
+        this.catalogVersion = catalogVersion;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Load the counters of the hot apparels and start writing them back once the application has started
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (hotStockProperties.apparelIds().isEmpty()) {
+            return;
+        }
+        hotStockProperties.apparelIds().forEach(this::stock);
+        log.info("Hot stock counters loaded for apparels {}", hotStockProperties.apparelIds());
+
+        flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "hot-stock-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = hotStockProperties.flushInterval().toMillis();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the flush and write back what is left
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(hotStockProperties.flushInterval().toMillis() + 5000, TimeUnit.MILLISECONDS);
+        flushQuietly();
+    }
+
+    /**
+     * Check whether an apparel's stock is held in memory
+     * @param apparelId the apparel ID
+     * @return true if the apparel is configured as hot
+     */
+    public boolean isHot(Integer apparelId) {
+        return hotStockProperties.apparelIds().contains(apparelId);
+    }
+
+    /**
+     * Take up to the requested quantity of a hot apparel's stock and log it in the current transaction.
+     * If the transaction does not commit, the quantity goes back to the counters.
+     * @param apparelId the ID of a hot apparel
+     * @param requested the quantity to take
+     * @return the quantity taken, less than requested if the stock ran short, 0 if there is none left
+     * @throws IllegalStateException if no transaction is active
+     */
+    public int reserve(Integer apparelId, int requested) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Hot stock can only be reserved inside a transaction");
+        }
+        HotStock hotStock = stock(apparelId);
+        // Count the quantity in flight before taking it, so a resync running in between holds it back
+        // rather than putting it into the counters a second time
+        hotStock.inFlight().add(requested);
+        int taken = hotStock.stripes().take(requested);
+        hotStock.inFlight().add(taken - requested);
+        if (taken == 0) {
+            return 0;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    hotStock.inFlight().add(-taken);
+                    return;
+                }
+                // A resync must see a rolled back quantity either in flight or back in the counters, never both
+                synchronized (hotStock) {
+                    hotStock.stripes().put(taken);
+                    hotStock.inFlight().add(-taken);
+                }
+            }
+        });
+        hotStockReservationRepository.save(HotStockReservation.builder()
+                .apparelId(apparelId)
+                .quantity(taken)
+                .build());
+        return taken;
+    }
+
+    /**
+     * Rebuild the counters of a hot apparel after its quantity on hand was written directly, e.g. by a restock.
+     * The counters are emptied first, so nothing is taken while they are reloaded. Stock held by
+     * transactions still in flight is held back, even if they commit before the reload reads the row;
+     * such a quantity, like the untaken part of a reservation caught halfway, is only released again
+     * by the next resync.
+     * @param apparelId the apparel ID
+     */
+    public void resync(Integer apparelId) {
+        HotStock hotStock = stocks.get(apparelId);
+        if (hotStock == null) {
+            // Not loaded yet, so the first reservation reads the row anyway
+            return;
+        }
+        synchronized (hotStock) {
+            hotStock.stripes().drain();
+            long inFlight = hotStock.inFlight().sum();
+            hotStock.stripes().put(Math.max(unreserved(apparelId) - inFlight, 0));
+        }
+    }
+
+    /**
+     * Get the stock a hot apparel has left in memory
+     * @param apparelId the apparel ID
+     * @return the quantity left, 0 if the apparel is not hot or its counters are not loaded yet
+     */
+    public long available(Integer apparelId) {
+        HotStock hotStock = stocks.get(apparelId);
+        return hotStock == null ? 0 : hotStock.stripes().available();
+    }
+
+    /**
+     * Write the oldest logged reservations back to their apparel rows, one UPDATE per apparel, and delete them
+     * in the same transaction
+     * @return the number of reservations written back
+     */
+    public int flush() {
+        Map<Integer, Integer> writtenBack = new TreeMap<>();
+        Integer flushed = transactionTemplate.execute(status -> {
+            List<HotStockReservation> reservations =
+                    hotStockReservationRepository.findAllByOrderById(Limit.of(FLUSH_BATCH_SIZE));
+            if (reservations.isEmpty()) {
+                return 0;
+            }
+            reservations.forEach(reservation ->
+                    writtenBack.merge(reservation.getApparelId(), reservation.getQuantity(), Integer::sum));
+
+            // The TreeMap hands out the apparels in ascending ID order, like allocations lock them
+            writtenBack.forEach(apparelRepository::writeBackStock);
+            hotStockReservationRepository.deleteAllByIdInBatch(
+                    reservations.stream().map(HotStockReservation::getId).toList());
+            return reservations.size();
+        });
+
+        // Only committed stock changes reach the cache
+        if (!writtenBack.isEmpty()) {
+            writtenBack.keySet().forEach(apparelDtoCache::invalidate);
+            catalogVersion.changed();
+        }
+        return flushed == null ? 0 : flushed;
+    }
+
+    private void flushQuietly() {
+        try {
+            int flushed;
+            do {
+                flushed = flush();
+            } while (flushed == FLUSH_BATCH_SIZE);
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule; the reservations are still logged, so the next flush retries them
+            log.warn("Hot stock write-back failed", e);
+        }
+    }
+
+    private HotStock stock(Integer apparelId) {
+        return stocks.computeIfAbsent(apparelId, id -> {
+            HotStock hotStock = new HotStock(new StripedStock(hotStockProperties.stripes()), new LongAdder());
+            hotStock.stripes().put(Math.max(unreserved(id), 0));
+            return hotStock;
+        });
+    }
+
+    /**
+     * Read the unreserved stock of an apparel, joining the caller's transaction if there is one
+     */
+    private long unreserved(Integer apparelId) {
+        Long unreserved = transactionTemplate.execute(status ->
+                hotStockReservationRepository.findUnreservedQuantityByApparelId(apparelId).orElse(0L));
+        return unreserved == null ? 0 : unreserved;
+    }
+
+    /**
+     * The counters of one hot apparel
+     * @param stripes the stock left
+     * @param inFlight the quantity taken by transactions that have not completed yet
+     */
+    private record HotStock(StripedStock stripes, LongAdder inFlight) {
+    }
+}
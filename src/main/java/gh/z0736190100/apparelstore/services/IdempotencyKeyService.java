@@ -0,0 +1,42 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.exceptions.IdempotencyKeyInUseException;
+import gh.z0736190100.apparelstore.exceptions.IdempotencyKeyMismatchException;
+
+import java.util.function.Supplier;
+
+/**
+ * Service interface for running requests at most once per Idempotency-Key
+ */
+public interface IdempotencyKeyService {
+
+    /**
+     * The response to a request made with an Idempotency-Key
+     * @param body the response body
+     * @param replayed true if the body is the stored response of an earlier request with the same key
+     * @param <T> the response type
+     */
+    record IdempotentResponse<T>(T body, boolean replayed) {
+    }
+
+    /**
+     * Run an action once per idempotency key and answer every retry with its stored response.
+     * The key is recorded in the same transaction as the action, so a failed action can simply be retried.
+     * A duplicate that arrives while the first request is still running waits for it.
+     * @param idempotencyKey the client's Idempotency-Key
+     * @param request the request body, which retries must repeat exactly
+     * @param responseType the response type, to read stored responses back
+     * @param action the action; it runs inside the transaction that records the key
+     * @param <T> the response type
+     * @return the response of the first request made with the key
+     * @throws IdempotencyKeyMismatchException if the key was first used for a different request
+     * @throws IdempotencyKeyInUseException if the first request with the key is still running after the lock timeout
+     */
+    <T> IdempotentResponse<T> execute(String idempotencyKey, Object request, Class<T> responseType, Supplier<T> action);
+
+    /**
+     * Delete keys older than the retention period, in batches
+     * @return the number of keys deleted
+     */
+    int purgeExpiredKeys();
+}
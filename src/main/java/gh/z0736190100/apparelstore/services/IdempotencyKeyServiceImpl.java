@@ -0,0 +1,298 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import gh.z0736190100.apparelstore.config.IdempotencyProperties;
+import gh.z0736190100.apparelstore.entities.IdempotencyKey;
+import gh.z0736190100.apparelstore.exceptions.IdempotencyKeyInUseException;
+import gh.z0736190100.apparelstore.exceptions.IdempotencyKeyMismatchException;
+import gh.z0736190100.apparelstore.repositories.IdempotencyKeyRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Implementation of IdempotencyKeyService backed by the idempotency_key table, with a bounded in-memory
+ * LRU of recent responses in front of it so retries are answered without a query.
+ * <p>
+ * Duplicates that reach this instance while the first request is running wait on it in memory. Across
+ * instances, the unique index on the key does the locking: the second insert waits for the first
+ * transaction and then fails, after which the committed response is replayed.
+ * Cache metrics are published as {@code cache.*{cache=idempotencyKeys}}.
+ */
+@Slf4j
+@Service
+public class IdempotencyKeyServiceImpl implements IdempotencyKeyService {
+
+    static final String CACHE_NAME = "idempotencyKeys";
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final ObjectMapper objectMapper;
+    private final IdempotencyProperties idempotencyProperties;
+    private final TransactionTemplate transactionTemplate;
+    private final Cache<String, StoredResponse> responses;
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> inProgress = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService purger;
+
+    public IdempotencyKeyServiceImpl(IdempotencyKeyRepository idempotencyKeyRepository, ObjectMapper objectMapper,
+                                     IdempotencyProperties idempotencyProperties, MeterRegistry meterRegistry,
+                                     PlatformTransactionManager transactionManager) {
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.objectMapper = objectMapper;
+        this.idempotencyProperties = idempotencyProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Entries expire with their row, however long after its insert they were cached,
+        // so a purged key cannot be replayed from memory
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(idempotencyProperties.cacheMaximumSize())
+                .expireAfter(new Expiry<String, StoredResponse>() {
+                    @Override
+                    public long expireAfterCreate(String keyHash, StoredResponse response, long currentTime) {
+                        return Math.max(Duration.between(LocalDateTime.now(), response.expiresAt()).toNanos(), 0);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String keyHash, StoredResponse response, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(keyHash, response, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String keyHash, StoredResponse response, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, responses, CACHE_NAME);
+    }
+
+    /**
+     * Start purging expired keys once the application has started
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        purger = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "idempotency-key-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = idempotencyProperties.purgeInterval().toMillis();
+        purger.scheduleWithFixedDelay(this::purgeQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (purger != null) {
+            purger.shutdownNow();
+        }
+    }
+
+    @Override
+    public <T> IdempotentResponse<T> execute(String idempotencyKey, Object request, Class<T> responseType,
+                                             Supplier<T> action) {
+        String keyHash = sha256(idempotencyKey.getBytes(StandardCharsets.UTF_8));
+        String requestHash = sha256(toJson(request).getBytes(StandardCharsets.UTF_8));
+
+        while (true) {
+            StoredResponse cached = responses.getIfPresent(keyHash);
+            if (cached != null) {
+                return replay(cached, requestHash, responseType);
+            }
+
+            CompletableFuture<Void> claim = new CompletableFuture<>();
+            CompletableFuture<Void> running = inProgress.putIfAbsent(keyHash, claim);
+            if (running != null) {
+                // Once the first request is done its response is cached; if it failed, the next loop runs the action
+                awaitFirstRequest(running);
+                continue;
+            }
+            try {
+                return executeOnce(keyHash, requestHash, responseType, action);
+            } finally {
+                inProgress.remove(keyHash, claim);
+                claim.complete(null);
+            }
+        }
+    }
+
+    private <T> IdempotentResponse<T> executeOnce(String keyHash, String requestHash, Class<T> responseType,
+                                                  Supplier<T> action) {
+        // Evicted from memory, or answered by another instance
+        var stored = idempotencyKeyRepository.findByKeyHash(keyHash);
+        if (stored.isPresent()) {
+            return replay(remember(stored.get()), requestHash, responseType);
+        }
+
+        try {
+            Executed<T> executed = transactionTemplate.execute(status -> {
+                IdempotencyKey key = claimKey(keyHash, requestHash);
+                T result = action.get();
+                key.setResponseBody(toJson(result));
+                return new Executed<>(key, result);
+            });
+            remember(executed.key());
+            return new IdempotentResponse<>(executed.response(), false);
+        } catch (KeyTakenException e) {
+            IdempotencyKey winner = idempotencyKeyRepository.findByKeyHash(keyHash)
+                    .orElseThrow(() -> new IdempotencyKeyInUseException(
+                            "A request with this Idempotency-Key is still being processed", e.getCause()));
+            return replay(remember(winner), requestHash, responseType);
+        }
+    }
+
+    /**
+     * Insert the key, flushed first so a concurrent duplicate blocks on the unique index instead of running
+     * its action. Only a violation raised by this insert means the key was taken; one raised by the action
+     * is the action's own failure and propagates unchanged.
+     */
+    private IdempotencyKey claimKey(String keyHash, String requestHash) {
+        try {
+            return idempotencyKeyRepository.saveAndFlush(IdempotencyKey.builder()
+                    .keyHash(keyHash)
+                    .requestHash(requestHash)
+                    .build());
+        } catch (DataIntegrityViolationException e) {
+            throw new KeyTakenException(e);
+        }
+    }
+
+    private void awaitFirstRequest(CompletableFuture<Void> running) {
+        try {
+            running.get(idempotencyProperties.lockTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IdempotencyKeyInUseException("A request with this Idempotency-Key is still being processed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyKeyInUseException("Interrupted while waiting for a request with this Idempotency-Key", e);
+        } catch (ExecutionException e) {
+            // The claim is only ever completed normally
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private StoredResponse remember(IdempotencyKey key) {
+        LocalDateTime createdDate = key.getCreatedDate() == null ? LocalDateTime.now() : key.getCreatedDate();
+        StoredResponse storedResponse = new StoredResponse(key.getRequestHash(), key.getResponseBody(),
+                createdDate.plus(idempotencyProperties.retention()));
+        if (key.getResponseBody() != null) {
+            responses.put(key.getKeyHash(), storedResponse);
+        }
+        return storedResponse;
+    }
+
+    private <T> IdempotentResponse<T> replay(StoredResponse storedResponse, String requestHash, Class<T> responseType) {
+        if (!storedResponse.requestHash().equals(requestHash)) {
+            throw new IdempotencyKeyMismatchException(
+                    "This Idempotency-Key was already used for a different request");
+        }
+        if (storedResponse.body() == null) {
+            throw new IdempotencyKeyInUseException("A request with this Idempotency-Key is still being processed");
+        }
+        try {
+            return new IdempotentResponse<>(objectMapper.readValue(storedResponse.body(), responseType), true);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored idempotent response cannot be read", e);
+        }
+    }
+
+    @Override
+    public int purgeExpiredKeys() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(idempotencyProperties.retention());
+        int batchSize = idempotencyProperties.purgeBatchSize();
+        int purged = 0;
+        List<Integer> ids;
+        do {
+            ids = idempotencyKeyRepository.findIdsCreatedBefore(cutoff, Limit.of(batchSize));
+            if (!ids.isEmpty()) {
+                idempotencyKeyRepository.deleteAllByIdInBatch(ids);
+                purged += ids.size();
+            }
+        } while (ids.size() == batchSize);
+        return purged;
+    }
+
+    private void purgeQuietly() {
+        try {
+            int purged = purgeExpiredKeys();
+            if (purged > 0) {
+                log.info("Purged {} expired idempotency keys", purged);
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule
+            log.warn("Purging expired idempotency keys failed", e);
+        }
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize " + value.getClass().getSimpleName(), e);
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * A response as it is kept in memory
+     * @param requestHash the SHA-256 of the request that produced it
+     * @param body the response as JSON
+     * @param expiresAt when the row it was stored in becomes due for purging
+     */
+    private record StoredResponse(String requestHash, String body, LocalDateTime expiresAt) {
+    }
+
+    /**
+     * The outcome of running the action
+     * @param key the key row it was recorded in
+     * @param response the response of the action
+     */
+    private record Executed<T>(IdempotencyKey key, T response) {
+    }
+
+    /**
+     * Another request inserted the same key first
+     */
+    private static final class KeyTakenException extends RuntimeException {
+
+        private KeyTakenException(DataIntegrityViolationException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+
+import java.util.Optional;
+
+/**
+ * Service interface for allocating apparel stock to apparel order lines
+ */
+public interface InventoryAllocationService {
+
+    /**
+     * Allocate stock to the lines of an apparel order that are not fully allocated yet.
+     * Stock is taken with guarded atomic updates, so it never goes negative however many orders
+     * are allocated at once. A line that cannot be filled completely gets whatever stock is left
+     * and is marked PARTIALLY_ALLOCATED, or BACKORDERED if none is left; a filled line is ALLOCATED.
+     * @param apparelOrderId the apparel order ID
+     * @return Optional containing the allocated apparel order, empty if not found
+     */
+    Optional<ApparelOrderDto> allocateApparelOrder(Integer apparelOrderId);
+}
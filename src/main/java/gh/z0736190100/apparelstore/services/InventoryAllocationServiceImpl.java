@@ -0,0 +1,156 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.entities.ApparelOrder;
+import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
+import gh.z0736190100.apparelstore.mappers.ApparelOrderMapper;
+import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Implementation of InventoryAllocationService that takes stock with one guarded UPDATE per apparel.
+ * <p>
+ * No row is read and then written back, so concurrent allocations only hold a row lock for as long as
+ * their own transaction runs instead of queueing behind a SELECT ... FOR UPDATE. The rows of an order are
+ * locked in ascending apparel ID order, so two orders that share apparels can never deadlock.
+ * <p>
+ * Hot apparels never touch their row here; their stock is taken from {@link HotStockCounters} instead.
+ * Stock allocated to an order that has not been paid yet is held by {@link StockReservationManager} until it is.
+ */
+@Service
+public class InventoryAllocationServiceImpl implements InventoryAllocationService {
+
+    static final String ALLOCATED = "ALLOCATED";
+    static final String PARTIALLY_ALLOCATED = "PARTIALLY_ALLOCATED";
+    static final String BACKORDERED = "BACKORDERED";
+
+    // How often a partial allocation re-reads the stock after losing the race for it
+    static final int MAX_PARTIAL_ATTEMPTS = 5;
+
+    private final ApparelOrderRepository apparelOrderRepository;
+    private final ApparelRepository apparelRepository;
+    private final ApparelOrderMapper apparelOrderMapper;
+    private final ApparelDtoCache apparelDtoCache;
+    private final CatalogVersion catalogVersion;
+    private final HotStockCounters hotStockCounters;
+    private final StockReservationManager stockReservationManager;
+    private final TransactionTemplate allocationTransaction;
+
+    public InventoryAllocationServiceImpl(ApparelOrderRepository apparelOrderRepository,
+                                          ApparelRepository apparelRepository,
+                                          ApparelOrderMapper apparelOrderMapper,
+                                          ApparelDtoCache apparelDtoCache,
+                                          CatalogVersion catalogVersion,
+                                          HotStockCounters hotStockCounters,
+                                          StockReservationManager stockReservationManager,
+                                          PlatformTransactionManager transactionManager) {
+        this.apparelOrderRepository = apparelOrderRepository;
+        this.apparelRepository = apparelRepository;
+        this.apparelOrderMapper = apparelOrderMapper;
+        this.apparelDtoCache = apparelDtoCache;
+        this.catalogVersion = catalogVersion;
+        this.hotStockCounters = hotStockCounters;
+        this.stockReservationManager = stockReservationManager;
+        this.allocationTransaction = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public Optional<ApparelOrderDto> allocateApparelOrder(Integer apparelOrderId) {
+        Set<Integer> changedApparelIds = new HashSet<>();
+        Optional<ApparelOrderDto> allocated =
+                allocationTransaction.execute(status -> allocate(apparelOrderId, changedApparelIds));
+
+        // Only committed stock changes reach the cache
+        changedApparelIds.forEach(apparelDtoCache::invalidate);
+        allocated.ifPresent(apparelOrder -> catalogVersion.changed());
+        return allocated;
+    }
+
+    private Optional<ApparelOrderDto> allocate(Integer apparelOrderId, Set<Integer> changedApparelIds) {
+        List<ApparelOrder> found = apparelOrderRepository.findWithLinesByIdIn(List.of(apparelOrderId));
+        if (found.isEmpty()) {
+            return Optional.empty();
+        }
+        ApparelOrder apparelOrder = found.get(0);
+        boolean unpaid = apparelOrder.getStatus() == ApparelOrderStatus.NEW;
+
+        Map<Integer, List<ApparelOrderLine>> openLinesByApparelId = new TreeMap<>();
+        for (ApparelOrderLine line : apparelOrder.getApparelOrderLines()) {
+            if (line.getApparel() != null && outstanding(line) > 0) {
+                openLinesByApparelId.computeIfAbsent(line.getApparel().getId(), apparelId -> new ArrayList<>()).add(line);
+            }
+        }
+
+        // The TreeMap hands out the apparels in ascending ID order, which is the order their rows get locked in
+        openLinesByApparelId.forEach((apparelId, lines) -> {
+            lines.sort(Comparator.comparing(ApparelOrderLine::getId));
+            int requested = lines.stream().mapToInt(InventoryAllocationServiceImpl::outstanding).sum();
+            boolean hot = hotStockCounters.isHot(apparelId);
+            int taken = hot ? hotStockCounters.reserve(apparelId, requested) : takeStock(apparelId, requested);
+            if (taken > 0 && !hot) {
+                changedApparelIds.add(apparelId);
+            }
+
+            for (ApparelOrderLine line : lines) {
+                int quantity = Math.min(outstanding(line), taken);
+                line.setQuantityAllocated(allocated(line) + quantity);
+                taken -= quantity;
+                if (unpaid && quantity > 0) {
+                    stockReservationManager.hold(line, quantity);
+                }
+                line.setStatus(outstanding(line) == 0 ? ALLOCATED
+                        : allocated(line) > 0 ? PARTIALLY_ALLOCATED
+                        : BACKORDERED);
+            }
+        });
+
+        apparelOrderRepository.flush();
+        return Optional.of(apparelOrderMapper.apparelOrderToApparelOrderDto(apparelOrder));
+    }
+
+    /**
+     * Take up to the requested quantity of an apparel's stock. The whole quantity is tried first; if the
+     * stock has run short, whatever is left is taken instead, re-reading it while concurrent allocations
+     * keep winning the race for it.
+     * @param apparelId the apparel ID
+     * @param requested the quantity to take
+     * @return the quantity taken, 0 if there is no stock left
+     */
+    private int takeStock(Integer apparelId, int requested) {
+        if (apparelRepository.allocateStock(apparelId, requested) == 1) {
+            return requested;
+        }
+        for (int attempt = 0; attempt < MAX_PARTIAL_ATTEMPTS; attempt++) {
+            int available = apparelRepository.findQuantityOnHandById(apparelId).orElse(0);
+            if (available <= 0) {
+                return 0;
+            }
+            int quantity = Math.min(available, requested);
+            if (apparelRepository.allocateStock(apparelId, quantity) == 1) {
+                return quantity;
+            }
+        }
+        return 0;
+    }
+
+    private static int allocated(ApparelOrderLine line) {
+        return line.getQuantityAllocated() == null ? 0 : line.getQuantityAllocated();
+    }
+
+    private static int outstanding(ApparelOrderLine line) {
+        return line.getOrderQuantity() == null ? 0 : Math.max(line.getOrderQuantity() - allocated(line), 0);
+    }
+}
@@ -0,0 +1,45 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.exceptions.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of the last row of a keyset page: the sort key value and the ID used as tie breaker.
+ * Clients only ever see the encoded, URL-safe form.
+ * @param sortKey the sort key value of the last row
+ * @param id the ID of the last row
+ */
+public record KeysetCursor(String sortKey, Integer id) {
+
+    private static final char SEPARATOR = ':';
+
+    /**
+     * Encode this cursor as an opaque URL-safe token
+     * @return the encoded cursor
+     */
+    public String encode() {
+        String raw = id + String.valueOf(SEPARATOR) + sortKey;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor previously produced by {@link #encode()}
+     * @param token the encoded cursor
+     * @return the decoded cursor
+     * @throws InvalidCursorException if the token is malformed
+     */
+    public static KeysetCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(SEPARATOR);
+            if (separator < 1) {
+                throw new InvalidCursorException("Malformed cursor: " + token);
+            }
+            return new KeysetCursor(raw.substring(separator + 1), Integer.valueOf(raw.substring(0, separator)));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Malformed cursor: " + token, e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import gh.z0736190100.apparelstore.config.ListingProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Short-lived cache of listing total counts, so slice responses can report an approximate
+ * total without running a COUNT query on every request.
+ * Counts are keyed by listing name and filter, and a listing is invalidated whenever it is written to.
+ * Concurrent requests for the same uncached count share a single COUNT query.
+ */
+@Component
+public class ListingCountCache {
+
+    private final Cache<String, Long> counts;
+
+    public ListingCountCache(ListingProperties listingProperties) {
+        this.counts = Caffeine.newBuilder()
+                .maximumSize(listingProperties.countCacheMaxEntries())
+                .expireAfterWrite(listingProperties.countCacheTtl())
+                .build();
+    }
+
+    /**
+     * Get the total count for a listing, computing it with the loader if no fresh value is cached
+     * @param listing the listing name, e.g. "apparel"
+     * @param filter the filter the count applies to
+     * @param loader computes the exact count
+     * @return the cached or freshly computed count
+     */
+    public long count(String listing, String filter, LongSupplier loader) {
+        return counts.get(listing + '\u0000' + filter, key -> loader.getAsLong());
+    }
+
+    /**
+     * Drop all cached counts of a listing
+     * @param listing the listing name
+     */
+    public void invalidate(String listing) {
+        String prefix = listing + '\u0000';
+        counts.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+}
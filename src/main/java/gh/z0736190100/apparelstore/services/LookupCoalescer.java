@@ -0,0 +1,103 @@
+package gh.z0736190100.apparelstore.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing of concurrent lookups.
+ * <p>
+ * The first caller for a key (the leader) runs the loader; callers that arrive for the same key
+ * while the load is in flight join it and receive the leader's result (or exception) instead of
+ * issuing their own query. Nothing is cached once the load completes.
+ * <p>
+ * Metrics, tagged by lookup name: {@code lookup.coalescing.requests{outcome=leader|joined}} and
+ * {@code lookup.coalescing.wait}, the time joined callers spent waiting for the leader.
+ * Loaders should open their own transaction so that waiting callers do not hold a connection.
+ */
+@Component
+public class LookupCoalescer {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<LookupKey, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    public LookupCoalescer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Load a value, sharing the load with any concurrent caller for the same lookup and key
+     * @param lookup the lookup name, e.g. "apparel"
+     * @param key the key being looked up
+     * @param loader loads the value; only called by the leader
+     * @param <V> the value type
+     * @return the loaded value
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V load(String lookup, Object key, Supplier<V> loader) {
+        LookupKey lookupKey = new LookupKey(lookup, key);
+        CompletableFuture<Object> ownFlight = new CompletableFuture<>();
+        CompletableFuture<Object> flight = inFlight.putIfAbsent(lookupKey, ownFlight);
+
+        if (flight != null) {
+            counter(lookup, "joined").increment();
+            long start = System.nanoTime();
+            try {
+                return (V) flight.join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            } finally {
+                waitTimer(lookup).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        counter(lookup, "leader").increment();
+        try {
+            V value = loader.get();
+            ownFlight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            ownFlight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(lookupKey, ownFlight);
+        }
+    }
+
+    private Counter counter(String lookup, String outcome) {
+        return Counter.builder("lookup.coalescing.requests")
+                .description("Lookups by whether they ran the query or joined one in flight")
+                .tag("lookup", lookup)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private Timer waitTimer(String lookup) {
+        return Timer.builder("lookup.coalescing.wait")
+                .description("Time joined lookups waited for the in-flight load")
+                .tag("lookup", lookup)
+                .register(meterRegistry);
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return e;
+    }
+
+    private record LookupKey(String lookup, Object key) {
+    }
+}
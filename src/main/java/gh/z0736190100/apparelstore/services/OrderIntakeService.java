@@ -0,0 +1,36 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.exceptions.OrderIntakeFullException;
+import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import gh.z0736190100.apparelstore.models.OrderIntakeDto;
+
+import java.util.Optional;
+
+/**
+ * Service interface for accepting apparel orders now and saving them later
+ */
+public interface OrderIntakeService {
+
+    /**
+     * Check whether asynchronous intake is enabled
+     * @return true if orders may be accepted for asynchronous saving
+     */
+    boolean isEnabled();
+
+    /**
+     * Journal an apparel order and queue it for saving. When called inside a transaction the order is only
+     * queued once that transaction commits.
+     * @param apparelOrderDto the apparel order to save, already validated
+     * @return the intake, in status ACCEPTED
+     * @throws OrderIntakeFullException if the queue is full
+     * @throws IllegalStateException if asynchronous intake is disabled
+     */
+    OrderIntakeDto acceptApparelOrder(ApparelOrderDto apparelOrderDto);
+
+    /**
+     * Get the status of an accepted apparel order
+     * @param id the intake ID
+     * @return Optional containing the intake if found
+     */
+    Optional<OrderIntakeDto> getOrderIntakeById(Integer id);
+}
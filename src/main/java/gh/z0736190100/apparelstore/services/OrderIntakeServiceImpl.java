@@ -0,0 +1,346 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.config.IntakeProperties;
+import gh.z0736190100.apparelstore.entities.OrderIntake;
+import gh.z0736190100.apparelstore.exceptions.OrderIntakeFullException;
+import gh.z0736190100.apparelstore.mappers.OrderIntakeMapper;
+import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import gh.z0736190100.apparelstore.models.OrderIntakeDto;
+import gh.z0736190100.apparelstore.repositories.OrderIntakeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of OrderIntakeService with a bounded in-memory queue drained by virtual-thread workers.
+ * <p>
+ * Accepting an order costs one small insert into the order_intake journal. Workers take up to
+ * {@link IntakeProperties#batchSize()} queued orders at a time and save them all in one transaction
+ * (group commit), so their inserts go out in JDBC batches. If a batch fails, its orders are saved one per
+ * transaction, so a single bad order only fails itself. The queue only holds journal IDs; orders still
+ * ACCEPTED in the journal after a crash are queued again on the next start, and a batch whose failure
+ * cannot even be recorded, e.g. while the database is down, is queued again after a pause. Every transaction first claims
+ * its orders by moving them from ACCEPTED to PROCESSING, so an order queued by more than one instance,
+ * e.g. when several recover the same journal, is only saved by one of them.
+ * <p>
+ * Metrics: {@code order.intake.queue.size}, {@code order.intake.requests{outcome=accepted|rejected}},
+ * {@code order.intake.orders{outcome=completed|failed}}, {@code order.intake.batch.size} and
+ * {@code order.intake.latency}, the time from acceptance to commit.
+ */
+@Slf4j
+@Service
+public class OrderIntakeServiceImpl implements OrderIntakeService {
+
+    static final String ACCEPTED = "ACCEPTED";
+    // Only ever seen inside the transaction that claimed the order, which commits it as COMPLETED
+    static final String PROCESSING = "PROCESSING";
+    static final String COMPLETED = "COMPLETED";
+    static final String FAILED = "FAILED";
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final IntakeProperties intakeProperties;
+    private final OrderIntakeRepository orderIntakeRepository;
+    private final OrderIntakeMapper orderIntakeMapper;
+    private final ApparelOrderService apparelOrderService;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<QueuedOrder> queue = new LinkedBlockingQueue<>();
+    // Counts orders from acceptance until a worker takes them, including those whose transaction has not committed yet
+    private final AtomicInteger pending = new AtomicInteger();
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final Counter acceptedRequests;
+    private final Counter rejectedRequests;
+    private final Counter completedOrders;
+    private final Counter failedOrders;
+    private final DistributionSummary batchSizes;
+    private final Timer latency;
+
+    private volatile boolean running;
+
+    public OrderIntakeServiceImpl(IntakeProperties intakeProperties, OrderIntakeRepository orderIntakeRepository,
+                                  OrderIntakeMapper orderIntakeMapper, ApparelOrderService apparelOrderService,
+                                  ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                  PlatformTransactionManager transactionManager) {
+        this.intakeProperties = intakeProperties;
+        this.orderIntakeRepository = orderIntakeRepository;
+        this.orderIntakeMapper = orderIntakeMapper;
+        this.apparelOrderService = apparelOrderService;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+        Gauge.builder("order.intake.queue.size", pending, AtomicInteger::get)
+                .description("Accepted orders waiting for a worker")
+                .register(meterRegistry);
+        this.acceptedRequests = requests(meterRegistry, "accepted");
+        this.rejectedRequests = requests(meterRegistry, "rejected");
+        this.completedOrders = orders(meterRegistry, "completed");
+        this.failedOrders = orders(meterRegistry, "failed");
+        this.batchSizes = DistributionSummary.builder("order.intake.batch.size")
+                .description("Orders saved per transaction")
+                .register(meterRegistry);
+        this.latency = Timer.builder("order.intake.latency")
+                .description("Time from accepting an order to committing it")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queue the orders left in the journal by the previous run and start the workers once the application has started
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!intakeProperties.enabled()) {
+            return;
+        }
+        List<Integer> recovered = orderIntakeRepository.findIdsByStatus(ACCEPTED);
+        recovered.forEach(id -> enqueue(id, System.nanoTime()));
+        pending.addAndGet(recovered.size());
+        if (!recovered.isEmpty()) {
+            log.info("Order intake recovered {} accepted orders from the journal", recovered.size());
+        }
+
+        running = true;
+        for (int i = 0; i < intakeProperties.workers(); i++) {
+            workers.add(Thread.ofVirtual().name("order-intake-", i).start(this::work));
+        }
+    }
+
+    /**
+     * Stop the workers once their current batch is done. Orders still queued stay ACCEPTED in the journal
+     * and are picked up again on the next start.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.join(intakeProperties.pollTimeout().toMillis() + 5000);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return intakeProperties.enabled();
+    }
+
+    @Override
+    public OrderIntakeDto acceptApparelOrder(ApparelOrderDto apparelOrderDto) {
+        if (!intakeProperties.enabled()) {
+            throw new IllegalStateException("Asynchronous order intake is disabled");
+        }
+        if (pending.incrementAndGet() > intakeProperties.queueCapacity()) {
+            pending.decrementAndGet();
+            rejectedRequests.increment();
+            throw new OrderIntakeFullException("Too many orders are waiting to be saved; please retry shortly");
+        }
+
+        long acceptedAt = System.nanoTime();
+        OrderIntake orderIntake;
+        try {
+            orderIntake = transactionTemplate.execute(status -> orderIntakeRepository.save(OrderIntake.builder()
+                    .status(ACCEPTED)
+                    .payload(toJson(apparelOrderDto))
+                    .build()));
+        } catch (RuntimeException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+
+        // Queued only once the journal row is committed, so a worker always finds it
+        Integer id = orderIntake.getId();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        enqueue(id, acceptedAt);
+                    } else {
+                        pending.decrementAndGet();
+                    }
+                }
+            });
+        } else {
+            enqueue(id, acceptedAt);
+        }
+        acceptedRequests.increment();
+        return orderIntakeMapper.orderIntakeToOrderIntakeDto(orderIntake);
+    }
+
+    @Override
+    public Optional<OrderIntakeDto> getOrderIntakeById(Integer id) {
+        return orderIntakeRepository.findById(id).map(orderIntakeMapper::orderIntakeToOrderIntakeDto);
+    }
+
+    private void enqueue(Integer id, long acceptedAt) {
+        queue.add(new QueuedOrder(id, acceptedAt));
+    }
+
+    private void work() {
+        List<QueuedOrder> batch = new ArrayList<>(intakeProperties.batchSize());
+        while (running) {
+            try {
+                QueuedOrder first = queue.poll(intakeProperties.pollTimeout().toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, intakeProperties.batchSize() - 1);
+                pending.addAndGet(-batch.size());
+                if (!saveOrRequeue(batch)) {
+                    // Most likely the database is unreachable; give it a moment before the orders come round again
+                    Thread.sleep(intakeProperties.pollTimeout().toMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Save a batch of queued orders, or put them back on the queue if not even their failure could be recorded.
+     * Orders the batch settled before the error are skipped by the claim when they come round again.
+     * @param batch the queued orders
+     * @return true if every order was saved or marked FAILED, false if the batch was queued again
+     */
+    boolean saveOrRequeue(List<QueuedOrder> batch) {
+        try {
+            saveBatch(batch);
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Order intake worker failed to save {} orders; queuing them again", batch.size(), e);
+            pending.addAndGet(batch.size());
+            queue.addAll(batch);
+            return false;
+        }
+    }
+
+    /**
+     * Save a batch of queued orders in one transaction, or one per transaction if that fails
+     * @param batch the queued orders
+     * @return the number of orders saved
+     */
+    int saveBatch(List<QueuedOrder> batch) {
+        List<Integer> ids = batch.stream().map(QueuedOrder::id).toList();
+        int saved;
+        try {
+            saved = save(ids);
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                fail(batch.getFirst().id(), e);
+                return 0;
+            }
+            log.debug("Saving {} queued orders together failed; saving them one by one", batch.size(), e);
+            saved = 0;
+            for (QueuedOrder queuedOrder : batch) {
+                saved += saveBatch(List.of(queuedOrder));
+            }
+            return saved;
+        }
+
+        batchSizes.record(saved);
+        completedOrders.increment(saved);
+        long now = System.nanoTime();
+        batch.forEach(queuedOrder -> latency.record(now - queuedOrder.acceptedAt(), TimeUnit.NANOSECONDS));
+        return saved;
+    }
+
+    private int save(List<Integer> ids) {
+        Integer saved = transactionTemplate.execute(status -> {
+            // Orders settled or claimed by another transaction, e.g. queued twice on recovery, are skipped.
+            // If this transaction rolls back, its claim goes with it and the orders are ACCEPTED again.
+            orderIntakeRepository.claimByIdIn(ids, ACCEPTED, PROCESSING);
+            List<OrderIntake> orderIntakes = orderIntakeRepository.findAllByIdInAndStatusOrderById(ids, PROCESSING);
+            for (OrderIntake orderIntake : orderIntakes) {
+                ApparelOrderDto apparelOrderDto = fromJson(orderIntake.getPayload());
+                apparelOrderDto.setId(null);
+                ApparelOrderDto savedApparelOrder = apparelOrderService.saveApparelOrder(apparelOrderDto);
+                orderIntake.setStatus(COMPLETED);
+                orderIntake.setApparelOrderId(savedApparelOrder.getId());
+            }
+            return orderIntakes.size();
+        });
+        return saved == null ? 0 : saved;
+    }
+
+    private void fail(Integer id, RuntimeException cause) {
+        log.warn("Queued apparel order {} could not be saved", id, cause);
+        failedOrders.increment();
+        String error = cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+        transactionTemplate.executeWithoutResult(status -> orderIntakeRepository.findById(id)
+                .filter(orderIntake -> ACCEPTED.equals(orderIntake.getStatus()))
+                .ifPresent(orderIntake -> {
+                    orderIntake.setStatus(FAILED);
+                    orderIntake.setError(error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+                }));
+    }
+
+    /**
+     * @return the number of orders waiting for a worker
+     */
+    int queued() {
+        return pending.get();
+    }
+
+    private String toJson(ApparelOrderDto apparelOrderDto) {
+        try {
+            return objectMapper.writeValueAsString(apparelOrderDto);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize apparel order", e);
+        }
+    }
+
+    private ApparelOrderDto fromJson(String payload) {
+        try {
+            return objectMapper.readValue(payload, ApparelOrderDto.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Journaled apparel order cannot be read", e);
+        }
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("order.intake.requests")
+                .description("Orders offered for asynchronous saving, by whether the queue had room")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static Counter orders(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("order.intake.orders")
+                .description("Queued orders by whether they were saved")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * An accepted order waiting for a worker
+     * @param id the intake ID
+     * @param acceptedAt when it was accepted, from System.nanoTime()
+     */
+    record QueuedOrder(Integer id, long acceptedAt) {
+    }
+}
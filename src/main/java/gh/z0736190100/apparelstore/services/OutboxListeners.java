@@ -0,0 +1,74 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.models.OutboxEventDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Outbox sink that hands events to listeners in the same JVM. Listener beans are subscribed on startup,
+ * and other components can subscribe and cancel at any time.
+ * <p>
+ * Listeners are called on the relay thread, so they should hand the events off rather than do slow work.
+ * A listener that throws is logged and skipped: one broken listener does not hold back the other sinks.
+ */
+@Slf4j
+@Component
+public class OutboxListeners implements OutboxSink {
+
+    /**
+     * Receives the events delivered by the outbox relay, in ID order, at least once
+     */
+    @FunctionalInterface
+    public interface OutboxListener {
+
+        /**
+         * @param events the events of one batch, in ascending ID order
+         */
+        void onEvents(List<OutboxEventDto> events);
+    }
+
+    /**
+     * Handle to stop receiving events
+     */
+    @FunctionalInterface
+    public interface Subscription {
+
+        void cancel();
+    }
+
+    private final List<OutboxListener> listeners = new CopyOnWriteArrayList<>();
+
+    public OutboxListeners(ObjectProvider<OutboxListener> listenerBeans) {
+        listenerBeans.orderedStream().forEach(listeners::add);
+    }
+
+    /**
+     * Start receiving the events delivered from now on
+     * @param listener the listener
+     * @return the subscription, to cancel when the listener is done
+     */
+    public Subscription subscribe(OutboxListener listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    @Override
+    public String name() {
+        return "listeners";
+    }
+
+    @Override
+    public void deliver(List<OutboxEventDto> events) {
+        for (OutboxListener listener : listeners) {
+            try {
+                listener.onEvents(events);
+            } catch (RuntimeException e) {
+                log.warn("Outbox listener {} failed on {} events", listener, events.size(), e);
+            }
+        }
+    }
+}
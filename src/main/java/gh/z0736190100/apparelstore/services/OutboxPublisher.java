@@ -0,0 +1,83 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.config.OutboxProperties;
+import gh.z0736190100.apparelstore.entities.OutboxEvent;
+import gh.z0736190100.apparelstore.repositories.OutboxEventRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Records order and inventory events in the outbox table, in the transaction of the write they describe,
+ * so an event exists if and only if its write committed. The insert joins the transaction's JDBC batch
+ * and takes its ID from the pooled sequence, so recording an event adds no more than one batched insert.
+ * Once the transaction commits, {@link OutboxRelay} is woken to deliver it.
+ */
+@Component
+public class OutboxPublisher {
+
+    public static final String APPAREL_ORDER = "ApparelOrder";
+    public static final String APPAREL = "Apparel";
+
+    public static final String APPAREL_ORDER_CREATED = "ApparelOrderCreated";
+    public static final String APPAREL_ORDER_UPDATED = "ApparelOrderUpdated";
+    public static final String APPAREL_ORDER_STATUS_CHANGED = "ApparelOrderStatusChanged";
+    public static final String APPAREL_ORDER_DELETED = "ApparelOrderDeleted";
+    public static final String APPAREL_ORDER_SHIPMENT_CREATED = "ApparelOrderShipmentCreated";
+    public static final String APPAREL_CREATED = "ApparelCreated";
+    public static final String APPAREL_UPDATED = "ApparelUpdated";
+    public static final String APPAREL_DELETED = "ApparelDeleted";
+
+    private final OutboxProperties outboxProperties;
+    private final OutboxEventRepository outboxEventRepository;
+    private final OutboxRelay outboxRelay;
+    private final ObjectMapper objectMapper;
+
+    public OutboxPublisher(OutboxProperties outboxProperties, OutboxEventRepository outboxEventRepository,
+                           OutboxRelay outboxRelay, ObjectMapper objectMapper) {
+        this.outboxProperties = outboxProperties;
+        this.outboxEventRepository = outboxEventRepository;
+        this.outboxRelay = outboxRelay;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Record an event in the current transaction. It is delivered only if the transaction commits.
+     * @param aggregateType the kind of entity the event is about, e.g. {@link #APPAREL_ORDER}
+     * @param aggregateId the ID of the entity
+     * @param eventType what happened, e.g. {@link #APPAREL_ORDER_CREATED}
+     * @param payload the entity as returned by the API after the write; serialized to JSON
+     * @throws IllegalStateException if no transaction is active
+     */
+    public void publish(String aggregateType, Integer aggregateId, String eventType, Object payload) {
+        if (!outboxProperties.enabled()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Outbox events can only be published inside a transaction");
+        }
+
+        outboxEventRepository.save(OutboxEvent.builder()
+                .aggregateType(aggregateType)
+                .aggregateId(aggregateId)
+                .eventType(eventType)
+                .payload(toJson(payload))
+                .build());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                outboxRelay.wakeUp();
+            }
+        });
+    }
+
+    private String toJson(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize outbox event payload", e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.OutboxProperties;
+import gh.z0736190100.apparelstore.mappers.OutboxEventMapper;
+import gh.z0736190100.apparelstore.models.OutboxEventDto;
+import gh.z0736190100.apparelstore.repositories.OutboxEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Drains the outbox to every {@link OutboxSink} bean, in batches of up to {@link OutboxProperties#batchSize()}
+ * events in ID order.
+ * <p>
+ * A single relay thread reads a batch, hands it to each sink in turn and then stamps it as delivered with one
+ * UPDATE; the delivered_at stamps are the relay's checkpoint. If a sink throws, the batch stays undelivered and
+ * is retried after the poll interval, so delivery is at least once and consumers deduplicate by event ID.
+ * The relay sleeps while the outbox is empty and is woken by each commit that published an event.
+ * Delivered events are purged once they are older than {@link OutboxProperties#retention()}.
+ * <p>
+ * Metrics: {@code outbox.lag}, the age of the oldest undelivered event, {@code outbox.delivery.latency},
+ * the time from commit to delivery, {@code outbox.events} and {@code outbox.batch.size} for delivered events,
+ * and {@code outbox.sink.failures{sink}}.
+ */
+@Slf4j
+@Component
+public class OutboxRelay {
+
+    private final OutboxProperties outboxProperties;
+    private final OutboxEventRepository outboxEventRepository;
+    private final OutboxEventMapper outboxEventMapper;
+    private final List<OutboxSink> sinks;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Semaphore wakeUps = new Semaphore(0);
+
+    private final Counter deliveredEvents;
+    private final DistributionSummary batchSizes;
+    private final Timer deliveryLatency;
+    private final Map<String, Counter> sinkFailures;
+
+    // Creation time of the oldest event known to be undelivered, or null once the outbox has been drained
+    private volatile LocalDateTime oldestUndelivered;
+    private volatile boolean running;
+    private Thread relay;
+    private long lastPurge;
+
+    public OutboxRelay(OutboxProperties outboxProperties, OutboxEventRepository outboxEventRepository,
+                       OutboxEventMapper outboxEventMapper, List<OutboxSink> sinks, MeterRegistry meterRegistry,
+                       PlatformTransactionManager transactionManager) {
+        this.outboxProperties = outboxProperties;
+        this.outboxEventRepository = outboxEventRepository;
+        this.outboxEventMapper = outboxEventMapper;
+        this.sinks = sinks;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+
+        Gauge.builder("outbox.lag", this, OutboxRelay::lagSeconds)
+                .description("Age of the oldest outbox event not delivered yet")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.deliveredEvents = Counter.builder("outbox.events")
+                .description("Outbox events delivered to every sink")
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("outbox.batch.size")
+                .description("Outbox events delivered per batch")
+                .register(meterRegistry);
+        this.deliveryLatency = Timer.builder("outbox.delivery.latency")
+                .description("Time from recording an outbox event to delivering it to every sink")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.sinkFailures = sinks.stream().collect(Collectors.toMap(OutboxSink::name,
+                sink -> Counter.builder("outbox.sink.failures")
+                        .description("Outbox batches a sink failed to take")
+                        .tag("sink", sink.name())
+                        .register(meterRegistry),
+                (first, second) -> first));
+    }
+
+    /**
+     * Start relaying once the application has started, beginning with whatever the previous run left undelivered
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!outboxProperties.enabled()) {
+            return;
+        }
+        log.info("Outbox relay delivering to sinks {}", sinks.stream().map(OutboxSink::name).toList());
+        running = true;
+        lastPurge = System.nanoTime();
+        relay = Thread.ofVirtual().name("outbox-relay").start(this::relay);
+    }
+
+    /**
+     * Stop the relay once its current batch is done. Undelivered events are delivered on the next start.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (relay != null) {
+            wakeUp();
+            relay.join(outboxProperties.pollInterval().toMillis() + 5000);
+        }
+    }
+
+    /**
+     * Have the relay look for events now rather than at the end of its poll interval
+     */
+    public void wakeUp() {
+        // Permits beyond one would only cause empty passes
+        if (wakeUps.availablePermits() == 0) {
+            wakeUps.release();
+        }
+    }
+
+    private void relay() {
+        boolean backOff = false;
+        while (running) {
+            try {
+                if (backOff) {
+                    // Commits would otherwise wake a failing relay straight back up
+                    backOff = false;
+                    Thread.sleep(outboxProperties.pollInterval().toMillis());
+                }
+                wakeUps.tryAcquire(outboxProperties.pollInterval().toMillis(), TimeUnit.MILLISECONDS);
+                wakeUps.drainPermits();
+                // A full batch means more events are waiting
+                int relayed;
+                do {
+                    relayed = relayBatch();
+                } while (running && relayed == outboxProperties.batchSize());
+                if (System.nanoTime() - lastPurge >= outboxProperties.purgeInterval().toNanos()) {
+                    lastPurge = System.nanoTime();
+                    purgeDeliveredEvents();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // The batch stays undelivered and is retried after the poll interval
+                log.warn("Outbox relay failed; retrying in {}", outboxProperties.pollInterval(), e);
+                backOff = true;
+            }
+        }
+    }
+
+    /**
+     * Deliver the oldest batch of undelivered events to every sink and stamp it as delivered
+     * @return the number of events delivered
+     * @throws RuntimeException if a sink failed, in which case none of the events are stamped
+     */
+    int relayBatch() {
+        List<OutboxEventDto> events = readOnlyTransaction.execute(status ->
+                outboxEventRepository.findUndelivered(Limit.of(outboxProperties.batchSize())).stream()
+                        .map(outboxEventMapper::outboxEventToOutboxEventDto)
+                        .toList());
+        if (events == null || events.isEmpty()) {
+            oldestUndelivered = null;
+            return 0;
+        }
+        oldestUndelivered = events.getFirst().getCreatedDate();
+
+        for (OutboxSink sink : sinks) {
+            try {
+                sink.deliver(events);
+            } catch (RuntimeException e) {
+                sinkFailures.get(sink.name()).increment();
+                throw e;
+            }
+        }
+
+        LocalDateTime deliveredAt = LocalDateTime.now();
+        List<Integer> ids = events.stream().map(OutboxEventDto::getId).toList();
+        transactionTemplate.executeWithoutResult(status -> outboxEventRepository.markDelivered(ids, deliveredAt));
+
+        deliveredEvents.increment(events.size());
+        batchSizes.record(events.size());
+        events.stream()
+                .map(OutboxEventDto::getCreatedDate)
+                .filter(createdDate -> createdDate != null && createdDate.isBefore(deliveredAt))
+                .forEach(createdDate -> deliveryLatency.record(Duration.between(createdDate, deliveredAt)));
+        if (events.size() < outboxProperties.batchSize()) {
+            oldestUndelivered = null;
+        }
+        return events.size();
+    }
+
+    /**
+     * Delete the events delivered longer than the retention ago, a batch at a time
+     * @return the number of events deleted
+     */
+    int purgeDeliveredEvents() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(outboxProperties.retention());
+        int batchSize = outboxProperties.batchSize();
+        int purged = 0;
+        List<Integer> ids;
+        do {
+            ids = outboxEventRepository.findIdsDeliveredBefore(cutoff, Limit.of(batchSize));
+            if (!ids.isEmpty()) {
+                outboxEventRepository.deleteAllByIdInBatch(ids);
+                purged += ids.size();
+            }
+        } while (ids.size() == batchSize);
+        if (purged > 0) {
+            log.info("Purged {} delivered outbox events", purged);
+        }
+        return purged;
+    }
+
+    private double lagSeconds() {
+        LocalDateTime oldest = oldestUndelivered;
+        return oldest == null ? 0 : Math.max(0, Duration.between(oldest, LocalDateTime.now()).toMillis() / 1000.0);
+    }
+}
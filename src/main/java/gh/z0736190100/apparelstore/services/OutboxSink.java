@@ -0,0 +1,24 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.models.OutboxEventDto;
+
+import java.util.List;
+
+/**
+ * Destination of the events drained from the outbox by {@link OutboxRelay}. Every sink bean receives
+ * every event, in ID order, one batch at a time.
+ */
+public interface OutboxSink {
+
+    /**
+     * @return the name of the sink, used to tag its metrics
+     */
+    String name();
+
+    /**
+     * Deliver a batch of events. The batch is only stamped as delivered once every sink has returned,
+     * so a sink that throws gets the same batch again, as do the sinks before it.
+     * @param events the events, in ascending ID order
+     */
+    void deliver(List<OutboxEventDto> events);
+}
@@ -0,0 +1,302 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.ReservationProperties;
+import gh.z0736190100.apparelstore.entities.ApparelOrder;
+import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
+import gh.z0736190100.apparelstore.entities.StockReservation;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderLineRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import gh.z0736190100.apparelstore.repositories.StockReservationExpiryView;
+import gh.z0736190100.apparelstore.repositories.StockReservationRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Holds the stock allocated to unpaid (NEW) orders and releases it again if the order is not paid in time.
+ * <p>
+ * Each hold is a {@link StockReservation} row written in the allocating transaction. Its expiry is kept
+ * in an in-memory {@link TimerWheel}, so no table scan is needed to find expired holds: every tick the wheel
+ * hands out the IDs that are due, and they are released in batches with one UPDATE per apparel. When an
+ * order is paid its holds are deleted; the wheel still fires for them, but finds nothing left to release.
+ * A cancelled order keeps its holds, so its stock comes back when they expire.
+ * <p>
+ * The wheel is rebuilt from the table when the application starts, so holds survive a restart and holds
+ * that expired while the application was down are released straight away.
+ */
+@Slf4j
+@Component
+public class StockReservationManager {
+
+    static final String RELEASED = "RELEASED";
+
+    // 64 slots on each of 4 levels cover 64^4 ticks, over six months at the default one second tick
+    private static final int WHEEL_SLOT_BITS = 6;
+    private static final int WHEEL_LEVELS = 4;
+
+    private final ReservationProperties reservationProperties;
+    private final StockReservationRepository stockReservationRepository;
+    private final ApparelRepository apparelRepository;
+    private final ApparelOrderRepository apparelOrderRepository;
+    private final ApparelOrderLineRepository apparelOrderLineRepository;
+    private final HotStockCounters hotStockCounters;
+    private final ApparelDtoCache apparelDtoCache;
+    private final CatalogVersion catalogVersion;
+    private final TransactionTemplate releaseTransaction;
+    private final TimerWheel timerWheel;
+
+    private ScheduledExecutorService sweeper;
+
+    public StockReservationManager(ReservationProperties reservationProperties,
+                                   StockReservationRepository stockReservationRepository,
+                                   ApparelRepository apparelRepository,
+                                   ApparelOrderRepository apparelOrderRepository,
+                                   ApparelOrderLineRepository apparelOrderLineRepository,
+                                   HotStockCounters hotStockCounters, ApparelDtoCache apparelDtoCache,
+                                   CatalogVersion catalogVersion, PlatformTransactionManager transactionManager) {
+        this.reservationProperties = reservationProperties;
+        this.stockReservationRepository = stockReservationRepository;
+        this.apparelRepository = apparelRepository;
+        this.apparelOrderRepository = apparelOrderRepository;
+        this.apparelOrderLineRepository = apparelOrderLineRepository;
+        this.hotStockCounters = hotStockCounters;
+        this.apparelDtoCache = apparelDtoCache;
+        this.catalogVersion = catalogVersion;
+        this.releaseTransaction = new TransactionTemplate(transactionManager);
+        this.timerWheel = new TimerWheel(reservationProperties.tick().toMillis(), WHEEL_SLOT_BITS, WHEEL_LEVELS,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Rebuild the timer wheel from the table and start advancing it once the application has started
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        List<StockReservationExpiryView> expiries = stockReservationRepository.findAllExpiries();
+        expiries.forEach(expiry -> timerWheel.schedule(expiry.getId(), toMillis(expiry.getExpiresAt())));
+        log.info("Stock reservation timer wheel rebuilt with {} holds", expiries.size());
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "stock-reservation-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = reservationProperties.tick().toMillis();
+        sweeper.scheduleWithFixedDelay(this::sweepQuietly, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop advancing the wheel. Pending holds stay in the table and are picked up again on the next start.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (sweeper != null) {
+            sweeper.shutdown();
+            sweeper.awaitTermination(reservationProperties.tick().toMillis() + 5000, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Hold stock just allocated to an order line in the current transaction. The hold expires after the
+     * configured TTL unless the order is paid first.
+     * @param line the order line, which must belong to a saved order and reference an apparel
+     * @param quantity the quantity allocated
+     * @throws IllegalStateException if no transaction is active
+     */
+    public void hold(ApparelOrderLine line, int quantity) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Stock can only be held inside a transaction");
+        }
+        StockReservation reservation = stockReservationRepository.save(StockReservation.builder()
+                .apparelId(line.getApparel().getId())
+                .apparelOrderId(line.getApparelOrder().getId())
+                .apparelOrderLineId(line.getId())
+                .quantity(quantity)
+                .expiresAt(LocalDateTime.now().plus(reservationProperties.ttl()))
+                .build());
+
+        // A hold that never commits must not fire
+        Integer id = reservation.getId();
+        long expiresAt = toMillis(reservation.getExpiresAt());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                timerWheel.schedule(id, expiresAt);
+            }
+        });
+    }
+
+    /**
+     * Keep the stock held for an order for good, e.g. once it has been paid, by deleting its holds.
+     * Holds of cancelled orders should be left to expire instead.
+     * @param apparelOrderId the apparel order ID
+     * @return the number of holds confirmed
+     */
+    public int confirm(Integer apparelOrderId) {
+        return stockReservationRepository.deleteByApparelOrderId(apparelOrderId);
+    }
+
+    /**
+     * Put stock allocated to order lines back on its apparels in the current transaction, e.g. when the lines
+     * are deleted or ordered in a smaller quantity. The holds on that stock are shrunk, newest first, or deleted
+     * before the apparels are updated, like an expiry takes them, so it cannot come back again when they expire.
+     * The order must already be locked by the caller.
+     * @param returnedByLineId the quantity to put back per order line ID
+     * @param returnedByApparelId the same quantities per apparel ID
+     * @throws IllegalStateException if no transaction is active
+     */
+    public void returnStock(Map<Integer, Integer> returnedByLineId, Map<Integer, Integer> returnedByApparelId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Stock can only be returned inside a transaction");
+        }
+        if (returnedByApparelId.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, Integer> unheldByLineId = new HashMap<>(returnedByLineId);
+        List<StockReservation> emptied = new ArrayList<>();
+        for (StockReservation reservation
+                : stockReservationRepository.findAllByApparelOrderLineIdInOrderByIdDesc(returnedByLineId.keySet())) {
+            int remaining = unheldByLineId.getOrDefault(reservation.getApparelOrderLineId(), 0);
+            int quantity = Math.min(reservation.getQuantity(), remaining);
+            unheldByLineId.put(reservation.getApparelOrderLineId(), remaining - quantity);
+            if (quantity == reservation.getQuantity()) {
+                emptied.add(reservation);
+            } else {
+                reservation.setQuantity(reservation.getQuantity() - quantity);
+            }
+        }
+        stockReservationRepository.deleteAll(emptied);
+
+        // Ascending apparel ID order, like allocations lock them
+        new TreeMap<>(returnedByApparelId).forEach(apparelRepository::releaseStock);
+
+        // Only committed stock changes reach the caches and the hot stock counters
+        Set<Integer> apparelIds = Set.copyOf(returnedByApparelId.keySet());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                apparelIds.forEach(apparelId -> {
+                    apparelDtoCache.invalidate(apparelId);
+                    hotStockCounters.resync(apparelId);
+                });
+            }
+        });
+    }
+
+    /**
+     * Release every hold the wheel says has expired, one batch per transaction. A batch that fails is
+     * rescheduled for the next tick.
+     * @return the number of holds released
+     */
+    public int sweep() {
+        List<Integer> due = timerWheel.advance(System.currentTimeMillis());
+        int batchSize = reservationProperties.releaseBatchSize();
+        int released = 0;
+        for (int from = 0; from < due.size(); from += batchSize) {
+            List<Integer> batch = due.subList(from, Math.min(from + batchSize, due.size()));
+            try {
+                released += release(batch);
+            } catch (RuntimeException e) {
+                log.warn("Releasing {} expired stock holds failed; retrying on the next tick", batch.size(), e);
+                long retryAt = System.currentTimeMillis() + reservationProperties.tick().toMillis();
+                batch.forEach(id -> timerWheel.schedule(id, retryAt));
+            }
+        }
+        return released;
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule
+            log.warn("Stock reservation sweep failed", e);
+        }
+    }
+
+    /**
+     * Release expired holds: their stock goes back to the apparels with one UPDATE per apparel and is taken
+     * off the lines it was allocated to. Holds of orders that have moved on from NEW to anything but CANCELLED
+     * are only deleted, as their stock is kept. The orders are locked while their status is checked. Holds that no longer exist have already been confirmed and are skipped.
+     * @param reservationIds the IDs of the expired holds
+     * @return the number of holds whose stock was released
+     */
+    int release(Collection<Integer> reservationIds) {
+        Map<Integer, Integer> releasedByApparelId = new TreeMap<>();
+        Integer released = releaseTransaction.execute(status -> {
+            List<Integer> apparelOrderIds = stockReservationRepository.findApparelOrderIdsByIdIn(reservationIds);
+            if (apparelOrderIds.isEmpty()) {
+                return 0;
+            }
+            // Lock the orders before their holds, like a payment does, so none of them can be paid between
+            // reading its status and releasing its stock
+            Set<Integer> settledOrderIds = apparelOrderRepository.findAllByIdInOrderById(apparelOrderIds).stream()
+                    .filter(apparelOrder -> apparelOrder.getStatus() != ApparelOrderStatus.NEW
+                            && apparelOrder.getStatus() != ApparelOrderStatus.CANCELLED)
+                    .map(ApparelOrder::getId)
+                    .collect(Collectors.toSet());
+            List<StockReservation> reservations = stockReservationRepository.findAllByIdIn(reservationIds);
+            if (reservations.isEmpty()) {
+                return 0;
+            }
+            List<StockReservation> expired = reservations.stream()
+                    .filter(reservation -> !settledOrderIds.contains(reservation.getApparelOrderId()))
+                    .toList();
+
+            Map<Integer, Integer> releasedByLineId = new HashMap<>();
+            for (StockReservation reservation : expired) {
+                releasedByApparelId.merge(reservation.getApparelId(), reservation.getQuantity(), Integer::sum);
+                releasedByLineId.merge(reservation.getApparelOrderLineId(), reservation.getQuantity(), Integer::sum);
+            }
+
+            // The TreeMap hands out the apparels in ascending ID order, like allocations lock them
+            releasedByApparelId.forEach(apparelRepository::releaseStock);
+            apparelOrderLineRepository.findAllById(releasedByLineId.keySet()).forEach(line -> {
+                int allocated = line.getQuantityAllocated() == null ? 0 : line.getQuantityAllocated();
+                line.setQuantityAllocated(Math.max(allocated - releasedByLineId.get(line.getId()), 0));
+                line.setStatus(line.getQuantityAllocated() > 0
+                        ? InventoryAllocationServiceImpl.PARTIALLY_ALLOCATED : RELEASED);
+            });
+            stockReservationRepository.deleteAllByIdInBatch(
+                    reservations.stream().map(StockReservation::getId).toList());
+            return expired.size();
+        });
+
+        // Only committed stock changes reach the caches and the hot stock counters
+        if (!releasedByApparelId.isEmpty()) {
+            releasedByApparelId.keySet().forEach(apparelId -> {
+                apparelDtoCache.invalidate(apparelId);
+                hotStockCounters.resync(apparelId);
+            });
+            catalogVersion.changed();
+        }
+        return released == null ? 0 : released;
+    }
+
+    private static long toMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,93 @@
+package gh.z0736190100.apparelstore.services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The stock of one hot apparel, split across several counters so that concurrent takers mostly
+ * compare-and-set different cache lines instead of all retrying on the same one.
+ * <p>
+ * A taker starts at the stripe its thread maps to and moves on to the others only once that one is empty.
+ * No counter is ever taken below zero, so together the stripes can never hand out more than was put in.
+ */
+final class StripedStock {
+
+    // Counters sit 8 longs (one 64-byte cache line) apart, so neighbouring stripes do not false-share
+    private static final int PADDING = 8;
+
+    private final int stripes;
+    private final AtomicLongArray counters;
+
+    StripedStock(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("At least one stripe is required");
+        }
+        this.stripes = stripes;
+        this.counters = new AtomicLongArray(stripes * PADDING);
+    }
+
+    /**
+     * Take up to the requested quantity
+     * @param requested the quantity to take
+     * @return the quantity taken, less than requested if the stock ran short, 0 if there is none left
+     */
+    int take(int requested) {
+        int home = (int) (Thread.currentThread().threadId() % stripes);
+        long taken = 0;
+        for (int i = 0; i < stripes && taken < requested; i++) {
+            taken += takeFrom(((home + i) % stripes) * PADDING, requested - taken);
+        }
+        return (int) taken;
+    }
+
+    private long takeFrom(int index, long wanted) {
+        while (true) {
+            long available = counters.get(index);
+            if (available <= 0) {
+                return 0;
+            }
+            long quantity = Math.min(available, wanted);
+            if (counters.compareAndSet(index, available, available - quantity)) {
+                return quantity;
+            }
+        }
+    }
+
+    /**
+     * Add stock, spread evenly over the stripes
+     * @param quantity the quantity to add
+     */
+    void put(long quantity) {
+        long share = quantity / stripes;
+        long remainder = quantity % stripes;
+        for (int i = 0; i < stripes; i++) {
+            long stripeQuantity = share + (i < remainder ? 1 : 0);
+            if (stripeQuantity != 0) {
+                counters.addAndGet(i * PADDING, stripeQuantity);
+            }
+        }
+    }
+
+    /**
+     * Empty all stripes. Takers that arrive while the stock is drained find nothing left.
+     * @return the quantity that was left
+     */
+    long drain() {
+        long drained = 0;
+        for (int i = 0; i < stripes; i++) {
+            drained += counters.getAndSet(i * PADDING, 0);
+        }
+        return drained;
+    }
+
+    /**
+     * Sum the stripes. The sum is not a snapshot while takers are active.
+     * @return the quantity left
+     */
+    long available() {
+        long available = 0;
+        for (int i = 0; i < stripes; i++) {
+            available += counters.get(i * PADDING);
+        }
+        return available;
+    }
+}
@@ -0,0 +1,129 @@
+package gh.z0736190100.apparelstore.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel that hands out IDs once their deadline has passed.
+ * <p>
+ * Level 0 has one slot per tick; each higher level has slots that span a whole turn of the level below.
+ * Scheduling drops a timer into the slot of the lowest level whose range covers its deadline, and advancing
+ * by one tick only touches the slot the tick lands on, so both cost O(1) however many timers are pending.
+ * When the clock reaches the start of a higher-level slot, that slot's timers cascade to the lower levels.
+ * Timers beyond the range of the top level are parked in its slots and re-evaluated each time they cascade.
+ * <p>
+ * Deadlines are rounded up to whole ticks, so a timer never fires early but may fire up to one tick late.
+ * Cancelling is left to the caller: a fired ID whose work was already done is simply skipped.
+ */
+final class TimerWheel {
+
+    private final long tickMillis;
+    private final int slotBits;
+    private final int levels;
+    private final long slotMask;
+    private final ArrayDeque<Timer>[] slots;
+    private final List<Integer> due = new ArrayList<>();
+
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis the length of a tick
+     * @param slotBits the number of slots per level, as a power of two
+     * @param levels the number of levels
+     * @param startMillis the time the wheel starts at
+     */
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickMillis, int slotBits, int levels, long startMillis) {
+        if (tickMillis < 1 || slotBits < 1 || levels < 1 || (long) slotBits * levels > 62) {
+            throw new IllegalArgumentException("Unsupported timer wheel geometry");
+        }
+        this.tickMillis = tickMillis;
+        this.slotBits = slotBits;
+        this.levels = levels;
+        this.slotMask = (1L << slotBits) - 1;
+        this.slots = new ArrayDeque[levels << slotBits];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+        this.currentTick = Math.floorDiv(startMillis, tickMillis);
+    }
+
+    /**
+     * Schedule an ID to be handed out once its deadline has passed
+     * @param id the ID
+     * @param deadlineMillis the deadline
+     */
+    synchronized void schedule(Integer id, long deadlineMillis) {
+        // Round up, so the timer cannot fire before its deadline
+        insert(new Timer(id, Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis)));
+        size++;
+    }
+
+    /**
+     * Move the clock forward and collect every ID whose deadline has passed
+     * @param nowMillis the current time
+     * @return the expired IDs, empty if none
+     */
+    synchronized List<Integer> advance(long nowMillis) {
+        long nowTick = Math.floorDiv(nowMillis, tickMillis);
+        List<Integer> expired = new ArrayList<>(due);
+        due.clear();
+
+        while (currentTick < nowTick) {
+            currentTick++;
+            // Higher levels first, so a timer can cascade all the way down in one tick
+            for (int level = levels - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (slotBits * level)) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+            cascade(0);
+            expired.addAll(due);
+            due.clear();
+        }
+
+        size -= expired.size();
+        return expired;
+    }
+
+    /**
+     * @return the number of pending timers
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Re-insert the timers of the slot the current tick lands on at a level. On level 0 they are all due,
+     * except for timers parked beyond the range of a single-level wheel, which go back to wait another turn.
+     */
+    private void cascade(int level) {
+        ArrayDeque<Timer> slot = slot(level, currentTick);
+        int cascading = slot.size();
+        for (int i = 0; i < cascading; i++) {
+            insert(slot.poll());
+        }
+    }
+
+    private void insert(Timer timer) {
+        long delta = timer.deadlineTick() - currentTick;
+        if (delta <= 0) {
+            due.add(timer.id());
+            return;
+        }
+        int level = 0;
+        while (level < levels - 1 && delta >= 1L << (slotBits * (level + 1))) {
+            level++;
+        }
+        slot(level, timer.deadlineTick()).add(timer);
+    }
+
+    private ArrayDeque<Timer> slot(int level, long tick) {
+        return slots[(level << slotBits) + (int) ((tick >> (slotBits * level)) & slotMask)];
+    }
+
+    private record Timer(Integer id, long deadlineTick) {
+    }
+}
@@ -0,0 +1,16 @@
+-- Responses to requests made with an Idempotency-Key header, so that retries are answered instead of repeated.
+-- Keys and request bodies are stored as SHA-256 hashes. Rows are purged in batches once past their retention.
+CREATE SEQUENCE idempotency_key_seq START WITH 50 INCREMENT BY 50;
+
+CREATE TABLE idempotency_key (
+    id INT PRIMARY KEY,
+    version INT,
+    created_date TIMESTAMP,
+    update_date TIMESTAMP,
+    key_hash VARCHAR(64) NOT NULL,
+    request_hash VARCHAR(64) NOT NULL,
+    response_body CLOB,
+    CONSTRAINT uk_idempotency_key_key_hash UNIQUE (key_hash)
+);
+
+CREATE INDEX idx_idempotency_key_created_date ON idempotency_key (created_date);
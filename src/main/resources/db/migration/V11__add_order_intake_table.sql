@@ -0,0 +1,16 @@
+-- Journal of apparel orders accepted for asynchronous saving. A row is written before the order is acknowledged
+-- with 202, and rows still ACCEPTED after a crash are queued again on the next start.
+CREATE SEQUENCE order_intake_seq START WITH 50 INCREMENT BY 50;
+
+CREATE TABLE order_intake (
+    id INT PRIMARY KEY,
+    version INT,
+    created_date TIMESTAMP,
+    update_date TIMESTAMP,
+    status VARCHAR(20) NOT NULL,
+    payload CLOB NOT NULL,
+    apparel_order_id INT,
+    error VARCHAR(1000)
+);
+
+CREATE INDEX idx_order_intake_status ON order_intake (status);
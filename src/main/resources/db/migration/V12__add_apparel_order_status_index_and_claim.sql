@@ -0,0 +1,22 @@
+-- Apparel order status becomes one of a fixed set of values. Existing values are normalised first,
+-- and the common spellings of a known status are mapped onto it:
+--   CANCELED                           -> CANCELLED
+--   IN_PROCESS, IN PROCESS, IN-PROCESS -> INPROCESS
+--   COMPLETED                          -> COMPLETE
+-- Any other value is not guessed at: the check constraint below fails the migration, so such rows
+-- have to be corrected by hand before it is run again.
+UPDATE apparel_order SET status = UPPER(TRIM(status)) WHERE status IS NOT NULL;
+UPDATE apparel_order SET status = 'CANCELLED' WHERE status = 'CANCELED';
+UPDATE apparel_order SET status = 'INPROCESS' WHERE status IN ('IN_PROCESS', 'IN PROCESS', 'IN-PROCESS');
+UPDATE apparel_order SET status = 'COMPLETE' WHERE status = 'COMPLETED';
+
+ALTER TABLE apparel_order ALTER COLUMN status SET DATA TYPE VARCHAR(20);
+ALTER TABLE apparel_order ADD CONSTRAINT ck_apparel_order_status
+    CHECK (status IN ('NEW', 'PAID', 'CANCELLED', 'INPROCESS', 'COMPLETE'));
+
+-- Serves the status filter of the order listings and the oldest-first scan of workers claiming orders
+CREATE INDEX idx_apparel_order_status_created_date ON apparel_order (status, created_date);
+
+-- Lease taken by a worker that claimed the order; a lapsed lease is free to be claimed again
+ALTER TABLE apparel_order ADD COLUMN claim_token VARCHAR(36);
+ALTER TABLE apparel_order ADD COLUMN claimed_until TIMESTAMP;
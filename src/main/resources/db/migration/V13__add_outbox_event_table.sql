@@ -0,0 +1,18 @@
+-- Events recorded in the same transaction as the order and inventory writes they describe,
+-- delivered to downstream sinks by the outbox relay
+CREATE SEQUENCE outbox_event_seq START WITH 50 INCREMENT BY 50;
+
+CREATE TABLE outbox_event (
+    id INT PRIMARY KEY,
+    version INT,
+    created_date TIMESTAMP,
+    update_date TIMESTAMP,
+    aggregate_type VARCHAR(50) NOT NULL,
+    aggregate_id INT NOT NULL,
+    event_type VARCHAR(50) NOT NULL,
+    payload CLOB NOT NULL,
+    delivered_at TIMESTAMP
+);
+
+-- Serves both the relay's scan for undelivered events in ID order and the purge of delivered ones
+CREATE INDEX idx_outbox_event_delivered_at ON outbox_event (delivered_at, id);
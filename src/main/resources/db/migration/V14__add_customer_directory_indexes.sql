@@ -0,0 +1,7 @@
+-- Keyset pagination of the customer directory, ordered by name and id; also serves the name prefix filter
+CREATE INDEX idx_customer_name_id ON customer (name, id);
+
+-- Equality filters of the customer directory, each followed by the sort key so a filtered page is read in order.
+-- The email filter matches the normalized email, which V15_1 indexes once the column is filled in.
+CREATE INDEX idx_customer_state_city_name_id ON customer (state, city, name, id);
+CREATE INDEX idx_customer_postal_code_name_id ON customer (postal_code, name, id);
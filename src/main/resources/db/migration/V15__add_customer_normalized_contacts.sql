@@ -0,0 +1,8 @@
+-- Contact details in the form customers are looked up by: email trimmed and lower-cased,
+-- phone number in E.164. The application keeps them up to date on every customer write;
+-- V15_1 backfills them for existing customers with ContactNormalizer and indexes the email.
+ALTER TABLE customer ADD COLUMN email_normalized VARCHAR(255);
+ALTER TABLE customer ADD COLUMN phone_normalized VARCHAR(16);
+
+-- Lookups by phone are an index seek; a phone number may be shared, e.g. by a household
+CREATE INDEX idx_customer_phone_normalized ON customer (phone_normalized);
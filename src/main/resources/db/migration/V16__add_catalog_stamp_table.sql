@@ -0,0 +1,14 @@
+-- Catalog-wide version stamp behind the collection ETags. Every write transaction bumps the single row
+-- before it commits, so all instances read the same stamp. Writes made outside the application must bump it too.
+CREATE SEQUENCE catalog_stamp_seq START WITH 50 INCREMENT BY 50;
+
+CREATE TABLE catalog_stamp (
+    id INT PRIMARY KEY,
+    version INT,
+    created_date TIMESTAMP,
+    update_date TIMESTAMP,
+    stamp BIGINT NOT NULL
+);
+
+INSERT INTO catalog_stamp (id, version, created_date, update_date, stamp)
+VALUES (1, 0, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 0);
@@ -0,0 +1,2 @@
+-- Composite index backing keyset pagination of apparels ordered by name and id
+CREATE INDEX idx_apparel_name_id ON apparel (apparel_name, id);
@@ -0,0 +1,2 @@
+-- Index backing the UPC lookups of bulk apparel imports
+CREATE INDEX idx_apparel_upc ON apparel (upc);
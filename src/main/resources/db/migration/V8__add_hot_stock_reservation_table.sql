@@ -0,0 +1,16 @@
+-- Stock taken from the in-memory counters of hot apparels that has not been written back to
+-- apparel.quantity_on_hand yet. Rows are inserted in the allocating transaction and deleted by the
+-- write-behind flush, so after a crash the counters are rebuilt from the apparel row minus what is left here.
+CREATE SEQUENCE hot_stock_reservation_seq START WITH 50 INCREMENT BY 50;
+
+CREATE TABLE hot_stock_reservation (
+    id INT PRIMARY KEY,
+    version INT,
+    created_date TIMESTAMP,
+    update_date TIMESTAMP,
+    apparel_id INT NOT NULL,
+    quantity INT NOT NULL,
+    FOREIGN KEY (apparel_id) REFERENCES apparel(id)
+);
+
+CREATE INDEX idx_hot_stock_reservation_apparel ON hot_stock_reservation (apparel_id);
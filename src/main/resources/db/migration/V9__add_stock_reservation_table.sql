@@ -0,0 +1,18 @@
+-- Stock held for unpaid (NEW) orders until it expires. A row is deleted when its order is paid or its
+-- hold expires. Apparel, order and line IDs are kept without foreign keys, so removing any of them never
+-- waits for a hold; the held stock is simply released when the hold expires.
+CREATE SEQUENCE stock_reservation_seq START WITH 50 INCREMENT BY 50;
+
+CREATE TABLE stock_reservation (
+    id INT PRIMARY KEY,
+    version INT,
+    created_date TIMESTAMP,
+    update_date TIMESTAMP,
+    apparel_id INT NOT NULL,
+    apparel_order_id INT NOT NULL,
+    apparel_order_line_id INT NOT NULL,
+    quantity INT NOT NULL,
+    expires_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX idx_stock_reservation_apparel_order ON stock_reservation (apparel_order_id);
@@ -1,9 +1,17 @@
 package gh.z0736190100.apparelstore.controllers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.exceptions.InvalidCursorException;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
 import gh.z0736190100.apparelstore.models.ApparelDto;
+import gh.z0736190100.apparelstore.models.ApparelImportResultDto;
 import gh.z0736190100.apparelstore.models.ApparelPatchDto;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
+import gh.z0736190100.apparelstore.models.SliceDto;
+import gh.z0736190100.apparelstore.services.ApparelImportFormat;
+import gh.z0736190100.apparelstore.services.ApparelImportService;
 import gh.z0736190100.apparelstore.services.ApparelService;
+import gh.z0736190100.apparelstore.services.CatalogVersion;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,20 +21,29 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -43,6 +60,12 @@ class ApparelControllerTest {
     @MockBean
     ApparelService apparelService;
 
+    @MockBean
+    ApparelImportService apparelImportService;
+
+    @MockBean
+    CatalogVersion catalogVersion;
+
     ApparelDto testApparel;
 
     @BeforeEach
@@ -177,6 +200,105 @@ class ApparelControllerTest {
                 .andExpect(jsonPath("$.number", is(0)));
     }
 
+    @Test
+    void testGetApparelSlice() throws Exception {
+        // Given
+        SliceDto<ApparelDto> slice = SliceDto.<ApparelDto>builder()
+                .content(List.of(testApparel))
+                .number(0)
+                .size(20)
+                .hasNext(true)
+                .build();
+
+        given(apparelService.getApparelSlice(eq(null), eq(null), any(Pageable.class), eq(false))).willReturn(slice);
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparels")
+                .param("pagination", "slice")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.hasNext", is(true)))
+                .andExpect(jsonPath("$.number", is(0)))
+                .andExpect(jsonPath("$.totalElements").doesNotExist())
+                .andExpect(jsonPath("$.pageable").doesNotExist());
+    }
+
+    @Test
+    void testGetApparelsByCursor() throws Exception {
+        // Given
+        CursorPageDto<ApparelDto> cursorPage = CursorPageDto.<ApparelDto>builder()
+                .content(List.of(testApparel))
+                .size(1)
+                .hasNext(true)
+                .nextCursor("next")
+                .build();
+
+        given(apparelService.getApparelsAfter(eq("Test"), eq(null), eq("prev"), eq(1))).willReturn(cursorPage);
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparels")
+                .param("pagination", "cursor")
+                .param("apparelName", "Test")
+                .param("after", "prev")
+                .param("size", "1")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].id", is(1)))
+                .andExpect(jsonPath("$.hasNext", is(true)))
+                .andExpect(jsonPath("$.nextCursor", is("next")));
+    }
+
+    @Test
+    void testGetApparelsByInvalidCursor() throws Exception {
+        // Given
+        given(apparelService.getApparelsAfter(any(), any(), eq("bogus"), eq(20)))
+                .willThrow(new InvalidCursorException("Malformed cursor: bogus"));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparels")
+                .param("pagination", "cursor")
+                .param("after", "bogus")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetApparelSliceRejectsPagesOutOfRange() throws Exception {
+        for (String size : List.of("0", "-1", String.valueOf(CursorPageDto.MAX_SIZE + 1),
+                String.valueOf(Integer.MAX_VALUE))) {
+            // When/Then
+            mockMvc.perform(get("/api/v1/apparels")
+                    .param("pagination", "slice")
+                    .param("size", size)
+                    .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isBadRequest());
+        }
+        mockMvc.perform(get("/api/v1/apparels")
+                .param("pagination", "slice")
+                .param("page", "-1")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verify(apparelService, never()).getApparelSlice(any(), any(), any(), anyBoolean());
+    }
+
+    @Test
+    void testGetApparelsByCursorRejectsPageSizesOutOfRange() throws Exception {
+        for (String size : List.of("0", "-1", String.valueOf(CursorPageDto.MAX_SIZE + 1),
+                String.valueOf(Integer.MAX_VALUE))) {
+            // When/Then
+            mockMvc.perform(get("/api/v1/apparels")
+                    .param("pagination", "cursor")
+                    .param("size", size)
+                    .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isBadRequest());
+        }
+
+        verify(apparelService, never()).getApparelsAfter(any(), any(), any(), anyInt());
+    }
+
     @Test
     void testGetApparelById() throws Exception {
         // Given
@@ -187,10 +309,75 @@ class ApparelControllerTest {
                 .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparel-1-0\""))
                 .andExpect(jsonPath("$.id", is(1)))
                 .andExpect(jsonPath("$.apparelName", is("Test Apparel")));
     }
 
+    @Test
+    void testGetApparelByIdNotModified() throws Exception {
+        // Given
+        given(apparelService.getApparelVersion(1)).willReturn(Optional.of(3));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparels/1")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"apparel-1-2\", W/\"apparel-1-3\"")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparel-1-3\""))
+                .andExpect(content().string(""));
+
+        verify(apparelService, never()).getApparelById(any());
+    }
+
+    @Test
+    void testGetApparelByIdChangedSinceETag() throws Exception {
+        // Given
+        testApparel.setVersion(4);
+        given(apparelService.getApparelVersion(1)).willReturn(Optional.of(4));
+        given(apparelService.getApparelById(1)).willReturn(Optional.of(testApparel));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparels/1")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"apparel-1-3\"")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparel-1-4\""))
+                .andExpect(jsonPath("$.version", is(4)));
+    }
+
+    @Test
+    void testGetAllApparelsNotModified() throws Exception {
+        // Given
+        given(catalogVersion.current()).willReturn("epoch.7");
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparels")
+                .param("pagination", "cursor")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"apparels-epoch.7\"")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        verify(apparelService, never()).getApparelsAfter(any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void testGetAllApparelsModifiedSinceStamp() throws Exception {
+        // Given
+        given(catalogVersion.current()).willReturn("epoch.8");
+        given(apparelService.getAllApparels(eq(null), eq(null), any(Pageable.class)))
+                .willReturn(new PageImpl<>(List.of(testApparel), PageRequest.of(0, 20), 1));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparels")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"apparels-epoch.7\"")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparels-epoch.8\""))
+                .andExpect(jsonPath("$.content", hasSize(1)));
+    }
+
     @Test
     void testGetApparelByIdNotFound() throws Exception {
         // Given
@@ -253,8 +440,7 @@ class ApparelControllerTest {
                 .quantityOnHand(150)
                 .build();
 
-        given(apparelService.getApparelById(1)).willReturn(Optional.of(testApparel));
-        given(apparelService.saveApparel(any(ApparelDto.class))).willReturn(updatedApparel);
+        given(apparelService.updateApparel(eq(1), any(ApparelDto.class), isNull())).willReturn(Optional.of(updatedApparel));
 
         // When/Then
         mockMvc.perform(put("/api/v1/apparels/1")
@@ -277,7 +463,7 @@ class ApparelControllerTest {
                 .quantityOnHand(150)
                 .build();
 
-        given(apparelService.getApparelById(1)).willReturn(Optional.empty());
+        given(apparelService.updateApparel(eq(1), any(ApparelDto.class), isNull())).willReturn(Optional.empty());
 
         // When/Then
         mockMvc.perform(put("/api/v1/apparels/1")
@@ -286,23 +472,112 @@ class ApparelControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void testUpdateApparelIfMatch() throws Exception {
+        // Given
+        ApparelDto apparelToUpdate = ApparelDto.builder()
+                .apparelName("Updated Apparel")
+                .apparelStyle("Oversize")
+                .upc("789012")
+                .price(new BigDecimal("16.99"))
+                .quantityOnHand(150)
+                .build();
+
+        ApparelDto updatedApparel = ApparelDto.builder()
+                .id(1)
+                .version(4)
+                .apparelName("Updated Apparel")
+                .apparelStyle("Oversize")
+                .upc("789012")
+                .price(new BigDecimal("16.99"))
+                .quantityOnHand(150)
+                .build();
+
+        given(apparelService.updateApparel(eq(1), any(ApparelDto.class), eq(3))).willReturn(Optional.of(updatedApparel));
+
+        // When/Then
+        mockMvc.perform(put("/api/v1/apparels/1")
+                .header(HttpHeaders.IF_MATCH, "\"apparel-1-3\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(apparelToUpdate)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparel-1-4\""))
+                .andExpect(jsonPath("$.version", is(4)));
+    }
+
+    @Test
+    void testUpdateApparelStaleIfMatch() throws Exception {
+        // Given
+        ApparelDto apparelToUpdate = ApparelDto.builder()
+                .apparelName("Updated Apparel")
+                .apparelStyle("Oversize")
+                .upc("789012")
+                .price(new BigDecimal("16.99"))
+                .quantityOnHand(150)
+                .build();
+
+        given(apparelService.updateApparel(eq(1), any(ApparelDto.class), eq(2)))
+                .willThrow(new PreconditionFailedException("Apparel 1 is no longer at version 2"));
+
+        // When/Then
+        mockMvc.perform(put("/api/v1/apparels/1")
+                .header(HttpHeaders.IF_MATCH, "\"apparel-1-2\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(apparelToUpdate)))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("$.title", is("Precondition Failed")));
+    }
+
+    @Test
+    void testUpdateApparelIfMatchForOtherResource() throws Exception {
+        // Given
+        ApparelDto apparelToUpdate = ApparelDto.builder()
+                .apparelName("Updated Apparel")
+                .apparelStyle("Oversize")
+                .upc("789012")
+                .price(new BigDecimal("16.99"))
+                .quantityOnHand(150)
+                .build();
+
+        // When/Then
+        mockMvc.perform(put("/api/v1/apparels/1")
+                .header(HttpHeaders.IF_MATCH, "\"apparel-2-3\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(apparelToUpdate)))
+                .andExpect(status().isPreconditionFailed());
+
+        verify(apparelService, never()).updateApparel(any(), any(), any());
+    }
+
     @Test
     void testDeleteApparel() throws Exception {
         // Given
-        given(apparelService.getApparelById(1)).willReturn(Optional.of(testApparel));
-        doNothing().when(apparelService).deleteApparelById(1);
+        given(apparelService.deleteApparelById(1, null)).willReturn(true);
 
         // When/Then
         mockMvc.perform(delete("/api/v1/apparels/1"))
                 .andExpect(status().isNoContent());
 
-        verify(apparelService).deleteApparelById(1);
+        verify(apparelService).deleteApparelById(1, null);
+    }
+
+    @Test
+    void testDeleteApparelIfMatch() throws Exception {
+        // Given
+        given(apparelService.deleteApparelById(1, 3)).willReturn(true);
+
+        // When/Then
+        mockMvc.perform(delete("/api/v1/apparels/1")
+                .header(HttpHeaders.IF_MATCH, "\"apparel-1-3\""))
+                .andExpect(status().isNoContent());
+
+        verify(apparelService).deleteApparelById(1, 3);
     }
 
     @Test
     void testDeleteApparelNotFound() throws Exception {
         // Given
-        given(apparelService.getApparelById(1)).willReturn(Optional.empty());
+        given(apparelService.deleteApparelById(1, null)).willReturn(false);
 
         // When/Then
         mockMvc.perform(delete("/api/v1/apparels/1"))
@@ -345,7 +620,7 @@ class ApparelControllerTest {
                 .quantityOnHand(100) // Original value
                 .build();
 
-        given(apparelService.patchApparel(eq(1), any(ApparelPatchDto.class))).willReturn(Optional.of(patchedApparel));
+        given(apparelService.patchApparel(eq(1), any(ApparelPatchDto.class), isNull())).willReturn(Optional.of(patchedApparel));
 
         // When/Then
         mockMvc.perform(patch("/api/v1/apparels/1")
@@ -365,7 +640,7 @@ class ApparelControllerTest {
                 .apparelName("Patched Apparel")
                 .build();
 
-        given(apparelService.patchApparel(eq(1), any(ApparelPatchDto.class))).willReturn(Optional.empty());
+        given(apparelService.patchApparel(eq(1), any(ApparelPatchDto.class), isNull())).willReturn(Optional.empty());
 
         // When/Then
         mockMvc.perform(patch("/api/v1/apparels/1")
@@ -373,4 +648,59 @@ class ApparelControllerTest {
                 .content(objectMapper.writeValueAsString(apparelPatchDto)))
                 .andExpect(status().isNotFound());
     }
+
+    @Test
+    void testImportApparels() throws Exception {
+        // Given
+        doAnswer(invocation -> {
+            Consumer<ApparelImportResultDto> results = invocation.getArgument(2);
+            results.accept(ApparelImportResultDto.builder()
+                    .row(1).upc("123456").status(ApparelImportResultDto.Status.CREATED).id(1).build());
+            results.accept(ApparelImportResultDto.builder()
+                    .row(2).status(ApparelImportResultDto.Status.INVALID).errors(Map.of("upc", "UPC is required")).build());
+            return null;
+        }).when(apparelImportService).importApparels(any(), eq(ApparelImportFormat.CSV), any());
+
+        // When
+        MvcResult mvcResult = mockMvc.perform(post("/api/v1/apparels/import")
+                        .contentType("text/csv")
+                        .accept(ApparelImportFormat.NDJSON_VALUE)
+                        .content("apparelName,apparelStyle,upc,quantityOnHand,price\n"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Then
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(ApparelImportFormat.NDJSON_VALUE))
+                .andExpect(content().string(
+                        "{\"row\":1,\"upc\":\"123456\",\"status\":\"CREATED\",\"id\":1}\n"
+                                + "{\"row\":2,\"status\":\"INVALID\",\"errors\":{\"upc\":\"UPC is required\"}}\n"));
+    }
+
+    @Test
+    void testExportApparels() throws Exception {
+        // Given
+        doAnswer(invocation -> {
+            Consumer<ApparelDto> sink = invocation.getArgument(0);
+            sink.accept(ApparelDto.builder().id(1).apparelName("First").build());
+            sink.accept(ApparelDto.builder().id(2).apparelName("Second").build());
+            return null;
+        }).when(apparelService).exportApparels(any());
+
+        // When
+        MvcResult mvcResult = mockMvc.perform(get("/api/v1/apparels/export")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Then
+        String body = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+        List<String> lines = body.lines().toList();
+        assertThat(lines).hasSize(2);
+        assertThat(objectMapper.readValue(lines.get(1), ApparelDto.class).getApparelName()).isEqualTo("Second");
+    }
 }
@@ -1,29 +1,59 @@
 package gh.z0736190100.apparelstore.controllers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
+import gh.z0736190100.apparelstore.exceptions.IdempotencyKeyInUseException;
+import gh.z0736190100.apparelstore.exceptions.IdempotencyKeyMismatchException;
+import gh.z0736190100.apparelstore.exceptions.OrderIntakeFullException;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
+import gh.z0736190100.apparelstore.models.ApparelOrderDetailDto;
 import gh.z0736190100.apparelstore.models.ApparelOrderDto;
 import gh.z0736190100.apparelstore.models.ApparelOrderLineDto;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
 import gh.z0736190100.apparelstore.models.CustomerDto;
+import gh.z0736190100.apparelstore.models.OrderIntakeDto;
+import gh.z0736190100.apparelstore.models.OutboxEventDto;
+import gh.z0736190100.apparelstore.models.SliceDto;
+import gh.z0736190100.apparelstore.services.ApparelOrderEventBroadcaster;
 import gh.z0736190100.apparelstore.services.ApparelOrderService;
+import gh.z0736190100.apparelstore.services.CatalogVersion;
+import gh.z0736190100.apparelstore.services.IdempotencyKeyService;
+import gh.z0736190100.apparelstore.services.IdempotencyKeyService.IdempotentResponse;
+import gh.z0736190100.apparelstore.services.InventoryAllocationService;
+import gh.z0736190100.apparelstore.services.OrderIntakeService;
+import gh.z0736190100.apparelstore.services.OutboxListeners;
+import gh.z0736190100.apparelstore.services.OutboxPublisher;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -40,6 +70,21 @@ class ApparelOrderControllerTest {
     @MockBean
     ApparelOrderService apparelOrderService;
 
+    @MockBean
+    InventoryAllocationService inventoryAllocationService;
+
+    @MockBean
+    CatalogVersion catalogVersion;
+
+    @MockBean
+    IdempotencyKeyService idempotencyKeyService;
+
+    @MockBean
+    OrderIntakeService orderIntakeService;
+
+    @MockBean
+    ApparelOrderEventBroadcaster apparelOrderEventBroadcaster;
+
     ApparelOrderDto testApparelOrder;
     ApparelOrderLineDto testApparelOrderLine;
     CustomerDto testCustomerDto;
@@ -85,7 +130,7 @@ class ApparelOrderControllerTest {
     @Test
     void testGetAllApparelOrders() throws Exception {
         // Given
-        given(apparelOrderService.getAllApparelOrders()).willReturn(Arrays.asList(testApparelOrder));
+        given(apparelOrderService.getAllApparelOrders(false)).willReturn(Arrays.asList(testApparelOrder));
 
         // When/Then
         mockMvc.perform(get("/api/v1/apparel-orders")
@@ -97,30 +142,263 @@ class ApparelOrderControllerTest {
                 .andExpect(jsonPath("$[0].customer.name", is("Test Customer")));
     }
 
+    @Test
+    void testGetApparelOrderSlice() throws Exception {
+        // Given
+        SliceDto<ApparelOrderDto> slice = SliceDto.<ApparelOrderDto>builder()
+                .content(List.of(testApparelOrder))
+                .number(1)
+                .size(10)
+                .hasNext(false)
+                .totalElements(11L)
+                .build();
+
+        given(apparelOrderService.getApparelOrderSlice(any(), eq(true), eq(false))).willReturn(slice);
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders")
+                .param("pagination", "slice")
+                .param("page", "1")
+                .param("size", "10")
+                .param("count", "true")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.number", is(1)))
+                .andExpect(jsonPath("$.hasNext", is(false)))
+                .andExpect(jsonPath("$.totalElements", is(11)));
+    }
+
+    @Test
+    void testGetApparelOrdersByCursor() throws Exception {
+        // Given
+        CursorPageDto<ApparelOrderDto> cursorPage = CursorPageDto.<ApparelOrderDto>builder()
+                .content(List.of(testApparelOrder))
+                .size(1)
+                .hasNext(true)
+                .nextCursor("next")
+                .build();
+
+        given(apparelOrderService.getApparelOrdersAfter(eq(ApparelOrderStatus.NEW), eq(1), eq("prev"), eq(1), eq(false))).willReturn(cursorPage);
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders")
+                .param("pagination", "cursor")
+                .param("status", "NEW")
+                .param("customerId", "1")
+                .param("after", "prev")
+                .param("size", "1")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].customer.name", is("Test Customer")))
+                .andExpect(jsonPath("$.hasNext", is(true)))
+                .andExpect(jsonPath("$.nextCursor", is("next")));
+    }
+
+    @Test
+    void testGetApparelOrderSliceRejectsPagesOutOfRange() throws Exception {
+        for (String size : List.of("0", "-1", String.valueOf(CursorPageDto.MAX_SIZE + 1),
+                String.valueOf(Integer.MAX_VALUE))) {
+            // When/Then
+            mockMvc.perform(get("/api/v1/apparel-orders")
+                    .param("pagination", "slice")
+                    .param("size", size)
+                    .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isBadRequest());
+        }
+        mockMvc.perform(get("/api/v1/apparel-orders")
+                .param("pagination", "slice")
+                .param("page", "-1")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verify(apparelOrderService, never()).getApparelOrderSlice(any(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    void testGetApparelOrdersByCursorRejectsPageSizesOutOfRange() throws Exception {
+        for (String size : List.of("0", "-1", String.valueOf(CursorPageDto.MAX_SIZE + 1),
+                String.valueOf(Integer.MAX_VALUE))) {
+            // When/Then
+            mockMvc.perform(get("/api/v1/apparel-orders")
+                    .param("pagination", "cursor")
+                    .param("size", size)
+                    .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isBadRequest());
+        }
+
+        verify(apparelOrderService, never()).getApparelOrdersAfter(any(), any(), any(), anyInt(), anyBoolean());
+    }
+
+    @Test
+    void testGetAllApparelOrdersNotModified() throws Exception {
+        // Given
+        given(catalogVersion.current()).willReturn("epoch.7");
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"apparel-orders-epoch.7\"")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparel-orders-epoch.7\""))
+                .andExpect(content().string(""));
+
+        verify(apparelOrderService, never()).getAllApparelOrders(anyBoolean());
+    }
+
     @Test
     void testGetApparelOrderById() throws Exception {
         // Given
-        given(apparelOrderService.getApparelOrderById(1)).willReturn(Optional.of(testApparelOrder));
+        given(apparelOrderService.getApparelOrderVersion(1)).willReturn(Optional.of("2.1.4.0"));
+        given(apparelOrderService.getApparelOrderById(1, false)).willReturn(Optional.of(testApparelOrder));
 
         // When/Then
         mockMvc.perform(get("/api/v1/apparel-orders/1")
                 .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparel-order-1-2.1.4.0\""))
                 .andExpect(jsonPath("$.id", is(1)))
                 .andExpect(jsonPath("$.customer.name", is("Test Customer")))
                 .andExpect(jsonPath("$.apparelOrderLines", hasSize(1)));
     }
 
+    @Test
+    void testGetApparelOrderByIdEmbedsOnlyTheCustomerReference() throws Exception {
+        // Given
+        ApparelOrderDto byReference = ApparelOrderDto.builder()
+                .id(1)
+                .customerId(1)
+                .customerName("Test Customer")
+                .paymentAmount(new BigDecimal("25.98"))
+                .status("NEW")
+                .apparelOrderLines(testApparelOrder.getApparelOrderLines())
+                .build();
+        given(apparelOrderService.getApparelOrderVersion(1)).willReturn(Optional.of("2.1.4.0"));
+        given(apparelOrderService.getApparelOrderById(1, false)).willReturn(Optional.of(byReference));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders/1")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.customerId", is(1)))
+                .andExpect(jsonPath("$.customerName", is("Test Customer")))
+                .andExpect(jsonPath("$.customer").doesNotExist());
+    }
+
+    @Test
+    void testGetApparelOrderByIdExpandingCustomer() throws Exception {
+        // Given
+        given(apparelOrderService.getApparelOrderVersion(1)).willReturn(Optional.of("2.1.4.0"));
+        given(apparelOrderService.getApparelOrderById(1, true)).willReturn(Optional.of(testApparelOrder));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders/1")
+                .param("expand", "lines,customer")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparel-order-1-2.1.4.0\""))
+                .andExpect(jsonPath("$.customer.city", is("Springfield")));
+        verify(apparelOrderService, never()).getApparelOrderById(1, false);
+    }
+
+    @Test
+    void testGetApparelOrderByIdNotModified() throws Exception {
+        // Given
+        given(apparelOrderService.getApparelOrderVersion(1)).willReturn(Optional.of("2.1.4.0"));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders/1")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"apparel-order-1-2.1.4.0\"")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        verify(apparelOrderService, never()).getApparelOrderById(any(), anyBoolean());
+    }
+
+    @Test
+    void testGetApparelOrderByIdChangedSinceETag() throws Exception {
+        // Given
+        given(apparelOrderService.getApparelOrderVersion(1)).willReturn(Optional.of("2.2.4.0"));
+        given(apparelOrderService.getApparelOrderById(1, false)).willReturn(Optional.of(testApparelOrder));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders/1")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"apparel-order-1-2.1.4.0\"")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparel-order-1-2.2.4.0\""))
+                .andExpect(jsonPath("$.id", is(1)));
+    }
+
     @Test
     void testGetApparelOrderByIdNotFound() throws Exception {
         // Given
-        given(apparelOrderService.getApparelOrderById(1)).willReturn(Optional.empty());
+        given(apparelOrderService.getApparelOrderVersion(1)).willReturn(Optional.empty());
 
         // When/Then
         mockMvc.perform(get("/api/v1/apparel-orders/1")
                 .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isNotFound());
+
+        verify(apparelOrderService, never()).getApparelOrderById(any(), anyBoolean());
+    }
+
+    @Test
+    void testGetApparelOrderDetailById() throws Exception {
+        // Given
+        given(apparelOrderService.getApparelOrderVersion(1)).willReturn(Optional.of("2.1.4.0"));
+        given(apparelOrderService.getApparelOrderDetailById(1)).willReturn(Optional.of(ApparelOrderDetailDto.builder()
+                .id(1)
+                .status("NEW")
+                .customerId(1)
+                .customerName("Test Customer")
+                .lines(List.of(ApparelOrderDetailDto.Line.builder()
+                        .id(1)
+                        .apparelId(1)
+                        .apparelName("Test Apparel")
+                        .orderQuantity(2)
+                        .build()))
+                .shipments(List.of())
+                .build()));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders/1/detail")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparel-order-detail-1-2.1.4.0\""))
+                .andExpect(jsonPath("$.customerName", is("Test Customer")))
+                .andExpect(jsonPath("$.lines", hasSize(1)))
+                .andExpect(jsonPath("$.lines[0].apparelName", is("Test Apparel")));
+    }
+
+    @Test
+    void testGetApparelOrderDetailByIdNotModified() throws Exception {
+        // Given
+        given(apparelOrderService.getApparelOrderVersion(1)).willReturn(Optional.of("2.1.4.0"));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders/1/detail")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"apparel-order-detail-1-2.1.4.0\"")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified());
+
+        verify(apparelOrderService, never()).getApparelOrderDetailById(any());
+    }
+
+    @Test
+    void testGetApparelOrderDetailByIdNotFound() throws Exception {
+        // Given
+        given(apparelOrderService.getApparelOrderVersion(1)).willReturn(Optional.empty());
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders/1/detail")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+
+        verify(apparelOrderService, never()).getApparelOrderDetailById(any());
     }
 
     @Test
@@ -175,6 +453,220 @@ class ApparelOrderControllerTest {
                 .andExpect(jsonPath("$.customer.name", is("New Customer")));
     }
 
+    @Test
+    void testCreateApparelOrderByCustomerId() throws Exception {
+        // Given an order naming its customer by ID only
+        ApparelOrderDto apparelOrderToCreate = ApparelOrderDto.builder()
+                .customerId(1)
+                .paymentAmount(new BigDecimal("25.98"))
+                .apparelOrderLines(testApparelOrder.getApparelOrderLines())
+                .build();
+        ApparelOrderDto savedApparelOrder = ApparelOrderDto.builder()
+                .id(2)
+                .customerId(1)
+                .paymentAmount(new BigDecimal("25.98"))
+                .status("NEW")
+                .apparelOrderLines(testApparelOrder.getApparelOrderLines())
+                .build();
+        given(apparelOrderService.saveApparelOrder(any(ApparelOrderDto.class))).willReturn(savedApparelOrder);
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(apparelOrderToCreate)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.customerId", is(1)))
+                .andExpect(jsonPath("$.customer").doesNotExist());
+    }
+
+    @Test
+    void testCreateApparelOrderWithoutCustomer() throws Exception {
+        // Given
+        ApparelOrderDto apparelOrderToCreate = ApparelOrderDto.builder()
+                .paymentAmount(new BigDecimal("25.98"))
+                .apparelOrderLines(testApparelOrder.getApparelOrderLines())
+                .build();
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(apparelOrderToCreate)))
+                .andExpect(status().isBadRequest());
+        verify(apparelOrderService, never()).saveApparelOrder(any());
+    }
+
+    @Test
+    void testCreateApparelOrderWithIdempotencyKey() throws Exception {
+        // Given
+        given(idempotencyKeyService.execute(eq("key-1"), any(), eq(ApparelOrderDto.class), any()))
+                .willReturn(new IdempotentResponse<>(testApparelOrder, false));
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .header("Idempotency-Key", "key-1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(testApparelOrder)))
+                .andExpect(status().isCreated())
+                .andExpect(header().doesNotExist("Idempotent-Replayed"))
+                .andExpect(jsonPath("$.id", is(1)));
+
+        // The service runs the save itself, inside the transaction that records the key
+        verify(apparelOrderService, never()).saveApparelOrder(any());
+    }
+
+    @Test
+    void testCreateApparelOrderReplayed() throws Exception {
+        // Given
+        given(idempotencyKeyService.execute(eq("key-1"), any(), eq(ApparelOrderDto.class), any()))
+                .willReturn(new IdempotentResponse<>(testApparelOrder, true));
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .header("Idempotency-Key", "key-1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(testApparelOrder)))
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Idempotent-Replayed", "true"))
+                .andExpect(jsonPath("$.id", is(1)));
+    }
+
+    @Test
+    void testCreateApparelOrderIdempotencyKeyInUse() throws Exception {
+        // Given
+        given(idempotencyKeyService.execute(eq("key-1"), any(), eq(ApparelOrderDto.class), any()))
+                .willThrow(new IdempotencyKeyInUseException("still running"));
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .header("Idempotency-Key", "key-1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(testApparelOrder)))
+                .andExpect(status().isConflict())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+    }
+
+    @Test
+    void testCreateApparelOrderAsync() throws Exception {
+        // Given
+        given(orderIntakeService.isEnabled()).willReturn(true);
+        given(orderIntakeService.acceptApparelOrder(any(ApparelOrderDto.class)))
+                .willReturn(OrderIntakeDto.builder().id(7).status("ACCEPTED").build());
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .header("Prefer", "respond-async, wait=10")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(testApparelOrder)))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.LOCATION, "/api/v1/apparel-orders/intake/7"))
+                .andExpect(header().string("Preference-Applied", "respond-async"))
+                .andExpect(jsonPath("$.status", is("ACCEPTED")));
+
+        verify(apparelOrderService, never()).saveApparelOrder(any());
+    }
+
+    @Test
+    void testCreateApparelOrderIdempotencyKeyCoversTheResponseMode() throws Exception {
+        // Given
+        given(orderIntakeService.isEnabled()).willReturn(true);
+        given(idempotencyKeyService.execute(eq("key-1"), any(), eq(ApparelOrderDto.class), any()))
+                .willReturn(new IdempotentResponse<>(testApparelOrder, false));
+        given(idempotencyKeyService.execute(eq("key-1"), any(), eq(OrderIntakeDto.class), any()))
+                .willReturn(new IdempotentResponse<>(OrderIntakeDto.builder().id(7).status("ACCEPTED").build(), false));
+
+        // When the same order is sent with the same key, once synchronously and once asynchronously
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .header("Idempotency-Key", "key-1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(testApparelOrder)))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .header("Idempotency-Key", "key-1")
+                .header("Prefer", "respond-async")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(testApparelOrder)))
+                .andExpect(status().isAccepted());
+
+        // Then the requests the key is matched on differ, so the second one is rejected as a different request
+        ArgumentCaptor<Object> sync = ArgumentCaptor.forClass(Object.class);
+        ArgumentCaptor<Object> async = ArgumentCaptor.forClass(Object.class);
+        verify(idempotencyKeyService).execute(eq("key-1"), sync.capture(), eq(ApparelOrderDto.class), any());
+        verify(idempotencyKeyService).execute(eq("key-1"), async.capture(), eq(OrderIntakeDto.class), any());
+        assertThat(objectMapper.writeValueAsString(sync.getValue()))
+                .isNotEqualTo(objectMapper.writeValueAsString(async.getValue()));
+    }
+
+    @Test
+    void testCreateApparelOrderAsyncWhenIntakeDisabled() throws Exception {
+        // Given
+        given(apparelOrderService.saveApparelOrder(any(ApparelOrderDto.class))).willReturn(testApparelOrder);
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .header("Prefer", "respond-async")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(testApparelOrder)))
+                .andExpect(status().isCreated())
+                .andExpect(header().doesNotExist("Preference-Applied"));
+
+        verify(orderIntakeService, never()).acceptApparelOrder(any());
+    }
+
+    @Test
+    void testCreateApparelOrderAsyncQueueFull() throws Exception {
+        // Given
+        given(orderIntakeService.isEnabled()).willReturn(true);
+        given(orderIntakeService.acceptApparelOrder(any(ApparelOrderDto.class)))
+                .willThrow(new OrderIntakeFullException("full"));
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .header("Prefer", "respond-async")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(testApparelOrder)))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+    }
+
+    @Test
+    void testGetOrderIntake() throws Exception {
+        // Given
+        given(orderIntakeService.getOrderIntakeById(7))
+                .willReturn(Optional.of(OrderIntakeDto.builder().id(7).status("COMPLETED").apparelOrderId(1).build()));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders/intake/7")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("COMPLETED")))
+                .andExpect(jsonPath("$.apparelOrderId", is(1)));
+    }
+
+    @Test
+    void testGetOrderIntakeNotFound() throws Exception {
+        // Given
+        given(orderIntakeService.getOrderIntakeById(7)).willReturn(Optional.empty());
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders/intake/7")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testCreateApparelOrderIdempotencyKeyReused() throws Exception {
+        // Given
+        given(idempotencyKeyService.execute(eq("key-1"), any(), eq(ApparelOrderDto.class), any()))
+                .willThrow(new IdempotencyKeyMismatchException("different request"));
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders")
+                .header("Idempotency-Key", "key-1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(testApparelOrder)))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
     @Test
     void testUpdateApparelOrder() throws Exception {
         // Given
@@ -192,7 +684,7 @@ class ApparelOrderControllerTest {
         ApparelOrderDto apparelOrderToUpdate = ApparelOrderDto.builder()
                 .customer(updatedCustomerDto)
                 .paymentAmount(new BigDecimal("39.97"))
-                .status("PROCESSING")
+                .status("INPROCESS")
                 .apparelOrderLines(new HashSet<>())
                 .build();
 
@@ -212,21 +704,22 @@ class ApparelOrderControllerTest {
                 .id(1)
                 .customer(updatedCustomerDto)
                 .paymentAmount(new BigDecimal("39.97"))
-                .status("PROCESSING")
+                .status("INPROCESS")
                 .apparelOrderLines(apparelOrderToUpdate.getApparelOrderLines())
                 .build();
 
-        given(apparelOrderService.getApparelOrderById(1)).willReturn(Optional.of(testApparelOrder));
-        given(apparelOrderService.saveApparelOrder(any(ApparelOrderDto.class))).willReturn(updatedApparelOrder);
+        given(apparelOrderService.updateApparelOrder(eq(1), any(ApparelOrderDto.class), isNull()))
+                .willReturn(Optional.of(new ApparelOrderService.VersionedApparelOrder(updatedApparelOrder, "3.1.5.0")));
 
-        // When/Then
+        // When/Then the response carries the ETag of the updated order, for the next conditional request
         mockMvc.perform(put("/api/v1/apparel-orders/1")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(apparelOrderToUpdate)))
                 .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"apparel-order-1-3.1.5.0\""))
                 .andExpect(jsonPath("$.id", is(1)))
                 .andExpect(jsonPath("$.customer.name", is("Updated Customer")))
-                .andExpect(jsonPath("$.status", is("PROCESSING")));
+                .andExpect(jsonPath("$.status", is("INPROCESS")));
     }
 
     @Test
@@ -246,7 +739,7 @@ class ApparelOrderControllerTest {
         ApparelOrderDto apparelOrderToUpdate = ApparelOrderDto.builder()
                 .customer(updatedCustomerDto)
                 .paymentAmount(new BigDecimal("39.97"))
-                .status("PROCESSING")
+                .status("INPROCESS")
                 .apparelOrderLines(new HashSet<>())
                 .build();
 
@@ -262,7 +755,8 @@ class ApparelOrderControllerTest {
                 .build();
         apparelOrderToUpdate.getApparelOrderLines().add(lineDto);
 
-        given(apparelOrderService.getApparelOrderById(1)).willReturn(Optional.empty());
+        given(apparelOrderService.updateApparelOrder(eq(1), any(ApparelOrderDto.class), isNull()))
+                .willReturn(Optional.empty());
 
         // When/Then
         mockMvc.perform(put("/api/v1/apparel-orders/1")
@@ -271,23 +765,81 @@ class ApparelOrderControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void testAllocateApparelOrder() throws Exception {
+        // Given
+        given(inventoryAllocationService.allocateApparelOrder(1)).willReturn(Optional.of(testApparelOrder));
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders/1/allocation")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", is(1)))
+                .andExpect(jsonPath("$.apparelOrderLines[0].status", is("ALLOCATED")));
+    }
+
+    @Test
+    void testAllocateApparelOrderNotFound() throws Exception {
+        // Given
+        given(inventoryAllocationService.allocateApparelOrder(1)).willReturn(Optional.empty());
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/apparel-orders/1/allocation")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     void testDeleteApparelOrder() throws Exception {
         // Given
-        given(apparelOrderService.getApparelOrderById(1)).willReturn(Optional.of(testApparelOrder));
-        doNothing().when(apparelOrderService).deleteApparelOrderById(1);
+        given(apparelOrderService.deleteApparelOrderById(1, null)).willReturn(true);
 
         // When/Then
         mockMvc.perform(delete("/api/v1/apparel-orders/1"))
                 .andExpect(status().isNoContent());
 
-        verify(apparelOrderService).deleteApparelOrderById(1);
+        verify(apparelOrderService).deleteApparelOrderById(1, null);
+    }
+
+    @Test
+    void testDeleteApparelOrderIfMatch() throws Exception {
+        // Given
+        given(apparelOrderService.deleteApparelOrderById(1, "2.1.3.0")).willReturn(true);
+
+        // When/Then
+        mockMvc.perform(delete("/api/v1/apparel-orders/1")
+                .header(HttpHeaders.IF_MATCH, "\"apparel-order-1-2.1.3.0\""))
+                .andExpect(status().isNoContent());
+
+        verify(apparelOrderService).deleteApparelOrderById(1, "2.1.3.0");
+    }
+
+    @Test
+    void testDeleteApparelOrderStaleIfMatch() throws Exception {
+        // Given
+        given(apparelOrderService.deleteApparelOrderById(1, "1.1.3.0"))
+                .willThrow(new PreconditionFailedException("Apparel order 1 has been modified"));
+
+        // When/Then
+        mockMvc.perform(delete("/api/v1/apparel-orders/1")
+                .header(HttpHeaders.IF_MATCH, "\"apparel-order-1-1.1.3.0\""))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void testDeleteApparelOrderWeakIfMatch() throws Exception {
+        // When/Then
+        mockMvc.perform(delete("/api/v1/apparel-orders/1")
+                .header(HttpHeaders.IF_MATCH, "W/\"apparel-order-1-2.1.3.0\""))
+                .andExpect(status().isPreconditionFailed());
+
+        verify(apparelOrderService, never()).deleteApparelOrderById(any(), any());
     }
 
     @Test
     void testDeleteApparelOrderNotFound() throws Exception {
         // Given
-        given(apparelOrderService.getApparelOrderById(1)).willReturn(Optional.empty());
+        given(apparelOrderService.deleteApparelOrderById(1, null)).willReturn(false);
 
         // When/Then
         mockMvc.perform(delete("/api/v1/apparel-orders/1"))
@@ -321,4 +873,103 @@ class ApparelOrderControllerTest {
                 .content(objectMapper.writeValueAsString(invalidApparelOrder)))
                 .andExpect(status().isBadRequest());
     }
+
+    @Test
+    void testExportApparelOrders() throws Exception {
+        // Given
+        doAnswer(invocation -> {
+            Consumer<ApparelOrderDto> sink = invocation.getArgument(0);
+            sink.accept(testApparelOrder);
+            return null;
+        }).when(apparelOrderService).exportApparelOrders(any());
+
+        // When
+        MvcResult mvcResult = mockMvc.perform(get("/api/v1/apparel-orders/export")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Then
+        String body = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+        ApparelOrderDto exported = objectMapper.readValue(body.strip(), ApparelOrderDto.class);
+        assertThat(exported.getId()).isEqualTo(1);
+        assertThat(exported.getApparelOrderLines()).hasSize(1);
+    }
+
+    @Test
+    void testStreamApparelOrderEventsById() throws Exception {
+        // Given
+        given(apparelOrderService.getApparelOrderVersion(1)).willReturn(Optional.of("0.0.0.0"));
+        given(apparelOrderEventBroadcaster.streamTimeout()).willReturn(Duration.ofMinutes(1));
+        given(apparelOrderEventBroadcaster.subscribe(eq(1), any())).willAnswer(invocation -> {
+            ApparelOrderEventBroadcaster.EventSink sink = invocation.getArgument(1);
+            sink.send(OutboxEventDto.builder()
+                    .id(7)
+                    .aggregateType(OutboxPublisher.APPAREL_ORDER)
+                    .aggregateId(1)
+                    .eventType(OutboxPublisher.APPAREL_ORDER_STATUS_CHANGED)
+                    .payload("{\"id\":1,\"status\":\"PAID\"}")
+                    .build());
+            sink.close(false);
+            return (OutboxListeners.Subscription) () -> { };
+        });
+
+        // When
+        MvcResult mvcResult = mockMvc.perform(get("/api/v1/apparel-orders/1/events")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Then
+        String body = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+                .andReturn().getResponse().getContentAsString();
+        assertThat(body).contains("id:7", "event:ApparelOrderStatusChanged", "\"status\":\"PAID\"");
+    }
+
+    @Test
+    void testStreamApparelOrderEventsByIdNotFound() throws Exception {
+        // Given
+        given(apparelOrderService.getApparelOrderVersion(99)).willReturn(Optional.empty());
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/apparel-orders/99/events")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isNotFound());
+        verify(apparelOrderEventBroadcaster, never()).subscribe(any(), any());
+    }
+
+    @Test
+    void testStreamAllApparelOrderEvents() throws Exception {
+        // Given
+        given(apparelOrderEventBroadcaster.streamTimeout()).willReturn(Duration.ofMinutes(1));
+        given(apparelOrderEventBroadcaster.subscribeToAll(any())).willAnswer(invocation -> {
+            ApparelOrderEventBroadcaster.EventSink sink = invocation.getArgument(0);
+            sink.send(OutboxEventDto.builder()
+                    .id(8)
+                    .aggregateType(OutboxPublisher.APPAREL_ORDER)
+                    .aggregateId(2)
+                    .eventType(OutboxPublisher.APPAREL_ORDER_SHIPMENT_CREATED)
+                    .payload("{\"trackingNumber\":\"1Z999\"}")
+                    .build());
+            sink.close(true);
+            return (OutboxListeners.Subscription) () -> { };
+        });
+
+        // When
+        MvcResult mvcResult = mockMvc.perform(get("/api/v1/apparel-orders/events")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Then
+        String body = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertThat(body).contains("id:8", "event:ApparelOrderShipmentCreated", "\"aggregateId\":2");
+    }
 }
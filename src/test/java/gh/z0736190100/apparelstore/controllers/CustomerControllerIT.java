@@ -75,6 +75,40 @@ class CustomerControllerIT {
                 .andExpect(jsonPath("$.email", is("john.doe@example.com")));
     }
 
+    @Test
+    void testLookupCreatedCustomerByEmailAndPhone() throws Exception {
+        CustomerDto customerToCreate = CustomerDto.builder()
+                .name("Jane Smith")
+                .email("Jane.Smith@Example.com")
+                .phoneNumber("555-987-6543")
+                .addressLine1("456 Oak Ave")
+                .city("Shelbyville")
+                .state("IL")
+                .postalCode("62565")
+                .build();
+        mockMvc.perform(post("/api/v1/customers")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(customerToCreate)))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/api/v1/customers/lookup")
+                .param("email", " jane.smith@example.com")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is("Jane Smith")));
+        mockMvc.perform(get("/api/v1/customers/lookup")
+                .param("phone", "+1 (555) 987-6543")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("Jane Smith")));
+        // A second customer cannot take the same email, however it is cased
+        mockMvc.perform(post("/api/v1/customers")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(customerToCreate.toBuilder().email("JANE.SMITH@example.com").build())))
+                .andExpect(status().isConflict());
+    }
+
     @Test
     void testGetCustomerByIdNotFound() throws Exception {
         mockMvc.perform(get("/api/v1/customers/999")
@@ -1,25 +1,32 @@
 package gh.z0736190100.apparelstore.controllers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.exceptions.CustomerContactInUseException;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
 import gh.z0736190100.apparelstore.models.CustomerDto;
+import gh.z0736190100.apparelstore.services.CatalogVersion;
 import gh.z0736190100.apparelstore.services.CustomerService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -36,6 +43,9 @@ class CustomerControllerTest {
     @MockBean
     CustomerService customerService;
 
+    @MockBean
+    CatalogVersion catalogVersion;
+
     CustomerDto testCustomer;
 
     @BeforeEach
@@ -69,6 +79,104 @@ class CustomerControllerTest {
                 .andExpect(jsonPath("$[0].name", is("John Doe")));
     }
 
+    @Test
+    void testGetCustomersByCursor() throws Exception {
+        // Given
+        CursorPageDto<CustomerDto> cursorPage = CursorPageDto.<CustomerDto>builder()
+                .content(List.of(testCustomer))
+                .size(1)
+                .hasNext(true)
+                .nextCursor("next")
+                .build();
+        given(customerService.getCustomersAfter("John", null, "Springfield", "IL", null, "prev", 1)).willReturn(cursorPage);
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/customers")
+                .param("pagination", "cursor")
+                .param("namePrefix", "John")
+                .param("city", "Springfield")
+                .param("state", "IL")
+                .param("after", "prev")
+                .param("size", "1")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].name", is("John Doe")))
+                .andExpect(jsonPath("$.hasNext", is(true)))
+                .andExpect(jsonPath("$.nextCursor", is("next")));
+        verify(customerService, never()).getAllCustomers();
+    }
+
+    @Test
+    void testGetCustomersByCursorRejectsPageSizesOutOfRange() throws Exception {
+        for (String size : List.of("0", "-1", String.valueOf(CursorPageDto.MAX_SIZE + 1),
+                String.valueOf(Integer.MAX_VALUE))) {
+            // When/Then
+            mockMvc.perform(get("/api/v1/customers")
+                    .param("pagination", "cursor")
+                    .param("size", size)
+                    .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isBadRequest());
+        }
+
+        verify(customerService, never()).getCustomersAfter(any(), any(), any(), any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void testGetCustomerByEmail() throws Exception {
+        // Given
+        given(customerService.getCustomerByEmail("John.Doe@example.com")).willReturn(Optional.of(testCustomer));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/customers/lookup")
+                .param("email", "John.Doe@example.com")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"customer-1-0\""))
+                .andExpect(jsonPath("$.id", is(1)))
+                .andExpect(jsonPath("$.email", is("john.doe@example.com")));
+    }
+
+    @Test
+    void testGetCustomerByEmailNotFound() throws Exception {
+        // Given
+        given(customerService.getCustomerByEmail("nobody@example.com")).willReturn(Optional.empty());
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/customers/lookup")
+                .param("email", "nobody@example.com")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testGetCustomersByPhone() throws Exception {
+        // Given
+        given(customerService.getCustomersByPhone("(555) 123-4567")).willReturn(List.of(testCustomer));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/customers/lookup")
+                .param("phone", "(555) 123-4567")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("John Doe")));
+    }
+
+    @Test
+    void testCreateCustomerWithTakenEmail() throws Exception {
+        // Given
+        given(customerService.saveCustomer(any(CustomerDto.class)))
+                .willThrow(new CustomerContactInUseException("Email john.doe@example.com already belongs to another customer"));
+
+        // When/Then
+        mockMvc.perform(post("/api/v1/customers")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(testCustomer)))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.title", is("Customer Contact In Use")));
+    }
+
     @Test
     void testGetCustomerById() throws Exception {
         // Given
@@ -84,6 +192,35 @@ class CustomerControllerTest {
                 .andExpect(jsonPath("$.email", is("john.doe@example.com")));
     }
 
+    @Test
+    void testGetCustomerByIdNotModified() throws Exception {
+        // Given
+        given(customerService.getCustomerVersion(1)).willReturn(Optional.of(5));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/customers/1")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"customer-1-5\"")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        verify(customerService, never()).getCustomerById(any());
+    }
+
+    @Test
+    void testGetAllCustomersNotModified() throws Exception {
+        // Given
+        given(catalogVersion.current()).willReturn("epoch.7");
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/customers")
+                .header(HttpHeaders.IF_NONE_MATCH, "*")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified());
+
+        verify(customerService, never()).getAllCustomers();
+    }
+
     @Test
     void testGetCustomerByIdNotFound() throws Exception {
         // Given
@@ -156,7 +293,7 @@ class CustomerControllerTest {
                 .postalCode("62701")
                 .build();
 
-        given(customerService.updateCustomer(anyInt(), any(CustomerDto.class))).willReturn(Optional.of(updatedCustomer));
+        given(customerService.updateCustomer(anyInt(), any(CustomerDto.class), isNull())).willReturn(Optional.of(updatedCustomer));
 
         // When/Then
         mockMvc.perform(put("/api/v1/customers/1")
@@ -182,7 +319,7 @@ class CustomerControllerTest {
                 .postalCode("62701")
                 .build();
 
-        given(customerService.updateCustomer(anyInt(), any(CustomerDto.class))).willReturn(Optional.empty());
+        given(customerService.updateCustomer(anyInt(), any(CustomerDto.class), isNull())).willReturn(Optional.empty());
 
         // When/Then
         mockMvc.perform(put("/api/v1/customers/1")
@@ -194,20 +331,31 @@ class CustomerControllerTest {
     @Test
     void testDeleteCustomer() throws Exception {
         // Given
-        given(customerService.getCustomerById(1)).willReturn(Optional.of(testCustomer));
-        doNothing().when(customerService).deleteCustomerById(1);
+        given(customerService.deleteCustomerById(1, null)).willReturn(true);
 
         // When/Then
         mockMvc.perform(delete("/api/v1/customers/1"))
                 .andExpect(status().isNoContent());
 
-        verify(customerService).deleteCustomerById(1);
+        verify(customerService).deleteCustomerById(1, null);
+    }
+
+    @Test
+    void testDeleteCustomerStaleIfMatch() throws Exception {
+        // Given
+        given(customerService.deleteCustomerById(1, 2))
+                .willThrow(new PreconditionFailedException("Customer 1 is no longer at version 2"));
+
+        // When/Then
+        mockMvc.perform(delete("/api/v1/customers/1")
+                .header(HttpHeaders.IF_MATCH, "\"customer-1-2\""))
+                .andExpect(status().isPreconditionFailed());
     }
 
     @Test
     void testDeleteCustomerNotFound() throws Exception {
         // Given
-        given(customerService.getCustomerById(1)).willReturn(Optional.empty());
+        given(customerService.deleteCustomerById(1, null)).willReturn(false);
 
         // When/Then
         mockMvc.perform(delete("/api/v1/customers/1"))
@@ -32,7 +32,7 @@ class ApparelOrderShipmentTest {
     void testApparelOrderRelationship() {
         // Create a apparel order
         ApparelOrder apparelOrder = ApparelOrder.builder()
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
 
         // Create a apparel order shipment
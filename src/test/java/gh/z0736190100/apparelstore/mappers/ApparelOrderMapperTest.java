@@ -3,7 +3,10 @@ package gh.z0736190100.apparelstore.mappers;
 import gh.z0736190100.apparelstore.entities.Apparel;
 import gh.z0736190100.apparelstore.entities.ApparelOrder;
 import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderShipment;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
 import gh.z0736190100.apparelstore.entities.Customer;
+import gh.z0736190100.apparelstore.models.ApparelOrderDetailDto;
 import gh.z0736190100.apparelstore.models.ApparelOrderDto;
 import gh.z0736190100.apparelstore.models.ApparelOrderLineDto;
 import gh.z0736190100.apparelstore.models.CustomerDto;
@@ -74,7 +77,7 @@ class ApparelOrderMapperTest {
         testApparelOrder = ApparelOrder.builder()
                 .customer(testCustomer)
                 .paymentAmount(new BigDecimal("25.98"))
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
         testApparelOrder.setId(1);
         testApparelOrder.setCreatedDate(LocalDateTime.now());
@@ -101,10 +104,12 @@ class ApparelOrderMapperTest {
         // Then
         assertThat(apparelOrderDto).isNotNull();
         assertThat(apparelOrderDto.getId()).isEqualTo(testApparelOrder.getId());
-        assertThat(apparelOrderDto.getCustomer()).isNotNull();
-        assertThat(apparelOrderDto.getCustomer().getName()).isEqualTo(testCustomer.getName());
+        // Only a reference to the customer is embedded by default
+        assertThat(apparelOrderDto.getCustomer()).isNull();
+        assertThat(apparelOrderDto.getCustomerId()).isEqualTo(testCustomer.getId());
+        assertThat(apparelOrderDto.getCustomerName()).isEqualTo(testCustomer.getName());
         assertThat(apparelOrderDto.getPaymentAmount()).isEqualTo(testApparelOrder.getPaymentAmount());
-        assertThat(apparelOrderDto.getStatus()).isEqualTo(testApparelOrder.getStatus());
+        assertThat(apparelOrderDto.getStatus()).isEqualTo(testApparelOrder.getStatus().name());
         assertThat(apparelOrderDto.getApparelOrderLines()).hasSize(1);
 
         ApparelOrderLineDto lineDto = apparelOrderDto.getApparelOrderLines().iterator().next();
@@ -117,6 +122,66 @@ class ApparelOrderMapperTest {
         assertThat(lineDto.getStatus()).isEqualTo("ALLOCATED");
     }
 
+    @Test
+    void testApparelOrderToApparelOrderDtoWithCustomer() {
+        // When
+        ApparelOrderDto apparelOrderDto = apparelOrderMapper.apparelOrderToApparelOrderDtoWithCustomer(testApparelOrder);
+
+        // Then
+        assertThat(apparelOrderDto.getCustomerId()).isEqualTo(testCustomer.getId());
+        assertThat(apparelOrderDto.getCustomer()).isNotNull();
+        assertThat(apparelOrderDto.getCustomer().getName()).isEqualTo(testCustomer.getName());
+        assertThat(apparelOrderDto.getCustomer().getAddressLine1()).isEqualTo(testCustomer.getAddressLine1());
+        assertThat(apparelOrderDto.getApparelOrderLines()).hasSize(1);
+    }
+
+    @Test
+    void testApparelOrderToApparelOrderDetailDto() {
+        // Given a second line and two shipments, added out of order
+        ApparelOrderLine secondLine = ApparelOrderLine.builder()
+                .orderQuantity(1)
+                .quantityAllocated(0)
+                .status("NEW")
+                .apparel(testApparel)
+                .build();
+        secondLine.setId(5);
+        testApparelOrder.addApparelOrderLine(secondLine);
+        ApparelOrderShipment laterShipment = ApparelOrderShipment.builder()
+                .shipmentDate(LocalDateTime.of(2024, 3, 2, 9, 0))
+                .carrier("UPS")
+                .trackingNumber("1Z2")
+                .build();
+        laterShipment.setId(1);
+        ApparelOrderShipment earlierShipment = ApparelOrderShipment.builder()
+                .shipmentDate(LocalDateTime.of(2024, 3, 1, 9, 0))
+                .carrier("UPS")
+                .trackingNumber("1Z1")
+                .build();
+        earlierShipment.setId(2);
+        testApparelOrder.addShipment(laterShipment);
+        testApparelOrder.addShipment(earlierShipment);
+
+        // When
+        ApparelOrderDetailDto detail = apparelOrderMapper.apparelOrderToApparelOrderDetailDto(testApparelOrder);
+
+        // Then
+        assertThat(detail.getId()).isEqualTo(1);
+        assertThat(detail.getStatus()).isEqualTo("NEW");
+        assertThat(detail.getPaymentAmount()).isEqualTo(testApparelOrder.getPaymentAmount());
+        assertThat(detail.getCustomerId()).isEqualTo(1);
+        assertThat(detail.getCustomerName()).isEqualTo("Test Customer");
+        assertThat(detail.getCustomerEmail()).isEqualTo("test@example.com");
+        assertThat(detail.getLines()).extracting(ApparelOrderDetailDto.Line::getId).containsExactly(1, 5);
+        ApparelOrderDetailDto.Line line = detail.getLines().get(0);
+        assertThat(line.getApparelId()).isEqualTo(1);
+        assertThat(line.getApparelName()).isEqualTo("Test Apparel");
+        assertThat(line.getUpc()).isEqualTo("123456");
+        assertThat(line.getPrice()).isEqualTo(new BigDecimal("12.99"));
+        assertThat(line.getOrderQuantity()).isEqualTo(2);
+        assertThat(detail.getShipments()).extracting(ApparelOrderDetailDto.Shipment::getTrackingNumber)
+                .containsExactly("1Z1", "1Z2");
+    }
+
     @Test
     void testApparelOrderDtoToApparelOrder() {
         // Given
@@ -124,7 +189,7 @@ class ApparelOrderMapperTest {
                 .id(2)
                 .customer(testCustomerDto)
                 .paymentAmount(new BigDecimal("39.97"))
-                .status("PENDING")
+                .status("PAID")
                 .apparelOrderLines(new HashSet<>())
                 .build();
 
@@ -148,10 +213,9 @@ class ApparelOrderMapperTest {
         // Then
         assertThat(apparelOrder).isNotNull();
         assertThat(apparelOrder.getId()).isNull(); // ID should be ignored in mapping
-        assertThat(apparelOrder.getCustomer()).isNotNull();
-        assertThat(apparelOrder.getCustomer().getName()).isEqualTo(testCustomer.getName());
+        assertThat(apparelOrder.getCustomer()).isNull(); // Attached by reference by the service
         assertThat(apparelOrder.getPaymentAmount()).isEqualTo(apparelOrderDto.getPaymentAmount());
-        assertThat(apparelOrder.getStatus()).isEqualTo(apparelOrderDto.getStatus());
+        assertThat(apparelOrder.getStatus().name()).isEqualTo(apparelOrderDto.getStatus());
         assertThat(apparelOrder.getApparelOrderLines()).hasSize(1);
 
         ApparelOrderLine line = apparelOrder.getApparelOrderLines().iterator().next();
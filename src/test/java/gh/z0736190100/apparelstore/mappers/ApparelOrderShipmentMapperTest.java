@@ -2,6 +2,7 @@ package gh.z0736190100.apparelstore.mappers;
 
 import gh.z0736190100.apparelstore.entities.ApparelOrder;
 import gh.z0736190100.apparelstore.entities.ApparelOrderShipment;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
 import gh.z0736190100.apparelstore.models.ApparelOrderShipmentDto;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -27,7 +28,7 @@ class ApparelOrderShipmentMapperTest {
         
         // Create test apparel order
         testApparelOrder = ApparelOrder.builder()
-                .status("COMPLETED")
+                .status(ApparelOrderStatus.COMPLETE)
                 .build();
         testApparelOrder.setId(1);
         
@@ -3,6 +3,7 @@ package gh.z0736190100.apparelstore.repositories;
 import gh.z0736190100.apparelstore.entities.Apparel;
 import gh.z0736190100.apparelstore.entities.ApparelOrder;
 import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
 import gh.z0736190100.apparelstore.entities.Customer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -62,7 +63,7 @@ class ApparelOrderLineRepositoryTest {
         testApparelOrder = ApparelOrder.builder()
                 .customer(testCustomer)
                 .paymentAmount(new BigDecimal("25.98"))
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
         testApparelOrder = apparelOrderRepository.save(testApparelOrder);
     }
@@ -184,4 +185,38 @@ class ApparelOrderLineRepositoryTest {
         // Then
         assertThat(apparelOrderLines).hasSize(2);
     }
+
+    @Test
+    void testFindAllocatedStockByApparelOrderId() {
+        // Given one allocated and one unallocated line
+        ApparelOrderLine allocated = apparelOrderLineRepository.save(ApparelOrderLine.builder()
+                .orderQuantity(3)
+                .quantityAllocated(2)
+                .status("PARTIALLY_ALLOCATED")
+                .apparel(testApparel)
+                .apparelOrder(testApparelOrder)
+                .build());
+        apparelOrderLineRepository.save(ApparelOrderLine.builder()
+                .orderQuantity(1)
+                .quantityAllocated(0)
+                .status("BACKORDERED")
+                .apparel(testApparel)
+                .apparelOrder(testApparelOrder)
+                .build());
+        apparelOrderLineRepository.flush();
+
+        // When
+        List<AllocatedStockView> stock = apparelOrderLineRepository.findAllocatedStockByApparelOrderId(
+                testApparelOrder.getId(), ApparelOrderStatus.COMPLETE);
+        List<AllocatedStockView> shipped = apparelOrderLineRepository.findAllocatedStockByApparelOrderId(
+                testApparelOrder.getId(), ApparelOrderStatus.NEW);
+
+        // Then
+        assertThat(stock).singleElement().satisfies(line -> {
+            assertThat(line.getApparelOrderLineId()).isEqualTo(allocated.getId());
+            assertThat(line.getApparelId()).isEqualTo(testApparel.getId());
+            assertThat(line.getQuantityAllocated()).isEqualTo(2);
+        });
+        assertThat(shipped).isEmpty();
+    }
 }
@@ -3,13 +3,21 @@ package gh.z0736190100.apparelstore.repositories;
 import gh.z0736190100.apparelstore.entities.Apparel;
 import gh.z0736190100.apparelstore.entities.ApparelOrder;
 import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
 import gh.z0736190100.apparelstore.entities.Customer;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Hibernate;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
@@ -27,6 +35,9 @@ class ApparelOrderRepositoryTest {
     @Autowired
     CustomerRepository customerRepository;
 
+    @Autowired
+    EntityManager entityManager;
+
     private Apparel testApparel;
     private Customer testCustomer;
 
@@ -61,7 +72,7 @@ class ApparelOrderRepositoryTest {
         ApparelOrder apparelOrder = ApparelOrder.builder()
                 .customer(testCustomer)
                 .paymentAmount(new BigDecimal("25.98"))
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
 
         ApparelOrderLine apparelOrderLine = ApparelOrderLine.builder()
@@ -89,7 +100,7 @@ class ApparelOrderRepositoryTest {
         ApparelOrder apparelOrder = ApparelOrder.builder()
                 .customer(testCustomer)
                 .paymentAmount(new BigDecimal("25.98"))
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
 
         ApparelOrderLine apparelOrderLine = ApparelOrderLine.builder()
@@ -119,7 +130,7 @@ class ApparelOrderRepositoryTest {
         ApparelOrder apparelOrder = ApparelOrder.builder()
                 .customer(testCustomer)
                 .paymentAmount(new BigDecimal("25.98"))
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
 
         ApparelOrderLine apparelOrderLine = ApparelOrderLine.builder()
@@ -146,13 +157,13 @@ class ApparelOrderRepositoryTest {
         updatedCustomer = customerRepository.save(updatedCustomer);
 
         savedApparelOrder.setCustomer(updatedCustomer);
-        savedApparelOrder.setStatus("PROCESSING");
+        savedApparelOrder.setStatus(ApparelOrderStatus.INPROCESS);
         ApparelOrder updatedApparelOrder = apparelOrderRepository.save(savedApparelOrder);
 
         // Then
         assertThat(updatedApparelOrder.getCustomer()).isNotNull();
         assertThat(updatedApparelOrder.getCustomer().getName()).isEqualTo("Updated Customer");
-        assertThat(updatedApparelOrder.getStatus()).isEqualTo("PROCESSING");
+        assertThat(updatedApparelOrder.getStatus()).isEqualTo(ApparelOrderStatus.INPROCESS);
     }
 
     @Test
@@ -161,7 +172,7 @@ class ApparelOrderRepositoryTest {
         ApparelOrder apparelOrder = ApparelOrder.builder()
                 .customer(testCustomer)
                 .paymentAmount(new BigDecimal("25.98"))
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
 
         ApparelOrderLine apparelOrderLine = ApparelOrderLine.builder()
@@ -214,7 +225,7 @@ class ApparelOrderRepositoryTest {
         ApparelOrder apparelOrder1 = ApparelOrder.builder()
                 .customer(customer1)
                 .paymentAmount(new BigDecimal("25.98"))
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
 
         ApparelOrderLine apparelOrderLine1 = ApparelOrderLine.builder()
@@ -229,7 +240,7 @@ class ApparelOrderRepositoryTest {
         ApparelOrder apparelOrder2 = ApparelOrder.builder()
                 .customer(customer2)
                 .paymentAmount(new BigDecimal("39.97"))
-                .status("PROCESSING")
+                .status(ApparelOrderStatus.INPROCESS)
                 .build();
 
         ApparelOrderLine apparelOrderLine2 = ApparelOrderLine.builder()
@@ -249,4 +260,190 @@ class ApparelOrderRepositoryTest {
         // Then
         assertThat(apparelOrders).hasSize(2);
     }
+
+    @Test
+    void testFindIdPagesAndFetchPlan() {
+        // Given
+        for (int i = 1; i <= 5; i++) {
+            ApparelOrder apparelOrder = ApparelOrder.builder()
+                    .customer(testCustomer)
+                    .paymentAmount(new BigDecimal("12.99"))
+                    .status(i % 2 == 0 ? ApparelOrderStatus.PAID : ApparelOrderStatus.NEW)
+                    .build();
+            apparelOrder.addApparelOrderLine(ApparelOrderLine.builder()
+                    .orderQuantity(i)
+                    .quantityAllocated(0)
+                    .status("NEW")
+                    .apparel(testApparel)
+                    .build());
+            apparelOrderRepository.save(apparelOrder);
+        }
+
+        // When
+        List<Integer> firstPage = apparelOrderRepository.findFirstIdPage(ApparelOrderStatus.NEW, testCustomer.getId(), Limit.of(2));
+        List<Integer> secondPage = apparelOrderRepository.findIdPageBefore(
+                ApparelOrderStatus.NEW, testCustomer.getId(), firstPage.get(firstPage.size() - 1), Limit.of(2));
+        List<ApparelOrder> fetched = apparelOrderRepository.findWithLinesByIdIn(firstPage);
+
+        // Then
+        assertThat(firstPage).hasSize(2).isSortedAccordingTo(Comparator.reverseOrder());
+        assertThat(secondPage).hasSize(1);
+        assertThat(secondPage.get(0)).isLessThan(firstPage.get(1));
+        assertThat(fetched).hasSize(2)
+                .allSatisfy(order -> {
+                    assertThat(order.getStatus()).isEqualTo(ApparelOrderStatus.NEW);
+                    assertThat(order.getApparelOrderLines()).hasSize(1);
+                });
+    }
+
+    @Test
+    void testClaimedOrdersAreNotClaimedAgainUntilTheLeaseLapses() {
+        // Given three paid orders and a new one
+        for (ApparelOrderStatus status : List.of(ApparelOrderStatus.PAID, ApparelOrderStatus.PAID,
+                ApparelOrderStatus.NEW, ApparelOrderStatus.PAID)) {
+            apparelOrderRepository.save(ApparelOrder.builder()
+                    .customer(testCustomer)
+                    .paymentAmount(new BigDecimal("12.99"))
+                    .status(status)
+                    .build());
+        }
+        LocalDateTime now = LocalDateTime.now();
+
+        // When two workers claim two orders each
+        List<Integer> firstCandidates = apparelOrderRepository.findClaimableIds(ApparelOrderStatus.PAID, now, Limit.of(2));
+        apparelOrderRepository.claimByIdIn(firstCandidates, ApparelOrderStatus.PAID, "first", now.plusMinutes(5), now);
+        List<Integer> secondCandidates = apparelOrderRepository.findClaimableIds(ApparelOrderStatus.PAID, now, Limit.of(2));
+        int secondClaimed = apparelOrderRepository.claimByIdIn(
+                secondCandidates, ApparelOrderStatus.PAID, "second", now.plusMinutes(5), now);
+
+        // Then
+        List<Integer> firstClaim = apparelOrderRepository.findIdsByClaimToken("first");
+        List<Integer> secondClaim = apparelOrderRepository.findIdsByClaimToken("second");
+        assertThat(firstClaim).hasSize(2);
+        assertThat(secondClaimed).isEqualTo(1);
+        assertThat(secondClaim).hasSize(1).doesNotContainAnyElementsOf(firstClaim);
+
+        // And once the first lease lapses its orders can be claimed again
+        LocalDateTime later = now.plusMinutes(10);
+        assertThat(apparelOrderRepository.findClaimableIds(ApparelOrderStatus.PAID, later, Limit.of(10)))
+                .containsExactlyInAnyOrderElementsOf(List.of(firstClaim.get(0), firstClaim.get(1), secondClaim.get(0)));
+
+        // And a released order is free right away
+        assertThat(apparelOrderRepository.releaseClaim(secondClaim.get(0), "first")).isZero();
+        assertThat(apparelOrderRepository.releaseClaim(secondClaim.get(0), "second")).isEqualTo(1);
+        assertThat(apparelOrderRepository.findClaimableIds(ApparelOrderStatus.PAID, now, Limit.of(10)))
+                .containsExactly(secondClaim.get(0));
+    }
+
+    @Test
+    void testFindAllByIdInOrderByIdLocksTheExistingOrdersInIdOrder() {
+        // Given
+        List<Integer> ids = new ArrayList<>();
+        for (ApparelOrderStatus status : List.of(ApparelOrderStatus.PAID, ApparelOrderStatus.NEW)) {
+            ids.add(apparelOrderRepository.save(ApparelOrder.builder()
+                    .customer(testCustomer)
+                    .paymentAmount(new BigDecimal("12.99"))
+                    .status(status)
+                    .build()).getId());
+        }
+        apparelOrderRepository.flush();
+
+        // When
+        List<ApparelOrder> locked = apparelOrderRepository.findAllByIdInOrderById(
+                List.of(ids.get(1), ids.get(0), Integer.MAX_VALUE));
+
+        // Then
+        assertThat(locked).extracting(ApparelOrder::getId).containsExactly(ids.get(0), ids.get(1));
+        assertThat(locked).extracting(ApparelOrder::getStatus)
+                .containsExactly(ApparelOrderStatus.PAID, ApparelOrderStatus.NEW);
+    }
+
+    @Test
+    void testFindVersionByIdChangesWithEmbeddedAssociations() {
+        // Given
+        ApparelOrder apparelOrder = ApparelOrder.builder()
+                .customer(testCustomer)
+                .paymentAmount(new BigDecimal("12.99"))
+                .status(ApparelOrderStatus.NEW)
+                .build();
+        apparelOrder.addApparelOrderLine(ApparelOrderLine.builder()
+                .orderQuantity(1)
+                .quantityAllocated(0)
+                .status("NEW")
+                .apparel(testApparel)
+                .build());
+        Integer id = apparelOrderRepository.saveAndFlush(apparelOrder).getId();
+
+        ApparelOrderVersionView before = apparelOrderRepository.findVersionById(id).orElseThrow();
+
+        // When the apparel of a line is renamed, which the order response embeds
+        testApparel.setApparelName("Renamed Apparel");
+        apparelRepository.saveAndFlush(testApparel);
+        ApparelOrderVersionView after = apparelOrderRepository.findVersionById(id).orElseThrow();
+
+        // Then
+        assertThat(after.getVersion()).isEqualTo(before.getVersion());
+        assertThat(after.getCustomerVersion()).isEqualTo(before.getCustomerVersion());
+        assertThat(after.getLinesVersion()).isEqualTo(before.getLinesVersion() + 1);
+        assertThat(after.getShipmentsVersion()).isZero();
+        assertThat(apparelOrderRepository.findVersionById(id + 1000)).isEmpty();
+    }
+
+    @Test
+    void testClaimIfVersionComparesTheWholeVersionTokenInTheUpdate() {
+        // Given
+        ApparelOrder apparelOrder = ApparelOrder.builder()
+                .customer(testCustomer)
+                .paymentAmount(new BigDecimal("12.99"))
+                .status(ApparelOrderStatus.NEW)
+                .build();
+        apparelOrder.addApparelOrderLine(ApparelOrderLine.builder()
+                .orderQuantity(1)
+                .quantityAllocated(0)
+                .status("NEW")
+                .apparel(testApparel)
+                .build());
+        Integer id = apparelOrderRepository.saveAndFlush(apparelOrder).getId();
+        ApparelOrderVersionView seen = apparelOrderRepository.findVersionById(id).orElseThrow();
+
+        // When the apparel of a line changes after the token was read
+        testApparel.setApparelName("Renamed Apparel");
+        apparelRepository.saveAndFlush(testApparel);
+
+        // Then the token no longer matches, although the order row itself is unchanged
+        assertThat(apparelOrderRepository.claimIfVersion(id, seen.getVersion(), seen.getCustomerVersion(),
+                seen.getLinesVersion(), seen.getShipmentsVersion())).isZero();
+        ApparelOrderVersionView current = apparelOrderRepository.findVersionById(id).orElseThrow();
+        assertThat(apparelOrderRepository.claimIfVersion(id, current.getVersion(), current.getCustomerVersion(),
+                current.getLinesVersion(), current.getShipmentsVersion())).isEqualTo(1);
+        assertThat(apparelOrderRepository.findVersionById(id).orElseThrow().getVersion())
+                .isEqualTo(current.getVersion() + 1);
+        assertThat(apparelOrderRepository.claimIfVersion(id, null, null, null, null)).isEqualTo(1);
+        assertThat(apparelOrderRepository.claimIfVersion(id + 1000, null, null, null, null)).isZero();
+    }
+
+    @Test
+    void testCustomerIsOnlyLoadedByTheQueriesThatFetchIt() {
+        // Given
+        Integer id = apparelOrderRepository.saveAndFlush(ApparelOrder.builder()
+                .customer(testCustomer)
+                .paymentAmount(new BigDecimal("12.99"))
+                .status(ApparelOrderStatus.NEW)
+                .build()).getId();
+        entityManager.clear();
+
+        // When
+        ApparelOrder byId = apparelOrderRepository.findById(id).orElseThrow();
+        entityManager.clear();
+        ApparelOrder inSlice = apparelOrderRepository.findSliceBy(PageRequest.of(0, 10)).getContent().get(0);
+        entityManager.clear();
+        ApparelOrder inList = apparelOrderRepository.findAllWithCustomer().get(0);
+
+        // Then
+        assertThat(Hibernate.isInitialized(byId.getCustomer())).isFalse();
+        assertThat(byId.getCustomer().getId()).isEqualTo(testCustomer.getId());
+        assertThat(Hibernate.isInitialized(inSlice.getCustomer())).isTrue();
+        assertThat(Hibernate.isInitialized(inList.getCustomer())).isTrue();
+        assertThat(inList.getCustomer().getName()).isEqualTo("Test Customer");
+    }
 }
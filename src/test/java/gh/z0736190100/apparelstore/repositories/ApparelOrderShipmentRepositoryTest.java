@@ -2,6 +2,7 @@ package gh.z0736190100.apparelstore.repositories;
 
 import gh.z0736190100.apparelstore.entities.ApparelOrder;
 import gh.z0736190100.apparelstore.entities.ApparelOrderShipment;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
 import gh.z0736190100.apparelstore.entities.Customer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -51,7 +52,7 @@ class ApparelOrderShipmentRepositoryTest {
         testApparelOrder = ApparelOrder.builder()
                 .customer(testCustomer)
                 .paymentAmount(new BigDecimal("25.98"))
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
         testApparelOrder = apparelOrderRepository.save(testApparelOrder);
     }
@@ -165,7 +166,7 @@ class ApparelOrderShipmentRepositoryTest {
         ApparelOrder anotherApparelOrder = ApparelOrder.builder()
                 .customer(testCustomer)
                 .paymentAmount(new BigDecimal("50.00"))
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
         anotherApparelOrder = apparelOrderRepository.save(anotherApparelOrder);
 
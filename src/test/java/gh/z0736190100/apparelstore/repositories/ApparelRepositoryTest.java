@@ -4,11 +4,15 @@ import gh.z0736190100.apparelstore.entities.Apparel;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -390,4 +394,147 @@ class ApparelRepositoryTest {
         assertThat(apparelsPage.getContent()).hasSize(2);
         assertThat(apparelsPage.getTotalElements()).isEqualTo(2);
     }
+
+    @Test
+    void testFindKeysetPages() {
+        // Given
+        apparelRepository.deleteAll(); // Clear any existing data
+        for (int i = 1; i <= 5; i++) {
+            Apparel apparel = Apparel.builder()
+                    .apparelName("Keyset Apparel " + i)
+                    .apparelStyle("Loose")
+                    .upc("5555" + i)
+                    .price(new BigDecimal("11.99"))
+                    .quantityOnHand(10)
+                    .build();
+            apparelRepository.save(apparel);
+        }
+        // Duplicate name, ordered after "Keyset Apparel 3" by ID
+        Apparel duplicate = apparelRepository.save(Apparel.builder()
+                .apparelName("Keyset Apparel 3")
+                .apparelStyle("Loose")
+                .upc("555599")
+                .price(new BigDecimal("11.99"))
+                .quantityOnHand(10)
+                .build());
+
+        // When
+        List<Apparel> firstPage = apparelRepository.findFirstKeysetPage("keyset", "", Limit.of(4));
+        Apparel last = firstPage.get(firstPage.size() - 1);
+        List<Apparel> secondPage = apparelRepository.findKeysetPageAfter(
+                "keyset", "", last.getApparelName(), last.getId(), Limit.of(4));
+
+        // Then
+        assertThat(firstPage).extracting(Apparel::getApparelName)
+                .containsExactly("Keyset Apparel 1", "Keyset Apparel 2", "Keyset Apparel 3", "Keyset Apparel 3");
+        assertThat(firstPage.get(3).getId()).isEqualTo(duplicate.getId());
+        assertThat(secondPage).extracting(Apparel::getApparelName)
+                .containsExactly("Keyset Apparel 4", "Keyset Apparel 5");
+    }
+
+    @Test
+    void testFindPagesRestrictedToIds() {
+        // Given
+        apparelRepository.deleteAll(); // Clear any existing data
+        List<Integer> ids = new ArrayList<>();
+        for (String name : List.of("Cotton Tee", "Alpaca Scarf", "Denim Jacket", "Bamboo Socks")) {
+            ids.add(apparelRepository.save(Apparel.builder()
+                    .apparelName(name)
+                    .apparelStyle("Loose")
+                    .upc("6666" + ids.size())
+                    .price(new BigDecimal("11.99"))
+                    .quantityOnHand(10)
+                    .build()).getId());
+        }
+        List<Integer> matchingIds = List.of(ids.get(0), ids.get(1), ids.get(3));
+
+        // When
+        Slice<Apparel> byName = apparelRepository.findSliceByIdIn(matchingIds,
+                PageRequest.of(0, 2, Sort.by("apparelName")));
+        List<Apparel> firstPage = apparelRepository.findFirstKeysetPageByIdIn(matchingIds, Limit.of(2));
+        Apparel last = firstPage.get(firstPage.size() - 1);
+        List<Apparel> secondPage = apparelRepository.findKeysetPageAfterByIdIn(
+                matchingIds, last.getApparelName(), last.getId(), Limit.of(2));
+
+        // Then the rows outside the ID list are never returned, and the requested order is applied
+        assertThat(byName.getContent()).extracting(Apparel::getApparelName)
+                .containsExactly("Alpaca Scarf", "Bamboo Socks");
+        assertThat(byName.hasNext()).isTrue();
+        assertThat(firstPage).extracting(Apparel::getApparelName).containsExactly("Alpaca Scarf", "Bamboo Socks");
+        assertThat(secondPage).extracting(Apparel::getApparelName).containsExactly("Cotton Tee");
+    }
+
+    @Test
+    void testPatchIfVersionOnlyMatchesExpectedVersion() {
+        // Given
+        Apparel apparel = apparelRepository.saveAndFlush(Apparel.builder()
+                .apparelName("Original Name")
+                .apparelStyle("Loose")
+                .upc("123456")
+                .price(new BigDecimal("12.99"))
+                .quantityOnHand(100)
+                .build());
+        Integer id = apparel.getId();
+        Apparel patch = Apparel.builder()
+                .apparelName("Patched Name")
+                .build();
+
+        // When
+        int stale = apparelRepository.patchIfVersion(id, 1, patch);
+        int patched = apparelRepository.patchIfVersion(id, 0, patch);
+
+        // Then
+        assertThat(stale).isZero();
+        assertThat(patched).isEqualTo(1);
+        Apparel fetchedApparel = apparelRepository.findById(id).orElseThrow();
+        assertThat(fetchedApparel.getApparelName()).isEqualTo("Patched Name");
+        assertThat(fetchedApparel.getApparelStyle()).isEqualTo("Loose");
+        assertThat(fetchedApparel.getQuantityOnHand()).isEqualTo(100);
+        assertThat(fetchedApparel.getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    void testDeleteIfVersion() {
+        // Given
+        Apparel apparel = apparelRepository.saveAndFlush(Apparel.builder()
+                .apparelName("Test Apparel")
+                .apparelStyle("Loose")
+                .upc("123456")
+                .price(new BigDecimal("12.99"))
+                .quantityOnHand(100)
+                .build());
+        Integer id = apparel.getId();
+
+        // When
+        int stale = apparelRepository.deleteIfVersion(id, 3);
+        int deleted = apparelRepository.deleteIfVersion(id, null);
+
+        // Then
+        assertThat(stale).isZero();
+        assertThat(deleted).isEqualTo(1);
+        assertThat(apparelRepository.existsById(id)).isFalse();
+    }
+
+    @Test
+    void testAllocateStockNeverGoesNegative() {
+        // Given
+        Apparel apparel = apparelRepository.saveAndFlush(Apparel.builder()
+                .apparelName("Test Apparel")
+                .apparelStyle("Loose")
+                .upc("123456")
+                .price(new BigDecimal("12.99"))
+                .quantityOnHand(5)
+                .build());
+        Integer id = apparel.getId();
+
+        // When
+        int allocated = apparelRepository.allocateStock(id, 3);
+        int oversold = apparelRepository.allocateStock(id, 3);
+
+        // Then
+        assertThat(allocated).isEqualTo(1);
+        assertThat(oversold).isZero();
+        assertThat(apparelRepository.findQuantityOnHandById(id)).contains(2);
+        assertThat(apparelRepository.findVersionById(id)).contains(1);
+    }
 }
@@ -0,0 +1,36 @@
+package gh.z0736190100.apparelstore.repositories;
+
+import gh.z0736190100.apparelstore.entities.CatalogStamp;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+class CatalogStampRepositoryTest {
+
+    @Autowired
+    CatalogStampRepository catalogStampRepository;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Test
+    void testIncrementMovesTheStampRowOn() {
+        // Given the row created by the migration
+        long before = catalogStampRepository.findById(CatalogStamp.ID).orElseThrow().getStamp();
+        entityManager.clear();
+
+        // When
+        int updated = catalogStampRepository.increment(CatalogStamp.ID);
+        entityManager.clear();
+
+        // Then
+        assertThat(updated).isEqualTo(1);
+        CatalogStamp after = catalogStampRepository.findById(CatalogStamp.ID).orElseThrow();
+        assertThat(after.getStamp()).isEqualTo(before + 1);
+        assertThat(after.getCreatedDate()).isNotNull();
+    }
+}
@@ -4,11 +4,15 @@ import gh.z0736190100.apparelstore.entities.Customer;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @DataJpaTest
 class CustomerRepositoryTest {
@@ -140,4 +144,100 @@ class CustomerRepositoryTest {
         // Then
         assertThat(customers).hasSize(2);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testKeysetPagesOfTheDirectory() {
+        // Given
+        customerRepository.deleteAll();
+        customerRepository.saveAll(List.of(
+                customer("Smith, Ann", "Springfield", "IL", "62701"),
+                customer("Smith, Bob", "Chicago", "IL", "60601"),
+                customer("Smith, Cal", "Springfield", "IL", "62702"),
+                customer("Jones, Dee", "Springfield", "IL", "62701"),
+                customer("Smith, Eve", "Springfield", "MO", "65801")));
+
+        // When
+        List<Customer> firstPage = customerRepository.findFirstKeysetPage(
+                "Smith", null, "Springfield", "IL", null, Limit.of(1));
+        Customer last = firstPage.get(0);
+        List<Customer> nextPage = customerRepository.findKeysetPageAfter(
+                "Smith", null, "Springfield", "IL", null, last.getName(), last.getId(), Limit.of(2));
+
+        // Then
+        assertThat(firstPage).extracting(Customer::getName).containsExactly("Smith, Ann");
+        assertThat(nextPage).extracting(Customer::getName).containsExactly("Smith, Cal");
+        assertThat(customerRepository.findFirstKeysetPage(null, null, null, null, "62701", Limit.of(10)))
+                .extracting(Customer::getName).containsExactly("Jones, Dee", "Smith, Ann");
+        assertThat(customerRepository.findFirstKeysetPage(null, "smith.eve@example.com", null, null, null, Limit.of(10)))
+                .extracting(Customer::getName).containsExactly("Smith, Eve");
+    }
+
+    @Test
+    void testKeysetNamePrefixMatchesEscapedWildcardsLiterally() {
+        // Given
+        customerRepository.deleteAll();
+        List<Customer> customers = new ArrayList<>();
+        for (String name : List.of("100% Cotton, Ann", "1000 Threads, Bob", "A_B Outfitters, Cal", "AXB Outfitters, Dee")) {
+            Customer customer = customer("Smith, Ann", "Springfield", "IL", "62701");
+            customer.setName(name);
+            customer.setEmail("customer" + customers.size() + "@example.com");
+            customer.setEmailNormalized(customer.getEmail());
+            customers.add(customer);
+        }
+        customerRepository.saveAll(customers);
+
+        // When
+        List<Customer> percent = customerRepository.findFirstKeysetPage("100\\%", null, null, null, null, Limit.of(10));
+        List<Customer> underscore = customerRepository.findFirstKeysetPage("A\\_", null, null, null, null, Limit.of(10));
+
+        // Then
+        assertThat(percent).extracting(Customer::getName).containsExactly("100% Cotton, Ann");
+        assertThat(underscore).extracting(Customer::getName).containsExactly("A_B Outfitters, Cal");
+    }
+
+    @Test
+    void testLookupByNormalizedContacts() {
+        // Given
+        Customer ann = customer("Smith, Ann", "Springfield", "IL", "62701");
+        ann.setPhoneNormalized("+15551234567");
+        Customer bob = customer("Smith, Bob", "Springfield", "IL", "62701");
+        bob.setPhoneNormalized("+15551234567");
+        customerRepository.saveAll(List.of(ann, bob));
+
+        // When/Then
+        assertThat(customerRepository.findFirstByEmailNormalizedOrderById("smith.ann@example.com"))
+                .get().extracting(Customer::getName).isEqualTo("Smith, Ann");
+        assertThat(customerRepository.findEmailNormalizedById(bob.getId())).contains("smith.bob@example.com");
+        assertThat(customerRepository.existsOtherByEmailNormalized("smith.bob@example.com", null)).isTrue();
+        assertThat(customerRepository.existsOtherByEmailNormalized("smith.bob@example.com", ann.getId())).isTrue();
+        assertThat(customerRepository.existsOtherByEmailNormalized("smith.bob@example.com", bob.getId())).isFalse();
+        assertThat(customerRepository.findByPhoneNormalizedOrderById("+15551234567"))
+                .extracting(Customer::getName).containsExactly("Smith, Ann", "Smith, Bob");
+    }
+
+    @Test
+    void testNormalizedEmailIsUnique() {
+        // Given
+        customerRepository.saveAndFlush(customer("Smith, Ann", "Springfield", "IL", "62701"));
+        Customer duplicate = customer("Smith, Ann", "Chicago", "IL", "60601");
+
+        // When/Then
+        assertThatThrownBy(() -> customerRepository.saveAndFlush(duplicate))
+                .isInstanceOf(DataIntegrityViolationException.class);
+    }
+
+    private static Customer customer(String name, String city, String state, String postalCode) {
+        String firstName = name.substring(name.indexOf(' ') + 1).toLowerCase();
+        String lastName = name.substring(0, name.indexOf(',')).toLowerCase();
+        String email = lastName + "." + firstName + "@example.com";
+        return Customer.builder()
+                .name(name)
+                .email(email)
+                .emailNormalized(email)
+                .addressLine1("1 Main St")
+                .city(city)
+                .state(state)
+                .postalCode(postalCode)
+                .build();
+    }
+}
@@ -0,0 +1,87 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.ApparelCacheProperties;
+import gh.z0736190100.apparelstore.models.ApparelDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ApparelDtoCacheTest {
+
+    SimpleMeterRegistry meterRegistry;
+    ApparelDtoCache apparelDtoCache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        apparelDtoCache = new ApparelDtoCache(new ApparelCacheProperties(100, Duration.ofMinutes(10)), meterRegistry);
+    }
+
+    @Test
+    void getReturnsCopyOfCachedApparel() {
+        // Given
+        apparelDtoCache.put(apparel(1, 0, "Linen Shirt"));
+
+        // When
+        ApparelDto cached = apparelDtoCache.get(1).orElseThrow();
+        cached.setApparelName("Mutated");
+
+        // Then
+        assertThat(apparelDtoCache.get(1)).get().extracting(ApparelDto::getApparelName).isEqualTo("Linen Shirt");
+        assertThat(apparelDtoCache.get(2)).isEmpty();
+    }
+
+    @Test
+    void olderVersionNeverReplacesNewerVersion() {
+        // Given
+        apparelDtoCache.put(apparel(1, 2, "Updated"));
+
+        // When
+        apparelDtoCache.put(apparel(1, 1, "Stale"));
+
+        // Then
+        assertThat(apparelDtoCache.get(1)).get().extracting(ApparelDto::getApparelName).isEqualTo("Updated");
+    }
+
+    @Test
+    void deletedApparelCannotBeResurrectedByStaleRead() {
+        // Given
+        apparelDtoCache.put(apparel(1, 0, "Linen Shirt"));
+
+        // When
+        apparelDtoCache.evictDeleted(1);
+        apparelDtoCache.put(apparel(1, 0, "Linen Shirt"));
+
+        // Then
+        assertThat(apparelDtoCache.get(1)).isEmpty();
+    }
+
+    @Test
+    void hitsAndMissesAreRecorded() {
+        // Given
+        apparelDtoCache.put(apparel(1, 0, "Linen Shirt"));
+
+        // When
+        apparelDtoCache.get(1);
+        apparelDtoCache.get(2);
+
+        // Then
+        assertThat(meterRegistry.get("cache.gets").tag("cache", ApparelDtoCache.CACHE_NAME).tag("result", "hit")
+                .functionCounter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("cache.gets").tag("cache", ApparelDtoCache.CACHE_NAME).tag("result", "miss")
+                .functionCounter().count()).isEqualTo(1.0);
+    }
+
+    private static ApparelDto apparel(Integer id, Integer version, String apparelName) {
+        return ApparelDto.builder()
+                .id(id)
+                .version(version)
+                .apparelName(apparelName)
+                .apparelStyle("Loose")
+                .build();
+    }
+}
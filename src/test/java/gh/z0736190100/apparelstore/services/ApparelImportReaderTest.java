@@ -0,0 +1,67 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.services.ApparelImportReader.ImportRow;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ApparelImportReaderTest {
+
+    @Test
+    void readsNdjsonRowsAndReportsMalformedLines() {
+        List<ImportRow> rows = readAll(ApparelImportFormat.NDJSON, """
+                {"apparelName":"Linen Shirt","apparelStyle":"Loose","upc":"1001","quantityOnHand":5,"price":19.99}
+
+                {"apparelName":"Broken"
+                {"apparelName":"Denim Jacket","apparelStyle":"Fit","upc":"1002","quantityOnHand":2,"price":59.00}
+                """);
+
+        assertThat(rows).extracting(ImportRow::row).containsExactly(1L, 2L, 3L);
+        assertThat(rows.get(0).apparel().getUpc()).isEqualTo("1001");
+        assertThat(rows.get(0).apparel().getPrice()).isEqualByComparingTo("19.99");
+        assertThat(rows.get(1).apparel()).isNull();
+        assertThat(rows.get(1).error()).startsWith("Malformed JSON");
+        assertThat(rows.get(2).apparel().getApparelName()).isEqualTo("Denim Jacket");
+    }
+
+    @Test
+    void readsCsvRowsByHeaderName() {
+        List<ImportRow> rows = readAll(ApparelImportFormat.CSV, """
+                UPC,Price,ApparelName,ApparelStyle,QuantityOnHand,Description,Ignored
+                1001,19.99,"Shirt, Linen",Loose,5,"A ""b"" c",x
+                1002,abc,Jacket,Fit,2,,x
+                1003,1.00,Scarf
+                """);
+
+        assertThat(rows).hasSize(3);
+        assertThat(rows.get(0).apparel().getApparelName()).isEqualTo("Shirt, Linen");
+        assertThat(rows.get(0).apparel().getDescription()).isEqualTo("A \"b\" c");
+        assertThat(rows.get(0).apparel().getQuantityOnHand()).isEqualTo(5);
+        assertThat(rows.get(0).apparel().getPrice()).isEqualTo(new BigDecimal("19.99"));
+        assertThat(rows.get(1).error()).isEqualTo("Invalid number for price: abc");
+        assertThat(rows.get(2).error()).isEqualTo("Expected 7 columns but found 3");
+    }
+
+    @Test
+    void emptyCsvHasNoRows() {
+        assertThat(readAll(ApparelImportFormat.CSV, "apparelName,upc\n")).isEmpty();
+    }
+
+    private static List<ImportRow> readAll(ApparelImportFormat format, String input) {
+        ApparelImportReader reader = new ApparelImportReader(
+                new BufferedReader(new StringReader(input)), format, new ObjectMapper());
+        List<ImportRow> rows = new ArrayList<>();
+        ImportRow row;
+        while ((row = reader.next()) != null) {
+            rows.add(row);
+        }
+        return rows;
+    }
+}
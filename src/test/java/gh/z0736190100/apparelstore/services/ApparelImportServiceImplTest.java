@@ -0,0 +1,177 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.config.ImportProperties;
+import gh.z0736190100.apparelstore.entities.Apparel;
+import gh.z0736190100.apparelstore.mappers.ApparelMapper;
+import gh.z0736190100.apparelstore.models.ApparelDto;
+import gh.z0736190100.apparelstore.models.ApparelImportResultDto;
+import gh.z0736190100.apparelstore.models.ApparelImportResultDto.Status;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mapstruct.factory.Mappers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ApparelImportServiceImplTest {
+
+    @Mock
+    ApparelRepository apparelRepository;
+
+    @Mock
+    ListingCountCache listingCountCache;
+
+    @Mock
+    ApparelSearchIndex apparelSearchIndex;
+
+    @Mock
+    ApparelDtoCache apparelDtoCache;
+
+    @Mock
+    CatalogVersion catalogVersion;
+
+    @Mock
+    HotStockCounters hotStockCounters;
+
+    @Mock
+    OutboxPublisher outboxPublisher;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    ApparelImportServiceImpl apparelImportService;
+
+    Apparel existingApparel;
+
+    @BeforeEach
+    void setUp() {
+        apparelImportService = new ApparelImportServiceImpl(apparelRepository, Mappers.getMapper(ApparelMapper.class),
+                new ObjectMapper(), Validation.buildDefaultValidatorFactory().getValidator(), new ImportProperties(2),
+                listingCountCache, apparelSearchIndex, apparelDtoCache, catalogVersion, hotStockCounters,
+                outboxPublisher, transactionManager);
+
+        existingApparel = Apparel.builder()
+                .id(2)
+                .version(3)
+                .apparelName("Old Name")
+                .apparelStyle("Loose")
+                .upc("2002")
+                .price(new BigDecimal("5.00"))
+                .quantityOnHand(1)
+                .build();
+    }
+
+    @Test
+    void importUpsertsByUpcInChunks() {
+        // Given
+        when(apparelRepository.findAllByUpcIn(Set.of("1001", "2002"))).thenReturn(List.of(existingApparel));
+        doAnswer(invocation -> {
+            List<Apparel> created = invocation.getArgument(0);
+            created.forEach(apparel -> apparel.setId(10));
+            return created;
+        }).when(apparelRepository).saveAll(anyList());
+
+        // When
+        List<ApparelImportResultDto> results = importNdjson("""
+                {"apparelName":"Linen Shirt","apparelStyle":"Loose","upc":"1001","quantityOnHand":5,"price":19.99}
+                {"apparelName":"New Name","apparelStyle":"Loose","upc":"2002","quantityOnHand":7,"price":6.00}
+                {"apparelName":"No UPC","apparelStyle":"Loose","quantityOnHand":1,"price":1.00}
+                """);
+
+        // Then
+        assertThat(results).extracting(ApparelImportResultDto::getRow).containsExactly(1L, 2L, 3L);
+        assertThat(results).extracting(ApparelImportResultDto::getStatus)
+                .containsExactly(Status.CREATED, Status.UPDATED, Status.INVALID);
+        assertThat(results).extracting(ApparelImportResultDto::getId).containsExactly(10, 2, null);
+        assertThat(results.get(2).getErrors()).containsKey("upc");
+
+        assertThat(existingApparel.getApparelName()).isEqualTo("New Name");
+        assertThat(existingApparel.getQuantityOnHand()).isEqualTo(7);
+        assertThat(existingApparel.getVersion()).isEqualTo(3);
+
+        // The second chunk holds only the invalid row, so it never reaches the database
+        verify(apparelRepository, times(1)).findAllByUpcIn(any());
+        verify(apparelRepository, times(1)).flush();
+        verify(apparelSearchIndex).index(10, "Linen Shirt", "Loose");
+        verify(apparelSearchIndex).index(2, "New Name", "Loose");
+        verify(apparelDtoCache, times(2)).put(any(ApparelDto.class));
+        verify(hotStockCounters).resync(2);
+        verify(hotStockCounters, never()).resync(10);
+        verify(listingCountCache, times(1)).invalidate(ApparelServiceImpl.LISTING);
+        verify(outboxPublisher).publish(eq(OutboxPublisher.APPAREL), eq(10), eq(OutboxPublisher.APPAREL_CREATED), any());
+        verify(outboxPublisher).publish(eq(OutboxPublisher.APPAREL), eq(2), eq(OutboxPublisher.APPAREL_UPDATED), any());
+    }
+
+    @Test
+    void importCreatesRepeatedUpcOnceThenUpdatesIt() {
+        // Given
+        when(apparelRepository.findAllByUpcIn(Set.of("1001"))).thenReturn(List.of());
+        List<Integer> savedBatchSizes = new ArrayList<>();
+        doAnswer(invocation -> {
+            List<Apparel> created = invocation.getArgument(0);
+            savedBatchSizes.add(created.size());
+            return created;
+        }).when(apparelRepository).saveAll(anyList());
+
+        // When
+        List<ApparelImportResultDto> results = importNdjson("""
+                {"apparelName":"First","apparelStyle":"Loose","upc":"1001","quantityOnHand":5,"price":19.99}
+                {"apparelName":"Second","apparelStyle":"Loose","upc":"1001","quantityOnHand":6,"price":19.99}
+                """);
+
+        // Then
+        assertThat(results).extracting(ApparelImportResultDto::getStatus).containsExactly(Status.CREATED, Status.UPDATED);
+        assertThat(savedBatchSizes).containsExactly(1);
+    }
+
+    @Test
+    void importReportsFailedChunkAndContinues() {
+        // Given
+        when(apparelRepository.findAllByUpcIn(any()))
+                .thenThrow(new DataIntegrityViolationException("boom"))
+                .thenReturn(List.of());
+
+        // When
+        List<ApparelImportResultDto> results = importNdjson("""
+                {"apparelName":"A","apparelStyle":"Loose","upc":"1","quantityOnHand":1,"price":1.00}
+                {"apparelName":"B","apparelStyle":"Loose","upc":"2","quantityOnHand":1,"price":1.00}
+                {"apparelName":"C","apparelStyle":"Loose","upc":"3","quantityOnHand":1,"price":1.00}
+                """);
+
+        // Then
+        assertThat(results).extracting(ApparelImportResultDto::getStatus)
+                .containsExactly(Status.FAILED, Status.FAILED, Status.CREATED);
+        verify(apparelSearchIndex, never()).index(any(), eq("A"), any());
+        verify(apparelSearchIndex, times(1)).index(any(), eq("C"), any());
+    }
+
+    private List<ApparelImportResultDto> importNdjson(String input) {
+        List<ApparelImportResultDto> results = new ArrayList<>();
+        apparelImportService.importApparels(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+                ApparelImportFormat.NDJSON, results::add);
+        return results;
+    }
+}
@@ -0,0 +1,185 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.OrderEventsProperties;
+import gh.z0736190100.apparelstore.models.OutboxEventDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ApparelOrderEventBroadcasterTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    ApparelOrderEventBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        // Room for every burst a test sends, so only a subscriber that is meant to fall behind is dropped
+        broadcaster = broadcaster(16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.shutdown();
+    }
+
+    @Test
+    void subscribersReceiveTheEventsOfTheOrdersTheyFollow() throws Exception {
+        // Given
+        RecordingSink orderSink = new RecordingSink();
+        RecordingSink firehoseSink = new RecordingSink();
+        broadcaster.subscribe(5, orderSink);
+        broadcaster.subscribeToAll(firehoseSink);
+
+        // When
+        broadcaster.onEvents(List.of(
+                event(1, OutboxPublisher.APPAREL_ORDER, 5, OutboxPublisher.APPAREL_ORDER_CREATED),
+                event(2, OutboxPublisher.APPAREL_ORDER, 6, OutboxPublisher.APPAREL_ORDER_CREATED),
+                event(3, OutboxPublisher.APPAREL, 5, OutboxPublisher.APPAREL_UPDATED)));
+        broadcaster.onEvents(List.of(
+                event(4, OutboxPublisher.APPAREL_ORDER, 5, OutboxPublisher.APPAREL_ORDER_SHIPMENT_CREATED)));
+
+        // Then
+        assertThat(orderSink.take().getId()).isEqualTo(1);
+        assertThat(orderSink.take().getId()).isEqualTo(4);
+        assertThat(firehoseSink.take().getId()).isEqualTo(1);
+        assertThat(firehoseSink.take().getId()).isEqualTo(2);
+        assertThat(firehoseSink.take().getId()).isEqualTo(4);
+        assertThat(orderSink.events).isEmpty();
+        assertThat(firehoseSink.events).isEmpty();
+    }
+
+    @Test
+    void aSubscriberThatFallsABufferBehindIsDropped() throws Exception {
+        broadcaster.shutdown();
+        meterRegistry = new SimpleMeterRegistry();
+        broadcaster = broadcaster(2);
+        // Given a subscriber stuck sending its first event
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink slowSink = new RecordingSink() {
+            @Override
+            public void send(OutboxEventDto event) throws IOException {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                super.send(event);
+            }
+        };
+        RecordingSink otherSink = new RecordingSink();
+        broadcaster.subscribe(5, slowSink);
+        broadcaster.subscribe(5, otherSink);
+        broadcaster.onEvents(List.of(event(1, OutboxPublisher.APPAREL_ORDER, 5, OutboxPublisher.APPAREL_ORDER_UPDATED)));
+        assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(otherSink.take().getId()).isEqualTo(1);
+
+        // When two more events fill its buffer and a third overflows it, one at a time so the other
+        // subscriber has drained each before the next arrives
+        for (int id = 2; id <= 4; id++) {
+            broadcaster.onEvents(List.of(event(id, OutboxPublisher.APPAREL_ORDER, 5, OutboxPublisher.APPAREL_ORDER_UPDATED)));
+            // The other subscriber is not held back
+            assertThat(otherSink.take().getId()).isEqualTo(id);
+        }
+
+        // Then
+        assertThat(slowSink.closed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(slowSink.dropped).isTrue();
+        assertThat(meterRegistry.get("apparel.order.events.dropped").counter().count()).isEqualTo(1);
+        assertThat(broadcaster.subscriberCount()).isEqualTo(1);
+        release.countDown();
+    }
+
+    @Test
+    void cancelledSubscriptionStopsReceivingEvents() throws Exception {
+        // Given
+        RecordingSink sink = new RecordingSink();
+        OutboxListeners.Subscription subscription = broadcaster.subscribe(5, sink);
+
+        // When
+        subscription.cancel();
+        broadcaster.onEvents(List.of(event(1, OutboxPublisher.APPAREL_ORDER, 5, OutboxPublisher.APPAREL_ORDER_UPDATED)));
+
+        // Then
+        assertThat(broadcaster.subscriberCount()).isZero();
+        assertThat(sink.events.poll(100, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(sink.closed.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void aSubscriberThatGoesAwayIsUnregistered() throws Exception {
+        // Given
+        RecordingSink goneSink = new RecordingSink() {
+            @Override
+            public void send(OutboxEventDto event) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        broadcaster.subscribeToAll(goneSink);
+
+        // When
+        broadcaster.onEvents(List.of(event(1, OutboxPublisher.APPAREL_ORDER, 5, OutboxPublisher.APPAREL_ORDER_UPDATED)));
+
+        // Then
+        assertThat(goneSink.closed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(goneSink.dropped).isFalse();
+        assertThat(broadcaster.subscriberCount()).isZero();
+    }
+
+    private ApparelOrderEventBroadcaster broadcaster(int bufferSize) {
+        return new ApparelOrderEventBroadcaster(
+                new OrderEventsProperties(bufferSize, Duration.ofMinutes(1), Duration.ofMinutes(30)), meterRegistry);
+    }
+
+    private static OutboxEventDto event(Integer id, String aggregateType, Integer aggregateId, String eventType) {
+        return OutboxEventDto.builder()
+                .id(id)
+                .aggregateType(aggregateType)
+                .aggregateId(aggregateId)
+                .eventType(eventType)
+                .payload("{\"id\":" + aggregateId + "}")
+                .build();
+    }
+
+    private static class RecordingSink implements ApparelOrderEventBroadcaster.EventSink {
+
+        final BlockingQueue<OutboxEventDto> events = new LinkedBlockingQueue<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile boolean dropped;
+
+        @Override
+        public void send(OutboxEventDto event) throws IOException {
+            events.add(event);
+        }
+
+        @Override
+        public void heartbeat() {
+        }
+
+        @Override
+        public void close(boolean dropped) {
+            this.dropped = dropped;
+            closed.countDown();
+        }
+
+        OutboxEventDto take() throws InterruptedException {
+            OutboxEventDto event = events.poll(5, TimeUnit.SECONDS);
+            assertThat(event).isNotNull();
+            return event;
+        }
+    }
+}
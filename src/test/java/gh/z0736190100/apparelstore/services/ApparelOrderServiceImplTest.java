@@ -1,32 +1,64 @@
 package gh.z0736190100.apparelstore.services;
 
+import gh.z0736190100.apparelstore.config.ExportProperties;
 import gh.z0736190100.apparelstore.entities.Apparel;
 import gh.z0736190100.apparelstore.entities.ApparelOrder;
 import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
 import gh.z0736190100.apparelstore.entities.Customer;
+import gh.z0736190100.apparelstore.exceptions.ApparelOrderException;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
 import gh.z0736190100.apparelstore.mappers.ApparelOrderLineMapper;
 import gh.z0736190100.apparelstore.mappers.ApparelOrderMapper;
+import gh.z0736190100.apparelstore.models.ApparelOrderClaimDto;
+import gh.z0736190100.apparelstore.models.ApparelOrderDetailDto;
 import gh.z0736190100.apparelstore.models.ApparelOrderDto;
 import gh.z0736190100.apparelstore.models.ApparelOrderLineDto;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
 import gh.z0736190100.apparelstore.models.CustomerDto;
+import gh.z0736190100.apparelstore.models.SliceDto;
+import gh.z0736190100.apparelstore.repositories.AllocatedStockView;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderLineRepository;
 import gh.z0736190100.apparelstore.repositories.ApparelOrderRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderShipmentRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderVersionView;
 import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -37,6 +69,12 @@ class ApparelOrderServiceImplTest {
     @Mock
     ApparelOrderRepository apparelOrderRepository;
 
+    @Mock
+    ApparelOrderLineRepository apparelOrderLineRepository;
+
+    @Mock
+    ApparelOrderShipmentRepository apparelOrderShipmentRepository;
+
     @Mock
     ApparelRepository apparelRepository;
 
@@ -46,6 +84,30 @@ class ApparelOrderServiceImplTest {
     @Mock
     ApparelOrderLineMapper apparelOrderLineMapper;
 
+    @Mock
+    ListingCountCache listingCountCache;
+
+    @Spy
+    LookupCoalescer lookupCoalescer = new LookupCoalescer(new SimpleMeterRegistry());
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    @Spy
+    ExportProperties exportProperties = new ExportProperties(2);
+
+    @Mock
+    EntityManager entityManager;
+
+    @Mock
+    CatalogVersion catalogVersion;
+
+    @Mock
+    StockReservationManager stockReservationManager;
+
+    @Mock
+    OutboxPublisher outboxPublisher;
+
     @InjectMocks
     ApparelOrderServiceImpl apparelOrderService;
 
@@ -106,7 +168,7 @@ class ApparelOrderServiceImplTest {
         testApparelOrder = ApparelOrder.builder()
                 .customer(testCustomer)
                 .paymentAmount(new BigDecimal("25.98"))
-                .status("NEW")
+                .status(ApparelOrderStatus.NEW)
                 .build();
         testApparelOrder.setId(1);
         testApparelOrder.addApparelOrderLine(testApparelOrderLine);
@@ -138,48 +200,199 @@ class ApparelOrderServiceImplTest {
     @Test
     void getAllApparelOrders() {
         // Given
-        when(apparelOrderRepository.findAll()).thenReturn(Arrays.asList(testApparelOrder));
+        when(apparelOrderRepository.findAllWithCustomer()).thenReturn(Arrays.asList(testApparelOrder));
         when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
 
         // When
-        List<ApparelOrderDto> apparelOrders = apparelOrderService.getAllApparelOrders();
+        List<ApparelOrderDto> apparelOrders = apparelOrderService.getAllApparelOrders(false);
 
         // Then
         assertThat(apparelOrders).hasSize(1);
         assertThat(apparelOrders.get(0).getCustomer()).isNotNull();
         assertThat(apparelOrders.get(0).getCustomer().getName()).isEqualTo("Test Customer");
-        verify(apparelOrderRepository, times(1)).findAll();
+        verify(apparelOrderRepository, times(1)).findAllWithCustomer();
         verify(apparelOrderMapper, times(1)).apparelOrderToApparelOrderDto(any(ApparelOrder.class));
     }
 
+    @Test
+    void exportApparelOrdersLoadsEachChunkWithFetchPlan() {
+        // Given
+        ApparelOrder firstOrder = ApparelOrder.builder().build();
+        firstOrder.setId(1);
+        ApparelOrder secondOrder = ApparelOrder.builder().build();
+        secondOrder.setId(2);
+        ApparelOrder thirdOrder = ApparelOrder.builder().build();
+        thirdOrder.setId(3);
+
+        when(apparelOrderRepository.streamAllIds()).thenReturn(Stream.of(1, 2, 3));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1, 2))).thenReturn(List.of(secondOrder, firstOrder));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(3))).thenReturn(List.of(thirdOrder));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(any(ApparelOrder.class)))
+                .thenAnswer(invocation -> ApparelOrderDto.builder().id(invocation.<ApparelOrder>getArgument(0).getId()).build());
+
+        // When
+        List<ApparelOrderDto> exported = new ArrayList<>();
+        apparelOrderService.exportApparelOrders(exported::add);
+
+        // Then
+        assertThat(exported).extracting(ApparelOrderDto::getId).containsExactly(1, 2, 3);
+        verify(apparelOrderRepository, times(2)).findWithShipmentsByIdIn(any());
+        verify(entityManager, times(2)).clear();
+        verify(apparelOrderRepository, never()).findAllWithCustomer();
+    }
+
+    @Test
+    void getApparelOrderSlice() {
+        // Given
+        Pageable pageable = PageRequest.of(0, 20);
+        when(apparelOrderRepository.findSliceBy(pageable)).thenReturn(new SliceImpl<>(List.of(testApparelOrder), pageable, false));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+        when(listingCountCache.count(any(), any(), any())).thenReturn(1L);
+
+        // When
+        SliceDto<ApparelOrderDto> result = apparelOrderService.getApparelOrderSlice(pageable, true, false);
+
+        // Then
+        assertThat(result.getContent()).hasSize(1);
+        assertThat(result.isHasNext()).isFalse();
+        assertThat(result.getTotalElements()).isEqualTo(1L);
+        verify(apparelOrderRepository, times(1)).findSliceBy(pageable);
+    }
+
+    @Test
+    void getApparelOrdersAfterFirstPage() {
+        // Given
+        ApparelOrder olderOrder = ApparelOrder.builder().status(ApparelOrderStatus.NEW).build();
+        olderOrder.setId(1);
+        ApparelOrder newerOrder = ApparelOrder.builder().status(ApparelOrderStatus.NEW).build();
+        newerOrder.setId(2);
+        ApparelOrderDto olderOrderDto = ApparelOrderDto.builder().id(1).build();
+        ApparelOrderDto newerOrderDto = ApparelOrderDto.builder().id(2).build();
+
+        when(apparelOrderRepository.findFirstIdPage(ApparelOrderStatus.NEW, null, Limit.of(3))).thenReturn(List.of(2, 1));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(2, 1))).thenReturn(List.of(olderOrder, newerOrder));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(olderOrder)).thenReturn(olderOrderDto);
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(newerOrder)).thenReturn(newerOrderDto);
+
+        // When
+        CursorPageDto<ApparelOrderDto> result = apparelOrderService.getApparelOrdersAfter(ApparelOrderStatus.NEW, null, null, 2, false);
+
+        // Then
+        assertThat(result.getContent()).extracting(ApparelOrderDto::getId).containsExactly(2, 1);
+        assertThat(result.isHasNext()).isFalse();
+        assertThat(result.getNextCursor()).isNull();
+        verify(apparelOrderRepository, times(1)).findWithShipmentsByIdIn(List.of(2, 1));
+        verify(apparelOrderRepository, never()).findAllWithCustomer();
+    }
+
+    @Test
+    void getApparelOrdersAfterCursor() {
+        // Given
+        String after = new KeysetCursor("", 10).encode();
+        when(apparelOrderRepository.findIdPageBefore(null, 1, 10, Limit.of(2))).thenReturn(List.of(9, 8));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(9))).thenReturn(List.of(testApparelOrder));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        CursorPageDto<ApparelOrderDto> result = apparelOrderService.getApparelOrdersAfter(null, 1, after, 1, false);
+
+        // Then
+        assertThat(result.getContent()).hasSize(1);
+        assertThat(result.isHasNext()).isTrue();
+        assertThat(KeysetCursor.decode(result.getNextCursor()).id()).isEqualTo(9);
+        verify(apparelOrderRepository, never()).findFirstIdPage(any(), any(), any());
+    }
+
+    @Test
+    void getApparelOrdersAfterEmptyPage() {
+        // Given
+        when(apparelOrderRepository.findFirstIdPage(null, null, Limit.of(21))).thenReturn(List.of());
+
+        // When
+        CursorPageDto<ApparelOrderDto> result = apparelOrderService.getApparelOrdersAfter(null, null, null, 20, false);
+
+        // Then
+        assertThat(result.getContent()).isEmpty();
+        assertThat(result.isHasNext()).isFalse();
+        verify(apparelOrderRepository, never()).findWithLinesByIdIn(any());
+    }
+
     @Test
     void getApparelOrderById() {
         // Given
-        when(apparelOrderRepository.findById(1)).thenReturn(Optional.of(testApparelOrder));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
         when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
 
         // When
-        Optional<ApparelOrderDto> apparelOrderOptional = apparelOrderService.getApparelOrderById(1);
+        Optional<ApparelOrderDto> apparelOrderOptional = apparelOrderService.getApparelOrderById(1, false);
 
         // Then
         assertThat(apparelOrderOptional).isPresent();
         assertThat(apparelOrderOptional.get().getCustomer()).isNotNull();
         assertThat(apparelOrderOptional.get().getCustomer().getName()).isEqualTo("Test Customer");
-        verify(apparelOrderRepository, times(1)).findById(1);
+        verify(apparelOrderRepository, times(1)).findWithShipmentsByIdIn(List.of(1));
+        verify(apparelOrderRepository, never()).findById(any());
         verify(apparelOrderMapper, times(1)).apparelOrderToApparelOrderDto(any(ApparelOrder.class));
     }
 
     @Test
     void getApparelOrderByIdNotFound() {
         // Given
-        when(apparelOrderRepository.findById(1)).thenReturn(Optional.empty());
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of());
 
         // When
-        Optional<ApparelOrderDto> apparelOrderOptional = apparelOrderService.getApparelOrderById(1);
+        Optional<ApparelOrderDto> apparelOrderOptional = apparelOrderService.getApparelOrderById(1, false);
 
         // Then
         assertThat(apparelOrderOptional).isEmpty();
-        verify(apparelOrderRepository, times(1)).findById(1);
+        verify(apparelOrderMapper, never()).apparelOrderToApparelOrderDto(any());
+    }
+
+    @Test
+    void getApparelOrderByIdWithCustomer() {
+        // Given
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDtoWithCustomer(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        Optional<ApparelOrderDto> apparelOrderOptional = apparelOrderService.getApparelOrderById(1, true);
+
+        // Then
+        assertThat(apparelOrderOptional).contains(testApparelOrderDto);
+        verify(apparelOrderMapper, never()).apparelOrderToApparelOrderDto(any());
+    }
+
+    @Test
+    void getApparelOrderDetailById() {
+        // Given
+        ApparelOrderDetailDto detail = ApparelOrderDetailDto.builder()
+                .id(1)
+                .customerId(1)
+                .customerName("Test Customer")
+                .build();
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDetailDto(testApparelOrder)).thenReturn(detail);
+
+        // When
+        Optional<ApparelOrderDetailDto> detailOptional = apparelOrderService.getApparelOrderDetailById(1);
+
+        // Then
+        assertThat(detailOptional).contains(detail);
+        verify(apparelOrderRepository).findWithShipmentsByIdIn(List.of(1));
+        verify(apparelOrderRepository, never()).findById(any());
+    }
+
+    @Test
+    void getApparelOrderDetailByIdNotFound() {
+        // Given
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(99))).thenReturn(List.of());
+
+        // When
+        Optional<ApparelOrderDetailDto> detailOptional = apparelOrderService.getApparelOrderDetailById(99);
+
+        // Then
+        assertThat(detailOptional).isEmpty();
+        verify(apparelOrderMapper, never()).apparelOrderToApparelOrderDetailDto(any());
     }
 
     @Test
@@ -187,7 +400,7 @@ class ApparelOrderServiceImplTest {
         // Given
         when(apparelOrderMapper.apparelOrderDtoToApparelOrder(testApparelOrderDto)).thenReturn(testApparelOrder);
         when(apparelOrderLineMapper.apparelOrderLineDtoToApparelOrderLine(any(ApparelOrderLineDto.class))).thenReturn(testApparelOrderLine);
-        when(apparelRepository.findById(1)).thenReturn(Optional.of(testApparel));
+        when(apparelRepository.findAllById(Set.of(1))).thenReturn(List.of(testApparel));
         when(apparelOrderRepository.save(any(ApparelOrder.class))).thenReturn(testApparelOrder);
         when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
 
@@ -201,14 +414,514 @@ class ApparelOrderServiceImplTest {
         verify(apparelOrderMapper, times(1)).apparelOrderDtoToApparelOrder(any(ApparelOrderDto.class));
         verify(apparelOrderRepository, times(1)).save(any(ApparelOrder.class));
         verify(apparelOrderMapper, times(1)).apparelOrderToApparelOrderDto(any(ApparelOrder.class));
+        verify(apparelRepository, times(1)).findAllById(Set.of(1));
+        verify(apparelRepository, never()).findById(any());
+        verify(entityManager).getReference(Customer.class, 1);
+        verify(outboxPublisher).publish(OutboxPublisher.APPAREL_ORDER, 1,
+                OutboxPublisher.APPAREL_ORDER_CREATED, testApparelOrderDto);
+    }
+
+    @Test
+    void saveApparelOrderAttachesTheCustomerByReference() {
+        // Given an order naming its customer by ID only
+        ApparelOrderDto byCustomerId = ApparelOrderDto.builder()
+                .customerId(7)
+                .paymentAmount(new BigDecimal("25.98"))
+                .apparelOrderLines(Set.of(testApparelOrderLineDto))
+                .build();
+        Customer reference = new Customer();
+        reference.setId(7);
+        ApparelOrder apparelOrder = ApparelOrder.builder().build();
+        when(apparelOrderMapper.apparelOrderDtoToApparelOrder(byCustomerId)).thenReturn(apparelOrder);
+        when(apparelOrderLineMapper.apparelOrderLineDtoToApparelOrderLine(any(ApparelOrderLineDto.class))).thenReturn(testApparelOrderLine);
+        when(apparelRepository.findAllById(Set.of(1))).thenReturn(List.of(testApparel));
+        when(entityManager.getReference(Customer.class, 7)).thenReturn(reference);
+        when(apparelOrderRepository.save(apparelOrder)).thenReturn(apparelOrder);
+
+        // When
+        apparelOrderService.saveApparelOrder(byCustomerId);
+
+        // Then
+        assertThat(apparelOrder.getCustomer()).isSameAs(reference);
+    }
+
+    @Test
+    void saveApparelOrderResolvesAllLinesWithOneQuery() {
+        // Given
+        Set<ApparelOrderLineDto> lines = new HashSet<>();
+        for (int apparelId = 1; apparelId <= 3; apparelId++) {
+            lines.add(ApparelOrderLineDto.builder().apparelId(apparelId).orderQuantity(1).build());
+        }
+        lines.add(ApparelOrderLineDto.builder().apparelId(1).orderQuantity(4).build());
+        testApparelOrderDto.setApparelOrderLines(lines);
+        List<Apparel> apparels = List.of(apparelWithId(1), apparelWithId(2), apparelWithId(3));
+
+        when(apparelOrderMapper.apparelOrderDtoToApparelOrder(testApparelOrderDto)).thenReturn(new ApparelOrder());
+        when(apparelOrderLineMapper.apparelOrderLineDtoToApparelOrderLine(any(ApparelOrderLineDto.class)))
+                .thenAnswer(invocation -> new ApparelOrderLine());
+        when(apparelRepository.findAllById(Set.of(1, 2, 3))).thenReturn(apparels);
+        when(apparelOrderRepository.save(any(ApparelOrder.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // When
+        apparelOrderService.saveApparelOrder(testApparelOrderDto);
+
+        // Then
+        ArgumentCaptor<ApparelOrder> savedOrder = ArgumentCaptor.forClass(ApparelOrder.class);
+        verify(apparelOrderRepository).save(savedOrder.capture());
+        assertThat(savedOrder.getValue().getApparelOrderLines())
+                .extracting(line -> line.getApparel().getId())
+                .containsExactlyInAnyOrder(1, 1, 2, 3);
+        verify(apparelRepository, times(1)).findAllById(Set.of(1, 2, 3));
+    }
+
+    @Test
+    void saveApparelOrderReportsAllUnknownApparelIds() {
+        // Given
+        Set<ApparelOrderLineDto> lines = new HashSet<>();
+        for (int apparelId : List.of(1, 7, 9)) {
+            lines.add(ApparelOrderLineDto.builder().apparelId(apparelId).orderQuantity(1).build());
+        }
+        testApparelOrderDto.setApparelOrderLines(lines);
+
+        when(apparelOrderMapper.apparelOrderDtoToApparelOrder(testApparelOrderDto)).thenReturn(new ApparelOrder());
+        when(apparelRepository.findAllById(Set.of(1, 7, 9))).thenReturn(List.of(testApparel));
+
+        // When / Then
+        assertThatThrownBy(() -> apparelOrderService.saveApparelOrder(testApparelOrderDto))
+                .isInstanceOf(ApparelOrderException.class)
+                .hasMessageContaining("[7, 9]");
+        verify(apparelOrderRepository, never()).save(any());
+        verify(listingCountCache, never()).invalidate(any());
+    }
+
+    @Test
+    void updateApparelOrderAppliesOnlyLineDifferences() {
+        // Given
+        ApparelOrderLine removedLine = ApparelOrderLine.builder()
+                .orderQuantity(1)
+                .apparel(apparelWithId(2))
+                .build();
+        removedLine.setId(2);
+        testApparelOrder.addApparelOrderLine(removedLine);
+
+        testApparelOrderLineDto.setOrderQuantity(5);
+        ApparelOrderLineDto addedLineDto = ApparelOrderLineDto.builder().apparelId(3).orderQuantity(1).build();
+        testApparelOrderDto.getApparelOrderLines().add(addedLineDto);
+        ApparelOrderLine addedLine = new ApparelOrderLine();
+
+        when(apparelOrderRepository.claimIfVersion(1, 2, 1, 3L, 0L)).thenReturn(1);
+        when(apparelOrderRepository.findVersionById(1)).thenReturn(Optional.of(versions(3, 1, 4L, 0L)));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        when(apparelRepository.findAllById(Set.of(3))).thenReturn(List.of(apparelWithId(3)));
+        when(apparelOrderLineMapper.apparelOrderLineDtoToApparelOrderLine(addedLineDto)).thenReturn(addedLine);
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        Optional<ApparelOrderService.VersionedApparelOrder> result =
+                apparelOrderService.updateApparelOrder(1, testApparelOrderDto, "2.1.3.0");
+
+        // Then the new version token is read after the changes are flushed
+        assertThat(result).contains(new ApparelOrderService.VersionedApparelOrder(testApparelOrderDto, "3.1.4.0"));
+        assertThat(testApparelOrder.getApparelOrderLines()).containsExactlyInAnyOrder(testApparelOrderLine, addedLine);
+        assertThat(addedLine.getApparel().getId()).isEqualTo(3);
+        assertThat(addedLine.getApparelOrder()).isSameAs(testApparelOrder);
+        assertThat(removedLine.getApparelOrder()).isNull();
+        verify(apparelOrderMapper).updateApparelOrderFromDto(testApparelOrderDto, testApparelOrder);
+        verify(apparelOrderLineMapper).updateApparelOrderLineFromDto(testApparelOrderLineDto, testApparelOrderLine);
+        verify(apparelOrderRepository, never()).save(any());
+        verify(apparelOrderRepository).flush();
+        verify(entityManager, never()).getReference(any(), any());
+        verify(catalogVersion).changed();
+    }
+
+    @Test
+    void updateApparelOrderConfirmsHeldStockOncePaid() {
+        // Given
+        testApparelOrder.setStatus(ApparelOrderStatus.NEW);
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(1);
+        when(apparelOrderRepository.findVersionById(1)).thenReturn(Optional.of(versions(3, 1, 4L, 0L)));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        doAnswer(invocation -> {
+            testApparelOrder.setStatus(ApparelOrderStatus.PAID);
+            return null;
+        }).when(apparelOrderMapper).updateApparelOrderFromDto(testApparelOrderDto, testApparelOrder);
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        apparelOrderService.updateApparelOrder(1, testApparelOrderDto, null);
+
+        // Then
+        verify(stockReservationManager).confirm(1);
+        verify(outboxPublisher).publish(OutboxPublisher.APPAREL_ORDER, 1, OutboxPublisher.APPAREL_ORDER_UPDATED,
+                testApparelOrderDto);
+    }
+
+    @Test
+    void updateApparelOrderLeavesHeldStockOfCancelledOrdersToExpire() {
+        // Given
+        testApparelOrder.setStatus(ApparelOrderStatus.NEW);
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(1);
+        when(apparelOrderRepository.findVersionById(1)).thenReturn(Optional.of(versions(3, 1, 4L, 0L)));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        doAnswer(invocation -> {
+            testApparelOrder.setStatus(ApparelOrderStatus.CANCELLED);
+            return null;
+        }).when(apparelOrderMapper).updateApparelOrderFromDto(testApparelOrderDto, testApparelOrder);
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        apparelOrderService.updateApparelOrder(1, testApparelOrderDto, null);
+
+        // Then
+        verify(stockReservationManager, never()).confirm(any());
+    }
+
+    @Test
+    void updateApparelOrderMovesLineToAnotherApparel() {
+        // Given
+        testApparelOrderLineDto.setApparelId(4);
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(1);
+        when(apparelOrderRepository.findVersionById(1)).thenReturn(Optional.of(versions(3, 1, 4L, 0L)));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        when(apparelRepository.findAllById(Set.of(4))).thenReturn(List.of(apparelWithId(4)));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        apparelOrderService.updateApparelOrder(1, testApparelOrderDto, null);
+
+        // Then the stock taken from the old apparel goes back to it
+        assertThat(testApparelOrder.getApparelOrderLines()).containsExactly(testApparelOrderLine);
+        assertThat(testApparelOrderLine.getApparel().getId()).isEqualTo(4);
+        assertThat(testApparelOrderLine.getQuantityAllocated()).isZero();
+        assertThat(testApparelOrderLine.getStatus()).isEqualTo(StockReservationManager.RELEASED);
+        verify(stockReservationManager).returnStock(Map.of(1, 2), Map.of(1, 2));
+        verify(apparelOrderLineMapper, never()).apparelOrderLineDtoToApparelOrderLine(any());
+    }
+
+    @Test
+    void updateApparelOrderReturnsTheStockOfALowerQuantity() {
+        // Given
+        testApparelOrderLine.setOrderQuantity(5);
+        testApparelOrderLine.setQuantityAllocated(5);
+        testApparelOrderLineDto.setOrderQuantity(2);
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(1);
+        when(apparelOrderRepository.findVersionById(1)).thenReturn(Optional.of(versions(3, 1, 4L, 0L)));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        doAnswer(invocation -> {
+            testApparelOrderLine.setOrderQuantity(2);
+            return null;
+        }).when(apparelOrderLineMapper).updateApparelOrderLineFromDto(testApparelOrderLineDto, testApparelOrderLine);
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        apparelOrderService.updateApparelOrder(1, testApparelOrderDto, null);
+
+        // Then
+        assertThat(testApparelOrderLine.getQuantityAllocated()).isEqualTo(2);
+        assertThat(testApparelOrderLine.getStatus()).isEqualTo(InventoryAllocationServiceImpl.ALLOCATED);
+        verify(stockReservationManager).returnStock(Map.of(1, 3), Map.of(1, 3));
+    }
+
+    @Test
+    void updateApparelOrderLeavesAHigherQuantityToTheNextAllocation() {
+        // Given
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(1);
+        when(apparelOrderRepository.findVersionById(1)).thenReturn(Optional.of(versions(3, 1, 4L, 0L)));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        doAnswer(invocation -> {
+            testApparelOrderLine.setOrderQuantity(5);
+            return null;
+        }).when(apparelOrderLineMapper).updateApparelOrderLineFromDto(testApparelOrderLineDto, testApparelOrderLine);
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        apparelOrderService.updateApparelOrder(1, testApparelOrderDto, null);
+
+        // Then
+        assertThat(testApparelOrderLine.getQuantityAllocated()).isEqualTo(2);
+        assertThat(testApparelOrderLine.getStatus()).isEqualTo(InventoryAllocationServiceImpl.PARTIALLY_ALLOCATED);
+        verify(stockReservationManager).returnStock(Map.of(), Map.of());
+    }
+
+    @Test
+    void updateApparelOrderReturnsTheStockOfRemovedLinesUnlessShipped() {
+        // Given
+        testApparelOrder.setStatus(ApparelOrderStatus.COMPLETE);
+        testApparelOrderDto.getApparelOrderLines().clear();
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(1);
+        when(apparelOrderRepository.findVersionById(1)).thenReturn(Optional.of(versions(3, 1, 4L, 0L)));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        apparelOrderService.updateApparelOrder(1, testApparelOrderDto, null);
+
+        // Then
+        assertThat(testApparelOrder.getApparelOrderLines()).isEmpty();
+        verify(stockReservationManager).returnStock(Map.of(), Map.of());
+    }
+
+    @Test
+    void updateApparelOrderReturnsTheStockOfRemovedLines() {
+        // Given
+        testApparelOrderDto.getApparelOrderLines().clear();
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(1);
+        when(apparelOrderRepository.findVersionById(1)).thenReturn(Optional.of(versions(3, 1, 4L, 0L)));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        apparelOrderService.updateApparelOrder(1, testApparelOrderDto, null);
+
+        // Then
+        assertThat(testApparelOrder.getApparelOrderLines()).isEmpty();
+        verify(stockReservationManager).returnStock(Map.of(1, 2), Map.of(1, 2));
+    }
+
+    @Test
+    void updateApparelOrderRejectsLinesOfOtherOrders() {
+        // Given
+        testApparelOrderLineDto.setId(99);
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(1);
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+
+        // When / Then
+        assertThatThrownBy(() -> apparelOrderService.updateApparelOrder(1, testApparelOrderDto, null))
+                .isInstanceOf(ApparelOrderException.class)
+                .hasMessageContaining("[99]");
+        verify(apparelOrderRepository, never()).flush();
+        verify(catalogVersion, never()).changed();
+    }
+
+    @Test
+    void updateApparelOrderStaleVersion() {
+        // Given a line changed since the token was handed out, so the guarded UPDATE matches nothing
+        when(apparelOrderRepository.claimIfVersion(1, 2, 1, 3L, 0L)).thenReturn(0);
+        when(apparelOrderRepository.existsById(1)).thenReturn(true);
+
+        // When / Then
+        assertThatThrownBy(() -> apparelOrderService.updateApparelOrder(1, testApparelOrderDto, "2.1.3.0"))
+                .isInstanceOf(PreconditionFailedException.class);
+        verify(apparelOrderRepository, never()).findVersionById(any());
+        verify(apparelOrderRepository, never()).findWithLinesByIdIn(any());
+    }
+
+    @Test
+    void updateApparelOrderMalformedVersion() {
+        // Given
+        when(apparelOrderRepository.existsById(1)).thenReturn(true);
+
+        // When / Then
+        assertThatThrownBy(() -> apparelOrderService.updateApparelOrder(1, testApparelOrderDto, "2.x.3.0"))
+                .isInstanceOf(PreconditionFailedException.class);
+        verify(apparelOrderRepository, never()).claimIfVersion(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void updateApparelOrderNotFound() {
+        // Given
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(0);
+
+        // When
+        Optional<ApparelOrderService.VersionedApparelOrder> result =
+                apparelOrderService.updateApparelOrder(1, testApparelOrderDto, null);
+
+        // Then
+        assertThat(result).isEmpty();
+        verify(apparelOrderRepository, never()).findWithLinesByIdIn(any());
     }
 
     @Test
     void deleteApparelOrderById() {
+        // Given
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(1);
+
         // When
-        apparelOrderService.deleteApparelOrderById(1);
+        boolean deleted = apparelOrderService.deleteApparelOrderById(1, null);
 
         // Then
-        verify(apparelOrderRepository, times(1)).deleteById(1);
+        assertThat(deleted).isTrue();
+        verify(apparelOrderLineRepository, times(1)).deleteByApparelOrderId(1);
+        verify(apparelOrderShipmentRepository, times(1)).deleteByApparelOrderId(1);
+        verify(apparelOrderRepository, times(1)).deleteOrderRowById(1);
+        verify(apparelOrderRepository, never()).findById(any());
+        verify(catalogVersion, times(1)).changed();
+        verify(outboxPublisher).publish(OutboxPublisher.APPAREL_ORDER, 1, OutboxPublisher.APPAREL_ORDER_DELETED,
+                Map.of("id", 1));
+    }
+
+    @Test
+    void deleteApparelOrderByIdReturnsAllocatedStock() {
+        // Given two lines of apparel 7 and one of apparel 3
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(1);
+        when(apparelOrderLineRepository.findAllocatedStockByApparelOrderId(1, ApparelOrderStatus.COMPLETE))
+                .thenReturn(List.of(allocatedStock(10, 7, 2), allocatedStock(11, 3, 1), allocatedStock(12, 7, 4)));
+
+        // When
+        boolean deleted = apparelOrderService.deleteApparelOrderById(1, null);
+
+        // Then the stock goes back before the lines are deleted
+        assertThat(deleted).isTrue();
+        InOrder order = inOrder(stockReservationManager, apparelOrderLineRepository);
+        order.verify(stockReservationManager).returnStock(Map.of(10, 2, 11, 1, 12, 4), Map.of(7, 6, 3, 1));
+        order.verify(apparelOrderLineRepository).deleteByApparelOrderId(1);
+    }
+
+    @Test
+    void deleteApparelOrderByIdNotFound() {
+        // Given
+        when(apparelOrderRepository.claimIfVersion(1, null, null, null, null)).thenReturn(0);
+
+        // When
+        boolean deleted = apparelOrderService.deleteApparelOrderById(1, null);
+
+        // Then
+        assertThat(deleted).isFalse();
+        verify(apparelOrderRepository, never()).deleteOrderRowById(any());
+        verify(catalogVersion, never()).changed();
+    }
+
+    @Test
+    void deleteApparelOrderByIdStaleVersion() {
+        // Given
+        when(apparelOrderRepository.claimIfVersion(1, 2, 1, 3L, 0L)).thenReturn(0);
+        when(apparelOrderRepository.existsById(1)).thenReturn(true);
+
+        // When / Then
+        assertThatThrownBy(() -> apparelOrderService.deleteApparelOrderById(1, "2.1.3.0"))
+                .isInstanceOf(PreconditionFailedException.class);
+        verify(apparelOrderLineRepository, never()).deleteByApparelOrderId(any());
+        verify(apparelOrderRepository, never()).deleteOrderRowById(any());
+    }
+
+    @Test
+    void claimApparelOrdersReturnsOnlyTheOrdersLeasedWithTheToken() {
+        // Given two candidates, one of which another worker leases first
+        when(apparelOrderRepository.findClaimableIds(eq(ApparelOrderStatus.PAID), any(), eq(Limit.of(2))))
+                .thenReturn(List.of(1, 2));
+        when(apparelOrderRepository.claimByIdIn(eq(List.of(1, 2)), eq(ApparelOrderStatus.PAID), any(), any(), any()))
+                .thenReturn(1);
+        when(apparelOrderRepository.findIdsByClaimToken(any())).thenReturn(List.of(1));
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(testApparelOrder));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(testApparelOrder)).thenReturn(testApparelOrderDto);
+
+        // When
+        ApparelOrderClaimDto claim = apparelOrderService.claimApparelOrders(ApparelOrderStatus.PAID, 2, Duration.ofMinutes(5));
+
+        // Then
+        assertThat(claim.getApparelOrders()).containsExactly(testApparelOrderDto);
+        assertThat(claim.getClaimedUntil()).isAfter(LocalDateTime.now());
+        ArgumentCaptor<String> claimToken = ArgumentCaptor.forClass(String.class);
+        verify(apparelOrderRepository).claimByIdIn(eq(List.of(1, 2)), eq(ApparelOrderStatus.PAID),
+                claimToken.capture(), eq(claim.getClaimedUntil()), any());
+        assertThat(claimToken.getValue()).isEqualTo(claim.getClaimToken());
+        verify(apparelOrderRepository).findIdsByClaimToken(claim.getClaimToken());
+    }
+
+    @Test
+    void claimApparelOrdersWithNothingToClaim() {
+        // Given
+        when(apparelOrderRepository.findClaimableIds(eq(ApparelOrderStatus.PAID), any(), eq(Limit.of(10))))
+                .thenReturn(List.of());
+
+        // When
+        ApparelOrderClaimDto claim = apparelOrderService.claimApparelOrders(ApparelOrderStatus.PAID, 10, Duration.ofMinutes(5));
+
+        // Then
+        assertThat(claim.getApparelOrders()).isEmpty();
+        verify(apparelOrderRepository, never()).claimByIdIn(any(), any(), any(), any(), any());
+        verify(apparelOrderRepository, never()).findWithLinesByIdIn(any());
+    }
+
+    @Test
+    void releaseApparelOrderClaimMovesTheOrderToItsNewStatus() {
+        // Given
+        testApparelOrder.setStatus(ApparelOrderStatus.NEW);
+        testApparelOrder.setClaimToken("token");
+        testApparelOrder.setClaimedUntil(LocalDateTime.now().plusMinutes(5));
+        when(apparelOrderRepository.findByIdAndClaimToken(1, "token")).thenReturn(Optional.of(testApparelOrder));
+
+        // When
+        boolean released = apparelOrderService.releaseApparelOrderClaim(1, "token", ApparelOrderStatus.PAID);
+
+        // Then
+        assertThat(released).isTrue();
+        assertThat(testApparelOrder.getStatus()).isEqualTo(ApparelOrderStatus.PAID);
+        verify(stockReservationManager).confirm(1);
+        verify(catalogVersion).changed();
+        verify(apparelOrderRepository).releaseClaim(1, "token");
+        verify(outboxPublisher).publish(OutboxPublisher.APPAREL_ORDER, 1, OutboxPublisher.APPAREL_ORDER_STATUS_CHANGED,
+                Map.of("id", 1, "previousStatus", ApparelOrderStatus.NEW, "status", ApparelOrderStatus.PAID));
+    }
+
+    @Test
+    void releaseApparelOrderClaimAfterTheLeaseLapsed() {
+        // Given
+        testApparelOrder.setStatus(ApparelOrderStatus.PAID);
+        testApparelOrder.setClaimToken("token");
+        testApparelOrder.setClaimedUntil(LocalDateTime.now().minusSeconds(1));
+        when(apparelOrderRepository.findByIdAndClaimToken(1, "token")).thenReturn(Optional.of(testApparelOrder));
+
+        // When
+        boolean released = apparelOrderService.releaseApparelOrderClaim(1, "token", ApparelOrderStatus.INPROCESS);
+
+        // Then
+        assertThat(released).isFalse();
+        assertThat(testApparelOrder.getStatus()).isEqualTo(ApparelOrderStatus.PAID);
+        verify(apparelOrderRepository, never()).releaseClaim(any(), any());
+        verify(catalogVersion, never()).changed();
+        verify(outboxPublisher, never()).publish(any(), any(), any(), any());
+    }
+
+    private static AllocatedStockView allocatedStock(int lineId, int apparelId, int quantity) {
+        return new AllocatedStockView() {
+            @Override
+            public Integer getApparelOrderLineId() {
+                return lineId;
+            }
+
+            @Override
+            public Integer getApparelId() {
+                return apparelId;
+            }
+
+            @Override
+            public Integer getQuantityAllocated() {
+                return quantity;
+            }
+        };
+    }
+
+    private static ApparelOrderVersionView versions(Integer version, Integer customerVersion,
+                                                    Long linesVersion, Long shipmentsVersion) {
+        return new ApparelOrderVersionView() {
+            @Override
+            public Integer getVersion() {
+                return version;
+            }
+
+            @Override
+            public Integer getCustomerVersion() {
+                return customerVersion;
+            }
+
+            @Override
+            public Long getLinesVersion() {
+                return linesVersion;
+            }
+
+            @Override
+            public Long getShipmentsVersion() {
+                return shipmentsVersion;
+            }
+        };
+    }
+
+    private Apparel apparelWithId(int id) {
+        Apparel apparel = Apparel.builder()
+                .apparelName("Apparel " + id)
+                .build();
+        apparel.setId(id);
+        return apparel;
     }
 }
@@ -0,0 +1,181 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.entities.Apparel;
+import gh.z0736190100.apparelstore.entities.ApparelOrder;
+import gh.z0736190100.apparelstore.entities.ApparelOrderShipment;
+import gh.z0736190100.apparelstore.entities.Customer;
+import gh.z0736190100.apparelstore.mappers.CustomerMapper;
+import gh.z0736190100.apparelstore.models.ApparelOrderDetailDto;
+import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import gh.z0736190100.apparelstore.models.ApparelOrderLineDto;
+import gh.z0736190100.apparelstore.models.CustomerDto;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import gh.z0736190100.apparelstore.repositories.CustomerRepository;
+import gh.z0736190100.apparelstore.support.QueryCountInspector;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = QueryCountInspector.PROPERTY)
+@Transactional
+class ApparelOrderServiceQueryCountTest {
+
+    @Autowired
+    ApparelOrderService apparelOrderService;
+
+    @Autowired
+    ApparelRepository apparelRepository;
+
+    @Autowired
+    CustomerRepository customerRepository;
+
+    @Autowired
+    CustomerMapper customerMapper;
+
+    @Autowired
+    EntityManager entityManager;
+
+    CustomerDto customerDto;
+    List<Apparel> apparels;
+
+    @BeforeEach
+    void setUp() {
+        Customer customer = customerRepository.save(Customer.builder()
+                .name("Wholesale Customer")
+                .email("wholesale@example.com")
+                .phoneNumber("555-123-4567")
+                .addressLine1("123 Main St")
+                .city("Springfield")
+                .state("IL")
+                .postalCode("62701")
+                .build());
+        customerDto = customerMapper.customerToCustomerDto(customer);
+
+        apparels = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            apparels.add(apparelRepository.save(Apparel.builder()
+                    .apparelName("Query Count Apparel " + i)
+                    .apparelStyle("Loose")
+                    .upc("QC" + i)
+                    .price(new BigDecimal("9.99"))
+                    .quantityOnHand(100)
+                    .build()));
+        }
+
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void saveApparelOrderSelectCountDoesNotGrowWithLineCount() {
+        int singleLineSelects = selectsToSave(1);
+        int wholesaleSelects = selectsToSave(50);
+
+        assertThat(wholesaleSelects).isEqualTo(singleLineSelects);
+    }
+
+    @Test
+    void saveApparelOrderBatchesLineInserts() {
+        saveOrder(50);
+
+        // One batched statement for the order, one per batch of up to 50 lines and one for the outbox event
+        assertThat(QueryCountInspector.insertCount()).isLessThanOrEqualTo(3);
+        // Line IDs come from one pooled block rather than one round trip per line
+        assertThat(QueryCountInspector.sequenceCallCount()).isLessThanOrEqualTo(5);
+    }
+
+    @Test
+    void updateApparelOrderOnlyWritesTheChangedLine() {
+        ApparelOrderDto saved = saveOrder(50);
+        entityManager.clear();
+        saved.getApparelOrderLines().iterator().next().setOrderQuantity(2);
+
+        QueryCountInspector.reset();
+        apparelOrderService.updateApparelOrder(saved.getId(), saved, null);
+        entityManager.flush();
+
+        // The claim of the order row and the changed line; no line is deleted and re-inserted
+        assertThat(QueryCountInspector.updateCount()).isEqualTo(2);
+        assertThat(QueryCountInspector.deleteCount()).isZero();
+        // The only insert is the outbox event announcing the update
+        assertThat(QueryCountInspector.insertCount()).isEqualTo(1);
+    }
+
+    @Test
+    void getApparelOrderDetailByIdLoadsTheAggregateInTwoQueries() {
+        ApparelOrderDto saved = saveOrder(50);
+        for (int i = 0; i < 3; i++) {
+            entityManager.persist(ApparelOrderShipment.builder()
+                    .apparelOrder(entityManager.getReference(ApparelOrder.class, saved.getId()))
+                    .shipmentDate(LocalDateTime.now().minusDays(i))
+                    .carrier("UPS")
+                    .trackingNumber("1Z" + i)
+                    .build());
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        QueryCountInspector.reset();
+        ApparelOrderDetailDto detail = apparelOrderService.getApparelOrderDetailById(saved.getId()).orElseThrow();
+
+        // The order with its customer, lines and line apparels, then its shipments; no lazy load per line
+        assertThat(QueryCountInspector.selectCount()).isLessThanOrEqualTo(2);
+        assertThat(detail.getCustomerName()).isEqualTo("Wholesale Customer");
+        assertThat(detail.getLines()).hasSize(50);
+        assertThat(detail.getLines()).allSatisfy(line -> assertThat(line.getApparelName()).isNotNull());
+        assertThat(detail.getShipments()).hasSize(3);
+    }
+
+    @Test
+    void getApparelOrderByIdLoadsTheAggregateInTwoQueries() {
+        ApparelOrderDto saved = saveOrder(50);
+        entityManager.clear();
+
+        QueryCountInspector.reset();
+        ApparelOrderDto apparelOrder = apparelOrderService.getApparelOrderById(saved.getId(), false).orElseThrow();
+
+        assertThat(QueryCountInspector.selectCount()).isLessThanOrEqualTo(2);
+        assertThat(apparelOrder.getApparelOrderLines()).hasSize(50);
+    }
+
+    private int selectsToSave(int lineCount) {
+        saveOrder(lineCount);
+        int selects = QueryCountInspector.selectCount();
+
+        entityManager.clear();
+        return selects;
+    }
+
+    private ApparelOrderDto saveOrder(int lineCount) {
+        Set<ApparelOrderLineDto> lines = new HashSet<>();
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(ApparelOrderLineDto.builder()
+                    .apparelId(apparels.get(i).getId())
+                    .orderQuantity(1)
+                    .build());
+        }
+        ApparelOrderDto order = ApparelOrderDto.builder()
+                .customer(customerDto)
+                .paymentAmount(new BigDecimal("9.99"))
+                .status("NEW")
+                .apparelOrderLines(lines)
+                .build();
+
+        QueryCountInspector.reset();
+        ApparelOrderDto saved = apparelOrderService.saveApparelOrder(order);
+        entityManager.flush();
+        return saved;
+    }
+}
@@ -2,6 +2,7 @@ package gh.z0736190100.apparelstore.services;
 
 import gh.z0736190100.apparelstore.entities.ApparelOrder;
 import gh.z0736190100.apparelstore.entities.ApparelOrderShipment;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
 import gh.z0736190100.apparelstore.exceptions.NotFoundException;
 import gh.z0736190100.apparelstore.mappers.ApparelOrderShipmentMapper;
 import gh.z0736190100.apparelstore.models.ApparelOrderShipmentDto;
@@ -41,6 +42,12 @@ class ApparelOrderShipmentServiceImplTest {
     @Mock
     ApparelOrderShipmentMapper apparelOrderShipmentMapper;
 
+    @Mock
+    CatalogVersion catalogVersion;
+
+    @Mock
+    OutboxPublisher outboxPublisher;
+
     @InjectMocks
     ApparelOrderShipmentServiceImpl apparelOrderShipmentService;
 
@@ -56,7 +63,7 @@ class ApparelOrderShipmentServiceImplTest {
 
         // Create test apparel order
         testApparelOrder = ApparelOrder.builder()
-                .status("COMPLETED")
+                .status(ApparelOrderStatus.COMPLETE)
                 .build();
         testApparelOrder.setId(1);
 
@@ -126,7 +133,7 @@ class ApparelOrderShipmentServiceImplTest {
     @Test
     void getShipmentByIdWrongApparelOrder() {
         // Given
-        ApparelOrder anotherApparelOrder = ApparelOrder.builder().status("NEW").build();
+        ApparelOrder anotherApparelOrder = ApparelOrder.builder().status(ApparelOrderStatus.NEW).build();
         anotherApparelOrder.setId(2);
         
         ApparelOrderShipment shipment = ApparelOrderShipment.builder()
@@ -164,6 +171,8 @@ class ApparelOrderShipmentServiceImplTest {
         verify(apparelOrderShipmentMapper, times(1)).apparelOrderShipmentDtoToApparelOrderShipment(any(ApparelOrderShipmentDto.class));
         verify(apparelOrderShipmentRepository, times(1)).save(any(ApparelOrderShipment.class));
         verify(apparelOrderShipmentMapper, times(1)).apparelOrderShipmentToApparelOrderShipmentDto(any(ApparelOrderShipment.class));
+        verify(outboxPublisher).publish(OutboxPublisher.APPAREL_ORDER, 1,
+                OutboxPublisher.APPAREL_ORDER_SHIPMENT_CREATED, testApparelOrderShipmentDto);
     }
 
     @Test
@@ -0,0 +1,92 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.SearchProperties;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelSearchView;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ApparelSearchIndexTest {
+
+    @Mock
+    ApparelRepository apparelRepository;
+
+    ApparelSearchIndex apparelSearchIndex;
+
+    @BeforeEach
+    void setUp() {
+        apparelSearchIndex = new ApparelSearchIndex(apparelRepository, new SearchProperties(true));
+        when(apparelRepository.findAllProjectedBy()).thenReturn(List.of(
+                view(1, "Linen Shirt", "Loose"),
+                view(2, "Denim Jacket", "Oversize"),
+                view(3, "Linen Trousers", null),
+                view(4, "Wool Shirt", "Fit")));
+        apparelSearchIndex.rebuild();
+    }
+
+    @Test
+    void searchByNameIgnoresCase() {
+        assertThat(apparelSearchIndex.isReady()).isTrue();
+        assertThat(apparelSearchIndex.search("linen", null)).containsExactly(1, 3);
+        assertThat(apparelSearchIndex.search("SHIRT", null)).containsExactly(1, 4);
+        assertThat(apparelSearchIndex.search("nen sh", null)).containsExactly(1);
+    }
+
+    @Test
+    void searchByNameAndStyle() {
+        assertThat(apparelSearchIndex.search("shirt", "fit")).containsExactly(4);
+        assertThat(apparelSearchIndex.search(null, "o")).containsExactly(1, 2);
+        assertThat(apparelSearchIndex.search("linen", "loose")).containsExactly(1);
+    }
+
+    @Test
+    void searchWithShortTermVerifiesAllDocuments() {
+        assertThat(apparelSearchIndex.search("en", null)).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void searchWithUnknownTermFindsNothing() {
+        assertThat(apparelSearchIndex.search("cashmere", null)).isEmpty();
+    }
+
+    @Test
+    void indexAndRemoveKeepPostingsInSync() {
+        // When
+        apparelSearchIndex.index(1, "Silk Scarf", "Loose");
+        apparelSearchIndex.remove(4);
+        apparelSearchIndex.index(5, "Linen Scarf", "Fit");
+
+        // Then
+        assertThat(apparelSearchIndex.search("linen", null)).containsExactly(3, 5);
+        assertThat(apparelSearchIndex.search("scarf", null)).containsExactly(1, 5);
+        assertThat(apparelSearchIndex.search("shirt", null)).isEmpty();
+    }
+
+    private static ApparelSearchView view(Integer id, String apparelName, String apparelStyle) {
+        return new ApparelSearchView() {
+            @Override
+            public Integer getId() {
+                return id;
+            }
+
+            @Override
+            public String getApparelName() {
+                return apparelName;
+            }
+
+            @Override
+            public String getApparelStyle() {
+                return apparelStyle;
+            }
+        };
+    }
+}
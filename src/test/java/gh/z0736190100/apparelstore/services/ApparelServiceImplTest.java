@@ -1,29 +1,50 @@
 package gh.z0736190100.apparelstore.services;
 
+import gh.z0736190100.apparelstore.config.ExportProperties;
 import gh.z0736190100.apparelstore.entities.Apparel;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
 import gh.z0736190100.apparelstore.mappers.ApparelMapper;
 import gh.z0736190100.apparelstore.models.ApparelDto;
 import gh.z0736190100.apparelstore.models.ApparelPatchDto;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
+import gh.z0736190100.apparelstore.models.SliceDto;
 import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -35,6 +56,38 @@ class ApparelServiceImplTest {
     @Mock
     ApparelMapper apparelMapper;
 
+    @Mock
+    ListingCountCache listingCountCache;
+
+    @Mock
+    ApparelSearchIndex apparelSearchIndex;
+
+    @Mock
+    ApparelDtoCache apparelDtoCache;
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    LookupCoalescer lookupCoalescer = new LookupCoalescer(meterRegistry);
+
+    @Spy
+    ExportProperties exportProperties = new ExportProperties(2);
+
+    @Mock
+    EntityManager entityManager;
+
+    @Mock
+    CatalogVersion catalogVersion;
+
+    @Mock
+    HotStockCounters hotStockCounters;
+
+    @Mock
+    OutboxPublisher outboxPublisher;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
     @InjectMocks
     ApparelServiceImpl apparelService;
 
@@ -78,6 +131,28 @@ class ApparelServiceImplTest {
         verify(apparelMapper, times(1)).apparelToApparelDto(any(Apparel.class));
     }
 
+    @Test
+    void exportApparelsClearsPersistenceContextEveryChunk() {
+        // Given
+        List<Apparel> apparels = IntStream.rangeClosed(1, 5)
+                .<Apparel>mapToObj(id -> Apparel.builder().id(id).apparelName("Apparel " + id).build())
+                .toList();
+        AtomicBoolean streamClosed = new AtomicBoolean();
+        when(apparelRepository.streamAllBy()).thenReturn(apparels.stream().onClose(() -> streamClosed.set(true)));
+        when(apparelMapper.apparelToApparelDto(any(Apparel.class)))
+                .thenAnswer(invocation -> ApparelDto.builder().id(invocation.<Apparel>getArgument(0).getId()).build());
+
+        // When
+        List<ApparelDto> exported = new ArrayList<>();
+        apparelService.exportApparels(exported::add);
+
+        // Then
+        assertThat(exported).extracting(ApparelDto::getId).containsExactly(1, 2, 3, 4, 5);
+        verify(entityManager, times(2)).clear();
+        assertThat(streamClosed).isTrue();
+        verify(apparelRepository, never()).findAll();
+    }
+
     @Test
     void getAllApparelsWithPagination() {
         // Given
@@ -168,6 +243,159 @@ class ApparelServiceImplTest {
         verify(apparelMapper, times(1)).apparelToApparelDto(any(Apparel.class));
     }
 
+    @Test
+    void getAllApparelsFromSearchIndex() {
+        // Given
+        Pageable pageable = PageRequest.of(1, 2);
+        Apparel thirdApparel = Apparel.builder().id(3).apparelName("Test Apparel 3").build();
+        ApparelDto thirdApparelDto = ApparelDto.builder().id(3).apparelName("Test Apparel 3").build();
+
+        when(apparelSearchIndex.isReady()).thenReturn(true);
+        when(apparelSearchIndex.search("Test", null)).thenReturn(List.of(1, 2, 3));
+        when(apparelRepository.findAllById(List.of(3))).thenReturn(List.of(thirdApparel));
+        when(apparelMapper.apparelToApparelDto(thirdApparel)).thenReturn(thirdApparelDto);
+
+        // When
+        Page<ApparelDto> result = apparelService.getAllApparels("Test", null, pageable);
+
+        // Then
+        assertThat(result.getContent()).extracting(ApparelDto::getId).containsExactly(3);
+        assertThat(result.getTotalElements()).isEqualTo(3);
+        verify(apparelRepository, never()).findAllByApparelNameContainingIgnoreCase(any(), any());
+    }
+
+    @Test
+    void getAllApparelsFromSearchIndexHonoursTheSort() {
+        // Given
+        Pageable pageable = PageRequest.of(0, 2, Sort.by("apparelName"));
+        when(apparelSearchIndex.isReady()).thenReturn(true);
+        when(apparelSearchIndex.search("Test", null)).thenReturn(List.of(1, 2, 3));
+        when(apparelRepository.findSliceByIdIn(List.of(1, 2, 3), pageable))
+                .thenReturn(new SliceImpl<>(List.of(testApparel), pageable, true));
+        when(apparelMapper.apparelToApparelDto(testApparel)).thenReturn(testApparelDto);
+
+        // When
+        Page<ApparelDto> result = apparelService.getAllApparels("Test", null, pageable);
+
+        // Then the database orders the matched rows; the total comes from the index
+        assertThat(result.getContent()).containsExactly(testApparelDto);
+        assertThat(result.getTotalElements()).isEqualTo(3);
+        verify(apparelRepository, never()).findAllById(any());
+    }
+
+    @Test
+    void getApparelSliceFromSearchIndex() {
+        // Given
+        Pageable pageable = PageRequest.of(0, 1);
+        when(apparelSearchIndex.isReady()).thenReturn(true);
+        when(apparelSearchIndex.search("Test", null)).thenReturn(List.of(1, 2));
+        when(apparelRepository.findAllById(List.of(1))).thenReturn(List.of(testApparel));
+        when(apparelMapper.apparelToApparelDto(testApparel)).thenReturn(testApparelDto);
+
+        // When
+        SliceDto<ApparelDto> result = apparelService.getApparelSlice("Test", null, pageable, true);
+
+        // Then
+        assertThat(result.getContent()).containsExactly(testApparelDto);
+        assertThat(result.isHasNext()).isTrue();
+        assertThat(result.getTotalElements()).isEqualTo(2L);
+        verify(apparelRepository, never()).findSliceByApparelNameContainingIgnoreCase(any(), any());
+        verify(listingCountCache, never()).count(any(), any(), any());
+    }
+
+    @Test
+    void getApparelSlice() {
+        // Given
+        Pageable pageable = PageRequest.of(0, 20);
+        when(apparelRepository.findSliceByApparelNameContainingIgnoreCaseAndApparelStyleContainingIgnoreCase("", "Loose", pageable))
+                .thenReturn(new SliceImpl<>(List.of(testApparel), pageable, true));
+        when(apparelMapper.apparelToApparelDto(testApparel)).thenReturn(testApparelDto);
+
+        // When
+        SliceDto<ApparelDto> result = apparelService.getApparelSlice(null, "Loose", pageable, false);
+
+        // Then
+        assertThat(result.getContent()).hasSize(1);
+        assertThat(result.isHasNext()).isTrue();
+        assertThat(result.getTotalElements()).isNull();
+        verify(listingCountCache, never()).count(any(), any(), any());
+    }
+
+    @Test
+    void getApparelSliceWithCount() {
+        // Given
+        Pageable pageable = PageRequest.of(0, 20);
+        when(apparelRepository.findSliceByApparelNameContainingIgnoreCase("Test", pageable))
+                .thenReturn(new SliceImpl<>(List.of(testApparel), pageable, false));
+        when(apparelMapper.apparelToApparelDto(testApparel)).thenReturn(testApparelDto);
+        when(listingCountCache.count(eq(ApparelServiceImpl.LISTING), any(), any())).thenReturn(42L);
+
+        // When
+        SliceDto<ApparelDto> result = apparelService.getApparelSlice("Test", null, pageable, true);
+
+        // Then
+        assertThat(result.isHasNext()).isFalse();
+        assertThat(result.getTotalElements()).isEqualTo(42L);
+        verify(apparelRepository, never()).countByApparelNameContainingIgnoreCase(any());
+    }
+
+    @Test
+    void getApparelsAfterFirstPage() {
+        // Given
+        Apparel secondApparel = Apparel.builder()
+                .id(2)
+                .apparelName("Test Apparel 2")
+                .apparelStyle("Loose")
+                .build();
+        when(apparelRepository.findFirstKeysetPage("", "", Limit.of(2))).thenReturn(Arrays.asList(testApparel, secondApparel));
+        when(apparelMapper.apparelToApparelDto(testApparel)).thenReturn(testApparelDto);
+
+        // When
+        CursorPageDto<ApparelDto> result = apparelService.getApparelsAfter(null, null, null, 1);
+
+        // Then
+        assertThat(result.getContent()).hasSize(1);
+        assertThat(result.isHasNext()).isTrue();
+        assertThat(KeysetCursor.decode(result.getNextCursor())).isEqualTo(new KeysetCursor("Test Apparel", 1));
+        verify(apparelMapper, times(1)).apparelToApparelDto(any(Apparel.class));
+    }
+
+    @Test
+    void getApparelsAfterCursorFromSearchIndex() {
+        // Given
+        String after = new KeysetCursor("Test Apparel", 1).encode();
+        when(apparelSearchIndex.isReady()).thenReturn(true);
+        when(apparelSearchIndex.search("Test", "")).thenReturn(List.of(1, 4));
+        when(apparelRepository.findKeysetPageAfterByIdIn(List.of(1, 4), "Test Apparel", 1, Limit.of(21)))
+                .thenReturn(List.of(testApparel));
+        when(apparelMapper.apparelToApparelDto(testApparel)).thenReturn(testApparelDto);
+
+        // When
+        CursorPageDto<ApparelDto> result = apparelService.getApparelsAfter("Test", null, after, 20);
+
+        // Then
+        assertThat(result.getContent()).containsExactly(testApparelDto);
+        assertThat(result.isHasNext()).isFalse();
+        verify(apparelRepository, never()).findKeysetPageAfter(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void getApparelsAfterCursor() {
+        // Given
+        String after = new KeysetCursor("Test Apparel", 1).encode();
+        when(apparelRepository.findKeysetPageAfter("Test", "", "Test Apparel", 1, Limit.of(21))).thenReturn(List.of(testApparel));
+        when(apparelMapper.apparelToApparelDto(testApparel)).thenReturn(testApparelDto);
+
+        // When
+        CursorPageDto<ApparelDto> result = apparelService.getApparelsAfter("Test", null, after, 20);
+
+        // Then
+        assertThat(result.getContent()).hasSize(1);
+        assertThat(result.isHasNext()).isFalse();
+        assertThat(result.getNextCursor()).isNull();
+        verify(apparelRepository, never()).findFirstKeysetPage(any(), any(), any());
+    }
+
     @Test
     void getApparelById() {
         // Given
@@ -182,6 +410,74 @@ class ApparelServiceImplTest {
         assertThat(apparelOptional.get().getApparelName()).isEqualTo("Test Apparel");
         verify(apparelRepository, times(1)).findById(1);
         verify(apparelMapper, times(1)).apparelToApparelDto(any(Apparel.class));
+        verify(apparelDtoCache, times(1)).put(testApparelDto);
+    }
+
+    @Test
+    void getApparelByIdFromCache() {
+        // Given
+        when(apparelDtoCache.get(1)).thenReturn(Optional.of(testApparelDto));
+
+        // When
+        Optional<ApparelDto> apparelOptional = apparelService.getApparelById(1);
+
+        // Then
+        assertThat(apparelOptional).contains(testApparelDto);
+        verify(apparelRepository, never()).findById(any());
+        verify(apparelMapper, never()).apparelToApparelDto(any());
+    }
+
+    @Test
+    void getApparelVersionFromCache() {
+        // Given
+        testApparelDto.setVersion(3);
+        when(apparelDtoCache.get(1)).thenReturn(Optional.of(testApparelDto));
+
+        // When/Then
+        assertThat(apparelService.getApparelVersion(1)).contains(3);
+        verify(apparelRepository, never()).findVersionById(any());
+    }
+
+    @Test
+    void getApparelVersionProbesOnCacheMiss() {
+        // Given
+        when(apparelRepository.findVersionById(1)).thenReturn(Optional.of(4));
+
+        // When/Then
+        assertThat(apparelService.getApparelVersion(1)).contains(4);
+        verify(apparelRepository, never()).findById(any());
+        verify(apparelMapper, never()).apparelToApparelDto(any());
+    }
+
+    @Test
+    void getApparelByIdConcurrentMissesShareOneLoad() throws Exception {
+        // Given: the load does not finish until every other caller has joined it
+        int callers = 8;
+        when(apparelRepository.findById(1)).thenAnswer(invocation -> {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (joinedCount() < callers - 1 && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            return Optional.of(testApparel);
+        });
+        when(apparelMapper.apparelToApparelDto(testApparel)).thenReturn(testApparelDto);
+
+        // When
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Optional<ApparelDto>>> results = IntStream.range(0, callers)
+                    .mapToObj(i -> executor.submit(() -> apparelService.getApparelById(1)))
+                    .toList();
+
+            // Then
+            for (Future<Optional<ApparelDto>> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).contains(testApparelDto);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(apparelRepository, times(1)).findById(1);
+        assertThat(joinedCount()).isEqualTo(callers - 1);
     }
 
     @Test
@@ -248,6 +544,10 @@ class ApparelServiceImplTest {
         verify(apparelMapper, times(1)).apparelDtoToApparel(any(ApparelDto.class));
         verify(apparelRepository, times(1)).save(any(Apparel.class));
         verify(apparelMapper, times(1)).apparelToApparelDto(any(Apparel.class));
+        verify(apparelSearchIndex, times(1)).index(2, "New Apparel", "Fit");
+        verify(apparelDtoCache, times(1)).put(savedApparelDto);
+        verify(outboxPublisher).publish(OutboxPublisher.APPAREL, 2, OutboxPublisher.APPAREL_CREATED, savedApparelDto);
+        verify(transactionManager).commit(any());
     }
 
     @Test
@@ -308,13 +608,88 @@ class ApparelServiceImplTest {
     @Test
     void deleteApparelById() {
         // Given
-        doNothing().when(apparelRepository).deleteById(anyInt());
+        when(apparelRepository.deleteIfVersion(1, null)).thenReturn(1);
+
+        // When
+        boolean deleted = apparelService.deleteApparelById(1, null);
+
+        // Then
+        assertThat(deleted).isTrue();
+        verify(apparelRepository, times(1)).deleteIfVersion(1, null);
+        verify(apparelSearchIndex, times(1)).remove(1);
+        verify(apparelDtoCache, times(1)).evictDeleted(1);
+        verify(catalogVersion, times(1)).changed();
+        verify(hotStockCounters, times(1)).resync(1);
+        verify(outboxPublisher).publish(OutboxPublisher.APPAREL, 1, OutboxPublisher.APPAREL_DELETED, Map.of("id", 1));
+    }
+
+    @Test
+    void deleteApparelByIdNotFound() {
+        // Given
+        when(apparelRepository.deleteIfVersion(1, 3)).thenReturn(0);
+        when(apparelRepository.existsById(1)).thenReturn(false);
 
         // When
-        apparelService.deleteApparelById(1);
+        boolean deleted = apparelService.deleteApparelById(1, 3);
 
         // Then
-        verify(apparelRepository, times(1)).deleteById(1);
+        assertThat(deleted).isFalse();
+        verify(apparelSearchIndex, never()).remove(any());
+        verify(catalogVersion, never()).changed();
+    }
+
+    @Test
+    void deleteApparelByIdStaleVersion() {
+        // Given
+        when(apparelRepository.deleteIfVersion(1, 3)).thenReturn(0);
+        when(apparelRepository.existsById(1)).thenReturn(true);
+
+        // When/Then
+        assertThatThrownBy(() -> apparelService.deleteApparelById(1, 3))
+                .isInstanceOf(PreconditionFailedException.class);
+        verify(apparelDtoCache, never()).evictDeleted(any());
+        verify(catalogVersion, never()).changed();
+        verify(outboxPublisher, never()).publish(any(), any(), any(), any());
+    }
+
+    @Test
+    void updateApparelIfVersion() {
+        // Given
+        Apparel apparel = Apparel.builder().apparelName("Updated Apparel").build();
+        Apparel updatedApparel = Apparel.builder().id(1).version(4).apparelName("Updated Apparel").build();
+        ApparelDto updatedApparelDto = ApparelDto.builder().id(1).version(4).apparelName("Updated Apparel").build();
+
+        when(apparelMapper.apparelDtoToApparel(testApparelDto)).thenReturn(apparel);
+        when(apparelRepository.updateIfVersion(1, 3, apparel)).thenReturn(1);
+        when(apparelRepository.findById(1)).thenReturn(Optional.of(updatedApparel));
+        when(apparelMapper.apparelToApparelDto(updatedApparel)).thenReturn(updatedApparelDto);
+
+        // When
+        Optional<ApparelDto> result = apparelService.updateApparel(1, testApparelDto, 3);
+
+        // Then
+        assertThat(result).contains(updatedApparelDto);
+        verify(apparelDtoCache).invalidate(1);
+        verify(apparelDtoCache).put(updatedApparelDto);
+        verify(apparelSearchIndex).index(1, "Updated Apparel", null);
+        verify(catalogVersion).changed();
+        verify(hotStockCounters).resync(1);
+        verify(outboxPublisher).publish(OutboxPublisher.APPAREL, 1, OutboxPublisher.APPAREL_UPDATED, updatedApparelDto);
+    }
+
+    @Test
+    void updateApparelStaleVersion() {
+        // Given
+        Apparel apparel = Apparel.builder().apparelName("Updated Apparel").build();
+        when(apparelMapper.apparelDtoToApparel(testApparelDto)).thenReturn(apparel);
+        when(apparelRepository.updateIfVersion(1, 2, apparel)).thenReturn(0);
+        when(apparelRepository.existsById(1)).thenReturn(true);
+
+        // When/Then
+        assertThatThrownBy(() -> apparelService.updateApparel(1, testApparelDto, 2))
+                .isInstanceOf(PreconditionFailedException.class);
+        verify(apparelRepository, never()).findById(any());
+        verify(apparelDtoCache, never()).invalidate(any());
     }
 
     @Test
@@ -325,13 +700,9 @@ class ApparelServiceImplTest {
                 .price(new BigDecimal("15.99"))
                 .build();
 
-        Apparel existingApparel = Apparel.builder()
-                .id(1)
-                .apparelName("Original Apparel")
-                .apparelStyle("Loose")
-                .upc("123456")
-                .price(new BigDecimal("12.99"))
-                .quantityOnHand(100)
+        Apparel patch = Apparel.builder()
+                .apparelName("Patched Apparel")
+                .price(new BigDecimal("15.99"))
                 .build();
 
         Apparel patchedApparel = Apparel.builder()
@@ -352,21 +723,21 @@ class ApparelServiceImplTest {
                 .quantityOnHand(100)
                 .build();
 
-        when(apparelRepository.findById(1)).thenReturn(Optional.of(existingApparel));
-        doNothing().when(apparelMapper).updateApparelFromPatchDto(apparelPatchDto, existingApparel);
-        when(apparelRepository.save(existingApparel)).thenReturn(patchedApparel);
+        when(apparelMapper.apparelPatchDtoToApparel(apparelPatchDto)).thenReturn(patch);
+        when(apparelRepository.patchIfVersion(1, null, patch)).thenReturn(1);
+        when(apparelRepository.findById(1)).thenReturn(Optional.of(patchedApparel));
         when(apparelMapper.apparelToApparelDto(patchedApparel)).thenReturn(patchedApparelDto);
 
         // When
-        Optional<ApparelDto> result = apparelService.patchApparel(1, apparelPatchDto);
+        Optional<ApparelDto> result = apparelService.patchApparel(1, apparelPatchDto, null);
 
         // Then
         assertThat(result).isPresent();
         assertThat(result.get().getApparelName()).isEqualTo("Patched Apparel");
         assertThat(result.get().getPrice()).isEqualTo(new BigDecimal("15.99"));
+        verify(apparelRepository, times(1)).patchIfVersion(1, null, patch);
         verify(apparelRepository, times(1)).findById(1);
-        verify(apparelMapper, times(1)).updateApparelFromPatchDto(apparelPatchDto, existingApparel);
-        verify(apparelRepository, times(1)).save(existingApparel);
+        verify(apparelRepository, never()).save(any());
         verify(apparelMapper, times(1)).apparelToApparelDto(patchedApparel);
     }
 
@@ -377,15 +748,22 @@ class ApparelServiceImplTest {
                 .apparelName("Patched Apparel")
                 .build();
 
-        when(apparelRepository.findById(1)).thenReturn(Optional.empty());
+        when(apparelRepository.patchIfVersion(eq(1), eq(null), any())).thenReturn(0);
 
         // When
-        Optional<ApparelDto> result = apparelService.patchApparel(1, apparelPatchDto);
+        Optional<ApparelDto> result = apparelService.patchApparel(1, apparelPatchDto, null);
 
         // Then
         assertThat(result).isEmpty();
-        verify(apparelRepository, times(1)).findById(1);
-        verify(apparelMapper, never()).updateApparelFromPatchDto(any(), any());
-        verify(apparelRepository, never()).save(any());
+        verify(apparelRepository, never()).existsById(any());
+        verify(apparelRepository, never()).findById(any());
+        verify(catalogVersion, never()).changed();
+    }
+
+    private double joinedCount() {
+        var counter = meterRegistry.find("lookup.coalescing.requests")
+                .tags("lookup", "apparel", "outcome", "joined")
+                .counter();
+        return counter == null ? 0 : counter.count();
     }
 }
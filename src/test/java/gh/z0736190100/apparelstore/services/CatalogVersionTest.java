@@ -0,0 +1,109 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.entities.CatalogStamp;
+import gh.z0736190100.apparelstore.repositories.CatalogStampRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CatalogVersionTest {
+
+    @Mock
+    CatalogStampRepository catalogStampRepository;
+
+    CatalogVersion catalogVersion;
+
+    @BeforeEach
+    void setUp() {
+        catalogVersion = new CatalogVersion(catalogStampRepository);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.unbindResourceIfPossible(catalogVersion);
+    }
+
+    @Test
+    void currentIsReadFromTheStampRow() {
+        // Given
+        when(catalogStampRepository.findById(CatalogStamp.ID))
+                .thenReturn(Optional.of(stamp(LocalDateTime.of(2024, 1, 1, 0, 0), 7L)))
+                .thenReturn(Optional.of(stamp(LocalDateTime.of(2024, 1, 1, 0, 0), 8L)));
+
+        // When
+        String before = catalogVersion.current();
+        String after = catalogVersion.current();
+
+        // Then
+        assertThat(before).endsWith(".7");
+        assertThat(after).endsWith(".8");
+        assertThat(before.substring(0, before.indexOf('.'))).isEqualTo(after.substring(0, after.indexOf('.')));
+    }
+
+    @Test
+    void recreatedStampRowDoesNotRepeatStamps() {
+        // Given
+        when(catalogStampRepository.findById(CatalogStamp.ID))
+                .thenReturn(Optional.of(stamp(LocalDateTime.of(2024, 1, 1, 0, 0), 0L)))
+                .thenReturn(Optional.of(stamp(LocalDateTime.of(2024, 1, 2, 0, 0), 0L)));
+
+        // Then
+        assertThat(catalogVersion.current()).isNotEqualTo(catalogVersion.current());
+    }
+
+    @Test
+    void changedOutsideTransactionBumpsTheRowImmediately() {
+        // When
+        catalogVersion.changed();
+
+        // Then
+        verify(catalogStampRepository).increment(CatalogStamp.ID);
+    }
+
+    @Test
+    void changedInsideTransactionBumpsTheRowOnceBeforeCommit() {
+        // Given
+        TransactionSynchronizationManager.initSynchronization();
+
+        // When
+        catalogVersion.changed();
+        catalogVersion.changed();
+
+        // Then the row is only bumped as the transaction commits
+        verify(catalogStampRepository, never()).increment(CatalogStamp.ID);
+        assertThat(TransactionSynchronizationManager.getSynchronizations()).hasSize(1);
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(synchronization -> synchronization.beforeCommit(false));
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        verify(catalogStampRepository, times(1)).increment(CatalogStamp.ID);
+        assertThat(TransactionSynchronizationManager.hasResource(catalogVersion)).isFalse();
+    }
+
+    private static CatalogStamp stamp(LocalDateTime createdDate, long stamp) {
+        CatalogStamp catalogStamp = CatalogStamp.builder()
+                .stamp(stamp)
+                .build();
+        catalogStamp.setId(CatalogStamp.ID);
+        catalogStamp.setCreatedDate(createdDate);
+        return catalogStamp;
+    }
+}
@@ -0,0 +1,43 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.CustomerLookupProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContactNormalizerTest {
+
+    ContactNormalizer contactNormalizer = new ContactNormalizer(new CustomerLookupProperties("1", 100, Duration.ofMinutes(1)));
+
+    @Test
+    void normalizeEmailTrimsAndLowerCases() {
+        assertThat(contactNormalizer.normalizeEmail("  John.Doe@Example.COM ")).isEqualTo("john.doe@example.com");
+        assertThat(contactNormalizer.normalizeEmail(" ")).isNull();
+        assertThat(contactNormalizer.normalizeEmail(null)).isNull();
+    }
+
+    @Test
+    void normalizePhoneFormatsNationalNumbersWithTheDefaultCountryCode() {
+        assertThat(contactNormalizer.normalizePhone("555-123-4567")).isEqualTo("+15551234567");
+        assertThat(contactNormalizer.normalizePhone("(555) 123 4567")).isEqualTo("+15551234567");
+        assertThat(contactNormalizer.normalizePhone("1-555-123-4567")).isEqualTo("+15551234567");
+        assertThat(contactNormalizer.normalizePhone("555.123.4567")).isEqualTo("+15551234567");
+    }
+
+    @Test
+    void normalizePhoneKeepsTheCountryCodeOfInternationalNumbers() {
+        assertThat(contactNormalizer.normalizePhone("+44 20 7946 0958")).isEqualTo("+442079460958");
+        assertThat(contactNormalizer.normalizePhone("0044 20 7946 0958")).isEqualTo("+442079460958");
+        assertThat(contactNormalizer.normalizePhone("+1 (555) 123-4567")).isEqualTo("+15551234567");
+    }
+
+    @Test
+    void normalizePhoneRejectsWhatIsNotAPhoneNumber() {
+        assertThat(contactNormalizer.normalizePhone("555-CALL-NOW")).isNull();
+        assertThat(contactNormalizer.normalizePhone("12345")).isNull();
+        assertThat(contactNormalizer.normalizePhone("+1234567890123456")).isNull();
+        assertThat(contactNormalizer.normalizePhone("")).isNull();
+    }
+}
@@ -0,0 +1,90 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.CustomerLookupProperties;
+import gh.z0736190100.apparelstore.models.CustomerDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomerLookupCacheTest {
+
+    CustomerLookupCache customerLookupCache;
+    AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        customerLookupCache = new CustomerLookupCache(new CustomerLookupProperties("1", 100, Duration.ofMinutes(1)),
+                new SimpleMeterRegistry());
+    }
+
+    @Test
+    void getLoadsOnceAndReturnsCopies() {
+        // Given
+        String key = CustomerLookupCache.emailKey("john.doe@example.com");
+        customerLookupCache.get(key, () -> load(customer(1, "John Doe")));
+
+        // When
+        List<CustomerDto> cached = customerLookupCache.get(key, () -> load(customer(1, "Reloaded")));
+        cached.get(0).setName("Mutated");
+
+        // Then
+        assertThat(loads).hasValue(1);
+        assertThat(customerLookupCache.get(key, List::of)).extracting(CustomerDto::getName).containsExactly("John Doe");
+    }
+
+    @Test
+    void invalidateDropsTheNewKeysAndEveryEntryHoldingTheCustomer() {
+        // Given
+        String oldEmail = CustomerLookupCache.emailKey("john.doe@example.com");
+        String newEmail = CustomerLookupCache.emailKey("john.smith@example.com");
+        String phone = CustomerLookupCache.phoneKey("+15551234567");
+        customerLookupCache.get(oldEmail, () -> load(customer(1, "John Doe")));
+        customerLookupCache.get(newEmail, () -> load());
+        customerLookupCache.get(phone, () -> load(customer(1, "John Doe"), customer(2, "Jane Doe")));
+
+        // When the customer changes their email
+        customerLookupCache.invalidate(1, List.of(newEmail));
+
+        // Then every lookup is reloaded
+        customerLookupCache.get(oldEmail, () -> load());
+        customerLookupCache.get(newEmail, () -> load(customer(1, "John Doe")));
+        customerLookupCache.get(phone, () -> load(customer(1, "John Doe"), customer(2, "Jane Doe")));
+        assertThat(loads).hasValue(6);
+    }
+
+    @Test
+    void aLookupRacingWithAWriteIsNotCached() {
+        // Given
+        String key = CustomerLookupCache.emailKey("john.doe@example.com");
+
+        // When the customer is written while the lookup is loading
+        List<CustomerDto> served = customerLookupCache.get(key, () -> {
+            List<CustomerDto> stale = load(customer(1, "John Doe"));
+            customerLookupCache.invalidate(1, List.of(key));
+            return stale;
+        });
+
+        // Then
+        assertThat(served).extracting(CustomerDto::getName).containsExactly("John Doe");
+        customerLookupCache.get(key, () -> load(customer(1, "John Smith")));
+        assertThat(loads).hasValue(2);
+    }
+
+    private List<CustomerDto> load(CustomerDto... customers) {
+        loads.incrementAndGet();
+        return List.of(customers);
+    }
+
+    private static CustomerDto customer(Integer id, String name) {
+        return CustomerDto.builder()
+                .id(id)
+                .name(name)
+                .build();
+    }
+}
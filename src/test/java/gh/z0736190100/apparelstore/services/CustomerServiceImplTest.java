@@ -1,17 +1,24 @@
 package gh.z0736190100.apparelstore.services;
 
+import gh.z0736190100.apparelstore.config.CustomerLookupProperties;
 import gh.z0736190100.apparelstore.entities.Customer;
-import gh.z0736190100.apparelstore.exceptions.NotFoundException;
+import gh.z0736190100.apparelstore.exceptions.CustomerContactInUseException;
+import gh.z0736190100.apparelstore.exceptions.PreconditionFailedException;
 import gh.z0736190100.apparelstore.mappers.CustomerMapper;
+import gh.z0736190100.apparelstore.models.CursorPageDto;
 import gh.z0736190100.apparelstore.models.CustomerDto;
 import gh.z0736190100.apparelstore.repositories.CustomerRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -19,6 +26,8 @@ import java.util.Optional;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -32,6 +41,20 @@ class CustomerServiceImplTest {
     @Mock
     CustomerMapper customerMapper;
 
+    @Spy
+    LookupCoalescer lookupCoalescer = new LookupCoalescer(new SimpleMeterRegistry());
+
+    @Mock
+    CatalogVersion catalogVersion;
+
+    CustomerLookupProperties customerLookupProperties = new CustomerLookupProperties("1", 100, Duration.ofMinutes(1));
+
+    @Spy
+    ContactNormalizer contactNormalizer = new ContactNormalizer(customerLookupProperties);
+
+    @Spy
+    CustomerLookupCache customerLookupCache = new CustomerLookupCache(customerLookupProperties, new SimpleMeterRegistry());
+
     @InjectMocks
     CustomerServiceImpl customerService;
 
@@ -83,6 +106,55 @@ class CustomerServiceImplTest {
         verify(customerMapper, times(1)).customerToCustomerDto(any(Customer.class));
     }
 
+    @Test
+    void getCustomersAfterFirstPage() {
+        // Given
+        Customer secondCustomer = Customer.builder().name("John Smith").build();
+        secondCustomer.setId(2);
+        when(customerRepository.findFirstKeysetPage("John", null, null, "IL", null, Limit.of(2)))
+                .thenReturn(List.of(testCustomer, secondCustomer));
+        when(customerMapper.customerToCustomerDto(testCustomer)).thenReturn(testCustomerDto);
+
+        // When
+        CursorPageDto<CustomerDto> result = customerService.getCustomersAfter("John", " ", null, "IL", "", null, 1);
+
+        // Then
+        assertThat(result.getContent()).containsExactly(testCustomerDto);
+        assertThat(result.isHasNext()).isTrue();
+        assertThat(KeysetCursor.decode(result.getNextCursor())).isEqualTo(new KeysetCursor("John Doe", 1));
+        verify(customerMapper, times(1)).customerToCustomerDto(any(Customer.class));
+    }
+
+    @Test
+    void getCustomersAfterCursor() {
+        // Given
+        String after = new KeysetCursor("John Doe", 1).encode();
+        when(customerRepository.findKeysetPageAfter(null, "john.doe@example.com", null, null, null, "John Doe", 1, Limit.of(21)))
+                .thenReturn(List.of());
+
+        // When
+        CursorPageDto<CustomerDto> result = customerService.getCustomersAfter(null, "john.doe@example.com", null, null, null, after, 20);
+
+        // Then
+        assertThat(result.getContent()).isEmpty();
+        assertThat(result.isHasNext()).isFalse();
+        assertThat(result.getNextCursor()).isNull();
+        verify(customerRepository, never()).findFirstKeysetPage(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void getCustomersAfterMatchesTheNamePrefixLiterally() {
+        // Given
+        when(customerRepository.findFirstKeysetPage("100\\% O\\_Brien\\\\", null, null, null, null, Limit.of(21)))
+                .thenReturn(List.of());
+
+        // When
+        CursorPageDto<CustomerDto> result = customerService.getCustomersAfter("100% O_Brien\\", null, null, null, null, null, 20);
+
+        // Then
+        assertThat(result.getContent()).isEmpty();
+    }
+
     @Test
     void getCustomerById() {
         // Given
@@ -112,6 +184,55 @@ class CustomerServiceImplTest {
         verify(customerRepository, times(1)).findById(1);
     }
 
+    @Test
+    void getCustomerByEmailIsNormalizedAndCached() {
+        // Given
+        when(customerRepository.findFirstByEmailNormalizedOrderById("john.doe@example.com")).thenReturn(Optional.of(testCustomer));
+        when(customerMapper.customerToCustomerDto(testCustomer)).thenReturn(testCustomerDto);
+
+        // When
+        Optional<CustomerDto> first = customerService.getCustomerByEmail("  John.Doe@Example.COM ");
+        Optional<CustomerDto> second = customerService.getCustomerByEmail("john.doe@example.com");
+
+        // Then
+        assertThat(first).contains(testCustomerDto);
+        assertThat(second).contains(testCustomerDto);
+        verify(customerRepository, times(1)).findFirstByEmailNormalizedOrderById("john.doe@example.com");
+    }
+
+    @Test
+    void getCustomerByEmailMissIsDroppedOnceTheCustomerIsSaved() {
+        // Given a cached miss
+        assertThat(customerService.getCustomerByEmail("john.doe@example.com")).isEmpty();
+        when(customerMapper.customerDtoToCustomer(testCustomerDto)).thenReturn(testCustomer);
+        when(customerRepository.save(testCustomer)).thenReturn(testCustomer);
+        when(customerMapper.customerToCustomerDto(testCustomer)).thenReturn(testCustomerDto);
+        customerService.saveCustomer(testCustomerDto);
+        when(customerRepository.findFirstByEmailNormalizedOrderById("john.doe@example.com")).thenReturn(Optional.of(testCustomer));
+
+        // When
+        Optional<CustomerDto> found = customerService.getCustomerByEmail("john.doe@example.com");
+
+        // Then
+        assertThat(found).contains(testCustomerDto);
+        verify(customerRepository, times(2)).findFirstByEmailNormalizedOrderById("john.doe@example.com");
+    }
+
+    @Test
+    void getCustomersByPhoneIsNormalized() {
+        // Given
+        when(customerRepository.findByPhoneNormalizedOrderById("+15551234567")).thenReturn(List.of(testCustomer));
+        when(customerMapper.customerToCustomerDto(testCustomer)).thenReturn(testCustomerDto);
+
+        // When
+        List<CustomerDto> customers = customerService.getCustomersByPhone("(555) 123-4567");
+
+        // Then
+        assertThat(customers).containsExactly(testCustomerDto);
+        assertThat(customerService.getCustomersByPhone("not a phone")).isEmpty();
+        verify(customerRepository, times(1)).findByPhoneNormalizedOrderById(any());
+    }
+
     @Test
     void saveCustomer() {
         // Given
@@ -125,11 +246,34 @@ class CustomerServiceImplTest {
         // Then
         assertThat(savedCustomerDto).isNotNull();
         assertThat(savedCustomerDto.getName()).isEqualTo("John Doe");
+        assertThat(testCustomer.getEmailNormalized()).isEqualTo("john.doe@example.com");
+        assertThat(testCustomer.getPhoneNormalized()).isEqualTo("+15551234567");
         verify(customerMapper, times(1)).customerDtoToCustomer(any(CustomerDto.class));
         verify(customerRepository, times(1)).save(any(Customer.class));
         verify(customerMapper, times(1)).customerToCustomerDto(any(Customer.class));
     }
 
+    @Test
+    void saveCustomerWithAnotherCustomersEmail() {
+        // Given
+        CustomerDto newCustomerDto = CustomerDto.builder()
+                .name("Jane Doe")
+                .email(" John.Doe@Example.com")
+                .addressLine1("1 Elm St")
+                .city("Springfield")
+                .state("IL")
+                .postalCode("62701")
+                .build();
+        Customer newCustomer = Customer.builder().email(newCustomerDto.getEmail()).build();
+        when(customerMapper.customerDtoToCustomer(newCustomerDto)).thenReturn(newCustomer);
+        when(customerRepository.existsOtherByEmailNormalized("john.doe@example.com", null)).thenReturn(true);
+
+        // When/Then
+        assertThrows(CustomerContactInUseException.class, () -> customerService.saveCustomer(newCustomerDto));
+        verify(customerRepository, never()).save(any());
+        verify(catalogVersion, never()).changed();
+    }
+
     @Test
     void updateCustomer() {
         // Given
@@ -180,48 +324,111 @@ class CustomerServiceImplTest {
                 .postalCode("62701")
                 .build();
 
-        when(customerRepository.findById(1)).thenReturn(Optional.of(existingCustomer));
-        when(customerRepository.save(any(Customer.class))).thenReturn(updatedCustomer);
+        when(customerMapper.customerDtoToCustomer(updateDto)).thenReturn(existingCustomer);
+        when(customerRepository.updateIfVersion(1, null, existingCustomer)).thenReturn(1);
+        when(customerRepository.findById(1)).thenReturn(Optional.of(updatedCustomer));
         when(customerMapper.customerToCustomerDto(updatedCustomer)).thenReturn(updatedDto);
 
         // When
-        Optional<CustomerDto> result = customerService.updateCustomer(1, updateDto);
+        Optional<CustomerDto> result = customerService.updateCustomer(1, updateDto, null);
 
         // Then
         assertThat(result).isPresent();
         assertThat(result.get().getName()).isEqualTo("John Doe Updated");
         assertThat(result.get().getEmail()).isEqualTo("john.updated@example.com");
+        verify(customerRepository, times(1)).updateIfVersion(1, null, existingCustomer);
         verify(customerRepository, times(1)).findById(1);
-        verify(customerMapper, times(1)).updateCustomerFromDto(any(CustomerDto.class), any(Customer.class));
-        verify(customerRepository, times(1)).save(any(Customer.class));
-        verify(customerMapper, times(1)).customerToCustomerDto(any(Customer.class));
+        verify(customerRepository, never()).save(any(Customer.class));
+        verify(catalogVersion, times(1)).changed();
+    }
+
+    @Test
+    void updateCustomerKeepingAnEmailSharedWithAnotherCustomer() {
+        // Given a customer that still shares its email with one it has not been merged with
+        when(customerMapper.customerDtoToCustomer(testCustomerDto)).thenReturn(testCustomer);
+        when(customerRepository.findEmailNormalizedById(1)).thenReturn(Optional.of("john.doe@example.com"));
+        when(customerRepository.updateIfVersion(eq(1), eq(3), any())).thenReturn(1);
+        when(customerRepository.findById(1)).thenReturn(Optional.of(testCustomer));
+        when(customerMapper.customerToCustomerDto(testCustomer)).thenReturn(testCustomerDto);
+
+        // When
+        Optional<CustomerDto> result = customerService.updateCustomer(1, testCustomerDto, 3);
+
+        // Then
+        assertThat(result).contains(testCustomerDto);
+        verify(customerRepository, never()).existsOtherByEmailNormalized(any(), any());
+    }
+
+    @Test
+    void updateCustomerToAnotherCustomersEmail() {
+        // Given
+        when(customerMapper.customerDtoToCustomer(testCustomerDto)).thenReturn(testCustomer);
+        when(customerRepository.findEmailNormalizedById(1)).thenReturn(Optional.of("john@example.com"));
+        when(customerRepository.existsOtherByEmailNormalized("john.doe@example.com", 1)).thenReturn(true);
+
+        // When/Then
+        assertThrows(CustomerContactInUseException.class, () -> customerService.updateCustomer(1, testCustomerDto, 3));
+        verify(customerRepository, never()).updateIfVersion(any(), any(), any());
     }
 
     @Test
     void updateCustomerNotFound() {
         // Given
-        when(customerRepository.findById(1)).thenReturn(Optional.empty());
+        when(customerMapper.customerDtoToCustomer(testCustomerDto)).thenReturn(testCustomer);
+        when(customerRepository.updateIfVersion(eq(1), eq(null), any())).thenReturn(0);
+
+        // When
+        Optional<CustomerDto> result = customerService.updateCustomer(1, testCustomerDto, null);
+
+        // Then
+        assertThat(result).isEmpty();
+        verify(customerRepository, never()).existsById(any());
+        verify(customerRepository, never()).findById(any());
+        verify(catalogVersion, never()).changed();
+    }
+
+    @Test
+    void updateCustomerStaleVersion() {
+        // Given
+        when(customerMapper.customerDtoToCustomer(testCustomerDto)).thenReturn(testCustomer);
+        when(customerRepository.updateIfVersion(eq(1), eq(2), any())).thenReturn(0);
+        when(customerRepository.existsById(1)).thenReturn(true);
 
         // When/Then
-        NotFoundException exception = assertThrows(NotFoundException.class, () -> {
-            customerService.updateCustomer(1, testCustomerDto);
+        PreconditionFailedException exception = assertThrows(PreconditionFailedException.class, () -> {
+            customerService.updateCustomer(1, testCustomerDto, 2);
         });
 
-        // Verify exception message
-        assertThat(exception.getMessage()).contains("Customer not found with id: 1");
-
-        // Verify repository was called
-        verify(customerRepository, times(1)).findById(1);
-        verify(customerMapper, times(0)).updateCustomerFromDto(any(CustomerDto.class), any(Customer.class));
-        verify(customerRepository, times(0)).save(any(Customer.class));
+        assertThat(exception.getMessage()).contains("Customer with id: 1 does not have version 2");
+        verify(customerRepository, never()).findById(any());
+        verify(catalogVersion, never()).changed();
     }
 
     @Test
     void deleteCustomerById() {
+        // Given
+        when(customerRepository.deleteIfVersion(1, null)).thenReturn(1);
+
+        // When
+        boolean deleted = customerService.deleteCustomerById(1, null);
+
+        // Then
+        assertThat(deleted).isTrue();
+        verify(customerRepository, times(1)).deleteIfVersion(1, null);
+        verify(catalogVersion, times(1)).changed();
+    }
+
+    @Test
+    void deleteCustomerByIdNotFound() {
+        // Given
+        when(customerRepository.deleteIfVersion(1, 4)).thenReturn(0);
+        when(customerRepository.existsById(1)).thenReturn(false);
+
         // When
-        customerService.deleteCustomerById(1);
+        boolean deleted = customerService.deleteCustomerById(1, 4);
 
         // Then
-        verify(customerRepository, times(1)).deleteById(1);
+        assertThat(deleted).isFalse();
+        verify(catalogVersion, never()).changed();
     }
 }
@@ -0,0 +1,276 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.HotStockProperties;
+import gh.z0736190100.apparelstore.entities.HotStockReservation;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import gh.z0736190100.apparelstore.repositories.HotStockReservationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class HotStockCountersTest {
+
+    static final int RESERVERS = 8;
+
+    @Mock
+    ApparelRepository apparelRepository;
+
+    @Mock
+    HotStockReservationRepository hotStockReservationRepository;
+
+    @Mock
+    ApparelDtoCache apparelDtoCache;
+
+    @Mock
+    CatalogVersion catalogVersion;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    HotStockCounters hotStockCounters;
+
+    @BeforeEach
+    void setUp() {
+        hotStockCounters = new HotStockCounters(new HotStockProperties(Set.of(3, 7), 4, Duration.ofSeconds(1)),
+                apparelRepository, hotStockReservationRepository, apparelDtoCache, catalogVersion, transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void isHotOnlyForConfiguredApparels() {
+        assertThat(hotStockCounters.isHot(3)).isTrue();
+        assertThat(hotStockCounters.isHot(5)).isFalse();
+    }
+
+    @Test
+    void reserveTakesFromCountersLoadedFromTheRowAndLogsTheQuantity() {
+        // Given 10 on hand, 4 of which are still waiting to be written back
+        when(hotStockReservationRepository.findUnreservedQuantityByApparelId(7)).thenReturn(Optional.of(6L));
+        TransactionSynchronizationManager.initSynchronization();
+
+        // When
+        int taken = hotStockCounters.reserve(7, 4);
+
+        // Then
+        assertThat(taken).isEqualTo(4);
+        assertThat(hotStockCounters.available(7)).isEqualTo(2);
+        ArgumentCaptor<HotStockReservation> reservation = ArgumentCaptor.forClass(HotStockReservation.class);
+        verify(hotStockReservationRepository).save(reservation.capture());
+        assertThat(reservation.getValue().getApparelId()).isEqualTo(7);
+        assertThat(reservation.getValue().getQuantity()).isEqualTo(4);
+        verifyNoInteractions(apparelRepository);
+    }
+
+    @Test
+    void reserveNeverTakesMoreThanIsLeft() {
+        // Given
+        when(hotStockReservationRepository.findUnreservedQuantityByApparelId(7)).thenReturn(Optional.of(2L));
+        TransactionSynchronizationManager.initSynchronization();
+
+        // When
+        int first = hotStockCounters.reserve(7, 5);
+        int second = hotStockCounters.reserve(7, 1);
+
+        // Then
+        assertThat(first).isEqualTo(2);
+        assertThat(second).isZero();
+        verify(hotStockReservationRepository, times(1)).save(any());
+        verify(hotStockReservationRepository, times(1)).findUnreservedQuantityByApparelId(7);
+    }
+
+    @Test
+    void rolledBackReservationGoesBackToTheCounters() {
+        // Given
+        when(hotStockReservationRepository.findUnreservedQuantityByApparelId(7)).thenReturn(Optional.of(5L));
+        TransactionSynchronizationManager.initSynchronization();
+        hotStockCounters.reserve(7, 3);
+
+        // When
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        // Then
+        assertThat(hotStockCounters.available(7)).isEqualTo(5);
+    }
+
+    @Test
+    void committedReservationStaysTaken() {
+        // Given
+        when(hotStockReservationRepository.findUnreservedQuantityByApparelId(7)).thenReturn(Optional.of(5L));
+        TransactionSynchronizationManager.initSynchronization();
+        hotStockCounters.reserve(7, 3);
+
+        // When
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+
+        // Then
+        assertThat(hotStockCounters.available(7)).isEqualTo(2);
+    }
+
+    @Test
+    void reserveRequiresATransaction() {
+        assertThatThrownBy(() -> hotStockCounters.reserve(7, 1)).isInstanceOf(IllegalStateException.class);
+        verify(hotStockReservationRepository, never()).save(any());
+    }
+
+    @Test
+    void flushWritesBackOneUpdatePerApparelInIdOrder() {
+        // Given
+        List<HotStockReservation> reservations = List.of(reservation(101, 7, 2), reservation(102, 3, 1),
+                reservation(103, 7, 4));
+        when(hotStockReservationRepository.findAllByOrderById(Limit.of(HotStockCounters.FLUSH_BATCH_SIZE)))
+                .thenReturn(reservations);
+
+        // When
+        int flushed = hotStockCounters.flush();
+
+        // Then
+        assertThat(flushed).isEqualTo(3);
+        InOrder writeBack = inOrder(apparelRepository, hotStockReservationRepository);
+        writeBack.verify(apparelRepository).writeBackStock(3, 1);
+        writeBack.verify(apparelRepository).writeBackStock(7, 6);
+        writeBack.verify(hotStockReservationRepository).deleteAllByIdInBatch(List.of(101, 102, 103));
+        verify(apparelDtoCache).invalidate(3);
+        verify(apparelDtoCache).invalidate(7);
+        verify(catalogVersion).changed();
+    }
+
+    @Test
+    void flushWithNothingLoggedWritesNothing() {
+        // Given
+        when(hotStockReservationRepository.findAllByOrderById(Limit.of(HotStockCounters.FLUSH_BATCH_SIZE)))
+                .thenReturn(List.of());
+
+        // When
+        int flushed = hotStockCounters.flush();
+
+        // Then
+        assertThat(flushed).isZero();
+        verify(hotStockReservationRepository, never()).deleteAllByIdInBatch(any());
+        verify(catalogVersion, never()).changed();
+    }
+
+    @Test
+    void resyncReloadsTheRowAndHoldsBackStockInFlight() {
+        // Given 3 taken by a transaction that has not completed yet
+        when(hotStockReservationRepository.findUnreservedQuantityByApparelId(7)).thenReturn(Optional.of(5L),
+                Optional.of(20L));
+        TransactionSynchronizationManager.initSynchronization();
+        hotStockCounters.reserve(7, 3);
+
+        // When the apparel is restocked to 20 unreserved
+        hotStockCounters.resync(7);
+
+        // Then
+        assertThat(hotStockCounters.available(7)).isEqualTo(17);
+    }
+
+    @Test
+    void concurrentResyncsNeverLetReservationsTakeMoreThanIsLeft() throws Exception {
+        // Given the row holds 2 000 unreserved, less whatever reservations have committed
+        long initialStock = 2_000;
+        AtomicLong committed = new AtomicLong();
+        when(hotStockReservationRepository.findUnreservedQuantityByApparelId(7))
+                .thenAnswer(invocation -> Optional.of(initialStock - committed.get()));
+        hotStockCounters.available(7);
+        ExecutorService executor = Executors.newFixedThreadPool(RESERVERS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean reserving = new AtomicBoolean(true);
+
+        // When reservers try for twice the stock, one at a time, while another thread keeps resyncing
+        List<Future<?>> reservers = new ArrayList<>();
+        for (int i = 0; i < RESERVERS; i++) {
+            reservers.add(executor.submit(() -> {
+                start.await();
+                for (int attempt = 0; attempt < 2 * initialStock / RESERVERS; attempt++) {
+                    TransactionSynchronizationManager.initSynchronization();
+                    try {
+                        committed.addAndGet(hotStockCounters.reserve(7, 1));
+                        TransactionSynchronizationManager.getSynchronizations().forEach(synchronization ->
+                                synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+                    } finally {
+                        TransactionSynchronizationManager.clearSynchronization();
+                    }
+                }
+                return null;
+            }));
+        }
+        Future<?> resyncer = executor.submit(() -> {
+            start.await();
+            while (reserving.get()) {
+                hotStockCounters.resync(7);
+            }
+            return null;
+        });
+        start.countDown();
+        for (Future<?> reserver : reservers) {
+            reserver.get(30, TimeUnit.SECONDS);
+        }
+        reserving.set(false);
+        resyncer.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        // Then
+        assertThat(committed.get()).isLessThanOrEqualTo(initialStock);
+        hotStockCounters.resync(7);
+        assertThat(hotStockCounters.available(7)).isEqualTo(initialStock - committed.get());
+    }
+
+    @Test
+    void resyncOfUnloadedApparelReadsNothing() {
+        // When
+        hotStockCounters.resync(3);
+
+        // Then
+        verify(hotStockReservationRepository, never()).findUnreservedQuantityByApparelId(any());
+    }
+
+    private static HotStockReservation reservation(int id, int apparelId, int quantity) {
+        HotStockReservation reservation = HotStockReservation.builder()
+                .apparelId(apparelId)
+                .quantity(quantity)
+                .build();
+        reservation.setId(id);
+        return reservation;
+    }
+}
@@ -0,0 +1,275 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.config.IdempotencyProperties;
+import gh.z0736190100.apparelstore.entities.IdempotencyKey;
+import gh.z0736190100.apparelstore.exceptions.IdempotencyKeyMismatchException;
+import gh.z0736190100.apparelstore.repositories.IdempotencyKeyRepository;
+import gh.z0736190100.apparelstore.services.IdempotencyKeyService.IdempotentResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyKeyServiceImplTest {
+
+    @Mock
+    IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    IdempotencyKeyServiceImpl idempotencyKeyService;
+
+    @BeforeEach
+    void setUp() {
+        idempotencyKeyService = new IdempotencyKeyServiceImpl(idempotencyKeyRepository, objectMapper,
+                new IdempotencyProperties(Duration.ofHours(24), 100, Duration.ofSeconds(5), Duration.ofMinutes(10), 2),
+                new SimpleMeterRegistry(), transactionManager);
+    }
+
+    @Test
+    void firstRequestRunsTheActionAndStoresItsResponse() {
+        // Given
+        when(idempotencyKeyRepository.findByKeyHash(anyString())).thenReturn(Optional.empty());
+        when(idempotencyKeyRepository.saveAndFlush(any(IdempotencyKey.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // When
+        IdempotentResponse<Echo> response = idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class,
+                () -> new Echo("created"));
+
+        // Then
+        assertThat(response.body()).isEqualTo(new Echo("created"));
+        assertThat(response.replayed()).isFalse();
+        ArgumentCaptor<IdempotencyKey> saved = ArgumentCaptor.forClass(IdempotencyKey.class);
+        verify(idempotencyKeyRepository).saveAndFlush(saved.capture());
+        assertThat(saved.getValue().getKeyHash()).hasSize(64).doesNotContain("key-1");
+        assertThat(saved.getValue().getResponseBody()).isEqualTo("{\"value\":\"created\"}");
+    }
+
+    @Test
+    void retryIsAnsweredFromMemory() {
+        // Given
+        when(idempotencyKeyRepository.findByKeyHash(anyString())).thenReturn(Optional.empty());
+        when(idempotencyKeyRepository.saveAndFlush(any(IdempotencyKey.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        AtomicInteger runs = new AtomicInteger();
+        idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class,
+                () -> new Echo("created " + runs.incrementAndGet()));
+
+        // When
+        IdempotentResponse<Echo> retry = idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class,
+                () -> new Echo("created " + runs.incrementAndGet()));
+
+        // Then
+        assertThat(retry.body()).isEqualTo(new Echo("created 1"));
+        assertThat(retry.replayed()).isTrue();
+        assertThat(runs).hasValue(1);
+        verify(idempotencyKeyRepository, times(1)).findByKeyHash(anyString());
+    }
+
+    @Test
+    void keyReusedForADifferentRequestIsRejected() {
+        // Given
+        when(idempotencyKeyRepository.findByKeyHash(anyString())).thenReturn(Optional.empty());
+        when(idempotencyKeyRepository.saveAndFlush(any(IdempotencyKey.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class, () -> new Echo("created"));
+
+        // When/Then
+        assertThatThrownBy(() -> idempotencyKeyService.execute("key-1", new Echo("another order"), Echo.class,
+                () -> new Echo("created again")))
+                .isInstanceOf(IdempotencyKeyMismatchException.class);
+    }
+
+    @Test
+    void storedKeyIsReplayedWithoutRunningTheAction() {
+        // Given a key answered before the cache was filled, e.g. by another instance
+        IdempotencyKeyServiceImpl other = new IdempotencyKeyServiceImpl(idempotencyKeyRepository, objectMapper,
+                new IdempotencyProperties(Duration.ofHours(24), 100, Duration.ofSeconds(5), Duration.ofMinutes(10), 2),
+                new SimpleMeterRegistry(), transactionManager);
+        when(idempotencyKeyRepository.findByKeyHash(anyString())).thenReturn(Optional.empty());
+        when(idempotencyKeyRepository.saveAndFlush(any(IdempotencyKey.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        other.execute("key-1", new Echo("order"), Echo.class, () -> new Echo("created"));
+        ArgumentCaptor<IdempotencyKey> saved = ArgumentCaptor.forClass(IdempotencyKey.class);
+        verify(idempotencyKeyRepository).saveAndFlush(saved.capture());
+        when(idempotencyKeyRepository.findByKeyHash(saved.getValue().getKeyHash())).thenReturn(Optional.of(saved.getValue()));
+
+        // When
+        IdempotentResponse<Echo> response = idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class,
+                () -> { throw new AssertionError("The action must not run again"); });
+
+        // Then
+        assertThat(response.body()).isEqualTo(new Echo("created"));
+        assertThat(response.replayed()).isTrue();
+    }
+
+    @Test
+    void storedKeyIsCachedOnlyUntilItsRowIsDueForPurging() {
+        // Given a row past the 24 hour retention that the purge has not reached yet
+        IdempotencyKey stored = IdempotencyKey.builder()
+                .keyHash("stored")
+                .requestHash(sha256Of(new Echo("order")))
+                .responseBody("{\"value\":\"created\"}")
+                .build();
+        stored.setCreatedDate(LocalDateTime.now().minusHours(24).minusMinutes(1));
+        when(idempotencyKeyRepository.findByKeyHash(anyString())).thenReturn(Optional.of(stored));
+
+        // When
+        idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class,
+                () -> { throw new AssertionError("The action must not run again"); });
+        idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class,
+                () -> { throw new AssertionError("The action must not run again"); });
+
+        // Then it is not kept in memory, so once purged it cannot be replayed
+        verify(idempotencyKeyRepository, times(2)).findByKeyHash(anyString());
+    }
+
+    @Test
+    void losingTheInsertRaceReplaysTheWinner() {
+        // Given
+        IdempotencyKey winner = IdempotencyKey.builder()
+                .keyHash("winner")
+                .requestHash(sha256Of(new Echo("order")))
+                .responseBody("{\"value\":\"created elsewhere\"}")
+                .build();
+        when(idempotencyKeyRepository.findByKeyHash(anyString()))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(winner));
+        when(idempotencyKeyRepository.saveAndFlush(any(IdempotencyKey.class)))
+                .thenThrow(new DataIntegrityViolationException("uk_idempotency_key_key_hash"));
+
+        // When
+        IdempotentResponse<Echo> response = idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class,
+                () -> new Echo("created here"));
+
+        // Then
+        assertThat(response.body()).isEqualTo(new Echo("created elsewhere"));
+        assertThat(response.replayed()).isTrue();
+    }
+
+    @Test
+    void integrityViolationOfTheActionPropagatesUnchanged() {
+        // Given
+        when(idempotencyKeyRepository.findByKeyHash(anyString())).thenReturn(Optional.empty());
+        when(idempotencyKeyRepository.saveAndFlush(any(IdempotencyKey.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        DataIntegrityViolationException failure = new DataIntegrityViolationException("uk_customer_email_normalized");
+
+        // When / Then
+        assertThatThrownBy(() -> idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class,
+                () -> { throw failure; }))
+                .isSameAs(failure);
+        verify(idempotencyKeyRepository, times(1)).findByKeyHash(anyString());
+    }
+
+    @Test
+    void concurrentDuplicateWaitsForTheFirstRequest() throws Exception {
+        // Given
+        when(idempotencyKeyRepository.findByKeyHash(anyString())).thenReturn(Optional.empty());
+        when(idempotencyKeyRepository.saveAndFlush(any(IdempotencyKey.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            // When
+            Future<IdempotentResponse<Echo>> first = executor.submit(() ->
+                    idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class, () -> {
+                        runs.incrementAndGet();
+                        started.countDown();
+                        await(finish);
+                        return new Echo("created");
+                    }));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<IdempotentResponse<Echo>> duplicate = executor.submit(() ->
+                    idempotencyKeyService.execute("key-1", new Echo("order"), Echo.class, () -> {
+                        runs.incrementAndGet();
+                        return new Echo("created twice");
+                    }));
+            finish.countDown();
+
+            // Then
+            assertThat(first.get(5, TimeUnit.SECONDS).replayed()).isFalse();
+            assertThat(duplicate.get(5, TimeUnit.SECONDS)).isEqualTo(new IdempotentResponse<>(new Echo("created"), true));
+            assertThat(runs).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void purgeDeletesExpiredKeysInBatches() {
+        // Given
+        when(idempotencyKeyRepository.findIdsCreatedBefore(any(), any(Limit.class)))
+                .thenReturn(List.of(1, 2))
+                .thenReturn(List.of(3));
+
+        // When
+        int purged = idempotencyKeyService.purgeExpiredKeys();
+
+        // Then
+        assertThat(purged).isEqualTo(3);
+        verify(idempotencyKeyRepository).deleteAllByIdInBatch(List.of(1, 2));
+        verify(idempotencyKeyRepository).deleteAllByIdInBatch(List.of(3));
+    }
+
+    @Test
+    void purgeWithNothingExpiredDeletesNothing() {
+        // Given
+        when(idempotencyKeyRepository.findIdsCreatedBefore(any(), any(Limit.class))).thenReturn(List.of());
+
+        // When/Then
+        assertThat(idempotencyKeyService.purgeExpiredKeys()).isZero();
+        verify(idempotencyKeyRepository, never()).deleteAllByIdInBatch(any());
+    }
+
+    private String sha256Of(Object request) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(request);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    record Echo(String value) {
+    }
+}
@@ -0,0 +1,147 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.entities.Apparel;
+import gh.z0736190100.apparelstore.entities.ApparelOrder;
+import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderShipment;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
+import gh.z0736190100.apparelstore.entities.Customer;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import gh.z0736190100.apparelstore.repositories.CustomerRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Insert throughput of large cascaded orders and of a bulk apparel import.
+ * <p>
+ * Not part of the regular build; run with
+ * {@code mvn test -Dtest=InsertThroughputBenchmarkTest -Dbenchmark=true}.
+ * To compare against unbatched inserts, run it again with
+ * {@code -Dspring.jpa.properties.hibernate.jdbc.batch_size=1}, or on a revision that still uses IDENTITY IDs.
+ */
+@Slf4j
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class InsertThroughputBenchmarkTest {
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int ORDERS = 200;
+    private static final int LINES_PER_ORDER = 50;
+    private static final int SHIPMENTS_PER_ORDER = 5;
+    private static final int IMPORTED_APPARELS = 20_000;
+    private static final int IMPORT_CHUNK = 500;
+
+    @Autowired
+    ApparelOrderRepository apparelOrderRepository;
+
+    @Autowired
+    ApparelRepository apparelRepository;
+
+    @Autowired
+    CustomerRepository customerRepository;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void largeOrders() {
+        Customer customer = customerRepository.save(Customer.builder()
+                .name("Benchmark Customer")
+                .addressLine1("1 Benchmark Way")
+                .city("Springfield")
+                .state("IL")
+                .postalCode("62701")
+                .build());
+        List<Apparel> apparels = apparelRepository.saveAll(apparels(LINES_PER_ORDER, "order"));
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            saveOrders(customer, apparels, ORDERS / 10);
+        }
+
+        long start = System.nanoTime();
+        saveOrders(customer, apparels, ORDERS);
+        long elapsed = System.nanoTime() - start;
+
+        report("large orders", ORDERS * (1 + LINES_PER_ORDER + SHIPMENTS_PER_ORDER), elapsed);
+    }
+
+    @Test
+    void bulkApparelImport() {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            importApparels(IMPORTED_APPARELS / 10, "warmup" + round);
+        }
+
+        long start = System.nanoTime();
+        importApparels(IMPORTED_APPARELS, "import");
+        long elapsed = System.nanoTime() - start;
+
+        report("bulk apparel import", IMPORTED_APPARELS, elapsed);
+    }
+
+    private void saveOrders(Customer customer, List<Apparel> apparels, int orders) {
+        // One order per transaction, as through ApparelOrderServiceImpl.saveApparelOrder
+        for (int i = 0; i < orders; i++) {
+            transactionTemplate.executeWithoutResult(status -> {
+                ApparelOrder apparelOrder = ApparelOrder.builder()
+                        .customer(customer)
+                        .paymentAmount(new BigDecimal("99.99"))
+                        .status(ApparelOrderStatus.NEW)
+                        .build();
+                for (Apparel apparel : apparels) {
+                    apparelOrder.addApparelOrderLine(ApparelOrderLine.builder()
+                            .apparel(apparel)
+                            .orderQuantity(1)
+                            .quantityAllocated(0)
+                            .status("NEW")
+                            .build());
+                }
+                for (int s = 0; s < SHIPMENTS_PER_ORDER; s++) {
+                    apparelOrder.addShipment(ApparelOrderShipment.builder()
+                            .shipmentDate(LocalDateTime.now())
+                            .carrier("Benchmark Carrier")
+                            .trackingNumber("TRACK" + s)
+                            .build());
+                }
+                apparelOrderRepository.save(apparelOrder);
+            });
+        }
+    }
+
+    private void importApparels(int count, String prefix) {
+        for (int from = 0; from < count; from += IMPORT_CHUNK) {
+            int size = Math.min(IMPORT_CHUNK, count - from);
+            String chunkPrefix = prefix + from;
+            transactionTemplate.executeWithoutResult(status -> apparelRepository.saveAll(apparels(size, chunkPrefix)));
+        }
+    }
+
+    private static List<Apparel> apparels(int count, String prefix) {
+        List<Apparel> apparels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            apparels.add(Apparel.builder()
+                    .apparelName("Benchmark Apparel " + prefix + "-" + i)
+                    .apparelStyle("Loose")
+                    .upc(prefix + "-" + i)
+                    .price(new BigDecimal("9.99"))
+                    .quantityOnHand(100)
+                    .build());
+        }
+        return apparels;
+    }
+
+    private static void report(String scenario, long rows, long elapsedNanos) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        log.info("{}: {} rows in {} s ({} rows/s)", scenario, rows, String.format("%.2f", seconds),
+                String.format("%.0f", rows / seconds));
+    }
+}
@@ -0,0 +1,180 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.entities.Apparel;
+import gh.z0736190100.apparelstore.entities.ApparelOrder;
+import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.Customer;
+import gh.z0736190100.apparelstore.mappers.CustomerMapper;
+import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import gh.z0736190100.apparelstore.models.ApparelOrderLineDto;
+import gh.z0736190100.apparelstore.models.CustomerDto;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import gh.z0736190100.apparelstore.repositories.CustomerRepository;
+import gh.z0736190100.apparelstore.repositories.StockReservationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Allocates many orders against a few apparels from 64 threads at once and checks that no stock is
+ * oversold and none is lost: whatever left the apparels ended up on exactly one order line.
+ */
+@SpringBootTest
+class InventoryAllocationConcurrencyTest {
+
+    private static final int THREADS = 64;
+    private static final int ORDERS = 320;
+    private static final int APPARELS = 3;
+    private static final int STOCK = 100;
+
+    @Autowired
+    InventoryAllocationService inventoryAllocationService;
+
+    @Autowired
+    ApparelOrderService apparelOrderService;
+
+    @Autowired
+    ApparelOrderRepository apparelOrderRepository;
+
+    @Autowired
+    ApparelRepository apparelRepository;
+
+    @Autowired
+    CustomerRepository customerRepository;
+
+    @Autowired
+    StockReservationRepository stockReservationRepository;
+
+    @Autowired
+    CustomerMapper customerMapper;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    Customer customer;
+    List<Integer> apparelIds;
+    List<Integer> orderIds;
+
+    @BeforeEach
+    void setUp() {
+        customer = customerRepository.save(Customer.builder()
+                .name("Drop Customer")
+                .email("drop@example.com")
+                .phoneNumber("555-123-4567")
+                .addressLine1("123 Main St")
+                .city("Springfield")
+                .state("IL")
+                .postalCode("62701")
+                .build());
+        CustomerDto customerDto = customerMapper.customerToCustomerDto(customer);
+
+        apparelIds = new ArrayList<>();
+        for (int i = 0; i < APPARELS; i++) {
+            apparelIds.add(apparelRepository.save(Apparel.builder()
+                    .apparelName("Drop Apparel " + i)
+                    .apparelStyle("Loose")
+                    .upc("DROP" + i)
+                    .price(new BigDecimal("49.99"))
+                    .quantityOnHand(STOCK)
+                    .build()).getId());
+        }
+
+        // Every order wants one or two of each apparel, far more than there is in stock
+        orderIds = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            Set<ApparelOrderLineDto> lines = new HashSet<>();
+            for (Integer apparelId : apparelIds) {
+                lines.add(ApparelOrderLineDto.builder()
+                        .apparelId(apparelId)
+                        .orderQuantity(i % 2 + 1)
+                        .quantityAllocated(0)
+                        .status("NEW")
+                        .build());
+            }
+            orderIds.add(apparelOrderService.saveApparelOrder(ApparelOrderDto.builder()
+                    .customer(customerDto)
+                    .paymentAmount(new BigDecimal("149.97"))
+                    .status("NEW")
+                    .apparelOrderLines(lines)
+                    .build()).getId());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        orderIds.forEach(id -> {
+            stockReservationRepository.deleteByApparelOrderId(id);
+            apparelOrderService.deleteApparelOrderById(id, null);
+        });
+        apparelRepository.deleteAllById(apparelIds);
+        customerRepository.delete(customer);
+    }
+
+    @Test
+    void concurrentAllocationNeverOversells() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> allocations = new ArrayList<>();
+        try {
+            for (Integer orderId : orderIds) {
+                allocations.add(executor.submit(() -> {
+                    start.await();
+                    return inventoryAllocationService.allocateApparelOrder(orderId);
+                }));
+            }
+            start.countDown();
+            for (Future<?> allocation : allocations) {
+                // Fails the test if any allocation threw, e.g. on a deadlock or lock timeout
+                allocation.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<Integer, Integer> allocatedByApparelId = transactionTemplate.execute(status -> {
+            Map<Integer, Integer> allocated = new HashMap<>();
+            for (ApparelOrder apparelOrder : apparelOrderRepository.findWithLinesByIdIn(orderIds)) {
+                for (ApparelOrderLine line : apparelOrder.getApparelOrderLines()) {
+                    assertThat(line.getQuantityAllocated()).isBetween(0, line.getOrderQuantity());
+                    assertThat(line.getStatus()).isIn(InventoryAllocationServiceImpl.ALLOCATED,
+                            InventoryAllocationServiceImpl.PARTIALLY_ALLOCATED, InventoryAllocationServiceImpl.BACKORDERED);
+                    allocated.merge(line.getApparel().getId(), line.getQuantityAllocated(), Integer::sum);
+                }
+            }
+            return allocated;
+        });
+
+        for (Integer apparelId : apparelIds) {
+            int remaining = apparelRepository.findQuantityOnHandById(apparelId).orElseThrow();
+            assertThat(remaining).isGreaterThanOrEqualTo(0);
+            assertThat(allocatedByApparelId.get(apparelId) + remaining).isEqualTo(STOCK);
+        }
+
+        // The orders are unpaid, so everything allocated is held
+        Map<Integer, Integer> heldByApparelId = new HashMap<>();
+        stockReservationRepository.findAll().stream()
+                .filter(reservation -> orderIds.contains(reservation.getApparelOrderId()))
+                .forEach(reservation -> heldByApparelId.merge(reservation.getApparelId(), reservation.getQuantity(),
+                        Integer::sum));
+        assertThat(heldByApparelId).isEqualTo(allocatedByApparelId);
+    }
+}
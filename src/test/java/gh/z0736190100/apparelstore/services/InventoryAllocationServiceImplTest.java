@@ -0,0 +1,269 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.entities.Apparel;
+import gh.z0736190100.apparelstore.entities.ApparelOrder;
+import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
+import gh.z0736190100.apparelstore.mappers.ApparelOrderMapper;
+import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class InventoryAllocationServiceImplTest {
+
+    @Mock
+    ApparelOrderRepository apparelOrderRepository;
+
+    @Mock
+    ApparelRepository apparelRepository;
+
+    @Mock
+    ApparelOrderMapper apparelOrderMapper;
+
+    @Mock
+    ApparelDtoCache apparelDtoCache;
+
+    @Mock
+    CatalogVersion catalogVersion;
+
+    @Mock
+    HotStockCounters hotStockCounters;
+
+    @Mock
+    StockReservationManager stockReservationManager;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    InventoryAllocationServiceImpl inventoryAllocationService;
+
+    ApparelOrder apparelOrder;
+    ApparelOrderDto apparelOrderDto;
+
+    @BeforeEach
+    void setUp() {
+        inventoryAllocationService = new InventoryAllocationServiceImpl(apparelOrderRepository, apparelRepository,
+                apparelOrderMapper, apparelDtoCache, catalogVersion, hotStockCounters,
+                stockReservationManager, transactionManager);
+
+        apparelOrder = new ApparelOrder();
+        apparelOrder.setId(1);
+        apparelOrderDto = ApparelOrderDto.builder().id(1).build();
+    }
+
+    @Test
+    void allocateApparelOrderTakesStockInApparelIdOrder() {
+        // Given
+        ApparelOrderLine lineForApparel7 = line(10, apparelWithId(7), 2, null);
+        ApparelOrderLine lineForApparel3 = line(11, apparelWithId(3), 1, 0);
+        ApparelOrderLine otherLineForApparel3 = line(12, apparelWithId(3), 4, 0);
+        givenOrderWith(lineForApparel7, lineForApparel3, otherLineForApparel3);
+        when(apparelRepository.allocateStock(3, 5)).thenReturn(1);
+        when(apparelRepository.allocateStock(7, 2)).thenReturn(1);
+
+        // When
+        Optional<ApparelOrderDto> result = inventoryAllocationService.allocateApparelOrder(1);
+
+        // Then
+        assertThat(result).contains(apparelOrderDto);
+        InOrder lockOrder = inOrder(apparelRepository);
+        lockOrder.verify(apparelRepository).allocateStock(3, 5);
+        lockOrder.verify(apparelRepository).allocateStock(7, 2);
+        assertThat(List.of(lineForApparel7, lineForApparel3, otherLineForApparel3))
+                .extracting(ApparelOrderLine::getStatus)
+                .containsOnly(InventoryAllocationServiceImpl.ALLOCATED);
+        assertThat(otherLineForApparel3.getQuantityAllocated()).isEqualTo(4);
+        verify(apparelOrderRepository).flush();
+        verify(apparelDtoCache).invalidate(3);
+        verify(apparelDtoCache).invalidate(7);
+        verify(catalogVersion).changed();
+    }
+
+    @Test
+    void allocateApparelOrderTakesWhatIsLeftWhenStockRunsShort() {
+        // Given
+        ApparelOrderLine firstLine = line(10, apparelWithId(3), 2, 0);
+        ApparelOrderLine secondLine = line(11, apparelWithId(3), 3, 0);
+        givenOrderWith(firstLine, secondLine);
+        when(apparelRepository.allocateStock(3, 5)).thenReturn(0);
+        when(apparelRepository.findQuantityOnHandById(3)).thenReturn(Optional.of(3));
+        when(apparelRepository.allocateStock(3, 3)).thenReturn(1);
+
+        // When
+        inventoryAllocationService.allocateApparelOrder(1);
+
+        // Then
+        assertThat(firstLine.getQuantityAllocated()).isEqualTo(2);
+        assertThat(firstLine.getStatus()).isEqualTo(InventoryAllocationServiceImpl.ALLOCATED);
+        assertThat(secondLine.getQuantityAllocated()).isEqualTo(1);
+        assertThat(secondLine.getStatus()).isEqualTo(InventoryAllocationServiceImpl.PARTIALLY_ALLOCATED);
+    }
+
+    @Test
+    void allocateApparelOrderRetriesPartialAllocationAfterLosingTheRace() {
+        // Given
+        ApparelOrderLine orderLine = line(10, apparelWithId(3), 5, 0);
+        givenOrderWith(orderLine);
+        when(apparelRepository.allocateStock(3, 5)).thenReturn(0);
+        when(apparelRepository.findQuantityOnHandById(3)).thenReturn(Optional.of(4), Optional.of(2));
+        when(apparelRepository.allocateStock(3, 4)).thenReturn(0);
+        when(apparelRepository.allocateStock(3, 2)).thenReturn(1);
+
+        // When
+        inventoryAllocationService.allocateApparelOrder(1);
+
+        // Then
+        assertThat(orderLine.getQuantityAllocated()).isEqualTo(2);
+        assertThat(orderLine.getStatus()).isEqualTo(InventoryAllocationServiceImpl.PARTIALLY_ALLOCATED);
+    }
+
+    @Test
+    void allocateApparelOrderBackordersLinesWithoutStock() {
+        // Given
+        ApparelOrderLine orderLine = line(10, apparelWithId(3), 2, 0);
+        givenOrderWith(orderLine);
+        when(apparelRepository.allocateStock(3, 2)).thenReturn(0);
+        when(apparelRepository.findQuantityOnHandById(3)).thenReturn(Optional.of(0));
+
+        // When
+        inventoryAllocationService.allocateApparelOrder(1);
+
+        // Then
+        assertThat(orderLine.getQuantityAllocated()).isZero();
+        assertThat(orderLine.getStatus()).isEqualTo(InventoryAllocationServiceImpl.BACKORDERED);
+        verify(apparelRepository, times(1)).allocateStock(anyInt(), anyInt());
+        verify(apparelDtoCache, never()).invalidate(any());
+    }
+
+    @Test
+    void allocateApparelOrderTakesHotStockFromTheCounters() {
+        // Given
+        ApparelOrderLine hotLine = line(10, apparelWithId(3), 4, 0);
+        ApparelOrderLine coldLine = line(11, apparelWithId(7), 1, 0);
+        givenOrderWith(hotLine, coldLine);
+        when(hotStockCounters.isHot(3)).thenReturn(true);
+        when(hotStockCounters.reserve(3, 4)).thenReturn(3);
+        when(apparelRepository.allocateStock(7, 1)).thenReturn(1);
+
+        // When
+        inventoryAllocationService.allocateApparelOrder(1);
+
+        // Then the hot apparel's row is left to the write-behind flush
+        assertThat(hotLine.getQuantityAllocated()).isEqualTo(3);
+        assertThat(hotLine.getStatus()).isEqualTo(InventoryAllocationServiceImpl.PARTIALLY_ALLOCATED);
+        assertThat(coldLine.getStatus()).isEqualTo(InventoryAllocationServiceImpl.ALLOCATED);
+        verify(apparelRepository, never()).allocateStock(eq(3), anyInt());
+        verify(apparelDtoCache, never()).invalidate(3);
+        verify(apparelDtoCache).invalidate(7);
+    }
+
+    @Test
+    void allocateApparelOrderHoldsStockOfUnpaidOrders() {
+        // Given
+        apparelOrder.setStatus(ApparelOrderStatus.NEW);
+        ApparelOrderLine allocatedLine = line(10, apparelWithId(3), 2, 0);
+        ApparelOrderLine backorderedLine = line(11, apparelWithId(7), 1, 0);
+        givenOrderWith(allocatedLine, backorderedLine);
+        when(apparelRepository.allocateStock(3, 2)).thenReturn(1);
+        when(apparelRepository.allocateStock(7, 1)).thenReturn(0);
+        when(apparelRepository.findQuantityOnHandById(7)).thenReturn(Optional.of(0));
+
+        // When
+        inventoryAllocationService.allocateApparelOrder(1);
+
+        // Then
+        verify(stockReservationManager).hold(allocatedLine, 2);
+        verify(stockReservationManager, never()).hold(eq(backorderedLine), anyInt());
+    }
+
+    @Test
+    void allocateApparelOrderDoesNotHoldStockOfPaidOrders() {
+        // Given
+        apparelOrder.setStatus(ApparelOrderStatus.PAID);
+        givenOrderWith(line(10, apparelWithId(3), 2, 0));
+        when(apparelRepository.allocateStock(3, 2)).thenReturn(1);
+
+        // When
+        inventoryAllocationService.allocateApparelOrder(1);
+
+        // Then
+        verify(stockReservationManager, never()).hold(any(), anyInt());
+    }
+
+    @Test
+    void allocateApparelOrderSkipsAllocatedLines() {
+        // Given
+        ApparelOrderLine orderLine = line(10, apparelWithId(3), 2, 2);
+        orderLine.setStatus(InventoryAllocationServiceImpl.ALLOCATED);
+        givenOrderWith(orderLine);
+
+        // When
+        inventoryAllocationService.allocateApparelOrder(1);
+
+        // Then
+        verify(apparelRepository, never()).allocateStock(anyInt(), anyInt());
+        assertThat(orderLine.getStatus()).isEqualTo(InventoryAllocationServiceImpl.ALLOCATED);
+    }
+
+    @Test
+    void allocateApparelOrderNotFound() {
+        // Given
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of());
+
+        // When
+        Optional<ApparelOrderDto> result = inventoryAllocationService.allocateApparelOrder(1);
+
+        // Then
+        assertThat(result).isEmpty();
+        verify(apparelRepository, never()).allocateStock(anyInt(), anyInt());
+        verify(catalogVersion, never()).changed();
+    }
+
+    private void givenOrderWith(ApparelOrderLine... lines) {
+        for (ApparelOrderLine line : lines) {
+            apparelOrder.addApparelOrderLine(line);
+        }
+        when(apparelOrderRepository.findWithLinesByIdIn(List.of(1))).thenReturn(List.of(apparelOrder));
+        when(apparelOrderMapper.apparelOrderToApparelOrderDto(apparelOrder)).thenReturn(apparelOrderDto);
+    }
+
+    private static ApparelOrderLine line(int id, Apparel apparel, int orderQuantity, Integer quantityAllocated) {
+        ApparelOrderLine line = ApparelOrderLine.builder()
+                .apparel(apparel)
+                .orderQuantity(orderQuantity)
+                .quantityAllocated(quantityAllocated)
+                .status("NEW")
+                .build();
+        line.setId(id);
+        return line;
+    }
+
+    private static Apparel apparelWithId(int id) {
+        Apparel apparel = Apparel.builder()
+                .apparelName("Apparel " + id)
+                .build();
+        apparel.setId(id);
+        return apparel;
+    }
+}
@@ -0,0 +1,64 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.ListingProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ListingCountCacheTest {
+
+    ListingCountCache listingCountCache;
+    AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        listingCountCache = new ListingCountCache(new ListingProperties(Duration.ofMinutes(1), 2));
+        loads = new AtomicInteger();
+    }
+
+    @Test
+    void countIsCachedPerFilter() {
+        // When
+        long first = listingCountCache.count("apparel", "a", () -> loads.incrementAndGet() * 10L);
+        long second = listingCountCache.count("apparel", "a", () -> loads.incrementAndGet() * 10L);
+        long other = listingCountCache.count("apparel", "b", () -> loads.incrementAndGet() * 10L);
+
+        // Then
+        assertThat(first).isEqualTo(10L);
+        assertThat(second).isEqualTo(10L);
+        assertThat(other).isEqualTo(20L);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void invalidateDropsOnlyThatListing() {
+        // Given
+        listingCountCache.count("apparel", "", () -> loads.incrementAndGet());
+        listingCountCache.count("apparelOrder", "", () -> loads.incrementAndGet());
+
+        // When
+        listingCountCache.invalidate("apparel");
+        listingCountCache.count("apparel", "", () -> loads.incrementAndGet());
+        listingCountCache.count("apparelOrder", "", () -> loads.incrementAndGet());
+
+        // Then
+        assertThat(loads).hasValue(3);
+    }
+
+    @Test
+    void expiredCountIsReloaded() {
+        // Given
+        listingCountCache = new ListingCountCache(new ListingProperties(Duration.ZERO, 2));
+
+        // When
+        listingCountCache.count("apparel", "", () -> loads.incrementAndGet());
+        listingCountCache.count("apparel", "", () -> loads.incrementAndGet());
+
+        // Then
+        assertThat(loads).hasValue(2);
+    }
+}
@@ -0,0 +1,161 @@
+package gh.z0736190100.apparelstore.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LookupCoalescerTest {
+
+    static final int CALLERS = 32;
+
+    SimpleMeterRegistry meterRegistry;
+    LookupCoalescer lookupCoalescer;
+    AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        lookupCoalescer = new LookupCoalescer(meterRegistry);
+        loads = new AtomicInteger();
+    }
+
+    @Test
+    void concurrentLookupsForSameKeyShareOneLoad() throws Exception {
+        // Given: the leader's load blocks until every other caller has joined it
+        CountDownLatch release = new CountDownLatch(1);
+
+        // When
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<String>> results = IntStream.range(0, CALLERS)
+                    .mapToObj(i -> executor.submit(() -> lookupCoalescer.load("apparel", 1, () -> {
+                        loads.incrementAndGet();
+                        await(release);
+                        return "value";
+                    })))
+                    .toList();
+            awaitJoined("apparel", CALLERS - 1);
+            release.countDown();
+
+            // Then
+            for (Future<String> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(loads).hasValue(1);
+        assertThat(counter("apparel", "leader").count()).isEqualTo(1);
+        assertThat(counter("apparel", "joined").count()).isEqualTo(CALLERS - 1);
+        Timer wait = meterRegistry.find("lookup.coalescing.wait").tag("lookup", "apparel").timer();
+        assertThat(wait).isNotNull();
+        assertThat(wait.count()).isEqualTo(CALLERS - 1);
+    }
+
+    @Test
+    void leaderFailureIsPropagatedToJoinedCallers() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> lookupCoalescer.load("customer", 7, () -> {
+                await(release);
+                throw new IllegalStateException("boom");
+            }));
+            awaitLeader("customer");
+            Future<String> joined = executor.submit(() -> lookupCoalescer.load("customer", 7, () -> "unused"));
+            awaitJoined("customer", 1);
+
+            // When
+            release.countDown();
+
+            // Then
+            assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IllegalStateException.class);
+            assertThatThrownBy(() -> joined.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .cause()
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("boom");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void completedLoadsAreNotReused() {
+        // When
+        lookupCoalescer.load("apparel", 1, loads::incrementAndGet);
+        lookupCoalescer.load("apparel", 1, loads::incrementAndGet);
+
+        // Then
+        assertThat(loads).hasValue(2);
+        assertThat(counter("apparel", "leader").count()).isEqualTo(2);
+    }
+
+    @Test
+    void differentKeysAndLookupsLoadIndependently() {
+        // When
+        lookupCoalescer.load("apparel", 1, loads::incrementAndGet);
+        lookupCoalescer.load("apparel", 2, loads::incrementAndGet);
+        lookupCoalescer.load("customer", 1, loads::incrementAndGet);
+
+        // Then
+        assertThat(loads).hasValue(3);
+    }
+
+    private Counter counter(String lookup, String outcome) {
+        return meterRegistry.get("lookup.coalescing.requests")
+                .tags("lookup", lookup, "outcome", outcome)
+                .counter();
+    }
+
+    private void awaitLeader(String lookup) throws InterruptedException {
+        awaitCount(lookup, "leader", 1);
+    }
+
+    private void awaitJoined(String lookup, int expected) throws InterruptedException {
+        awaitCount(lookup, "joined", expected);
+    }
+
+    private void awaitCount(String lookup, String outcome, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            Counter counter = meterRegistry.find("lookup.coalescing.requests")
+                    .tags("lookup", lookup, "outcome", outcome)
+                    .counter();
+            if (counter != null && counter.count() >= expected) {
+                return;
+            }
+            Thread.sleep(1);
+        }
+        throw new AssertionError("Timed out waiting for " + expected + " " + outcome + " lookups");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Load was never released");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.config.OutboxProperties;
+import gh.z0736190100.apparelstore.models.OutboxEventDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NdjsonFileOutboxSinkTest {
+
+    ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void deliverAppendsOneJsonLinePerEvent() throws Exception {
+        // Given
+        Path file = directory.resolve("events/outbox.ndjson");
+        NdjsonFileOutboxSink sink = new NdjsonFileOutboxSink(new OutboxProperties(true, 500, Duration.ofSeconds(1),
+                Duration.ofHours(24), Duration.ofMinutes(10), file), objectMapper);
+
+        // When
+        sink.deliver(List.of(event(1), event(2)));
+        sink.deliver(List.of(event(3)));
+        sink.close();
+
+        // Then
+        List<String> lines = Files.readAllLines(file);
+        assertThat(lines).hasSize(3);
+        JsonNode first = objectMapper.readTree(lines.get(0));
+        assertThat(first.get("id").asInt()).isEqualTo(1);
+        assertThat(first.get("eventType").asText()).isEqualTo("ApparelOrderCreated");
+        // The payload is embedded as JSON, not as a string
+        assertThat(first.get("payload").get("status").asText()).isEqualTo("NEW");
+        assertThat(objectMapper.readTree(lines.get(2)).get("id").asInt()).isEqualTo(3);
+    }
+
+    private static OutboxEventDto event(Integer id) {
+        return OutboxEventDto.builder()
+                .id(id)
+                .aggregateType("ApparelOrder")
+                .aggregateId(10 + id)
+                .eventType("ApparelOrderCreated")
+                .payload("{\"id\":" + (10 + id) + ",\"status\":\"NEW\"}")
+                .build();
+    }
+}
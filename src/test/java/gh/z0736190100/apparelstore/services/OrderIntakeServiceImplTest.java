@@ -0,0 +1,268 @@
+package gh.z0736190100.apparelstore.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gh.z0736190100.apparelstore.config.IntakeProperties;
+import gh.z0736190100.apparelstore.entities.OrderIntake;
+import gh.z0736190100.apparelstore.exceptions.ApparelOrderException;
+import gh.z0736190100.apparelstore.exceptions.OrderIntakeFullException;
+import gh.z0736190100.apparelstore.mappers.OrderIntakeMapper;
+import gh.z0736190100.apparelstore.models.ApparelOrderDto;
+import gh.z0736190100.apparelstore.models.OrderIntakeDto;
+import gh.z0736190100.apparelstore.repositories.OrderIntakeRepository;
+import gh.z0736190100.apparelstore.services.OrderIntakeServiceImpl.QueuedOrder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OrderIntakeServiceImplTest {
+
+    @Mock
+    OrderIntakeRepository orderIntakeRepository;
+
+    @Mock
+    OrderIntakeMapper orderIntakeMapper;
+
+    @Mock
+    ApparelOrderService apparelOrderService;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    OrderIntakeServiceImpl orderIntakeService;
+
+    @BeforeEach
+    void setUp() {
+        orderIntakeService = new OrderIntakeServiceImpl(new IntakeProperties(true, 2, 1, 100, Duration.ofSeconds(1)),
+                orderIntakeRepository, orderIntakeMapper, apparelOrderService, objectMapper,
+                new SimpleMeterRegistry(), transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void acceptJournalsTheOrderAndQueuesIt() throws Exception {
+        // Given
+        when(orderIntakeRepository.save(any(OrderIntake.class))).thenAnswer(invocation -> {
+            OrderIntake orderIntake = invocation.getArgument(0);
+            orderIntake.setId(7);
+            return orderIntake;
+        });
+        when(orderIntakeMapper.orderIntakeToOrderIntakeDto(any()))
+                .thenReturn(OrderIntakeDto.builder().id(7).status("ACCEPTED").build());
+
+        // When
+        OrderIntakeDto accepted = orderIntakeService.acceptApparelOrder(order("NEW"));
+
+        // Then
+        assertThat(accepted.getStatus()).isEqualTo("ACCEPTED");
+        assertThat(orderIntakeService.queued()).isEqualTo(1);
+        ArgumentCaptor<OrderIntake> journaled = ArgumentCaptor.forClass(OrderIntake.class);
+        verify(orderIntakeRepository).save(journaled.capture());
+        assertThat(journaled.getValue().getStatus()).isEqualTo(OrderIntakeServiceImpl.ACCEPTED);
+        assertThat(objectMapper.readValue(journaled.getValue().getPayload(), ApparelOrderDto.class).getStatus())
+                .isEqualTo("NEW");
+    }
+
+    @Test
+    void acceptWhenTheQueueIsFullIsRejectedWithoutJournaling() {
+        // Given a queue with room for two
+        when(orderIntakeRepository.save(any(OrderIntake.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        orderIntakeService.acceptApparelOrder(order("NEW"));
+        orderIntakeService.acceptApparelOrder(order("NEW"));
+
+        // When/Then
+        assertThatThrownBy(() -> orderIntakeService.acceptApparelOrder(order("NEW")))
+                .isInstanceOf(OrderIntakeFullException.class);
+        verify(orderIntakeRepository, times(2)).save(any(OrderIntake.class));
+        assertThat(orderIntakeService.queued()).isEqualTo(2);
+    }
+
+    @Test
+    void acceptInARolledBackTransactionGivesItsPlaceBack() {
+        // Given
+        when(orderIntakeRepository.save(any(OrderIntake.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        TransactionSynchronizationManager.initSynchronization();
+        orderIntakeService.acceptApparelOrder(order("NEW"));
+
+        // When
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        // Then
+        assertThat(orderIntakeService.queued()).isZero();
+    }
+
+    @Test
+    void acceptWhenDisabledFails() {
+        // Given
+        OrderIntakeServiceImpl disabled = new OrderIntakeServiceImpl(
+                new IntakeProperties(false, 2, 1, 100, Duration.ofSeconds(1)), orderIntakeRepository,
+                orderIntakeMapper, apparelOrderService, objectMapper, new SimpleMeterRegistry(), transactionManager);
+
+        // When/Then
+        assertThat(disabled.isEnabled()).isFalse();
+        assertThatThrownBy(() -> disabled.acceptApparelOrder(order("NEW")))
+                .isInstanceOf(IllegalStateException.class);
+        verify(orderIntakeRepository, never()).save(any(OrderIntake.class));
+    }
+
+    @Test
+    void saveBatchSavesEveryOrderInOneTransaction() throws Exception {
+        // Given
+        OrderIntake first = journaled(1, order("NEW"));
+        OrderIntake second = journaled(2, order("NEW"));
+        when(orderIntakeRepository.findAllByIdInAndStatusOrderById(List.of(1, 2), OrderIntakeServiceImpl.PROCESSING))
+                .thenReturn(List.of(first, second));
+        when(apparelOrderService.saveApparelOrder(any(ApparelOrderDto.class)))
+                .thenReturn(ApparelOrderDto.builder().id(11).build())
+                .thenReturn(ApparelOrderDto.builder().id(12).build());
+
+        // When
+        int saved = orderIntakeService.saveBatch(List.of(new QueuedOrder(1, System.nanoTime()),
+                new QueuedOrder(2, System.nanoTime())));
+
+        // Then
+        assertThat(saved).isEqualTo(2);
+        verify(transactionManager, times(1)).getTransaction(any());
+        InOrder claimFirst = inOrder(orderIntakeRepository);
+        claimFirst.verify(orderIntakeRepository).claimByIdIn(List.of(1, 2), OrderIntakeServiceImpl.ACCEPTED,
+                OrderIntakeServiceImpl.PROCESSING);
+        claimFirst.verify(orderIntakeRepository).findAllByIdInAndStatusOrderById(List.of(1, 2),
+                OrderIntakeServiceImpl.PROCESSING);
+        assertThat(first.getStatus()).isEqualTo(OrderIntakeServiceImpl.COMPLETED);
+        assertThat(first.getApparelOrderId()).isEqualTo(11);
+        assertThat(second.getStatus()).isEqualTo(OrderIntakeServiceImpl.COMPLETED);
+        assertThat(second.getApparelOrderId()).isEqualTo(12);
+    }
+
+    @Test
+    void saveBatchWithABadOrderSavesTheOthersOneByOne() throws Exception {
+        // Given
+        OrderIntake good = journaled(1, order("NEW"));
+        OrderIntake bad = journaled(2, order("UNKNOWN"));
+        when(orderIntakeRepository.findAllByIdInAndStatusOrderById(List.of(1, 2), OrderIntakeServiceImpl.PROCESSING))
+                .thenReturn(List.of(journaled(1, order("NEW")), journaled(2, order("UNKNOWN"))));
+        when(orderIntakeRepository.findAllByIdInAndStatusOrderById(List.of(1), OrderIntakeServiceImpl.PROCESSING))
+                .thenReturn(List.of(good));
+        when(orderIntakeRepository.findAllByIdInAndStatusOrderById(List.of(2), OrderIntakeServiceImpl.PROCESSING))
+                .thenReturn(List.of(bad));
+        when(orderIntakeRepository.findById(2)).thenReturn(Optional.of(bad));
+        when(apparelOrderService.saveApparelOrder(any(ApparelOrderDto.class))).thenAnswer(invocation -> {
+            ApparelOrderDto apparelOrderDto = invocation.getArgument(0);
+            if ("UNKNOWN".equals(apparelOrderDto.getStatus())) {
+                throw new ApparelOrderException("Apparel not found for IDs: [99]");
+            }
+            return ApparelOrderDto.builder().id(11).build();
+        });
+
+        // When
+        int saved = orderIntakeService.saveBatch(List.of(new QueuedOrder(1, System.nanoTime()),
+                new QueuedOrder(2, System.nanoTime())));
+
+        // Then
+        assertThat(saved).isEqualTo(1);
+        assertThat(good.getStatus()).isEqualTo(OrderIntakeServiceImpl.COMPLETED);
+        assertThat(good.getApparelOrderId()).isEqualTo(11);
+        assertThat(bad.getStatus()).isEqualTo(OrderIntakeServiceImpl.FAILED);
+        assertThat(bad.getError()).isEqualTo("Apparel not found for IDs: [99]");
+    }
+
+    @Test
+    void saveBatchSkipsOrdersClaimedElsewhere() {
+        // Given another instance recovered the same order and claimed it first
+        when(orderIntakeRepository.findAllByIdInAndStatusOrderById(List.of(1), OrderIntakeServiceImpl.PROCESSING))
+                .thenReturn(List.of());
+
+        // When
+        int saved = orderIntakeService.saveBatch(List.of(new QueuedOrder(1, System.nanoTime())));
+
+        // Then
+        assertThat(saved).isZero();
+        verify(orderIntakeRepository).claimByIdIn(List.of(1), OrderIntakeServiceImpl.ACCEPTED,
+                OrderIntakeServiceImpl.PROCESSING);
+        verify(apparelOrderService, never()).saveApparelOrder(any(ApparelOrderDto.class));
+    }
+
+    @Test
+    void saveOrRequeueQueuesTheBatchAgainWhenItsFailureCannotBeRecorded() {
+        // Given the database goes away, so marking the order FAILED fails as well
+        when(orderIntakeRepository.claimByIdIn(List.of(1), OrderIntakeServiceImpl.ACCEPTED,
+                OrderIntakeServiceImpl.PROCESSING)).thenThrow(new DataAccessResourceFailureException("Connection refused"));
+        when(orderIntakeRepository.findById(1)).thenThrow(new DataAccessResourceFailureException("Connection refused"));
+
+        // When
+        boolean handled = orderIntakeService.saveOrRequeue(List.of(new QueuedOrder(1, System.nanoTime())));
+
+        // Then the order is not left ACCEPTED until the next start
+        assertThat(handled).isFalse();
+        assertThat(orderIntakeService.queued()).isEqualTo(1);
+    }
+
+    @Test
+    void saveOrRequeueDoesNotQueueFailedOrdersAgain() throws Exception {
+        // Given
+        OrderIntake bad = journaled(2, order("UNKNOWN"));
+        when(orderIntakeRepository.findAllByIdInAndStatusOrderById(List.of(2), OrderIntakeServiceImpl.PROCESSING))
+                .thenReturn(List.of(bad));
+        when(orderIntakeRepository.findById(2)).thenReturn(Optional.of(bad));
+        when(apparelOrderService.saveApparelOrder(any(ApparelOrderDto.class)))
+                .thenThrow(new ApparelOrderException("Apparel not found for IDs: [99]"));
+
+        // When
+        boolean handled = orderIntakeService.saveOrRequeue(List.of(new QueuedOrder(2, System.nanoTime())));
+
+        // Then
+        assertThat(handled).isTrue();
+        assertThat(bad.getStatus()).isEqualTo(OrderIntakeServiceImpl.FAILED);
+        assertThat(orderIntakeService.queued()).isZero();
+    }
+
+    private static ApparelOrderDto order(String status) {
+        return ApparelOrderDto.builder()
+                .id(5)
+                .paymentAmount(new BigDecimal("25.98"))
+                .status(status)
+                .build();
+    }
+
+    private OrderIntake journaled(Integer id, ApparelOrderDto apparelOrderDto) throws Exception {
+        OrderIntake orderIntake = OrderIntake.builder()
+                .status(OrderIntakeServiceImpl.ACCEPTED)
+                .payload(objectMapper.writeValueAsString(apparelOrderDto))
+                .build();
+        orderIntake.setId(id);
+        return orderIntake;
+    }
+}
@@ -0,0 +1,159 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.OutboxProperties;
+import gh.z0736190100.apparelstore.entities.OutboxEvent;
+import gh.z0736190100.apparelstore.mappers.OutboxEventMapper;
+import gh.z0736190100.apparelstore.models.OutboxEventDto;
+import gh.z0736190100.apparelstore.repositories.OutboxEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mapstruct.factory.Mappers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxRelayTest {
+
+    @Mock
+    OutboxEventRepository outboxEventRepository;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    @Mock
+    OutboxSink fileSink;
+
+    OutboxListeners outboxListeners;
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    OutboxEventMapper outboxEventMapper = Mappers.getMapper(OutboxEventMapper.class);
+
+    OutboxRelay outboxRelay;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        when(fileSink.name()).thenReturn("file");
+        outboxListeners = new OutboxListeners(mock(ObjectProvider.class));
+        outboxRelay = new OutboxRelay(
+                new OutboxProperties(true, 2, Duration.ofSeconds(1), Duration.ofHours(24), Duration.ofMinutes(10), null),
+                outboxEventRepository, outboxEventMapper, List.of(fileSink, outboxListeners), meterRegistry,
+                transactionManager);
+    }
+
+    @Test
+    void relayBatchDeliversToEverySinkAndStampsTheBatch() {
+        // Given
+        List<OutboxEventDto> received = new ArrayList<>();
+        outboxListeners.subscribe(received::addAll);
+        when(outboxEventRepository.findUndelivered(Limit.of(2)))
+                .thenReturn(List.of(event(1, "ApparelOrderCreated"), event(2, "ApparelOrderShipmentCreated")));
+
+        // When
+        int relayed = outboxRelay.relayBatch();
+
+        // Then
+        assertThat(relayed).isEqualTo(2);
+        assertThat(received).extracting(OutboxEventDto::getId).containsExactly(1, 2);
+        verify(fileSink).deliver(received);
+        verify(outboxEventRepository).markDelivered(eq(List.of(1, 2)), any());
+        assertThat(meterRegistry.get("outbox.events").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("outbox.delivery.latency").timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void relayBatchWithAFailingSinkLeavesTheBatchUndelivered() {
+        // Given
+        List<OutboxEventDto> received = new ArrayList<>();
+        outboxListeners.subscribe(received::addAll);
+        when(outboxEventRepository.findUndelivered(Limit.of(2))).thenReturn(List.of(event(1, "ApparelCreated")));
+        doThrow(new IllegalStateException("Disk full")).when(fileSink).deliver(any());
+
+        // When/Then
+        assertThatThrownBy(() -> outboxRelay.relayBatch()).isInstanceOf(IllegalStateException.class);
+        assertThat(received).isEmpty();
+        verify(outboxEventRepository, never()).markDelivered(any(), any());
+        assertThat(meterRegistry.get("outbox.sink.failures").tag("sink", "file").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("outbox.lag").gauge().value()).isGreaterThan(0);
+    }
+
+    @Test
+    void relayBatchSkipsAFailingListener() {
+        // Given
+        List<OutboxEventDto> received = new ArrayList<>();
+        outboxListeners.subscribe(events -> {
+            throw new IllegalStateException("Listener bug");
+        });
+        outboxListeners.subscribe(received::addAll);
+        when(outboxEventRepository.findUndelivered(Limit.of(2))).thenReturn(List.of(event(1, "ApparelCreated")));
+
+        // When
+        int relayed = outboxRelay.relayBatch();
+
+        // Then
+        assertThat(relayed).isEqualTo(1);
+        assertThat(received).hasSize(1);
+        verify(outboxEventRepository).markDelivered(eq(List.of(1)), any());
+        assertThat(meterRegistry.get("outbox.lag").gauge().value()).isZero();
+    }
+
+    @Test
+    void relayBatchWithNothingToDeliver() {
+        // Given
+        when(outboxEventRepository.findUndelivered(Limit.of(2))).thenReturn(List.of());
+
+        // When
+        int relayed = outboxRelay.relayBatch();
+
+        // Then
+        assertThat(relayed).isZero();
+        verify(fileSink, never()).deliver(any());
+        verify(outboxEventRepository, never()).markDelivered(any(), any());
+    }
+
+    @Test
+    void cancelledSubscriptionStopsReceivingEvents() {
+        // Given
+        List<OutboxEventDto> received = new ArrayList<>();
+        OutboxListeners.Subscription subscription = outboxListeners.subscribe(received::addAll);
+        subscription.cancel();
+        when(outboxEventRepository.findUndelivered(Limit.of(2))).thenReturn(List.of(event(1, "ApparelCreated")));
+
+        // When
+        outboxRelay.relayBatch();
+
+        // Then
+        assertThat(received).isEmpty();
+    }
+
+    private static OutboxEvent event(Integer id, String eventType) {
+        OutboxEvent outboxEvent = OutboxEvent.builder()
+                .aggregateType("ApparelOrder")
+                .aggregateId(5)
+                .eventType(eventType)
+                .payload("{\"id\":5}")
+                .build();
+        outboxEvent.setId(id);
+        outboxEvent.setCreatedDate(LocalDateTime.now().minusSeconds(3));
+        return outboxEvent;
+    }
+}
@@ -0,0 +1,284 @@
+package gh.z0736190100.apparelstore.services;
+
+import gh.z0736190100.apparelstore.config.ReservationProperties;
+import gh.z0736190100.apparelstore.entities.Apparel;
+import gh.z0736190100.apparelstore.entities.ApparelOrder;
+import gh.z0736190100.apparelstore.entities.ApparelOrderLine;
+import gh.z0736190100.apparelstore.entities.ApparelOrderStatus;
+import gh.z0736190100.apparelstore.entities.StockReservation;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderLineRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelOrderRepository;
+import gh.z0736190100.apparelstore.repositories.ApparelRepository;
+import gh.z0736190100.apparelstore.repositories.StockReservationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StockReservationManagerTest {
+
+    @Mock
+    StockReservationRepository stockReservationRepository;
+
+    @Mock
+    ApparelRepository apparelRepository;
+
+    @Mock
+    ApparelOrderRepository apparelOrderRepository;
+
+    @Mock
+    ApparelOrderLineRepository apparelOrderLineRepository;
+
+    @Mock
+    HotStockCounters hotStockCounters;
+
+    @Mock
+    ApparelDtoCache apparelDtoCache;
+
+    @Mock
+    CatalogVersion catalogVersion;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    StockReservationManager stockReservationManager;
+
+    @BeforeEach
+    void setUp() {
+        stockReservationManager = new StockReservationManager(
+                new ReservationProperties(Duration.ofMinutes(15), Duration.ofSeconds(1), 500),
+                stockReservationRepository, apparelRepository, apparelOrderRepository, apparelOrderLineRepository,
+                hotStockCounters, apparelDtoCache, catalogVersion, transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void holdRecordsTheLineAndItsExpiry() {
+        // Given
+        ApparelOrderLine line = orderLine(10, 3, 1);
+        when(stockReservationRepository.save(any())).thenAnswer(invocation -> {
+            StockReservation reservation = invocation.getArgument(0);
+            reservation.setId(100);
+            return reservation;
+        });
+        TransactionSynchronizationManager.initSynchronization();
+        LocalDateTime before = LocalDateTime.now();
+
+        // When
+        stockReservationManager.hold(line, 2);
+
+        // Then
+        ArgumentCaptor<StockReservation> reservation = ArgumentCaptor.forClass(StockReservation.class);
+        verify(stockReservationRepository).save(reservation.capture());
+        assertThat(reservation.getValue().getApparelId()).isEqualTo(3);
+        assertThat(reservation.getValue().getApparelOrderId()).isEqualTo(1);
+        assertThat(reservation.getValue().getApparelOrderLineId()).isEqualTo(10);
+        assertThat(reservation.getValue().getQuantity()).isEqualTo(2);
+        assertThat(reservation.getValue().getExpiresAt()).isAfterOrEqualTo(before.plusMinutes(15));
+        assertThat(TransactionSynchronizationManager.getSynchronizations()).hasSize(1);
+    }
+
+    @Test
+    void holdRequiresATransaction() {
+        assertThatThrownBy(() -> stockReservationManager.hold(orderLine(10, 3, 1), 2))
+                .isInstanceOf(IllegalStateException.class);
+        verify(stockReservationRepository, never()).save(any());
+    }
+
+    @Test
+    void confirmDeletesTheHoldsOfTheOrder() {
+        // Given
+        when(stockReservationRepository.deleteByApparelOrderId(1)).thenReturn(2);
+
+        // When / Then
+        assertThat(stockReservationManager.confirm(1)).isEqualTo(2);
+    }
+
+    @Test
+    void releasePutsStockBackWithOneUpdatePerApparel() {
+        // Given two holds on apparel 7 and one on apparel 3, all for unpaid order 1
+        List<StockReservation> reservations = List.of(reservation(101, 7, 1, 10, 2),
+                reservation(102, 3, 1, 11, 1), reservation(103, 7, 1, 10, 1));
+        when(stockReservationRepository.findApparelOrderIdsByIdIn(List.of(101, 102, 103))).thenReturn(List.of(1));
+        when(apparelOrderRepository.findAllByIdInOrderById(List.of(1)))
+                .thenReturn(List.of(apparelOrder(1, ApparelOrderStatus.NEW)));
+        when(stockReservationRepository.findAllByIdIn(List.of(101, 102, 103))).thenReturn(reservations);
+        ApparelOrderLine fullyReleased = orderLine(10, 7, 1);
+        fullyReleased.setQuantityAllocated(3);
+        ApparelOrderLine partlyReleased = orderLine(11, 3, 1);
+        partlyReleased.setQuantityAllocated(4);
+        when(apparelOrderLineRepository.findAllById(Set.of(10, 11))).thenReturn(List.of(fullyReleased, partlyReleased));
+
+        // When
+        int released = stockReservationManager.release(List.of(101, 102, 103));
+
+        // Then
+        assertThat(released).isEqualTo(3);
+        InOrder lockOrder = inOrder(apparelRepository);
+        lockOrder.verify(apparelRepository).releaseStock(3, 1);
+        lockOrder.verify(apparelRepository).releaseStock(7, 3);
+        assertThat(fullyReleased.getQuantityAllocated()).isZero();
+        assertThat(fullyReleased.getStatus()).isEqualTo(StockReservationManager.RELEASED);
+        assertThat(partlyReleased.getQuantityAllocated()).isEqualTo(3);
+        assertThat(partlyReleased.getStatus()).isEqualTo(InventoryAllocationServiceImpl.PARTIALLY_ALLOCATED);
+        verify(stockReservationRepository).deleteAllByIdInBatch(List.of(101, 102, 103));
+        verify(apparelDtoCache).invalidate(3);
+        verify(hotStockCounters).resync(7);
+        verify(catalogVersion).changed();
+    }
+
+    @Test
+    void releaseKeepsTheStockOfPaidOrders() {
+        // Given
+        List<StockReservation> reservations = List.of(reservation(101, 7, 1, 10, 2));
+        when(stockReservationRepository.findApparelOrderIdsByIdIn(List.of(101))).thenReturn(List.of(1));
+        when(apparelOrderRepository.findAllByIdInOrderById(List.of(1)))
+                .thenReturn(List.of(apparelOrder(1, ApparelOrderStatus.PAID)));
+        when(stockReservationRepository.findAllByIdIn(List.of(101))).thenReturn(reservations);
+
+        // When
+        int released = stockReservationManager.release(List.of(101));
+
+        // Then the hold is dropped, but its stock stays taken
+        assertThat(released).isZero();
+        verify(apparelRepository, never()).releaseStock(any(), anyInt());
+        verify(stockReservationRepository).deleteAllByIdInBatch(List.of(101));
+        verify(catalogVersion, never()).changed();
+    }
+
+    @Test
+    void releaseSkipsConfirmedHolds() {
+        // Given
+        when(stockReservationRepository.findApparelOrderIdsByIdIn(List.of(101))).thenReturn(List.of());
+
+        // When
+        int released = stockReservationManager.release(List.of(101));
+
+        // Then
+        assertThat(released).isZero();
+        verify(apparelOrderRepository, never()).findAllByIdInOrderById(any());
+        verify(stockReservationRepository, never()).deleteAllByIdInBatch(any());
+    }
+
+    @Test
+    void releaseLocksTheOrdersBeforeTheirHolds() {
+        // Given
+        when(stockReservationRepository.findApparelOrderIdsByIdIn(List.of(101))).thenReturn(List.of(1));
+        when(apparelOrderRepository.findAllByIdInOrderById(List.of(1)))
+                .thenReturn(List.of(apparelOrder(1, ApparelOrderStatus.NEW)));
+        when(stockReservationRepository.findAllByIdIn(List.of(101))).thenReturn(List.of(reservation(101, 7, 1, 10, 2)));
+
+        // When
+        stockReservationManager.release(List.of(101));
+
+        // Then the lock order matches a payment, which locks the order and then deletes its holds
+        InOrder lockOrder = inOrder(apparelOrderRepository, stockReservationRepository, apparelRepository);
+        lockOrder.verify(apparelOrderRepository).findAllByIdInOrderById(List.of(1));
+        lockOrder.verify(stockReservationRepository).findAllByIdIn(List.of(101));
+        lockOrder.verify(apparelRepository).releaseStock(7, 2);
+    }
+
+    @Test
+    void returnStockShrinksTheNewestHoldsBeforePuttingStockBack() {
+        // Given line 10 returns 3 of the 4 held for it on apparel 7, and line 11 returns 2 on apparel 3
+        StockReservation older = reservation(101, 7, 1, 10, 2);
+        StockReservation newer = reservation(102, 7, 1, 10, 2);
+        StockReservation other = reservation(103, 3, 1, 11, 2);
+        when(stockReservationRepository.findAllByApparelOrderLineIdInOrderByIdDesc(Set.of(10, 11)))
+                .thenReturn(List.of(other, newer, older));
+        TransactionSynchronizationManager.initSynchronization();
+
+        // When
+        stockReservationManager.returnStock(Map.of(10, 3, 11, 2), Map.of(7, 3, 3, 2));
+
+        // Then
+        assertThat(older.getQuantity()).isEqualTo(1);
+        verify(stockReservationRepository).deleteAll(List.of(other, newer));
+        InOrder lockOrder = inOrder(stockReservationRepository, apparelRepository);
+        lockOrder.verify(stockReservationRepository).findAllByApparelOrderLineIdInOrderByIdDesc(Set.of(10, 11));
+        lockOrder.verify(apparelRepository).releaseStock(3, 2);
+        lockOrder.verify(apparelRepository).releaseStock(7, 3);
+        verify(hotStockCounters, never()).resync(any());
+
+        // Only once committed
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        verify(apparelDtoCache).invalidate(7);
+        verify(hotStockCounters).resync(3);
+    }
+
+    @Test
+    void returnStockRequiresATransaction() {
+        assertThatThrownBy(() -> stockReservationManager.returnStock(Map.of(10, 1), Map.of(7, 1)))
+                .isInstanceOf(IllegalStateException.class);
+        verify(apparelRepository, never()).releaseStock(any(), anyInt());
+    }
+
+    @Test
+    void sweepWithNothingDueReleasesNothing() {
+        assertThat(stockReservationManager.sweep()).isZero();
+        verify(stockReservationRepository, never()).findAllByIdIn(any());
+    }
+
+    private static ApparelOrder apparelOrder(int id, ApparelOrderStatus status) {
+        ApparelOrder apparelOrder = ApparelOrder.builder()
+                .status(status)
+                .build();
+        apparelOrder.setId(id);
+        return apparelOrder;
+    }
+
+    private static ApparelOrderLine orderLine(int id, int apparelId, int apparelOrderId) {
+        Apparel apparel = new Apparel();
+        apparel.setId(apparelId);
+        ApparelOrder apparelOrder = new ApparelOrder();
+        apparelOrder.setId(apparelOrderId);
+        ApparelOrderLine line = ApparelOrderLine.builder()
+                .apparel(apparel)
+                .orderQuantity(5)
+                .build();
+        line.setId(id);
+        apparelOrder.addApparelOrderLine(line);
+        return line;
+    }
+
+    private static StockReservation reservation(int id, int apparelId, int apparelOrderId, int lineId, int quantity) {
+        StockReservation reservation = StockReservation.builder()
+                .apparelId(apparelId)
+                .apparelOrderId(apparelOrderId)
+                .apparelOrderLineId(lineId)
+                .quantity(quantity)
+                .expiresAt(LocalDateTime.now())
+                .build();
+        reservation.setId(id);
+        return reservation;
+    }
+}
@@ -0,0 +1,95 @@
+package gh.z0736190100.apparelstore.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StripedStockTest {
+
+    @Test
+    void putSpreadsStockOverAllStripes() {
+        // Given
+        StripedStock stock = new StripedStock(4);
+
+        // When
+        stock.put(10);
+
+        // Then the whole quantity can be taken, even though the home stripe only holds part of it
+        assertThat(stock.available()).isEqualTo(10);
+        assertThat(stock.take(10)).isEqualTo(10);
+        assertThat(stock.available()).isZero();
+    }
+
+    @Test
+    void takeReturnsWhatIsLeftWhenStockRunsShort() {
+        // Given
+        StripedStock stock = new StripedStock(4);
+        stock.put(3);
+
+        // When / Then
+        assertThat(stock.take(5)).isEqualTo(3);
+        assertThat(stock.take(1)).isZero();
+    }
+
+    @Test
+    void drainEmptiesAllStripes() {
+        // Given
+        StripedStock stock = new StripedStock(3);
+        stock.put(7);
+
+        // When
+        long drained = stock.drain();
+
+        // Then
+        assertThat(drained).isEqualTo(7);
+        assertThat(stock.take(1)).isZero();
+    }
+
+    @Test
+    void stripesAreRequired() {
+        assertThatThrownBy(() -> new StripedStock(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void concurrentTakersNeverTakeMoreThanWasPut() throws Exception {
+        // Given
+        int initialStock = 10_000;
+        StripedStock stock = new StripedStock(8);
+        stock.put(initialStock);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // When 16 threads take 3 at a time until the stock runs out
+        List<Future<Long>> takers = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            takers.add(executor.submit(() -> {
+                start.await();
+                long taken = 0;
+                int quantity;
+                while ((quantity = stock.take(3)) > 0) {
+                    taken += quantity;
+                }
+                return taken;
+            }));
+        }
+        start.countDown();
+        long taken = 0;
+        for (Future<Long> taker : takers) {
+            taken += taker.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Then
+        assertThat(taken).isEqualTo(initialStock);
+        assertThat(stock.available()).isZero();
+    }
+}
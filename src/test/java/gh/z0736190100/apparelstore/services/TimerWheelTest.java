@@ -0,0 +1,102 @@
+package gh.z0736190100.apparelstore.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TimerWheelTest {
+
+    private static final long START = 1_000_000;
+
+    @Test
+    void timerFiresOnceItsDeadlineHasPassed() {
+        // Given
+        TimerWheel wheel = new TimerWheel(10, 2, 3, START);
+        wheel.schedule(1, START + 25);
+
+        // When / Then the deadline is rounded up to the next tick, never down
+        assertThat(wheel.advance(START + 20)).isEmpty();
+        assertThat(wheel.advance(START + 29)).isEmpty();
+        assertThat(wheel.advance(START + 30)).containsExactly(1);
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void overdueTimerFiresOnTheNextAdvance() {
+        // Given
+        TimerWheel wheel = new TimerWheel(10, 2, 3, START);
+
+        // When
+        wheel.schedule(1, START - 1000);
+
+        // Then
+        assertThat(wheel.advance(START)).containsExactly(1);
+    }
+
+    @Test
+    void timersOnHigherLevelsCascadeDown() {
+        // Given 4 slots on each of 3 levels, so level 2 holds deadlines 16 to 63 ticks away
+        TimerWheel wheel = new TimerWheel(1, 2, 3, START);
+        wheel.schedule(1, START + 5);
+        wheel.schedule(2, START + 17);
+        wheel.schedule(3, START + 50);
+
+        // When / Then
+        assertThat(wheel.advance(START + 4)).isEmpty();
+        assertThat(wheel.advance(START + 5)).containsExactly(1);
+        assertThat(wheel.advance(START + 16)).isEmpty();
+        assertThat(wheel.advance(START + 17)).containsExactly(2);
+        assertThat(wheel.advance(START + 49)).isEmpty();
+        assertThat(wheel.advance(START + 50)).containsExactly(3);
+    }
+
+    @Test
+    void timersBeyondTheTopLevelWaitForTheirDeadline() {
+        // Given a wheel that covers 64 ticks
+        TimerWheel wheel = new TimerWheel(1, 2, 3, START);
+        wheel.schedule(1, START + 200);
+
+        // When / Then
+        assertThat(wheel.advance(START + 199)).isEmpty();
+        assertThat(wheel.advance(START + 200)).containsExactly(1);
+    }
+
+    @Test
+    void everyTimerFiresAtItsOwnTick() {
+        // Given
+        TimerWheel wheel = new TimerWheel(1, 3, 2, START);
+        Random random = new Random(42);
+        long[] deadlines = new long[500];
+        for (int id = 0; id < deadlines.length; id++) {
+            deadlines[id] = START + 1 + random.nextInt(300);
+            wheel.schedule(id, deadlines[id]);
+        }
+
+        // When the wheel is advanced one tick at a time
+        List<Integer> late = new ArrayList<>();
+        int fired = 0;
+        for (long now = START + 1; now <= START + 301; now++) {
+            for (Integer id : wheel.advance(now)) {
+                fired++;
+                if (deadlines[id] != now) {
+                    late.add(id);
+                }
+            }
+        }
+
+        // Then
+        assertThat(fired).isEqualTo(deadlines.length);
+        assertThat(late).isEmpty();
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void geometryMustFitInALong() {
+        assertThatThrownBy(() -> new TimerWheel(1, 16, 4, START)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
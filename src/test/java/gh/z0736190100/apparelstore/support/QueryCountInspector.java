@@ -0,0 +1,100 @@
+package gh.z0736190100.apparelstore.support;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.Locale;
+
+/**
+ * Hibernate statement inspector that counts the SQL statements prepared on the current thread.
+ * <p>
+ * Register it with
+ * {@code spring.jpa.properties.hibernate.session_factory.statement_inspector=gh.z0736190100.apparelstore.support.QueryCountInspector}.
+ * Sequence calls for ID allocation are counted separately from SELECTs.
+ * Counts are kept per thread so that background work such as index rebuilds does not skew a test.
+ */
+public class QueryCountInspector implements StatementInspector {
+
+    public static final String PROPERTY = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+            + "gh.z0736190100.apparelstore.support.QueryCountInspector";
+
+    private static final ThreadLocal<Counts> COUNTS = ThreadLocal.withInitial(Counts::new);
+
+    @Override
+    public String inspect(String sql) {
+        Counts counts = COUNTS.get();
+        counts.total++;
+        String statement = sql.stripLeading().toLowerCase(Locale.ROOT);
+        if (statement.contains("next value for")) {
+            // ID allocation from a sequence is counted apart from entity SELECTs
+            counts.sequenceCalls++;
+        } else if (statement.startsWith("select")) {
+            counts.selects++;
+        } else if (statement.startsWith("insert")) {
+            counts.inserts++;
+        } else if (statement.startsWith("update")) {
+            counts.updates++;
+        } else if (statement.startsWith("delete")) {
+            counts.deletes++;
+        }
+        return sql;
+    }
+
+    /**
+     * Reset the counts for the current thread
+     */
+    public static void reset() {
+        COUNTS.remove();
+    }
+
+    /**
+     * @return the number of SELECT statements prepared on the current thread since the last reset
+     */
+    public static int selectCount() {
+        return COUNTS.get().selects;
+    }
+
+    /**
+     * @return the number of INSERT statements prepared on the current thread since the last reset;
+     * a JDBC batch is prepared once, however many rows it carries
+     */
+    public static int insertCount() {
+        return COUNTS.get().inserts;
+    }
+
+    /**
+     * @return the number of UPDATE statements prepared on the current thread since the last reset
+     */
+    public static int updateCount() {
+        return COUNTS.get().updates;
+    }
+
+    /**
+     * @return the number of DELETE statements prepared on the current thread since the last reset
+     */
+    public static int deleteCount() {
+        return COUNTS.get().deletes;
+    }
+
+    /**
+     * @return the number of sequence calls prepared on the current thread since the last reset
+     */
+    public static int sequenceCallCount() {
+        return COUNTS.get().sequenceCalls;
+    }
+
+    /**
+     * @return the number of statements prepared on the current thread since the last reset
+     */
+    public static int statementCount() {
+        return COUNTS.get().total;
+    }
+
+    private static final class Counts {
+        private int selects;
+        private int inserts;
+        private int updates;
+        private int deletes;
+        private int sequenceCalls;
+        private int total;
+    }
+}